@@ -0,0 +1,302 @@
+/*
+ * Program: NanoOK
+ * Author:  Richard M. Leggett (richard.leggett@earlham.ac.uk)
+ *
+ * Copyright 2015-17 Earlham Institute
+ */
+
+package nanook;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * A long-lived aligner process, for aligners that can read queries from stdin.
+ * Read files are streamed into the process and alignment records are read
+ * straight off its stdout on a separate thread, so there is one process (and
+ * one index load) per session rather than one per read file, and no
+ * intermediate alignment files. Aligners write records in query order, so a
+ * read is complete as soon as a record for a later read appears, or when the
+ * session is closed.
+ *
+ * @author Richard Leggett
+ */
+public class AlignerSession {
+    private final static int BUFFER_SIZE = 1024 * 1024;
+    private NanoOKOptions options;
+    private AlignmentFileParser parser;
+    private String command;
+    private String logFilename;
+    private Process process = null;
+    private OutputStream stdin;
+    private Thread readerThread;
+    private StringBuilder header = new StringBuilder();
+    private LinkedList<PendingRead> pending = new LinkedList<PendingRead>();
+
+    /**
+     * A read file sent to the aligner
+     */
+    private class AlignedFile {
+        private String pathname;
+        private AlignerSessionCallback callback;
+        private StringBuilder records = new StringBuilder();
+        private int outstandingReads;
+
+        public AlignedFile(String p, AlignerSessionCallback c, int n) {
+            pathname = p;
+            callback = c;
+            outstandingReads = n;
+        }
+    }
+
+    /**
+     * A read awaiting alignment records
+     */
+    private class PendingRead {
+        private String id;
+        private AlignedFile file;
+
+        public PendingRead(String i, AlignedFile f) {
+            id = i;
+            file = f;
+        }
+    }
+
+    /**
+     * Constructor
+     * @param o NanoOKOptions object
+     * @param p parser for the aligner
+     * @param reference reference filename
+     * @param log log filename for the aligner's stderr
+     */
+    public AlignerSession(NanoOKOptions o, AlignmentFileParser p, String reference, String log) {
+        options = o;
+        parser = p;
+        command = parser.getStreamCommand(reference);
+        logFilename = log;
+    }
+
+    /**
+     * Start aligner process and output reader thread
+     */
+    private void start() throws IOException {
+        File logFile = new File(logFilename);
+        if (logFile.getParentFile() != null) {
+            logFile.getParentFile().mkdirs();
+        }
+
+        options.getLog().println("Starting aligner session: " + command);
+        if (options.showAlignerCommand()) {
+            System.out.println("Running: " + command);
+        }
+
+        ProcessBuilder pb = new ProcessBuilder(new SchedulerJob(logFile.getName(), command).getCommand());
+        pb.redirectError(ProcessBuilder.Redirect.appendTo(logFile));
+        process = pb.start();
+        stdin = new BufferedOutputStream(process.getOutputStream(), BUFFER_SIZE);
+
+        readerThread = new Thread(new Runnable() {
+            public void run() {
+                readOutput();
+            }
+        });
+        readerThread.start();
+    }
+
+    private String getHeader() {
+        // Not synchronized on the session, as align() holds that while blocked writing to the aligner
+        synchronized(header) {
+            return header.toString();
+        }
+    }
+
+    /**
+     * Get IDs of reads in a FASTA or FASTQ file
+     */
+    private ArrayList<String> getReadIds(byte[] bytes, boolean isFastq) {
+        ArrayList<String> ids = new ArrayList<String>();
+        int lineNumber = 0;
+        int i = 0;
+
+        while (i < bytes.length) {
+            int lineEnd = i;
+            while ((lineEnd < bytes.length) && (bytes[lineEnd] != '\n')) {
+                lineEnd++;
+            }
+
+            if (isFastq ? ((lineNumber % 4) == 0) : (bytes[i] == '>')) {
+                int idEnd = i + 1;
+                while ((idEnd < lineEnd) && (bytes[idEnd] > ' ')) {
+                    idEnd++;
+                }
+                ids.add(new String(bytes, i + 1, idEnd - i - 1));
+            }
+
+            lineNumber++;
+            i = lineEnd + 1;
+        }
+
+        return ids;
+    }
+
+    /**
+     * Send a read file to the aligner. The callback is called, on the session's
+     * reader thread, once all reads in the file have been aligned.
+     * @param fastaqPathname FASTA or FASTQ file to align
+     * @param callback callback for alignments
+     */
+    public void align(String fastaqPathname, AlignerSessionCallback callback) {
+        boolean isFastq = SequenceReader.isFASTQFilename(fastaqPathname);
+
+        try {
+            InputStream is = ByteLineReader.open(fastaqPathname);
+            byte[] bytes = IOUtils.toByteArray(is);
+            is.close();
+            ArrayList<String> ids = getReadIds(bytes, isFastq);
+
+            if (ids.size() == 0) {
+                callback.alignmentsReady(fastaqPathname, getHeader());
+                return;
+            }
+
+            synchronized(this) {
+                if (process == null) {
+                    start();
+                }
+
+                // Reads must be pending before the aligner can output anything for them
+                AlignedFile file = new AlignedFile(fastaqPathname, callback, ids.size());
+                synchronized(pending) {
+                    for (int i=0; i<ids.size(); i++) {
+                        pending.add(new PendingRead(ids.get(i), file));
+                    }
+                }
+
+                long startTime = options.getStageTimer().start();
+                stdin.write(bytes);
+                if (bytes[bytes.length - 1] != '\n') {
+                    stdin.write('\n');
+                }
+                stdin.flush();
+                options.getStageTimer().stop(StageTimer.STAGE_ALIGNER, startTime);
+            }
+        } catch (IOException e) {
+            System.out.println("AlignerSession exception - see " + logFilename);
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Mark read complete, adding its file to list of finished files if it was the last read in the file
+     */
+    private void completeRead(PendingRead read, ArrayList<AlignedFile> finished) {
+        if (--read.file.outstandingReads == 0) {
+            finished.add(read.file);
+        }
+    }
+
+    /**
+     * Call callbacks for finished files
+     */
+    private void dispatch(ArrayList<AlignedFile> finished) {
+        for (int i=0; i<finished.size(); i++) {
+            AlignedFile file = finished.get(i);
+            try {
+                file.callback.alignmentsReady(file.pathname, getHeader() + file.records.toString());
+            } catch (Exception e) {
+                System.out.println("Error handling alignments for " + file.pathname);
+                options.setReturnValue(1);
+                options.getLog().println("Error handling alignments for " + file.pathname);
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Read aligner output until the process closes it
+     */
+    private void readOutput() {
+        boolean seenAlignment = false;
+
+        try {
+            BufferedReader br = new BufferedReader(new InputStreamReader(process.getInputStream()), BUFFER_SIZE);
+            AlignmentRecord record;
+
+            while ((record = parser.readRecord(br)) != null) {
+                ArrayList<AlignedFile> finished = new ArrayList<AlignedFile>();
+
+                if (record.isHeader()) {
+                    if (!seenAlignment) {
+                        synchronized(header) {
+                            header.append(record.getText());
+                        }
+                    }
+                    continue;
+                }
+
+                seenAlignment = true;
+                synchronized(pending) {
+                    while ((pending.size() > 0) && (!pending.getFirst().id.equals(record.getQueryName()))) {
+                        completeRead(pending.removeFirst(), finished);
+                    }
+
+                    if (pending.size() > 0) {
+                        pending.getFirst().file.records.append(record.getText());
+                    } else {
+                        options.getLog().println("Warning: aligner session output for unknown read " + record.getQueryName());
+                    }
+                }
+
+                dispatch(finished);
+            }
+
+            br.close();
+        } catch (IOException e) {
+            System.out.println("AlignerSession exception - see " + logFilename);
+            e.printStackTrace();
+            System.exit(1);
+        }
+
+        ArrayList<AlignedFile> finished = new ArrayList<AlignedFile>();
+        synchronized(pending) {
+            while (pending.size() > 0) {
+                completeRead(pending.removeFirst(), finished);
+            }
+        }
+        dispatch(finished);
+    }
+
+    /**
+     * Close aligner input and wait for all alignments to be dispatched
+     */
+    public void close() {
+        synchronized(this) {
+            if (process == null) {
+                return;
+            }
+        }
+
+        try {
+            stdin.close();
+            readerThread.join();
+            int exitValue = process.waitFor();
+            if (exitValue != 0) {
+                System.out.println("Error: aligner session exited with code " + exitValue + " - see " + logFilename);
+                options.setReturnValue(1);
+            }
+        } catch (Exception e) {
+            System.out.println("AlignerSession exception - see " + logFilename);
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,22 @@
+/*
+ * Program: NanoOK
+ * Author:  Richard M. Leggett (richard.leggett@earlham.ac.uk)
+ *
+ * Copyright 2015-17 Earlham Institute
+ */
+
+package nanook;
+
+/**
+ * Callback for read files sent to an AlignerSession
+ *
+ * @author Richard Leggett
+ */
+public interface AlignerSessionCallback {
+    /**
+     * Called once alignments for every read in a file have been received
+     * @param fastaqPathname read file that was aligned
+     * @param records aligner output for the file, in the aligner's own format
+     */
+    public void alignmentsReady(String fastaqPathname, String records);
+}
@@ -24,6 +24,7 @@ public class Alignment implements Comparable {
     private int queryEnd;
     private String queryStrand;
     private String hitName;
+    private int hitIndex = -1;
     private int hitSequenceSize;
     private int hitStart;
     private int hitAlignmentSize;
@@ -31,6 +32,7 @@ public class Alignment implements Comparable {
     private String hitStrand;
     private String queryString;
     private String hitString;
+    private CIGARString unexpandedCIGAR = null;
     boolean fIsCIGAR;
     
     public Alignment(int s, String qName, int qSize, int qStart, int qAlnSize, String qs, String hName, int hSize, int hStart, int hAlnSize, String hs, boolean cigar) {
@@ -52,6 +54,24 @@ public class Alignment implements Comparable {
         hitStrand = "+";
     }
     
+    /**
+     * Set CIGAR string to expand into query and hit strings when they're first
+     * needed, so alignments that are never merged aren't expanded.
+     * @param cs CIGARString, already parsed
+     */
+    public void setUnexpandedCIGAR(CIGARString cs) {
+        unexpandedCIGAR = cs;
+    }
+    
+    private void expandCIGAR() {
+        if (unexpandedCIGAR != null) {
+            unexpandedCIGAR.processString();
+            queryString = unexpandedCIGAR.getQueryString();
+            hitString = unexpandedCIGAR.getHitString();
+            unexpandedCIGAR = null;
+        }
+    }
+    
     public void setQueryStrand(String s) {
         queryStrand = s;
     }
@@ -93,6 +113,7 @@ public class Alignment implements Comparable {
     }
     
     public String getQueryString() {
+        expandCIGAR();
         return queryString;
     }
 
@@ -100,6 +121,35 @@ public class Alignment implements Comparable {
         return hitName;
     }
     
+    /**
+     * Set index of the hit reference, if known, so it needn't be looked up by name
+     * @param i index, as given by ReferenceSequence.getIndex
+     */
+    public void setHitIndex(int i) {
+        hitIndex = i;
+    }
+    
+    /**
+     * Get index of the hit reference
+     * @return index, or -1 if not known
+     */
+    public int getHitIndex() {
+        return hitIndex;
+    }
+    
+    /**
+     * Check if another alignment is to the same reference, comparing indices if known
+     * @param a other alignment
+     * @return true if same reference
+     */
+    public boolean hasSameHit(Alignment a) {
+        if ((hitIndex >= 0) && (a.getHitIndex() >= 0)) {
+            return hitIndex == a.getHitIndex();
+        }
+        
+        return hitName.equals(a.getHitName());
+    }
+    
     public int getHitSequenceSize() {
         return hitSequenceSize;
     }
@@ -117,6 +167,7 @@ public class Alignment implements Comparable {
     }
     
     public String getHitString() {
+        expandCIGAR();
         return hitString;
     }    
     
@@ -125,6 +176,8 @@ public class Alignment implements Comparable {
     }
     
     public void writeMafFile(String filename) {
+        expandCIGAR();
+        
         try {
             PrintWriter pw = new PrintWriter(new FileWriter(filename)); 
             pw.printf("s %24s %5d %5d %s %5d %s", hitName, hitStart, hitAlignmentSize, hitStrand, hitSequenceSize, hitString);
@@ -7,6 +7,8 @@
 
 package nanook;
 
+import java.io.BufferedReader;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -57,6 +59,30 @@ public interface AlignmentFileParser {
      * @return 
      */
     int parseFile(String filename, AlignmentsTableFile summaryFile, ReadSetStats overallStats);
+
+    /**
+     * Parse alignments from a reader, as if from an alignment file.
+     * @param br reader to parse
+     * @param filename the filename of the alignments file the records would have been written to
+     * @param summaryFile the name of an alignments table summary file to write
+     * @return number of alignments parsed
+     */
+    int parseAlignments(BufferedReader br, String filename, AlignmentsTableFile summaryFile, ReadSetStats overallStats);
+
+    /**
+     * Get command to run aligner as a long-lived process, reading queries from
+     * stdin and writing alignments to stdout
+     * @param reference reference file
+     * @return command, or null if the aligner can't be run this way
+     */
+    public String getStreamCommand(String reference);
+
+    /**
+     * Read next record from aligner output
+     * @param br reader for aligner output
+     * @return record, or null at end of output
+     */
+    public AlignmentRecord readRecord(BufferedReader br) throws IOException;
     
     /**
      * Sort alignments by score
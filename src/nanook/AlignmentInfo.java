@@ -164,15 +164,15 @@ public class AlignmentInfo {
     }
     
     public String getkCounts() {
-        String s="";
+        StringBuilder s = new StringBuilder();
         
         for (int i=0; i<nk; i++) {
-            s = s + Integer.toString(kCounts[i]);
+            s.append(kCounts[i]);
             if (i != (nk-1)) {
-                s = s + "\t";
+                s.append('\t');
             }
         }
         
-        return s;
+        return s.toString();
     }
 }
@@ -7,6 +7,9 @@
 
 package nanook;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
 /**
  * Class to merge alignments
  * 
@@ -36,6 +39,7 @@ public class AlignmentMerger {
     private int querySeqSize = 0;
     private String queryName = null;
     private String hitName = null;
+    private int hitIndex = -1;
     private int identicalBases = 0;
     private int alignmentSize = 0;
     private int alignmentSizeWithoutIndels = 0;
@@ -86,6 +90,19 @@ public class AlignmentMerger {
         errorKmer = "";
     }    
     
+    /**
+     * Get the perfect sequence before an error. Motifs use at most the last
+     * 5 bases, and need to know if there are more than 5, so only the last
+     * 6 are taken.
+     * @param querySeq query string
+     * @param start start of perfect sequence
+     * @param end position of error
+     * @return perfect sequence, or its last 6 bases
+     */
+    private String getErrorKmer(String querySeq, int start, int end) {
+        return querySeq.substring(Math.max(start, end - 6), end);
+    }
+    
     private void storePerfectKmerLength() {
         // Store perfect kmers
         if (currentPerfectKmerSize > 0) {
@@ -122,7 +139,9 @@ public class AlignmentMerger {
         int loopTo = hitSize <= querySize ? hitSize:querySize;
         int queryPos = a.getQueryStart();
         int hitPos = a.getHitStart();
-        String currentKmer = "";
+        byte[] hitBases = hitSeq.getBytes(StandardCharsets.ISO_8859_1);
+        byte[] queryBases = querySeq.getBytes(StandardCharsets.ISO_8859_1);
+        int currentKmerStart;
         AlignmentInfo ai;
         boolean mergeAlignment = true;
 
@@ -130,11 +149,12 @@ public class AlignmentMerger {
         if (queryName == null) {
             queryName = a.getQueryName();
             hitName = a.getHitName();
+            hitIndex = a.getHitIndex();
             querySeqSize = a.getQuerySequenceSize();
             hitSeqSize = a.getHitSequenceSize();
         }
         
-        if (! hitName.equals(a.getHitName())) {
+        if ((hitIndex >= 0) && (a.getHitIndex() >= 0) ? (hitIndex != a.getHitIndex()) : !hitName.equals(a.getHitName())) {
             System.out.println("Hit name ("+hitName+") doesn't match ("+a.getHitName()+")!");
             System.exit(1);
         }
@@ -229,31 +249,44 @@ public class AlignmentMerger {
             options.getLog().println("    loopFrom = "+loopFrom);        
             options.getLog().println("      loopTo = "+loopTo);        
 
+            // Current perfect kmer is querySeq from currentKmerStart up to the current column
+            currentKmerStart = loopFrom;
+            
             for (int i=loopFrom; i<loopTo; i++) {
                 // If we've ventured into previously covered territory, break
                 if (covered[queryPos] == 1) {
                     break;
                 }
 
-                // Identical bases
-                if (hitSeq.charAt(i) == querySeq.charAt(i)) {
+                // Identical bases - deal with the whole run, up to any covered position
+                int run = BaseScanner.matchingRun(hitBases, queryBases, i, loopTo);
+                if (run > 0) {
+                    for (int j=1; j<run; j++) {
+                        if (covered[queryPos + j] == 1) {
+                            run = j;
+                            break;
+                        }
+                    }
+                    
                     // Check if there are any insertions or deletions to store
                     checkStoreInsertionsOrDeletions();
 
-                    currentPerfectKmerSize++;
-                    currentKmer += querySeq.charAt(i);
+                    currentPerfectKmerSize += run;
 
                     // If reached end, store perfect sequence length
-                    if (i == (loopTo-1)) {
+                    if (i + run == loopTo) {
                         storePerfectKmerLength();
                     }
 
-                    // Mark this position and move on
-                    identicalBases++;
-                    covered[queryPos]= 1;
-                    queryPos++;
-                    hitPos++;
-                    alignmentSizeWithoutIndels++;
+                    // Mark these positions and move on
+                    identicalBases += run;
+                    Arrays.fill(covered, queryPos, queryPos + run, 1);
+                    queryPos += run;
+                    hitPos += run;
+                    alignmentSizeWithoutIndels += run;
+                    alignmentSize += run;
+                    i += run - 1;
+                    continue;
                 } else {
                     // An insertion or deletion or substitution, so store perfect sequence length, if we have some
                     if (currentPerfectKmerSize > 0) {
@@ -266,7 +299,7 @@ public class AlignmentMerger {
                         // And store the current perfect kmer as the one associated with this insertion
                         if (insertionSize == 0) {
                             checkStoreInsertionsOrDeletions();
-                            errorKmer = currentKmer;
+                            errorKmer = getErrorKmer(querySeq, currentKmerStart, i);
                         }
 
                         // Keep track of insertion size
@@ -282,7 +315,7 @@ public class AlignmentMerger {
                         // And store the current perfect kmer as the one associated with this deletion
                         if (deletionSize == 0) {
                             checkStoreInsertionsOrDeletions();
-                            errorKmer = currentKmer;
+                            errorKmer = getErrorKmer(querySeq, currentKmerStart, i);
                         }
 
                         // Keep track of size
@@ -298,7 +331,7 @@ public class AlignmentMerger {
                         checkStoreInsertionsOrDeletions();
 
                         // Store current perfect kmer associated with this substitution
-                        errorKmer = currentKmer;
+                        errorKmer = getErrorKmer(querySeq, currentKmerStart, i);
 
                         // Store substitution
                         reference.getStatsByType(type).addSubstitutionError(errorKmer, hitSeq.charAt(i), querySeq.charAt(i), overallStats); // Reference
@@ -311,7 +344,7 @@ public class AlignmentMerger {
                 }
 
                     // Reset current kmer
-                    currentKmer = "";
+                    currentKmerStart = i + 1;
                 }     
 
                 alignmentSize++;
@@ -334,10 +367,10 @@ public class AlignmentMerger {
     }  
     
     /**
-     * Declare end of alignment merge
+     * Get AlignmentInfo for alignments merged so far, without storing stats
      * @return an AlignmentInfo object
      */
-    public AlignmentInfo endMergeAndStoreStats() {
+    AlignmentInfo getAlignmentInfo() {
         AlignmentInfo ai = new AlignmentInfo(hitName,
                                              hitSeqSize,
                                              queryName,
@@ -352,6 +385,16 @@ public class AlignmentMerger {
 
         ai.addkCounts(nk, kSizes, kCounts);        
         
+        return ai;
+    }
+    
+    /**
+     * Declare end of alignment merge
+     * @return an AlignmentInfo object
+     */
+    public AlignmentInfo endMergeAndStoreStats() {
+        AlignmentInfo ai = getAlignmentInfo();
+        
         overallStats.writekCounts(queryName, querySeqSize, nk, kSizes, kCounts); // ReadSetStats
         overallStats.addReadWithAlignment(); // ReadSetStats
         overallStats.addReadBestKmer(longestPerfectKmer); // ReadSetStats
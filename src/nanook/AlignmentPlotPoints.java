@@ -0,0 +1,85 @@
+/*
+ * Program: NanoOK
+ * Author:  Richard M. Leggett (richard.leggett@earlham.ac.uk)
+ *
+ * Copyright 2015-17 Earlham Institute
+ */
+
+package nanook;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Per-alignment values used for the alignment plots, held in memory as columns
+ * so graphs can be drawn without reading back the alignments table.
+ *
+ * @author Richard Leggett
+ */
+public class AlignmentPlotPoints implements Serializable {
+    private static final long serialVersionUID = NanoOK.SERIAL_VERSION;
+    private int count = 0;
+    private float[] queryLength = new float[1024];
+    private float[] queryIdentity = new float[1024];
+    private float[] alignmentIdentity = new float[1024];
+    private float[] percentQueryAligned = new float[1024];
+    private float[] longestPerfectKmer = new float[1024];
+    private float[] queryGC = new float[1024];
+
+    /**
+     * Store values for an alignment
+     * @param length query length
+     * @param qId query percent identity
+     * @param aId alignment percent identity
+     * @param pcAligned percentage of query aligned
+     * @param longestPerfect longest perfect kmer
+     * @param gc query GC percentage
+     */
+    public synchronized void add(int length, double qId, double aId, double pcAligned, int longestPerfect, double gc) {
+        if (count == queryLength.length) {
+            int size = count * 2;
+            queryLength = Arrays.copyOf(queryLength, size);
+            queryIdentity = Arrays.copyOf(queryIdentity, size);
+            alignmentIdentity = Arrays.copyOf(alignmentIdentity, size);
+            percentQueryAligned = Arrays.copyOf(percentQueryAligned, size);
+            longestPerfectKmer = Arrays.copyOf(longestPerfectKmer, size);
+            queryGC = Arrays.copyOf(queryGC, size);
+        }
+
+        queryLength[count] = length;
+        queryIdentity[count] = (float)qId;
+        alignmentIdentity[count] = (float)aId;
+        percentQueryAligned[count] = (float)pcAligned;
+        longestPerfectKmer[count] = longestPerfect;
+        queryGC[count] = (float)gc;
+        count++;
+    }
+
+    public synchronized int getCount() {
+        return count;
+    }
+
+    public synchronized float[] getQueryLengths() {
+        return Arrays.copyOf(queryLength, count);
+    }
+
+    public synchronized float[] getQueryIdentities() {
+        return Arrays.copyOf(queryIdentity, count);
+    }
+
+    public synchronized float[] getAlignmentIdentities() {
+        return Arrays.copyOf(alignmentIdentity, count);
+    }
+
+    public synchronized float[] getPercentQueryAligned() {
+        return Arrays.copyOf(percentQueryAligned, count);
+    }
+
+    public synchronized float[] getLongestPerfectKmers() {
+        return Arrays.copyOf(longestPerfectKmer, count);
+    }
+
+    public synchronized float[] getQueryGC() {
+        return Arrays.copyOf(queryGC, count);
+    }
+}
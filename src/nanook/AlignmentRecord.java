@@ -0,0 +1,41 @@
+/*
+ * Program: NanoOK
+ * Author:  Richard M. Leggett (richard.leggett@earlham.ac.uk)
+ *
+ * Copyright 2015-17 Earlham Institute
+ */
+
+package nanook;
+
+/**
+ * A single record read from an aligner's output stream - either an alignment,
+ * or a header/comment line, which has no query name.
+ *
+ * @author Richard Leggett
+ */
+public class AlignmentRecord {
+    private String queryName;
+    private String text;
+
+    /**
+     * Constructor
+     * @param q query name, or null for header lines
+     * @param t text of record, including line endings
+     */
+    public AlignmentRecord(String q, String t) {
+        queryName = q;
+        text = t;
+    }
+
+    public String getQueryName() {
+        return queryName;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public boolean isHeader() {
+        return queryName == null;
+    }
+}
@@ -8,6 +8,8 @@
 package nanook;
 
 import java.io.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Represents alignment summary file written by tool and used for graph plotting.
@@ -17,8 +19,10 @@ import java.io.*;
 public class AlignmentsTableFile implements Serializable {
     private static final long serialVersionUID = NanoOK.SERIAL_VERSION;
     private String filename;
-    private transient PrintWriter pw = null;
     private int count = 0;
+    private transient AlignmentPlotPoints plotPoints = new AlignmentPlotPoints();
+    private transient ConcurrentLinkedQueue<String> pendingLines;
+    private transient AtomicBoolean waiting;
 
     /**
      * Constructor.
@@ -26,12 +30,54 @@ public class AlignmentsTableFile implements Serializable {
      */
     public AlignmentsTableFile(String f) {
         filename = f;        
+        initQueue();
         writeHeader();
     }
     
-    private synchronized void openFile(boolean append) {
+    private void initQueue() {
+        pendingLines = new ConcurrentLinkedQueue<String>();
+        waiting = new AtomicBoolean(false);
+    }
+    
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        initQueue();
+    }
+    
+    public String getFilename() {
+        return filename;
+    }
+    
+    /**
+     * Write header row to file.
+     */
+    private void writeHeader() {
+        AlignmentsTableWriter.getInstance().closeFile(filename);
+        
         try {
-            pw = new PrintWriter(new FileWriter(filename, append));
+            PrintWriter pw = new PrintWriter(new FileWriter(filename, false));
+            pw.print("Filename\t");
+            pw.print("QueryName\t");
+            pw.print("QueryGC\t");
+            pw.print("QueryStart\t");
+            pw.print("QueryBasesCovered\t");
+            pw.print("QueryStrand\t");
+            pw.print("QueryLength\t");
+            pw.print("HitName\t");
+            pw.print("HitStart\t");
+            pw.print("HitBasesCovered\t");
+            pw.print("HitStrand\t");
+            pw.print("HitLength\t");
+            pw.print("AlignmentSize\t");
+            pw.print("IdenticalBases\t");
+            pw.print("AlignmentPercentIdentity\t");
+            pw.print("QueryPercentIdentity\t");
+            pw.print("LongestPerfectKmer\t");
+            pw.print("MeanPerfectKmer\t");
+            pw.print("PercentQueryAligned\t");
+            pw.print("nk15\tnk17\tnk19\tnk21\tnk23\tnk25");
+            pw.println("");
+            pw.close();
         } catch (IOException e) {
             System.out.println("AlignmentsTableFile exception");
             e.printStackTrace();
@@ -39,32 +85,85 @@ public class AlignmentsTableFile implements Serializable {
     }
     
     /**
-     * Write header row to file.
+     * Append a value to 2 decimal places, as String.format("%.2f"). Values
+     * that could round differently in binary fall back to String.format.
+     * @param sb StringBuilder to append to
+     * @param v value
      */
-    private synchronized void writeHeader() {
-        openFile(false);
-        pw.print("Filename\t");
-        pw.print("QueryName\t");
-        pw.print("QueryGC\t");
-        pw.print("QueryStart\t");
-        pw.print("QueryBasesCovered\t");
-        pw.print("QueryStrand\t");
-        pw.print("QueryLength\t");
-        pw.print("HitName\t");
-        pw.print("HitStart\t");
-        pw.print("HitBasesCovered\t");
-        pw.print("HitStrand\t");
-        pw.print("HitLength\t");
-        pw.print("AlignmentSize\t");
-        pw.print("IdenticalBases\t");
-        pw.print("AlignmentPercentIdentity\t");
-        pw.print("QueryPercentIdentity\t");
-        pw.print("LongestPerfectKmer\t");
-        pw.print("MeanPerfectKmer\t");
-        pw.print("PercentQueryAligned\t");
-        pw.print("nk15\tnk17\tnk19\tnk21\tnk23\tnk25");
-        pw.println("");
-        pw.close();
+    private static void appendFixed2(StringBuilder sb, double v) {
+        double scaled = v * 100.0;
+        double fraction = scaled - Math.floor(scaled);
+
+        if ((Double.doubleToRawLongBits(v) >= 0) && (scaled < 1e15) && (Math.abs(fraction - 0.5) > 1e-6)) {
+            long n = Math.round(scaled);
+            long cents = n % 100;
+            sb.append(n / 100);
+            sb.append('.');
+            if (cents < 10) {
+                sb.append('0');
+            }
+            sb.append(cents);
+        } else {
+            sb.append(String.format("%.2f", v));
+        }
+    }
+    
+    /**
+     * Queue a line to be written by AlignmentsTableWriter
+     * @param line line, without newline
+     */
+    private void queueLine(String line) {
+        pendingLines.add(line);
+        if (waiting.compareAndSet(false, true)) {
+            AlignmentsTableWriter.getInstance().addWaitingTable(this);
+        }
+    }
+    
+    /**
+     * Write queued lines. Called from AlignmentsTableWriter.
+     * @param w open writer for this file
+     */
+    public void drainLines(Writer w) throws IOException {
+        String line;
+        
+        // Clear flag first, so that a line added while draining queues the table again
+        waiting.set(false);
+        while ((line = pendingLines.poll()) != null) {
+            w.write(line);
+            w.write('\n');
+        }
+    }
+    
+    private String makeLine(String alignmentFilename, String queryName, double gc, int queryStart, int querySize, String queryStrand, int queryLength,
+                            String hitName, int hitStart, int hitSize, String hitStrand, int hitLength, AlignmentInfo ais) {
+        StringBuilder sb = new StringBuilder(256);
+        
+        sb.append(alignmentFilename).append('\t');
+        sb.append(queryName).append('\t');
+        appendFixed2(sb, gc);
+        sb.append('\t').append(queryStart);
+        sb.append('\t').append(querySize);
+        sb.append('\t').append(queryStrand);
+        sb.append('\t').append(queryLength);
+        sb.append('\t').append(hitName);
+        sb.append('\t').append(hitStart);
+        sb.append('\t').append(hitSize);
+        sb.append('\t').append(hitStrand);
+        sb.append('\t').append(hitLength);
+        sb.append('\t').append(ais.getAlignmentSize());
+        sb.append('\t').append(ais.getIdenticalBases());
+        sb.append('\t');
+        appendFixed2(sb, ais.getAlignmentId());
+        sb.append('\t');
+        appendFixed2(sb, ais.getQueryId());
+        sb.append('\t').append(ais.getLongestPerfectKmer());
+        sb.append('\t');
+        appendFixed2(sb, ais.getMeanPerfectKmer());
+        sb.append('\t');
+        appendFixed2(sb, ais.getPercentQueryAligned());
+        sb.append('\t').append(ais.getkCounts());
+        
+        return sb.toString();
     }
     
     /**
@@ -74,73 +173,80 @@ public class AlignmentsTableFile implements Serializable {
      * @param queryLine query object
      * @param ais AlignmentInfo statistics
      */
-    public synchronized void writeAlignment(ReadSetStats stats, String alignmentFilename, MAFAlignmentLine hitLine, MAFAlignmentLine queryLine, AlignmentInfo ais) {
-        String outputLine = String.format("%s\t%s\t%.2f\t%d\t%d\t%s\t%d\t%s\t%d\t%d\t%s\t%d\t%d\t%d\t%.2f\t%.2f\t%d\t%.2f\t%.2f\t%s",
-                alignmentFilename,
-                queryLine.getName(),
-                stats.getGC(alignmentFilename, ais.getQueryName()),
-                queryLine.getStart(),
-                queryLine.getAlnSize(),
-                queryLine.getStrand(),
-                queryLine.getSeqSize(),
-                hitLine.getName(),
-                hitLine.getStart(),
-                hitLine.getAlnSize(),
-                hitLine.getStrand(),
-                hitLine.getSeqSize(),
-                ais.getAlignmentSize(),
-                ais.getIdenticalBases(),
-                ais.getAlignmentId(),
-                ais.getQueryId(),
-                ais.getLongestPerfectKmer(),
-                ais.getMeanPerfectKmer(),
-                ais.getPercentQueryAligned(),
-                ais.getkCounts());
+    public void writeAlignment(ReadSetStats stats, String alignmentFilename, MAFAlignmentLine hitLine, MAFAlignmentLine queryLine, AlignmentInfo ais) {
+        double gc = stats.getGC(alignmentFilename, ais.getQueryName());
         
-        openFile(true);
-        pw.println(outputLine);
-        pw.close();
+        queueLine(makeLine(alignmentFilename, queryLine.getName(), gc,
+                           queryLine.getStart(), queryLine.getAlnSize(), queryLine.getStrand(), queryLine.getSeqSize(),
+                           hitLine.getName(), hitLine.getStart(), hitLine.getAlnSize(), hitLine.getStrand(), hitLine.getSeqSize(),
+                           ais));
         
-        count++;
+        plotPoints.add(queryLine.getSeqSize(), ais.getQueryId(), ais.getAlignmentId(), ais.getPercentQueryAligned(), ais.getLongestPerfectKmer(), gc);
+        synchronized(this) {
+            count++;
+        }
     }
     
-    public synchronized void writeMergedAlignment(ReadSetStats stats, String alignmentFilename, AlignmentMerger merger, AlignmentInfo ais) {
-        String outputLine = String.format("%s\t%s\t%.2f\t%d\t%d\t%s\t%d\t%s\t%d\t%d\t%s\t%d\t%d\t%d\t%.2f\t%.2f\t%d\t%.2f\t%.2f\t%s",
-                alignmentFilename,
-                ais.getQueryName(),
-                stats.getGC(alignmentFilename, ais.getQueryName()),
-                merger.getOverallQueryStart(),
-                merger.getOverallQuerySize(),
-                merger.getOverallQueryStrand(),
-                ais.getQuerySize(),
-                ais.getHitName(),
-                merger.getOverallHitStart(),
-                merger.getOverallHitSize(),
-                merger.getOverallHitStrand(),
-                ais.getHitSize(),
-                ais.getAlignmentSize(),
-                ais.getIdenticalBases(),
-                ais.getAlignmentId(),
-                ais.getQueryId(),
-                ais.getLongestPerfectKmer(),
-                ais.getMeanPerfectKmer(),
-                ais.getPercentQueryAligned(),
-                ais.getkCounts());
+    public void writeMergedAlignment(ReadSetStats stats, String alignmentFilename, AlignmentMerger merger, AlignmentInfo ais) {
+        double gc = stats.getGC(alignmentFilename, ais.getQueryName());
         
-        openFile(true);
-        pw.println(outputLine);
-        pw.close();
+        queueLine(makeLine(alignmentFilename, ais.getQueryName(), gc,
+                           merger.getOverallQueryStart(), merger.getOverallQuerySize(), merger.getOverallQueryStrand(), ais.getQuerySize(),
+                           ais.getHitName(), merger.getOverallHitStart(), merger.getOverallHitSize(), merger.getOverallHitStrand(), ais.getHitSize(),
+                           ais));
         
-        count++;
+        plotPoints.add(ais.getQuerySize(), ais.getQueryId(), ais.getAlignmentId(), ais.getPercentQueryAligned(), ais.getLongestPerfectKmer(), gc);
+        synchronized(this) {
+            count++;
+        }
     }    
     
     /**
      * Used when no alignment found for this query.
      * @param alignmentFilename - alignment filename
      */
-    public synchronized void writeNoAlignmentMessage(String alignmentFilename) {
-        openFile(true);
-        pw.println(alignmentFilename+"\tNO ALIGNMENTS");
-        pw.close();
+    public void writeNoAlignmentMessage(String alignmentFilename) {
+        queueLine(alignmentFilename+"\tNO ALIGNMENTS");
+    }
+    
+    /**
+     * Get values of alignments written, for plotting. Plot points aren't
+     * serialised, so after deserialising they are read back from the file.
+     * @return an AlignmentPlotPoints object
+     */
+    public synchronized AlignmentPlotPoints getPlotPoints() {
+        if (plotPoints == null) {
+            plotPoints = readPlotPoints();
+        }
+        
+        return plotPoints;
+    }
+    
+    /**
+     * Read plot points from alignments written to the file
+     * @return an AlignmentPlotPoints object
+     */
+    private AlignmentPlotPoints readPlotPoints() {
+        AlignmentPlotPoints points = new AlignmentPlotPoints();
+        
+        try {
+            BufferedReader br = new BufferedReader(new FileReader(filename));
+            // Skip header
+            String line = br.readLine();
+            
+            while ((line = br.readLine()) != null) {
+                String[] fields = line.split("\t");
+                if (fields.length >= 19) {
+                    points.add(Integer.parseInt(fields[6]), Double.parseDouble(fields[15]), Double.parseDouble(fields[14]),
+                               Double.parseDouble(fields[18]), Integer.parseInt(fields[16]), Double.parseDouble(fields[2]));
+                }
+            }
+            br.close();
+        } catch (Exception e) {
+            System.out.println("AlignmentsTableFile exception reading "+filename);
+            e.printStackTrace();
+        }
+        
+        return points;
     }
 }
@@ -0,0 +1,153 @@
+/*
+ * Program: NanoOK
+ * Author:  Richard M. Leggett (richard.leggett@earlham.ac.uk)
+ *
+ * Copyright 2015-17 Earlham Institute
+ */
+
+package nanook;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Writes lines queued by AlignmentsTableFile objects. A background thread
+ * appends queued lines to each file about once a second, keeping files open
+ * between flushes. For references with many contigs, only the most recently
+ * used MAX_OPEN_FILES files are kept open.
+ *
+ * @author Richard Leggett
+ */
+public class AlignmentsTableWriter implements Runnable {
+    public final static int MAX_OPEN_FILES = 256;
+    private final static long FLUSH_INTERVAL = 1000;
+    private static AlignmentsTableWriter instance = null;
+    private ConcurrentLinkedQueue<AlignmentsTableFile> waitingTables = new ConcurrentLinkedQueue<AlignmentsTableFile>();
+    private LinkedHashMap<String,Writer> openFiles = new LinkedHashMap<String,Writer>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String,Writer> eldest) {
+            if (size() > MAX_OPEN_FILES) {
+                closeWriter(eldest.getKey(), eldest.getValue());
+                return true;
+            }
+            return false;
+        }
+    };
+
+    private AlignmentsTableWriter() {
+        Thread t = new Thread(this, "AlignmentsTableWriter");
+        t.setDaemon(true);
+        t.start();
+
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            public void run() {
+                flushAll();
+            }
+        });
+    }
+
+    /**
+     * Get the writer, starting it if necessary
+     * @return AlignmentsTableWriter
+     */
+    public static synchronized AlignmentsTableWriter getInstance() {
+        if (instance == null) {
+            instance = new AlignmentsTableWriter();
+        }
+
+        return instance;
+    }
+
+    /**
+     * Write all queued lines and close all files. Must be called before table files are read.
+     */
+    public static void flushAll() {
+        getInstance().flush(true);
+    }
+
+    /**
+     * Note that a table has lines waiting to be written
+     * @param table table file
+     */
+    public void addWaitingTable(AlignmentsTableFile table) {
+        waitingTables.add(table);
+    }
+
+    private void closeWriter(String filename, Writer w) {
+        try {
+            w.close();
+        } catch (IOException e) {
+            System.out.println("AlignmentsTableWriter exception closing " + filename);
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Close a file, if open, e.g. before it is truncated
+     * @param filename filename
+     */
+    public synchronized void closeFile(String filename) {
+        Writer w = openFiles.remove(filename);
+
+        if (w != null) {
+            closeWriter(filename, w);
+        }
+    }
+
+    /**
+     * Write queued lines
+     * @param closeFiles true to close all files afterwards
+     */
+    private synchronized void flush(boolean closeFiles) {
+        AlignmentsTableFile table;
+
+        while ((table = waitingTables.poll()) != null) {
+            String filename = table.getFilename();
+
+            try {
+                Writer w = openFiles.get(filename);
+                if (w == null) {
+                    w = new BufferedWriter(new FileWriter(filename, true));
+                    openFiles.put(filename, w);
+                }
+                table.drainLines(w);
+            } catch (IOException e) {
+                System.out.println("AlignmentsTableWriter exception writing " + filename);
+                e.printStackTrace();
+            }
+        }
+
+        Iterator<Map.Entry<String,Writer>> it = openFiles.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String,Writer> entry = it.next();
+            if (closeFiles) {
+                closeWriter(entry.getKey(), entry.getValue());
+                it.remove();
+            } else {
+                try {
+                    entry.getValue().flush();
+                } catch (IOException e) {
+                    System.out.println("AlignmentsTableWriter exception flushing " + entry.getKey());
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    public void run() {
+        while (true) {
+            try {
+                Thread.sleep(FLUSH_INTERVAL);
+            } catch (InterruptedException e) {
+                return;
+            }
+            flush(false);
+        }
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * Program: NanoOK
+ * Author:  Richard M. Leggett (richard.leggett@earlham.ac.uk)
+ *
+ * Copyright 2015-17 Earlham Institute
+ */
+
+package nanook;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads a BGZF (bgzip) file. BGZF is a series of gzip members of at most
+ * 64KB, each recording its compressed size, so blocks can be read ahead
+ * and inflated on several threads while being returned in order. All open
+ * streams share one small pool of inflater threads.
+ *
+ * @author Richard Leggett
+ */
+public class BGZFInputStream extends InputStream {
+    private static final int BLOCKS_PER_THREAD = 4;
+    private static final int MAX_INFLATER_THREADS = 4;
+    private static ThreadPoolExecutor executor = null;
+    private InputStream in;
+    private LinkedList<Future<byte[]>> pending = new LinkedList<Future<byte[]>>();
+    private int maxPending;
+    private boolean endOfInput = false;
+    private byte[] block = new byte[0];
+    private int blockPosition = 0;
+
+    /**
+     * Constructor
+     * @param is compressed input, positioned at the start of a block
+     */
+    public BGZFInputStream(InputStream is) {
+        in = is;
+        maxPending = getExecutor().getMaximumPoolSize() * BLOCKS_PER_THREAD;
+    }
+
+    /**
+     * Get the inflater pool shared by all streams, starting it if necessary.
+     * Each stream has at most maxPending blocks queued, so the queue is
+     * bounded by the number of open streams.
+     * @return executor
+     */
+    private static synchronized ThreadPoolExecutor getExecutor() {
+        if (executor == null) {
+            int nThreads = Math.min(MAX_INFLATER_THREADS, Runtime.getRuntime().availableProcessors());
+            executor = new ThreadPoolExecutor(nThreads, nThreads, 10, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "BGZFInflater");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            executor.allowCoreThreadTimeOut(true);
+        }
+
+        return executor;
+    }
+
+    /**
+     * Check if gzip header is a BGZF block header
+     * @param header first 16 bytes of file
+     * @param n number of bytes in header
+     * @return true if BGZF
+     */
+    public static boolean isBGZF(byte[] header, int n) {
+        return (n >= 16) &&
+               ((header[0] & 0xFF) == 0x1F) && ((header[1] & 0xFF) == 0x8B) &&
+               ((header[3] & 0x04) != 0) &&
+               (header[12] == 'B') && (header[13] == 'C');
+    }
+
+    private void readFully(byte[] b, int offset, int length) throws IOException {
+        while (length > 0) {
+            int n = in.read(b, offset, length);
+            if (n < 0) {
+                throw new EOFException("Truncated BGZF block");
+            }
+            offset += n;
+            length -= n;
+        }
+    }
+
+    /**
+     * Read the next compressed block and queue it to be inflated
+     * @return false at end of input
+     */
+    private boolean queueBlock() throws IOException {
+        byte[] header = new byte[12];
+        int first = in.read();
+
+        if (first < 0) {
+            return false;
+        }
+
+        header[0] = (byte)first;
+        readFully(header, 1, 11);
+        if (((header[0] & 0xFF) != 0x1F) || ((header[1] & 0xFF) != 0x8B) || ((header[3] & 0x04) == 0)) {
+            throw new IOException("Not a BGZF block");
+        }
+
+        int xlen = (header[10] & 0xFF) | ((header[11] & 0xFF) << 8);
+        byte[] extra = new byte[xlen];
+        int blockSize = -1;
+
+        readFully(extra, 0, xlen);
+        for (int i=0; i+4<=xlen; ) {
+            int slen = (extra[i+2] & 0xFF) | ((extra[i+3] & 0xFF) << 8);
+            if ((extra[i] == 'B') && (extra[i+1] == 'C') && (slen == 2)) {
+                blockSize = ((extra[i+4] & 0xFF) | ((extra[i+5] & 0xFF) << 8)) + 1;
+            }
+            i += 4 + slen;
+        }
+
+        if (blockSize < 0) {
+            throw new IOException("BGZF block without size");
+        }
+
+        final byte[] data = new byte[blockSize - 12 - xlen];
+        readFully(data, 0, data.length);
+
+        pending.add(getExecutor().submit(new Callable<byte[]>() {
+            public byte[] call() throws DataFormatException, IOException {
+                int n = data.length;
+                int size = (data[n-4] & 0xFF) | ((data[n-3] & 0xFF) << 8) | ((data[n-2] & 0xFF) << 16) | ((data[n-1] & 0xFF) << 24);
+                byte[] out = new byte[size];
+                Inflater inflater = new Inflater(true);
+
+                inflater.setInput(data, 0, n - 8);
+                try {
+                    int done = 0;
+                    while (done < size) {
+                        int m = inflater.inflate(out, done, size - done);
+                        if (m == 0) {
+                            // Finished early, out of input or needs a dictionary - would never make progress
+                            throw new IOException("Corrupt BGZF block");
+                        }
+                        done += m;
+                    }
+                } finally {
+                    inflater.end();
+                }
+
+                return out;
+            }
+        }));
+
+        return true;
+    }
+
+    /**
+     * Move on to next non-empty block
+     * @return false at end of file
+     */
+    private boolean nextBlock() throws IOException {
+        while (blockPosition >= block.length) {
+            while (!endOfInput && (pending.size() < maxPending)) {
+                if (!queueBlock()) {
+                    endOfInput = true;
+                }
+            }
+
+            if (pending.isEmpty()) {
+                return false;
+            }
+
+            try {
+                block = pending.removeFirst().get();
+                blockPosition = 0;
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            } catch (ExecutionException e) {
+                throw new IOException(e.getCause());
+            }
+        }
+
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!nextBlock()) {
+            return -1;
+        }
+
+        return block[blockPosition++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+
+        if (!nextBlock()) {
+            return -1;
+        }
+
+        int n = Math.min(length, block.length - blockPosition);
+        System.arraycopy(block, blockPosition, b, offset, n);
+        blockPosition += n;
+
+        return n;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (Future<byte[]> f : pending) {
+            f.cancel(true);
+        }
+        pending.clear();
+        in.close();
+    }
+}
@@ -43,6 +43,10 @@ public class BLASRParser extends SAMParser implements AlignmentFileParser {
     public boolean outputsToStdout() {
         return false;
     }
+
+    public String getStreamCommand(String reference) {
+        return null;
+    }
     
     public void checkForIndex(String referenceFile) {
         return;
@@ -47,6 +47,10 @@ public class BWAParser extends SAMParser implements AlignmentFileParser {
         
         return "bwa mem " + alignmentParams + " " + reference + " " + query;
     }
+
+    public String getStreamCommand(String reference) {
+        return "bwa mem " + alignmentParams + " " + reference + " -";
+    }
     
     public void checkForIndex(String referenceFile) {
         String[] files = {referenceFile + ".fasta.bwt",
@@ -0,0 +1,137 @@
+/*
+ * Program: NanoOK
+ * Author:  Richard M. Leggett (richard.leggett@earlham.ac.uk)
+ *
+ * Copyright 2015-17 Earlham Institute
+ */
+
+package nanook;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Retry, callback and background submission shared by all schedulers.
+ * Subclasses implement a single attempt at running a job.
+ *
+ * @author Richard Leggett
+ */
+public abstract class BaseJobScheduler implements JobScheduler {
+    protected NanoOKOptions options;
+    private ThreadPoolExecutor executor = null;
+
+    /**
+     * Constructor
+     * @param o NanoOKOptions object
+     */
+    public BaseJobScheduler(NanoOKOptions o) {
+        options = o;
+    }
+
+    /**
+     * Make one attempt at running job
+     * @param job job to run
+     * @return exit code
+     */
+    protected abstract int runOnce(SchedulerJob job) throws Exception;
+
+    /**
+     * Get number of threads used for background jobs
+     * @return number of threads
+     */
+    protected int getBackgroundThreads() {
+        return 1;
+    }
+
+    /**
+     * Run a command, writing its output to the log
+     * @param command command and arguments
+     * @return exit code
+     */
+    protected int runAndLog(String[] command) throws Exception {
+        ProcessBuilder pb = new ProcessBuilder(command);
+        pb.redirectErrorStream(true);
+        Process p = pb.start();
+        BufferedReader br = new BufferedReader(new InputStreamReader(p.getInputStream()));
+        String line;
+
+        while ((line = br.readLine()) != null) {
+            options.getLog().println(line);
+        }
+        br.close();
+
+        return p.waitFor();
+    }
+
+    public int run(SchedulerJob job) {
+        int exitCode = -1;
+
+        for (int attempt=0; attempt<=job.getMaxRetries(); attempt++) {
+            if (attempt > 0) {
+                options.getLog().println("Retrying job " + job.getName() + " (attempt " + (attempt + 1) + ")");
+            }
+
+            try {
+                exitCode = runOnce(job);
+            } catch (Exception e) {
+                options.getLog().println("Job " + job.getName() + " exception: " + e.getMessage());
+                exitCode = -1;
+            }
+
+            if (exitCode == 0) {
+                break;
+            }
+        }
+
+        if (exitCode != 0) {
+            options.getLog().println("Job " + job.getName() + " failed with exit code " + exitCode);
+        }
+
+        if (job.getCallback() != null) {
+            job.getCallback().jobFinished(job, exitCode);
+        }
+
+        return exitCode;
+    }
+
+    public synchronized void submit(final SchedulerJob job) {
+        if (executor == null) {
+            executor = new ThreadPoolExecutor(getBackgroundThreads(), getBackgroundThreads(), 10, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        }
+
+        executor.execute(new Runnable() {
+            public void run() {
+                BaseJobScheduler.this.run(job);
+            }
+        });
+    }
+
+    public void submitBatch(List<SchedulerJob> jobs) {
+        for (int i=0; i<jobs.size(); i++) {
+            submit(jobs.get(i));
+        }
+    }
+
+    public void waitForJobs() {
+        ThreadPoolExecutor e;
+
+        synchronized(this) {
+            e = executor;
+            executor = null;
+        }
+
+        if (e != null) {
+            e.shutdown();
+            try {
+                e.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                System.out.println("waitForJobs exception");
+                ex.printStackTrace();
+            }
+        }
+    }
+}
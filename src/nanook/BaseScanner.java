@@ -0,0 +1,93 @@
+/*
+ * Program: NanoOK
+ * Author:  Richard M. Leggett (richard.leggett@earlham.ac.uk)
+ *
+ * Copyright 2015-17 Earlham Institute
+ */
+
+package nanook;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Word-at-a-time scanning of bases. Sequences are read 8 bytes at a time as
+ * longs, so runs of matching columns and G/C counts are found without a
+ * comparison per base. Any remainder shorter than a word is done a byte at
+ * a time.
+ *
+ * @author Richard Leggett
+ */
+public class BaseScanner {
+    private static final long ONES = 0x0101010101010101L;
+    private static final long LOW_BITS = 0x7F7F7F7F7F7F7F7FL;
+    private static final long G_BYTES = ONES * 'G';
+    private static final long C_BYTES = ONES * 'C';
+
+    /**
+     * Get length of run of identical bytes in two arrays
+     * @param a first array
+     * @param b second array
+     * @param from position to start at
+     * @param to position to stop before
+     * @return number of identical bytes from position from
+     */
+    public static int matchingRun(byte[] a, byte[] b, int from, int to) {
+        ByteBuffer ba = ByteBuffer.wrap(a).order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer bb = ByteBuffer.wrap(b).order(ByteOrder.LITTLE_ENDIAN);
+        int i = from;
+
+        while (i + 8 <= to) {
+            long diff = ba.getLong(i) ^ bb.getLong(i);
+            if (diff != 0) {
+                // Little endian, so first differing byte is lowest non-zero byte
+                return i + (Long.numberOfTrailingZeros(diff) >>> 3) - from;
+            }
+            i += 8;
+        }
+
+        while ((i < to) && (a[i] == b[i])) {
+            i++;
+        }
+
+        return i - from;
+    }
+
+    /**
+     * Mark zero bytes in a word
+     * @param x word
+     * @return word with top bit of each zero byte set, and no other bits
+     */
+    private static long zeroBytes(long x) {
+        return ~(((x & LOW_BITS) + LOW_BITS) | x | LOW_BITS);
+    }
+
+    /**
+     * Count G and C bases (upper case only, as SequenceReader)
+     * @param b bytes
+     * @param start position to start at
+     * @param length number of bytes
+     * @return count of G and C
+     */
+    public static int countGC(byte[] b, int start, int length) {
+        ByteBuffer bb = ByteBuffer.wrap(b);
+        int end = start + length;
+        int i = start;
+        int gc = 0;
+
+        while (i + 8 <= end) {
+            long w = bb.getLong(i);
+            gc += Long.bitCount(zeroBytes(w ^ G_BYTES) | zeroBytes(w ^ C_BYTES));
+            i += 8;
+        }
+
+        while (i < end) {
+            if ((b[i] == 'G') || (b[i] == 'C')) {
+                gc++;
+            }
+            i++;
+        }
+
+        return gc;
+    }
+}
@@ -0,0 +1,490 @@
+/*
+ * Program: NanoOK
+ * Author:  Richard M. Leggett (richard.leggett@earlham.ac.uk)
+ *
+ * Copyright 2015-17 Earlham Institute
+ */
+
+package nanook;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Checks word-at-a-time scanning gives the same results as the loops it
+ * replaced, on random input. The original loops, including the column by
+ * column alignment merge that built each perfect kmer as a string, are kept
+ * here to compare against. Covers lengths that aren't a multiple of 8,
+ * non-zero start offsets, lower case and N bases, and merging an alignment
+ * whose run of matches reaches a position already covered by an earlier
+ * alignment. Run at the start of microbench.
+ *
+ * @author Richard Leggett
+ */
+public class BaseScannerCheck {
+    private final static int SCAN_TRIALS = 100000;
+    private final static int MERGE_TRIALS = 2000;
+    private final static byte[] BASES = {'A', 'C', 'G', 'T'};
+    private final static byte[] OTHER_BASES = {'a', 'c', 'g', 't', 'N', 'n', 'R', '-'};
+    private NanoOKOptions options;
+    private Random rng = new Random(1);
+    private int failures = 0;
+
+    /**
+     * Constructor
+     * @param o NanoOKOptions object
+     */
+    public BaseScannerCheck(NanoOKOptions o) {
+        options = o;
+    }
+
+    /**
+     * Original column by column matching run
+     */
+    private static int scalarMatchingRun(byte[] a, byte[] b, int from, int to) {
+        int i = from;
+
+        while ((i < to) && (a[i] == b[i])) {
+            i++;
+        }
+
+        return i - from;
+    }
+
+    /**
+     * Original G/C count, on a string
+     */
+    private static int scalarCountGC(byte[] b, int start, int length) {
+        String s = new String(b, start, length, StandardCharsets.ISO_8859_1);
+        int g = s.length() - s.replace("G", "").length();
+        int c = s.length() - s.replace("C", "").length();
+
+        return g + c;
+    }
+
+    /**
+     * Original alignment merge, column by column, keeping the perfect kmer
+     * before each error as a string. Only the parts that affect stats are kept.
+     */
+    private static class ScalarMerger {
+        private ReferenceSequenceStats refStats;
+        private ReadSetStats stats;
+        private int[] covered;
+        private int deletionSize = 0;
+        private int insertionSize = 0;
+        private String errorKmer = "";
+        private int kmerTotal = 0;
+        private int kmerCount = 0;
+        private int currentPerfectKmerSize = 0;
+        private int longestPerfectKmer = 0;
+        private int overallQueryStart = -1;
+        private int overallQueryEnd = -1;
+        private int overallHitStart = -1;
+        private int overallHitEnd = -1;
+        private int identicalBases = 0;
+        private int alignmentSize = 0;
+        private int alignmentSizeWithoutIndels = 0;
+        private int kSizes[] = {15, 17, 19, 21, 23, 25};
+        private int kCounts[] = {0, 0, 0, 0, 0, 0};
+
+        private ScalarMerger(ReferenceSequenceStats r, int readLength, ReadSetStats s) {
+            refStats = r;
+            stats = s;
+            covered = new int[readLength];
+        }
+
+        private void checkStoreInsertionsOrDeletions() {
+            if (deletionSize > 0) {
+                refStats.addDeletionError(deletionSize, errorKmer, stats);
+                deletionSize = 0;
+            }
+
+            if (insertionSize > 0) {
+                refStats.addInsertionError(insertionSize, errorKmer, stats);
+                insertionSize = 0;
+            }
+
+            errorKmer = "";
+        }
+
+        private void storePerfectKmerLength() {
+            if (currentPerfectKmerSize > 0) {
+                refStats.addPerfectKmer(currentPerfectKmerSize);
+
+                for (int l=0; l<kSizes.length; l++) {
+                    if (currentPerfectKmerSize >= kSizes[l]) {
+                        kCounts[l]++;
+                    }
+                }
+
+                kmerTotal+=currentPerfectKmerSize;
+                kmerCount++;
+
+                if (currentPerfectKmerSize > longestPerfectKmer) {
+                   longestPerfectKmer = currentPerfectKmerSize;
+                }
+
+                currentPerfectKmerSize = 0;
+            }
+        }
+
+        private void addAlignment(Alignment a) {
+            String hitSeq = a.getHitString().toUpperCase();
+            String querySeq = a.getQueryString().toUpperCase();
+            int loopFrom = 0;
+            int loopTo = Math.min(hitSeq.length(), querySeq.length());
+            int queryPos = a.getQueryStart();
+            int hitPos = a.getHitStart();
+            String currentKmer = "";
+
+            // Alignments made by the check are always close enough to merge
+            if ((overallQueryStart == -1) || (queryPos < overallQueryStart)) {
+                overallQueryStart = queryPos;
+            }
+            if ((overallHitStart == -1) || (hitPos < overallHitStart)) {
+                overallHitStart = hitPos;
+            }
+
+            currentPerfectKmerSize = 0;
+            insertionSize = 0;
+            deletionSize = 0;
+            errorKmer = "";
+
+            if (covered[queryPos] == 1) {
+                while((loopFrom < loopTo) && (covered[queryPos] == 1)) {
+                    if (hitSeq.charAt(loopFrom)== '-') {
+                        queryPos++;
+                    } else if (querySeq.charAt(loopFrom) == '-') {
+                        hitPos++;
+                    } else {
+                        queryPos++;
+                        hitPos++;
+                    }
+                    loopFrom++;
+                }
+            }
+
+            for (int i=loopFrom; i<loopTo; i++) {
+                if (covered[queryPos] == 1) {
+                    break;
+                }
+
+                if (hitSeq.charAt(i) == querySeq.charAt(i)) {
+                    checkStoreInsertionsOrDeletions();
+
+                    currentPerfectKmerSize++;
+                    currentKmer += querySeq.charAt(i);
+
+                    if (i == (loopTo-1)) {
+                        storePerfectKmerLength();
+                    }
+
+                    identicalBases++;
+                    covered[queryPos]= 1;
+                    queryPos++;
+                    hitPos++;
+                    alignmentSizeWithoutIndels++;
+                } else {
+                    if (currentPerfectKmerSize > 0) {
+                        storePerfectKmerLength();
+                    }
+
+                    if (hitSeq.charAt(i) == '-') {
+                        if (insertionSize == 0) {
+                            checkStoreInsertionsOrDeletions();
+                            errorKmer = currentKmer;
+                        }
+                        insertionSize++;
+                        queryPos++;
+                    } else if (querySeq.charAt(i) == '-') {
+                        if (deletionSize == 0) {
+                            checkStoreInsertionsOrDeletions();
+                            errorKmer = currentKmer;
+                        }
+                        deletionSize++;
+                        hitPos++;
+                    } else {
+                        checkStoreInsertionsOrDeletions();
+                        errorKmer = currentKmer;
+                        refStats.addSubstitutionError(errorKmer, hitSeq.charAt(i), querySeq.charAt(i), stats);
+                        covered[queryPos] = 1;
+                        queryPos++;
+                        hitPos++;
+                        alignmentSizeWithoutIndels++;
+                    }
+
+                    currentKmer = "";
+                }
+
+                alignmentSize++;
+            }
+
+            if ((overallQueryEnd == -1) || (queryPos > overallQueryEnd)) {
+                overallQueryEnd = queryPos;
+            }
+            if ((overallHitEnd == -1) || (hitPos > overallHitEnd)) {
+                overallHitEnd = hitPos;
+            }
+        }
+    }
+
+    private byte randomBase() {
+        return BASES[rng.nextInt(BASES.length)];
+    }
+
+    /**
+     * Make random bases, with a proportion that aren't upper case A, C, G or T
+     */
+    private byte[] randomBases(int n, double otherRate) {
+        byte[] b = new byte[n];
+
+        for (int i=0; i<n; i++) {
+            b[i] = rng.nextDouble() < otherRate ? OTHER_BASES[rng.nextInt(OTHER_BASES.length)] : randomBase();
+        }
+
+        return b;
+    }
+
+    private void fail(String message) {
+        if (failures++ < 10) {
+            System.out.println("Error: " + message);
+        }
+    }
+
+    private void checkMatchingRun() {
+        for (int t=0; t<SCAN_TRIALS; t++) {
+            int n = rng.nextInt(200);
+            byte[] a = randomBases(n, rng.nextDouble() * 0.2);
+            byte[] b = Arrays.copyOf(a, n);
+            int nDifferences = rng.nextInt(4);
+            int from = rng.nextInt(n + 1);
+            int to = from + rng.nextInt(n - from + 1);
+
+            for (int i=0; (i<nDifferences) && (n > 0); i++) {
+                int p = rng.nextInt(n);
+                b[p] = (byte)(rng.nextBoolean() ? Character.toLowerCase(a[p]) : OTHER_BASES[rng.nextInt(OTHER_BASES.length)]);
+            }
+
+            int expected = scalarMatchingRun(a, b, from, to);
+            int got = BaseScanner.matchingRun(a, b, from, to);
+            if (got != expected) {
+                fail("matchingRun from " + from + " to " + to + " of " + new String(a) + " and " + new String(b) + " gave " + got + ", expected " + expected);
+            }
+        }
+    }
+
+    private void checkCountGC() {
+        for (int t=0; t<SCAN_TRIALS; t++) {
+            int n = rng.nextInt(200);
+            byte[] b = randomBases(n, rng.nextDouble() * 0.5);
+            int start = rng.nextInt(n + 1);
+            int length = rng.nextInt(n - start + 1);
+
+            int expected = scalarCountGC(b, start, length);
+            int got = BaseScanner.countGC(b, start, length);
+            if (got != expected) {
+                fail("countGC from " + start + " length " + length + " of " + new String(b) + " gave " + got + ", expected " + expected);
+            }
+        }
+    }
+
+    /**
+     * Make a random alignment, as hit and query columns
+     * @param nColumns number of columns
+     * @param errorRate chance of each column being a substitution, insertion or deletion
+     * @return hit and query strings
+     */
+    private String[] randomColumns(int nColumns, double errorRate) {
+        StringBuilder hit = new StringBuilder();
+        StringBuilder query = new StringBuilder();
+
+        for (int i=0; i<nColumns; i++) {
+            byte h = randomBase();
+            byte q = h;
+
+            if (rng.nextDouble() < errorRate) {
+                switch(rng.nextInt(4)) {
+                    case 0:
+                        h = '-';
+                        break;
+                    case 1:
+                        q = '-';
+                        break;
+                    case 2:
+                        // N in the reference - an N in the read would print a warning for every one
+                        h = 'N';
+                        break;
+                    default:
+                        while (q == h) {
+                            q = randomBase();
+                        }
+                        break;
+                }
+            } else if (rng.nextInt(20) == 0) {
+                // Merger upper cases, so still a match
+                q = (byte)Character.toLowerCase(q);
+            }
+
+            hit.append((char)h);
+            query.append((char)q);
+        }
+
+        return new String[] {hit.toString(), query.toString()};
+    }
+
+    private static int countBases(String s) {
+        int n = 0;
+
+        for (int i=0; i<s.length(); i++) {
+            if (s.charAt(i) != '-') {
+                n++;
+            }
+        }
+
+        return n;
+    }
+
+    /**
+     * Check if a run of matches in an alignment reaches query position p part way through
+     */
+    private static boolean runReaches(String[] columns, int queryStart, int p) {
+        int queryPos = queryStart;
+
+        for (int i=0; i<columns[0].length(); i++) {
+            if (queryPos == p) {
+                return (i > 0) && isMatch(columns, i) && isMatch(columns, i - 1);
+            }
+            if (columns[0].charAt(i) != '-') {
+                queryPos++;
+            }
+        }
+
+        return false;
+    }
+
+    private static boolean isMatch(String[] columns, int i) {
+        return Character.toUpperCase(columns[0].charAt(i)) == Character.toUpperCase(columns[1].charAt(i));
+    }
+
+    /**
+     * Summarise stats stored by merging
+     */
+    private static String summariseStats(ReferenceSequenceStats refStats, ReadSetStats stats) {
+        MotifStatistics motifs = stats.getMotifStatistics();
+        String s = refStats.getNumberOfInsertionErrors() + " " + refStats.getNumberOfDeletionErrors() + " " +
+                   refStats.getNumberOfSubstitutionErrors() + " " + refStats.getMeanInsertionSize() + " " +
+                   refStats.getMeanDeletionSize() + " " + refStats.getLongestPerfectKmer() + " " +
+                   stats.getNumberOfSubstitutions() + " " + Arrays.deepToString(stats.getSubstitutionErrors());
+
+        for (int k=3; k<=5; k++) {
+            s += " " + motifs.getSortedInsertionMotifCounts(k) + " " + motifs.getSortedDeletionMotifCounts(k) +
+                 " " + motifs.getSortedSubstitutionMotifCounts(k);
+        }
+
+        return s;
+    }
+
+    /**
+     * Merge alignments with AlignmentMerger and summarise results and stats
+     */
+    private String merge(Alignment[] alignments, int readLength) {
+        ReferenceSequence reference = new ReferenceSequence("check", 100000, "check");
+        ReadSetStats stats = new ReadSetStats(options, NanoOKOptions.TYPE_2D);
+        AlignmentMerger merger = new AlignmentMerger(options, reference, readLength, stats, NanoOKOptions.TYPE_2D);
+
+        for (Alignment a : alignments) {
+            merger.addAlignment(a);
+        }
+
+        AlignmentInfo ai = merger.getAlignmentInfo();
+
+        return ai.getIdenticalBases() + " " + ai.getLongestPerfectKmer() + " " + ai.getAlignmentSize() + " " +
+               ai.getMeanPerfectKmer() + " " + ai.getAlignmentIdMinusIndels() + " " + ai.getkCounts().replace('\t', ',') + " " +
+               merger.getOverallQueryStart() + "-" + merger.getOverallQueryEnd() + " " +
+               merger.getOverallHitStart() + "-" + merger.getOverallHitEnd() + " " +
+               summariseStats(reference.getStatsByType(NanoOKOptions.TYPE_2D), stats);
+    }
+
+    /**
+     * Merge alignments with the original loop and summarise results and stats, as merge does
+     */
+    private String scalarMerge(Alignment[] alignments, int readLength) {
+        ReferenceSequence reference = new ReferenceSequence("check", 100000, "check");
+        ReadSetStats stats = new ReadSetStats(options, NanoOKOptions.TYPE_2D);
+        ScalarMerger merger = new ScalarMerger(reference.getStatsByType(NanoOKOptions.TYPE_2D), readLength, stats);
+
+        for (Alignment a : alignments) {
+            merger.addAlignment(a);
+        }
+
+        AlignmentInfo ai = new AlignmentInfo("check", 100000, "read", readLength, merger.identicalBases, merger.longestPerfectKmer,
+                                             merger.kmerTotal, merger.kmerCount, merger.alignmentSize, merger.alignmentSizeWithoutIndels,
+                                             merger.overallQueryEnd - merger.overallQueryStart);
+        ai.addkCounts(merger.kSizes.length, merger.kSizes, merger.kCounts);
+
+        return ai.getIdenticalBases() + " " + ai.getLongestPerfectKmer() + " " + ai.getAlignmentSize() + " " +
+               ai.getMeanPerfectKmer() + " " + ai.getAlignmentIdMinusIndels() + " " + ai.getkCounts().replace('\t', ',') + " " +
+               merger.overallQueryStart + "-" + merger.overallQueryEnd + " " +
+               merger.overallHitStart + "-" + merger.overallHitEnd + " " +
+               summariseStats(reference.getStatsByType(NanoOKOptions.TYPE_2D), stats);
+    }
+
+    private void checkMerger() {
+        int midRunCases = 0;
+
+        for (int t=0; t<MERGE_TRIALS; t++) {
+            int nColumns = 1 + rng.nextInt(2000);
+            double errorRate = rng.nextInt(4) == 0 ? 0 : rng.nextDouble() * 0.3;
+            String[] first = randomColumns(nColumns, errorRate);
+            int queryStart = 600;
+            int hitStart = 1000;
+            int readLength = queryStart + nColumns + 600;
+            Alignment[] alignments;
+
+            alignments = new Alignment[] {new Alignment(0, "read", readLength, queryStart, countBases(first[1]), first[1], "check", 100000, hitStart, countBases(first[0]), first[0], false)};
+
+            // Second alignment starts before the first, so its run of matches can reach covered positions,
+            // or inside it, so covered positions are skipped at the start
+            if (rng.nextInt(4) != 0) {
+                int d = 1 + rng.nextInt(500);
+                int secondStart = rng.nextBoolean() ? queryStart - d : queryStart + rng.nextInt(nColumns);
+                int offset = secondStart - queryStart;
+                String[] second = randomColumns(1 + rng.nextInt(Math.max(1, nColumns + queryStart - secondStart)), rng.nextBoolean() ? 0 : errorRate);
+                alignments = new Alignment[] {alignments[0],
+                                              new Alignment(0, "read", readLength, secondStart, countBases(second[1]), second[1], "check", 100000, hitStart + offset, countBases(second[0]), second[0], false)};
+                if ((secondStart < queryStart) && runReaches(second, secondStart, queryStart)) {
+                    midRunCases++;
+                }
+            }
+
+            String expected = scalarMerge(alignments, readLength);
+            String got = merge(alignments, readLength);
+            if (!got.equals(expected)) {
+                fail("merge of " + alignments.length + " alignments gave " + got + ", expected " + expected);
+            }
+        }
+
+        if (midRunCases == 0) {
+            fail("no merges had a run of matches reaching a covered position");
+        }
+    }
+
+    /**
+     * Run all checks, exiting if any fail
+     */
+    public void run() {
+        System.out.print("Checking word at a time scanning against the original loops... ");
+        checkMatchingRun();
+        checkCountGC();
+        checkMerger();
+
+        if (failures > 0) {
+            System.out.println("");
+            System.out.println("Error: " + failures + " mismatches.");
+            System.exit(1);
+        }
+
+        System.out.println("OK");
+    }
+}
@@ -7,21 +7,52 @@
 
 package nanook;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Collects reads into batches for BLAST. Full batches are sealed (merged and
+ * submitted) by a background thread, so that extraction threads adding reads
+ * never wait for it. Batches are sealed in order, as the MEGAN files for each
+ * batch include all previous batches.
+ */
 public class BlastHandler {
+    private final static int BLAST_RETRIES = 2;
     private NanoOKOptions options = null;
     private int type;
     private int passfail;
     private int nSeqs = 0;
     private int fileCounter = 0;
     private ArrayList<String> mergeList = new ArrayList<String>();
+    private ThreadPoolExecutor sealExecutor = null;
+    
+    /**
+     * Merge, submit and write MEGAN files for one batch
+     */
+    private class BatchSealer implements Runnable {
+        private ArrayList<String> batchFiles;
+        private int batchNumber;
+        
+        public BatchSealer(ArrayList<String> f, int n) {
+            batchFiles = f;
+            batchNumber = n;
+        }
+        
+        public void run() {
+            String mergedPathname = mergeInputFiles(batchFiles, batchNumber);
+            runBlasts(mergedPathname);
+            writeMeganFile(batchNumber);
+        }
+    }
     
     public BlastHandler(NanoOKOptions o, int t, int pf) {
         options = o;
@@ -33,7 +64,7 @@ public class BlastHandler {
         }        
     }
     
-    private void writeMeganFile() {
+    private void writeMeganFile(int fileCounter) {
         ArrayList<String> blastProcesses = options.getBlastProcesses();
         String meganDir = options.getSampleDirectory() + File.separator + "megan";
         File f = new File(meganDir);
@@ -100,6 +131,7 @@ public class BlastHandler {
     private void runBlasts(String inputPathname) {
         String formatString = "'6 qseqid sseqid pident length mismatch gapopen qstart qend sstart send evalue bitscore stitle'";
         ArrayList<String> blastProcesses = options.getBlastProcesses();
+        ArrayList<SchedulerJob> jobs = new ArrayList<SchedulerJob>();
         File iff = new File(inputPathname);
         String fileName = iff.getName();
         String filePrefix = fileName;
@@ -138,14 +170,12 @@ public class BlastHandler {
                     pw.write(blastTool + " -db " + blastDb + " -query " + inputPathname + " -evalue 0.001 -show_gis -task megablast -out " + outputBlast + " -outfmt "+formatString);
                     pw.close();
 
-                    options.getLog().println("Submitting blast command file to SLURM "+commandFile);
-                    ProcessLogger pl = new ProcessLogger();
-                    String[] commands = {"slurmit",
-                                         "-o", logFile,
-                                         "-p", queue,
-                                         "-m", memory,
-                                         "sh "+commandFile};
-                    pl.runCommandToLog(commands, options.getLog());            
+                    SchedulerJob job = new SchedulerJob(filePrefix + "_" + blastTool + "_" + blastName, new String[] {"sh", commandFile});
+                    job.setLogFile(logFile);
+                    job.setQueue(queue);
+                    job.setMemory(memory);
+                    job.setMaxRetries(BLAST_RETRIES);
+                    jobs.add(job);
                 } catch (IOException e) {
                     System.out.println("runBlast exception");
                     e.printStackTrace();
@@ -154,29 +184,35 @@ public class BlastHandler {
                 System.out.println("Badly formatted BLAST process: "+blastProcesses.get(i));
             }
         }
+        
+        options.getLog().println("Submitting " + jobs.size() + " BLAST jobs to " + options.getBlastJobScheduler().getName());
+        options.getBlastJobScheduler().submitBatch(jobs);
     }    
     
-    private String mergeInputFiles() {
+    private String mergeInputFiles(ArrayList<String> batchFiles, int fileCounter) {
         String mergedPathname = options.getReadDir() + 
                                 "_chunks" + File.separator + 
                                 "all_" + NanoOKOptions.getTypeFromInt(type) + "_" + NanoOKOptions.getPassFailFromInt(passfail) + "_" + 
                                 Integer.toString(fileCounter) + 
                                 (options.getReadFormat() == NanoOKOptions.FASTA ? ".fasta":".fastq");
 
-       options.getLog().println("Writing merged file "+mergedPathname);
+        options.getLog().println("Writing merged file "+mergedPathname);
         
         try {
-            PrintWriter pw = new PrintWriter(new FileWriter(mergedPathname));
+            FileOutputStream fos = new FileOutputStream(mergedPathname);
+            FileChannel out = fos.getChannel();
             
-            for (int i=0; i<mergeList.size(); i++) {                
-                BufferedReader br = new BufferedReader(new FileReader(mergeList.get(i)));
-                String line;                
-                while ((line = br.readLine()) != null) {
-                    pw.println(line);
+            for (int i=0; i<batchFiles.size(); i++) {
+                FileInputStream fis = new FileInputStream(batchFiles.get(i));
+                FileChannel in = fis.getChannel();
+                long position = 0;
+                long size = in.size();
+                while (position < size) {
+                    position += in.transferTo(position, size - position, out);
                 }
-                br.close();
+                fis.close();
             }            
-            pw.close();            
+            fos.close();            
         } catch (IOException e) {
             System.out.println("mergeFiles exception");
             e.printStackTrace();
@@ -188,15 +224,38 @@ public class BlastHandler {
         mergeList.add(readFilename);
         nSeqs++;
         if (nSeqs == options.getReadsPerBlast()) {
-            options.getLog().println("Merging files (nSeqs = "+nSeqs+")");
-            String mergedPathname = mergeInputFiles();
-            runBlasts(mergedPathname);
-            writeMeganFile();
+            options.getLog().println("Sealing batch "+fileCounter+" (nSeqs = "+nSeqs+")");
+            
+            if (sealExecutor == null) {
+                sealExecutor = new ThreadPoolExecutor(1, 1, 10, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+            }
+            sealExecutor.execute(new BatchSealer(mergeList, fileCounter));
             
-            //options.getThreadExecutor().execute(new FastAQMerger(options, mergedFilename, mergeList, fileCounter));
             mergeList = new ArrayList(); 
             fileCounter++;
             nSeqs = 0;
         }
-    }    
+    }
+    
+    /**
+     * Wait for any batches still being sealed
+     */
+    public void waitForBatches() {
+        ThreadPoolExecutor e;
+        
+        synchronized(this) {
+            e = sealExecutor;
+            sealExecutor = null;
+        }
+        
+        if (e != null) {
+            e.shutdown();
+            try {
+                e.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                System.out.println("waitForBatches exception");
+                ex.printStackTrace();
+            }
+        }
+    }
 }
@@ -0,0 +1,188 @@
+/*
+ * Program: NanoOK
+ * Author:  Richard M. Leggett (richard.leggett@earlham.ac.uk)
+ *
+ * Copyright 2015-17 Earlham Institute
+ */
+
+package nanook;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads lines as bytes, without making a String for each line. Lines are
+ * trimmed of leading and trailing whitespace, as String.trim(). Files
+ * compressed with gzip or bgzip are decompressed transparently.
+ *
+ * @author Richard Leggett
+ */
+public class ByteLineReader {
+    private static final int BUFFER_SIZE = 1 << 16;
+    private InputStream in;
+    private boolean compressed;
+    private byte[] buffer = new byte[BUFFER_SIZE];
+    private int bufferLength = 0;
+    private int bufferPosition = 0;
+    private long bufferOffset = 0;
+    private byte[] line = new byte[1024];
+    private int lineStart = 0;
+    private int lineLength = 0;
+    private long lineOffset = 0;
+    private int lineWidth = 0;
+
+    /**
+     * Constructor
+     * @param filename file to read - plain, gzip or BGZF
+     */
+    public ByteLineReader(String filename) throws IOException {
+        in = open(filename);
+        compressed = !(in instanceof BufferedInputStream);
+    }
+
+    /**
+     * Open a file, decompressing if it starts with the gzip magic number
+     * @param filename filename
+     * @return stream of uncompressed bytes
+     */
+    public static InputStream open(String filename) throws IOException {
+        BufferedInputStream bis = new BufferedInputStream(new FileInputStream(filename), BUFFER_SIZE);
+        byte[] header = new byte[16];
+        int n = 0;
+
+        bis.mark(header.length);
+        while (n < header.length) {
+            int r = bis.read(header, n, header.length - n);
+            if (r < 0) {
+                break;
+            }
+            n += r;
+        }
+        bis.reset();
+
+        if (BGZFInputStream.isBGZF(header, n)) {
+            return new BGZFInputStream(bis);
+        } else if ((n >= 2) && ((header[0] & 0xFF) == 0x1F) && ((header[1] & 0xFF) == 0x8B)) {
+            return new GZIPInputStream(bis, BUFFER_SIZE);
+        }
+
+        return bis;
+    }
+
+    /**
+     * Read next line
+     * @return length of line, or -1 at end of file
+     */
+    public int readLine() throws IOException {
+        int n = 0;
+        boolean gotLine = false;
+
+        lineOffset = bufferOffset + bufferPosition;
+        while (true) {
+            if (bufferPosition >= bufferLength) {
+                bufferOffset += bufferLength;
+                bufferLength = in.read(buffer, 0, BUFFER_SIZE);
+                bufferPosition = 0;
+                if (bufferLength <= 0) {
+                    bufferLength = 0;
+                    break;
+                }
+            }
+
+            gotLine = true;
+
+            int start = bufferPosition;
+            while ((bufferPosition < bufferLength) && (buffer[bufferPosition] != '\n')) {
+                bufferPosition++;
+            }
+
+            int count = bufferPosition - start;
+            if (n + count > line.length) {
+                byte[] bigger = new byte[Math.max(line.length * 2, n + count)];
+                System.arraycopy(line, 0, bigger, 0, n);
+                line = bigger;
+            }
+            System.arraycopy(buffer, start, line, n, count);
+            n += count;
+
+            if (bufferPosition < bufferLength) {
+                // Skip the newline
+                bufferPosition++;
+                break;
+            }
+        }
+
+        if (!gotLine) {
+            return -1;
+        }
+
+        lineWidth = (int)(bufferOffset + bufferPosition - lineOffset);
+
+        lineStart = 0;
+        while ((lineStart < n) && ((line[lineStart] & 0xFF) <= ' ')) {
+            lineStart++;
+        }
+        while ((n > lineStart) && ((line[n-1] & 0xFF) <= ' ')) {
+            n--;
+        }
+        lineLength = n - lineStart;
+
+        return lineLength;
+    }
+
+    /**
+     * Get buffer holding line. Only valid until the next call to readLine.
+     * @return bytes, starting at getLineStart()
+     */
+    public byte[] getLine() {
+        return line;
+    }
+
+    public int getLineStart() {
+        return lineStart;
+    }
+
+    public int getLineLength() {
+        return lineLength;
+    }
+
+    /**
+     * Get offset of the start of the current line in the (uncompressed) file
+     * @return offset in bytes
+     */
+    public long getLineOffset() {
+        return lineOffset;
+    }
+
+    /**
+     * Get number of bytes in the current line before trimming, including the newline
+     * @return width in bytes
+     */
+    public int getLineWidth() {
+        return lineWidth;
+    }
+
+    /**
+     * Check if file is compressed, in which case offsets can't be used to seek
+     * @return true if gzip or BGZF
+     */
+    public boolean isCompressed() {
+        return compressed;
+    }
+
+    /**
+     * Get current line as a String
+     * @return line
+     */
+    public String getLineString() {
+        return new String(line, lineStart, lineLength, StandardCharsets.ISO_8859_1);
+    }
+
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -8,6 +8,7 @@
 package nanook;
 
 import java.util.ArrayList;
+import java.util.Hashtable;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -17,6 +18,7 @@ import java.util.regex.Pattern;
  * @author Richard Leggett
  */
 public class CIGARString {
+    private static Hashtable<String,SequenceReader> referenceReaders = new Hashtable<String,SequenceReader>();
     private StringBuilder queryString = new StringBuilder("");
     private StringBuilder hitString = new StringBuilder("");
     private String alignmentFilename;
@@ -116,10 +118,112 @@ public class CIGARString {
         return cigarString;
     }
     
+    /**
+     * Get reader for reference file, indexed once and shared by all threads.
+     * Sequence isn't cached - sub-sequences are read from the file by offset.
+     * @param filename reference FASTA
+     * @return SequenceReader
+     */
+    private static SequenceReader getReferenceReader(String filename) {
+        synchronized(referenceReaders) {
+            SequenceReader r = referenceReaders.get(filename);
+            
+            if (r == null) {
+                r = new SequenceReader(false);
+                r.indexFASTAFile(filename, null, false);
+                referenceReaders.put(filename, r);
+            }
+            
+            return r;
+        }
+    }
+    
+    /**
+     * Close files of all reference readers, once alignments are no longer being processed
+     */
+    public static void closeReferenceReaders() {
+        synchronized(referenceReaders) {
+            for (SequenceReader r : referenceReaders.values()) {
+                r.close();
+            }
+        }
+    }
+    
+    /**
+     * Find alignment sizes and query start from the CIGAR operations alone,
+     * without fetching the reference or building the aligned strings, so
+     * that alignments can be ranked before any are expanded.
+     * @return false if the alignment should be ignored
+     */
+    public boolean parse() {
+        int n = 0;
+        boolean donePreClipping = false;
+        boolean processed = true;
+        
+        queryStart = 0;
+        queryAlnSize = 0;
+        hitAlnSize = 0;
+        for (int i=0; i<cigarString.length(); i++) {
+            char c = cigarString.charAt(i);
+            
+            if ((c >= '0') && (c <= '9')) {
+                n = (n * 10) + (c - '0');
+                continue;
+            }
+            
+            switch(c) {
+                case 'M':
+                case '=':
+                case 'X':
+                    queryAlnSize += n;
+                    hitAlnSize += n;
+                    donePreClipping = true;
+                    break;
+                case 'I':
+                    if (n > 100) {
+                        System.out.println("");
+                        System.out.println("Error: large I ("+n+") - read "+queryID+" ignored");
+                        return false;
+                    }
+                    queryAlnSize += n;
+                    donePreClipping = true;
+                    break;
+                case 'D':
+                    if (n > 100) {
+                        System.out.println("Error: large D ("+n+") - read "+queryID+" ignored");
+                        return false;
+                    }
+                    hitAlnSize += n;
+                    donePreClipping = true;
+                    break;
+                case 'N':
+                case 'P':
+                    donePreClipping = true;
+                    break;
+                case 'S':
+                case 'H':
+                    if (!donePreClipping) {
+                        queryStart += n;
+                    }
+                    break;
+                default:
+                    System.out.println("Unrecognised character in CIGAR string: "+c);
+                    processed = false;
+                    break;
+            }
+            n = 0;
+        }
+        
+        return processed;
+    }
+    
+    /**
+     * Build the aligned query and hit strings, fetching the reference sequence
+     * @return false if the alignment should be ignored
+     */
     public boolean processString() {
         String value = "";        
-        SequenceReader r = new SequenceReader(true);
-        r.indexFASTAFile(hitFilename, null, true);
+        SequenceReader r = getReferenceReader(hitFilename);
         int l = 3*querySeq.length();
         String hitSeq = r.getSubSequence(hitReference.getId(), hitStart, hitStart+l);
         int hitPtr = 0;
@@ -141,7 +245,7 @@ public class CIGARString {
         //System.out.println("Query: "+querySeq.length()+" "+querySeq);
 
         try {
-            hitAlnSize = 0;
+            queryStart = 0;
             queryAlnSize = 0;
             hitAlnSize = 0;
             while ((i<cigarString.length()) && (continueParsing)) {
@@ -0,0 +1,389 @@
+/*
+ * Program: NanoOK
+ * Author:  Richard M. Leggett (richard.leggett@earlham.ac.uk)
+ *
+ * Copyright 2015-17 Earlham Institute
+ */
+
+package nanook;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Lists directories for all modes. Directories are read with one
+ * DirectoryStream each, and several directories (e.g. batch_XXX or barcode
+ * directories) can be listed in parallel ahead of being used. A listing made
+ * ahead is dropped once it has been used, so file names aren't held for the
+ * whole run.
+ *
+ * With -listingcache, listings are instead kept, and saved to a cache file
+ * in the logs directory, against the directory's modification time - so an
+ * unchanged directory costs one stat rather than a stat for every file in
+ * it, even in a later run.
+ *
+ * @author Richard Leggett
+ */
+public class DirectoryLister {
+    private final static int MAGIC = 0x4E4F4B44;
+    private final static int VERSION = 1;
+    // Listings of directories modified more recently than this aren't trusted, as files could be added within the timestamp resolution
+    private final static long SETTLE_TIME = 2000;
+    private final static int MIN_THREADS = 8;
+    private ConcurrentHashMap<String,DirectoryListing> listings = new ConcurrentHashMap<String,DirectoryListing>();
+    private ForkJoinPool pool;
+    private File cacheFile = null;
+    private boolean keepListings = false;
+    private volatile boolean changed = false;
+
+    /**
+     * A listing of one directory
+     */
+    public static class DirectoryListing {
+        private long modifiedTime;
+        private String[] files;
+        private String[] directories;
+        private boolean settled;
+
+        private DirectoryListing(long m, String[] f, String[] d, boolean s) {
+            modifiedTime = m;
+            files = f;
+            directories = d;
+            settled = s;
+        }
+
+        /**
+         * Get names of files, sorted
+         * @return filenames
+         */
+        public String[] getFiles() {
+            return files;
+        }
+
+        /**
+         * Get names of sub-directories, sorted
+         * @return directory names
+         */
+        public String[] getDirectories() {
+            return directories;
+        }
+
+        /**
+         * Check if the directory is empty
+         * @return true if no files or directories
+         */
+        public boolean isEmpty() {
+            return (files.length == 0) && (directories.length == 0);
+        }
+    }
+
+    /**
+     * Lists a directory and, to a given depth, its sub-directories
+     */
+    private class ListTask extends RecursiveAction {
+        private static final long serialVersionUID = NanoOK.SERIAL_VERSION;
+        private String dir;
+        private int depth;
+
+        public ListTask(String d, int n) {
+            dir = d;
+            depth = n;
+        }
+
+        @Override
+        protected void compute() {
+            DirectoryListing listing = prefetch(dir);
+
+            if ((listing != null) && (depth > 0)) {
+                ArrayList<ListTask> tasks = new ArrayList<ListTask>();
+                for (String d : listing.getDirectories()) {
+                    tasks.add(new ListTask(dir + File.separator + d, depth - 1));
+                }
+                invokeAll(tasks);
+            }
+        }
+    }
+
+    /**
+     * Constructor
+     * @param cacheFilename cache file, or null for no cache
+     * @param nThreads number of threads for listing directories in parallel
+     */
+    public DirectoryLister(String cacheFilename, int nThreads) {
+        pool = new ForkJoinPool(Math.max(MIN_THREADS, nThreads));
+
+        if (cacheFilename != null) {
+            cacheFile = new File(cacheFilename);
+            keepListings = true;
+            readCache();
+            Runtime.getRuntime().addShutdownHook(new Thread() {
+                public void run() {
+                    writeCache();
+                }
+            });
+        }
+    }
+
+    /**
+     * Get the stored listing of a directory, if it hasn't changed since
+     * @param dir directory
+     * @param modifiedTime modification time of directory now
+     * @return listing, or null if none stored or out of date
+     */
+    private DirectoryListing getStoredListing(String dir, long modifiedTime) {
+        DirectoryListing listing = listings.get(dir);
+
+        return ((listing != null) && (listing.modifiedTime == modifiedTime)) ? listing : null;
+    }
+
+    /**
+     * Get modification time of a directory
+     * @param path directory
+     * @return time, or -1 if not a directory
+     */
+    private static long getModifiedTime(Path path) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            return attributes.isDirectory() ? attributes.lastModifiedTime().toMillis() : -1;
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Read a directory from disk
+     * @param path directory
+     * @param modifiedTime modification time of directory
+     * @return listing, or null if it can't be read
+     */
+    private static DirectoryListing read(Path path, long modifiedTime) {
+        ArrayList<String> files = new ArrayList<String>();
+        ArrayList<String> directories = new ArrayList<String>();
+        long listTime = System.currentTimeMillis();
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(path)) {
+            for (Path p : stream) {
+                BasicFileAttributes attributes;
+                try {
+                    attributes = Files.readAttributes(p, BasicFileAttributes.class);
+                } catch (IOException e) {
+                    // e.g. broken link - neither file nor directory
+                    continue;
+                }
+
+                if (attributes.isDirectory()) {
+                    directories.add(p.getFileName().toString());
+                } else if (attributes.isRegularFile()) {
+                    files.add(p.getFileName().toString());
+                }
+            }
+        } catch (IOException e) {
+            return null;
+        }
+
+        Collections.sort(files);
+        Collections.sort(directories);
+
+        return new DirectoryListing(modifiedTime, files.toArray(new String[files.size()]), directories.toArray(new String[directories.size()]),
+                                    listTime - modifiedTime > SETTLE_TIME);
+    }
+
+    /**
+     * List a directory, using a stored listing if the directory hasn't changed.
+     * Unless listings are being cached, a listing made ahead by listTree or
+     * listAll is dropped once returned here.
+     * @param dir directory
+     * @return listing, or null if the directory doesn't exist
+     */
+    public DirectoryListing list(String dir) {
+        Path path = Paths.get(dir);
+        long modifiedTime = getModifiedTime(path);
+
+        if (modifiedTime < 0) {
+            return null;
+        }
+
+        DirectoryListing listing = getStoredListing(dir, modifiedTime);
+        if (listing != null) {
+            if (!keepListings) {
+                listings.remove(dir);
+            }
+            return listing;
+        }
+
+        listing = read(path, modifiedTime);
+        if (keepListings) {
+            store(dir, listing);
+        }
+
+        return listing;
+    }
+
+    /**
+     * List a directory ahead of it being used, storing the listing until list is called for it
+     * @param dir directory
+     * @return listing, or null if the directory doesn't exist
+     */
+    private DirectoryListing prefetch(String dir) {
+        Path path = Paths.get(dir);
+        long modifiedTime = getModifiedTime(path);
+
+        if (modifiedTime < 0) {
+            return null;
+        }
+
+        DirectoryListing listing = getStoredListing(dir, modifiedTime);
+        if (listing == null) {
+            listing = read(path, modifiedTime);
+            store(dir, listing);
+        }
+
+        return listing;
+    }
+
+    private void store(String dir, DirectoryListing listing) {
+        if (listing == null) {
+            listings.remove(dir);
+        } else {
+            listings.put(dir, listing);
+            if (listing.settled) {
+                changed = true;
+            }
+        }
+    }
+
+    /**
+     * List a directory and its sub-directories, in parallel
+     * @param dir top directory
+     * @param depth levels of sub-directories to list (0 for only dir)
+     * @return listing of top directory, or null if it doesn't exist. Listings of
+     *         sub-directories are then available from list without going to disk.
+     */
+    public DirectoryListing listTree(String dir, int depth) {
+        pool.invoke(new ListTask(dir, depth));
+        return list(dir);
+    }
+
+    /**
+     * List several directories and, to a given depth, their sub-directories, in parallel
+     * @param dirs top directories
+     * @param depth levels of sub-directories to list (0 for only dirs)
+     */
+    public void listAll(List<String> dirs, int depth) {
+        final ArrayList<ListTask> tasks = new ArrayList<ListTask>();
+
+        for (String d : dirs) {
+            tasks.add(new ListTask(d, depth));
+        }
+
+        pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(tasks);
+            }
+        });
+    }
+
+    private void readCache() {
+        if (!cacheFile.exists()) {
+            return;
+        }
+
+        try {
+            DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)));
+
+            try {
+                if ((dis.readInt() != MAGIC) || (dis.readInt() != VERSION)) {
+                    return;
+                }
+
+                int n = dis.readInt();
+                for (int i=0; i<n; i++) {
+                    String dir = dis.readUTF();
+                    long modifiedTime = dis.readLong();
+                    String[] files = new String[dis.readInt()];
+                    for (int j=0; j<files.length; j++) {
+                        files[j] = dis.readUTF();
+                    }
+                    String[] directories = new String[dis.readInt()];
+                    for (int j=0; j<directories.length; j++) {
+                        directories[j] = dis.readUTF();
+                    }
+                    listings.put(dir, new DirectoryListing(modifiedTime, files, directories, true));
+                }
+            } finally {
+                dis.close();
+            }
+        } catch (IOException e) {
+            // Unreadable cache - directories will be listed again
+            listings.clear();
+        }
+    }
+
+    private synchronized void writeCache() {
+        File dir = cacheFile.getAbsoluteFile().getParentFile();
+
+        // Logs directory may be read only or shared - just go without the cache
+        if (!changed || !dir.isDirectory() || !dir.canWrite() || (cacheFile.exists() && !cacheFile.canWrite())) {
+            return;
+        }
+
+        try {
+            File tempFile = new File(cacheFile.getPath() + ".tmp");
+            DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            ArrayList<Map.Entry<String,DirectoryListing>> entries = new ArrayList<Map.Entry<String,DirectoryListing>>();
+
+            // Directories still being written to may change within the modification time resolution
+            for (Map.Entry<String,DirectoryListing> entry : listings.entrySet()) {
+                if (entry.getValue().settled) {
+                    entries.add(entry);
+                }
+            }
+
+            dos.writeInt(MAGIC);
+            dos.writeInt(VERSION);
+            dos.writeInt(entries.size());
+            for (Map.Entry<String,DirectoryListing> entry : entries) {
+                DirectoryListing listing = entry.getValue();
+                dos.writeUTF(entry.getKey());
+                dos.writeLong(listing.modifiedTime);
+                dos.writeInt(listing.files.length);
+                for (String f : listing.files) {
+                    dos.writeUTF(f);
+                }
+                dos.writeInt(listing.directories.length);
+                for (String d : listing.directories) {
+                    dos.writeUTF(d);
+                }
+            }
+            dos.close();
+
+            if (!tempFile.renameTo(cacheFile)) {
+                cacheFile.delete();
+                tempFile.renameTo(cacheFile);
+            }
+            changed = false;
+        } catch (IOException e) {
+            System.out.println("DirectoryLister exception writing " + cacheFile.getPath());
+            e.printStackTrace();
+        }
+    }
+}
@@ -48,6 +48,7 @@ public class Fast5File {
         boolean[] typesAvailable = new boolean[3];
         ProcessLogger pl = new ProcessLogger();
         ArrayList<String> response;
+        long startTime = options.getStageTimer().start();
        
         log.println("Indexing file "+filename);
 
@@ -98,6 +99,8 @@ public class Fast5File {
         }
 
         log.println("    Highest1D: "+highestBasecall1D+" Highest2D: "+highestBasecall2D);
+        
+        options.getStageTimer().stop(StageTimer.STAGE_FAST5_INDEX, startTime);
     }
     
     public double getMeanQAttribute(String attribute) {
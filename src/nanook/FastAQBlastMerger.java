@@ -21,6 +21,16 @@ public class FastAQBlastMerger implements Runnable {
         fileCounter = fc;        
     }
 
+    private void submitBlast(String commandFile, String logFile, String queue, String memory) {
+        SchedulerJob job = new SchedulerJob(new File(commandFile).getName(), new String[] {"sh", commandFile});
+        
+        job.setLogFile(logFile);
+        job.setQueue(queue);
+        job.setMemory(memory);
+        options.getLog().println("Submitting blast command file to " + options.getBlastJobScheduler().getName() + " " + commandFile);
+        options.getBlastJobScheduler().run(job);
+    }
+    
     private void runBlastBacteria() {
         File iff = new File(mergedFilePrefix);
         String inputFasta = mergedFilePrefix + "_" + fileCounter + ".fasta";
@@ -35,14 +45,7 @@ public class FastAQBlastMerger implements Runnable {
             pw.write("blastn -db "+options.getBacteriaPath()+" -query " + inputFasta + " -evalue 0.001 -show_gis -out " + outputBlast + " -outfmt "+formatString);
             pw.close();
             
-            options.getLog().println("Submitting blast command file to SLURM "+commandFile);
-            ProcessLogger pl = new ProcessLogger();
-            String[] commands = {"slurmit",
-                                 "-o", logFile,
-                                 "-p", "Nanopore",
-                                 "-m", "8G",
-                                 "sh "+commandFile};
-            pl.runCommandToLog(commands, options.getLog());            
+            submitBlast(commandFile, logFile, "Nanopore", "8G");
         } catch (IOException e) {
             System.out.println("runBlast exception");
             e.printStackTrace();
@@ -63,14 +66,7 @@ public class FastAQBlastMerger implements Runnable {
             pw.write("blastn -db "+options.getntPath()+" -query " + inputFasta + " -evalue 0.001 -show_gis -out " + outputBlast + " -outfmt "+formatString);
             pw.close();
             
-            options.getLog().println("Submitting blast command file to SLURM "+commandFile);
-            ProcessLogger pl = new ProcessLogger();
-            String[] commands = {"slurmit",
-                                 "-o", logFile,
-                                 "-p", "tgac-medium",
-                                 "-m", "16G",
-                                 "sh "+commandFile};
-            pl.runCommandToLog(commands, options.getLog());
+            submitBlast(commandFile, logFile, "tgac-medium", "16G");
         } catch (IOException e) {
             System.out.println("runBlast exception");
             e.printStackTrace();
@@ -91,14 +87,7 @@ public class FastAQBlastMerger implements Runnable {
             pw.write("blastn -db "+options.getCardPath()+" -query " + inputFasta + " -evalue 0.001 -show_gis -out " + outputBlast + " -outfmt "+formatString);
             pw.close();
             
-            options.getLog().println("Submitting blast command file to SLURM "+commandFile);
-            ProcessLogger pl = new ProcessLogger();
-            String[] commands = {"slurmit",
-                                 "-o", logFile,
-                                 "-p", "Nanopore",
-                                 "-m", "4G",
-                                 "sh "+commandFile};
-            pl.runCommandToLog(commands, options.getLog());            
+            submitBlast(commandFile, logFile, "Nanopore", "4G");
         } catch (IOException e) {
             System.out.println("runBlast exception");
             e.printStackTrace();
@@ -93,6 +93,23 @@ public class FastAQFile {
         }
     }
     
+    /**
+     * Get as FASTQ record
+     * @return record string
+     */
+    public String getFastqString() {
+        return "@" + id + "\n" + sequence + "\n+\n" + qualities + "\n";
+    }
+    
+    /**
+     * Get as FASTA record
+     * @param fast5Path path to write in header, or null
+     * @return record string
+     */
+    public String getFastaString(String fast5Path) {
+        return ">" + id + (fast5Path != null ? " " + fast5Path:"") + "\n" + sequence + "\n";
+    }
+    
     public int getLength() {
         return sequence.length();
     }
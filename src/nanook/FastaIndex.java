@@ -0,0 +1,260 @@
+/*
+ * Program: NanoOK
+ * Author:  Richard M. Leggett (richard.leggett@earlham.ac.uk)
+ *
+ * Copyright 2015-17 Earlham Institute
+ */
+
+package nanook;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.zip.CRC32;
+
+/**
+ * Index of a FASTA file, compatible with samtools faidx .fai files. An existing
+ * .fai next to the FASTA is used if it is newer than the FASTA and its last
+ * contig ends where the FASTA does, otherwise the index is built with a single
+ * scan of the memory-mapped file and saved.
+ *
+ * @author Richard Leggett
+ */
+public class FastaIndex {
+    public final static long MAP_WINDOW = 1L << 30;
+    private String fastaFilename;
+    private ArrayList<FastaIndexEntry> entries = new ArrayList<FastaIndexEntry>();
+    private Hashtable<String,FastaIndexEntry> entriesById = new Hashtable<String,FastaIndexEntry>();
+
+    /**
+     * Constructor
+     * @param f FASTA filename
+     */
+    public FastaIndex(String f) {
+        fastaFilename = f;
+    }
+
+    public String getIndexFilename() {
+        return fastaFilename + ".fai";
+    }
+
+    /**
+     * Read existing index, or build and write one
+     */
+    public void load() {
+        File fastaFile = new File(fastaFilename);
+        File indexFile = new File(getIndexFilename());
+
+        try {
+            if (indexFile.exists() && (indexFile.lastModified() >= fastaFile.lastModified())) {
+                readIndex(indexFile);
+                if (!matchesFileLength(fastaFile.length())) {
+                    System.out.println("Index file "+indexFile.getName()+" doesn't match reference size");
+                    entries.clear();
+                    entriesById.clear();
+                }
+            }
+            
+            if (entries.size() > 0) {
+                System.out.println("Using index file "+indexFile.getName());
+            } else {
+                System.out.println("Indexing reference");
+                buildIndex(fastaFile);
+                writeIndex(indexFile);
+            }
+        } catch (IOException e) {
+            System.out.println("FastaIndex Exception:");
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    private void addEntry(FastaIndexEntry e) {
+        entries.add(e);
+        entriesById.put(e.getId(), e);
+    }
+
+    /**
+     * Read a .fai file
+     */
+    private void readIndex(File indexFile) throws IOException {
+        BufferedReader br = new BufferedReader(new FileReader(indexFile));
+        String line;
+
+        while ((line = br.readLine()) != null) {
+            String[] values = line.split("\\t");
+            if (values.length >= 5) {
+                addEntry(new FastaIndexEntry(values[0],
+                                             Long.parseLong(values[1]),
+                                             Long.parseLong(values[2]),
+                                             Integer.parseInt(values[3]),
+                                             Integer.parseInt(values[4])));
+            }
+        }
+
+        br.close();
+    }
+
+    /**
+     * Check entries read from a .fai file fit the size of the FASTA file - the
+     * last contig must end at the end of the file, allowing for a missing final
+     * newline or a trailing blank line
+     * @param fileLength size of FASTA file
+     * @return true if index matches
+     */
+    private boolean matchesFileLength(long fileLength) {
+        if (entries.size() == 0) {
+            return false;
+        }
+        
+        FastaIndexEntry e = entries.get(entries.size() - 1);
+        long lineBases = e.getLineBases();
+        long newlineBytes = e.getLineWidth() - lineBases;
+        long end = e.getOffset();
+        
+        if (lineBases > 0) {
+            end += (e.getLength() / lineBases) * e.getLineWidth();
+            if ((e.getLength() % lineBases) > 0) {
+                end += (e.getLength() % lineBases) + newlineBytes;
+            }
+        }
+        
+        return Math.abs(fileLength - end) <= newlineBytes;
+    }
+
+    /**
+     * Write a .fai file. Failure isn't fatal, as the reference may be in a read-only directory.
+     */
+    private void writeIndex(File indexFile) {
+        try {
+            PrintWriter pw = new PrintWriter(new FileWriter(indexFile));
+            for (int i=0; i<entries.size(); i++) {
+                FastaIndexEntry e = entries.get(i);
+                pw.println(e.getId() + "\t" + e.getLength() + "\t" + e.getOffset() + "\t" + e.getLineBases() + "\t" + e.getLineWidth());
+            }
+            pw.close();
+        } catch (IOException e) {
+            System.out.println("Warning: couldn't write index file "+indexFile.getPath());
+        }
+    }
+
+    /**
+     * Build index by scanning FASTA file
+     */
+    private void buildIndex(File fastaFile) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(fastaFile, "r");
+        FileChannel channel = raf.getChannel();
+        long fileLength = channel.size();
+        StringBuilder id = null;
+        boolean inHeader = false;
+        boolean inId = false;
+        boolean atLineStart = true;
+        long offset = 0;
+        long length = 0;
+        int lineBases = 0;
+        int lineBytes = 0;
+        int firstLineBases = 0;
+        int firstLineWidth = 0;
+
+        for (long windowStart = 0; windowStart < fileLength; windowStart += MAP_WINDOW) {
+            long windowSize = Math.min(MAP_WINDOW, fileLength - windowStart);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, windowSize);
+
+            for (int i=0; i<windowSize; i++) {
+                byte b = buffer.get(i);
+
+                if (inHeader) {
+                    if (b == '\n') {
+                        inHeader = false;
+                        atLineStart = true;
+                        offset = windowStart + i + 1;
+                    } else if (inId) {
+                        if (b <= ' ') {
+                            inId = false;
+                        } else {
+                            id.append((char)b);
+                        }
+                    }
+                } else if (atLineStart && (b == '>')) {
+                    if (id != null) {
+                        addEntry(new FastaIndexEntry(id.toString(), length, offset, firstLineBases, firstLineWidth));
+                    }
+                    id = new StringBuilder();
+                    inHeader = true;
+                    inId = true;
+                    atLineStart = false;
+                    length = 0;
+                    firstLineBases = 0;
+                    firstLineWidth = 0;
+                } else if (b == '\n') {
+                    if ((firstLineBases == 0) && (lineBases > 0)) {
+                        firstLineBases = lineBases;
+                        firstLineWidth = lineBytes + 1;
+                    }
+                    lineBases = 0;
+                    lineBytes = 0;
+                    atLineStart = true;
+                } else {
+                    atLineStart = false;
+                    lineBytes++;
+                    if (b > ' ') {
+                        lineBases++;
+                        length++;
+                    }
+                }
+            }
+        }
+
+        if (id != null) {
+            if ((firstLineBases == 0) && (lineBases > 0)) {
+                firstLineBases = lineBases;
+                firstLineWidth = lineBytes;
+            }
+            addEntry(new FastaIndexEntry(id.toString(), length, offset, firstLineBases, firstLineWidth));
+        }
+
+        raf.close();
+    }
+
+    /**
+     * Get all entries, in file order
+     * @return list of entries
+     */
+    public ArrayList<FastaIndexEntry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * Get checksum of index contents, which changes if any contig is renamed,
+     * resized or moved
+     * @return CRC32 of index
+     */
+    public long getChecksum() {
+        CRC32 crc = new CRC32();
+
+        for (int i=0; i<entries.size(); i++) {
+            FastaIndexEntry e = entries.get(i);
+            String line = e.getId() + "\t" + e.getLength() + "\t" + e.getOffset() + "\t" + e.getLineBases() + "\t" + e.getLineWidth() + "\n";
+            crc.update(line.getBytes());
+        }
+
+        return crc.getValue();
+    }
+
+    /**
+     * Get entry for a sequence ID
+     * @param id sequence ID
+     * @return entry, or null if not present
+     */
+    public FastaIndexEntry getEntry(String id) {
+        return entriesById.get(id);
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Program: NanoOK
+ * Author:  Richard M. Leggett (richard.leggett@earlham.ac.uk)
+ *
+ * Copyright 2015-17 Earlham Institute
+ */
+
+package nanook;
+
+/**
+ * A single line of a FASTA (.fai) index.
+ *
+ * @author Richard Leggett
+ */
+public class FastaIndexEntry {
+    private String id;
+    private long length;
+    private long offset;
+    private int lineBases;
+    private int lineWidth;
+
+    /**
+     * Constructor
+     * @param i sequence ID
+     * @param len number of bases
+     * @param off file offset of first base
+     * @param lb bases per line
+     * @param lw bytes per line, including line ending
+     */
+    public FastaIndexEntry(String i, long len, long off, int lb, int lw) {
+        id = i;
+        length = len;
+        offset = off;
+        lineBases = lb;
+        lineWidth = lw;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public int getLineBases() {
+        return lineBases;
+    }
+
+    public int getLineWidth() {
+        return lineWidth;
+    }
+}
@@ -40,6 +40,10 @@ public class GraphMapParser extends SAMParser implements AlignmentFileParser {
     public boolean outputsToStdout() {
         return false;
     }
+
+    public String getStreamCommand(String reference) {
+        return null;
+    }
         
     public String getRunCommand(String query, String output, String reference) {
         //reference = reference.replaceAll("\\.fasta$", "");
@@ -0,0 +1,155 @@
+/*
+ * Program: NanoOK
+ * Author:  Richard M. Leggett (richard.leggett@earlham.ac.uk)
+ *
+ * Copyright 2015-17 Earlham Institute
+ */
+
+package nanook;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Hashtable;
+
+/**
+ * Records a hash of the data behind each set of output files (graphs for a
+ * reference, a report page), so that on the next run anything whose data
+ * hasn't changed can be left alone. One line per key - key, hash, then the
+ * names of the files written.
+ *
+ * @author Richard Leggett
+ */
+public class HashManifest {
+    private String filename;
+    private Hashtable<String,String> previousEntries = new Hashtable<String,String>();
+    private Hashtable<String,String> entries = new Hashtable<String,String>();
+    private int unchangedCount = 0;
+
+    /**
+     * Constructor - reads manifest from last run, if there is one
+     * @param f manifest filename
+     */
+    public HashManifest(String f) {
+        filename = f;
+        read();
+    }
+
+    private void read() {
+        File f = new File(filename);
+
+        if (!f.exists()) {
+            return;
+        }
+
+        try {
+            BufferedReader br = new BufferedReader(new FileReader(f));
+            String line;
+            while ((line = br.readLine()) != null) {
+                int tab = line.indexOf('\t');
+                if (tab > 0) {
+                    previousEntries.put(line.substring(0, tab), line.substring(tab + 1));
+                }
+            }
+            br.close();
+        } catch (IOException e) {
+            System.out.println("Warning: couldn't read " + filename + " - regenerating all files");
+            previousEntries.clear();
+        }
+    }
+
+    /**
+     * 64-bit FNV-1a hash of a string, e.g. the content of a page
+     * @param s string
+     * @return hash
+     */
+    public static long hashString(String s) {
+        long h = 0xcbf29ce484222325L;
+
+        for (int i=0; i<s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+
+        return h;
+    }
+
+    private static String getEntry(long hash, ArrayList<String> filenames) {
+        StringBuilder sb = new StringBuilder(Long.toHexString(hash));
+
+        for (int i=0; i<filenames.size(); i++) {
+            sb.append("\t");
+            sb.append(new File(filenames.get(i)).getName());
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Check if files were written last time from the same data, and are still there.
+     * If so, the entry is carried over to the new manifest.
+     * @param key key, e.g. reference name
+     * @param hash hash of data
+     * @param filenames files written from the data
+     * @return true if files needn't be written again
+     */
+    public boolean isUpToDate(String key, long hash, ArrayList<String> filenames) {
+        String entry = getEntry(hash, filenames);
+
+        if (!entry.equals(previousEntries.get(key))) {
+            return false;
+        }
+
+        for (int i=0; i<filenames.size(); i++) {
+            if (!new File(filenames.get(i)).exists()) {
+                return false;
+            }
+        }
+
+        synchronized(this) {
+            entries.put(key, entry);
+            unchangedCount++;
+        }
+
+        return true;
+    }
+
+    /**
+     * Record hash of files written
+     * @param key key, e.g. reference name
+     * @param hash hash of data
+     * @param filenames files written from the data
+     */
+    public synchronized void setHash(String key, long hash, ArrayList<String> filenames) {
+        entries.put(key, getEntry(hash, filenames));
+    }
+
+    /**
+     * Get number of keys found to be up to date
+     * @return count
+     */
+    public synchronized int getUnchangedCount() {
+        return unchangedCount;
+    }
+
+    /**
+     * Write manifest, with only the keys checked or set this run
+     */
+    public synchronized void write() {
+        try {
+            PrintWriter pw = new PrintWriter(new FileWriter(filename));
+            for (String key : entries.keySet()) {
+                pw.println(key + "\t" + entries.get(key));
+            }
+            pw.close();
+        } catch (IOException e) {
+            System.out.println("HashManifest exception:");
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,32 @@
+/*
+ * Program: NanoOK
+ * Author:  Richard M. Leggett (richard.leggett@earlham.ac.uk)
+ *
+ * Copyright 2015-17 Earlham Institute
+ */
+
+package nanook;
+
+/**
+ * Writes the HTML report page for one reference.
+ *
+ * @author Richard Leggett
+ */
+public class HtmlReportRunnable implements Runnable {
+    private HtmlReportWriter writer;
+    private ReferenceSequence reference;
+
+    /**
+     * Constructor
+     * @param w report writer
+     * @param r reference
+     */
+    public HtmlReportRunnable(HtmlReportWriter w, ReferenceSequence r) {
+        writer = w;
+        reference = r;
+    }
+
+    public void run() {
+        writer.writeReferencePage(reference);
+    }
+}
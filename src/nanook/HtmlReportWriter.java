@@ -0,0 +1,507 @@
+/*
+ * Program: NanoOK
+ * Author:  Richard M. Leggett (richard.leggett@earlham.ac.uk)
+ *
+ * Copyright 2015-17 Earlham Institute
+ */
+
+package nanook;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes an HTML report, as an alternative to the LaTeX report and pdflatex.
+ * The report is split into an index page, paginated reference summary tables
+ * and a page per reference, written in parallel. A page is only rewritten if
+ * its content has changed since the last run, so the report can be refreshed
+ * cheaply during a run. Summary statistics are also written as JSON.
+ *
+ * @author Richard Leggett
+ */
+public class HtmlReportWriter {
+    private static final int REFERENCES_PER_PAGE = 100;
+    private NanoOKOptions options;
+    private References references;
+    private OverallStats overallStats;
+    private String htmlDir;
+    private String referencesDir;
+    private HashManifest manifest;
+    private ArrayList<ReferenceSequence> reportedRefs = new ArrayList<ReferenceSequence>();
+
+    /**
+     * Constructor.
+     * @param o a NanoOKOptions object
+     * @param s overall statistics
+     */
+    public HtmlReportWriter(NanoOKOptions o, OverallStats s) {
+        options = o;
+        references = options.getReferences();
+        overallStats = s;
+        htmlDir = options.getHtmlDir();
+        referencesDir = htmlDir + File.separator + "references";
+    }
+
+    /**
+     * Escape text for HTML
+     */
+    private static String escape(String s) {
+        return s.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+
+    /**
+     * Escape text for JSON
+     */
+    private static String jsonString(String s) {
+        StringBuilder sb = new StringBuilder("\"");
+
+        for (int i=0; i<s.length(); i++) {
+            char c = s.charAt(i);
+            if ((c == '"') || (c == '\\')) {
+                sb.append('\\').append(c);
+            } else if (c < ' ') {
+                sb.append(String.format("\\u%04x", (int)c));
+            } else {
+                sb.append(c);
+            }
+        }
+
+        return sb.append('"').toString();
+    }
+
+    /**
+     * Get filename of a reference's page. Names that differ only in characters
+     * replaced by _ (e.g. a|b and a_b) would share a page, so the reference's
+     * index is added to keep them apart.
+     */
+    private static String getPageFilename(ReferenceSequence refSeq) {
+        return refSeq.getName().replaceAll("[^A-Za-z0-9._-]", "_") + "_" + refSeq.getIndex() + ".html";
+    }
+
+    private static String getSummaryPageFilename(int type, int page) {
+        return "references_" + NanoOKOptions.getTypeFromInt(type) + "_" + page + ".html";
+    }
+
+    private void writeHeader(StringBuilder sb, String title, String root) {
+        sb.append("<!DOCTYPE html>\n<html>\n<head>\n<meta charset=\"utf-8\">\n");
+        sb.append("<title>" + escape(title) + "</title>\n");
+        sb.append("<link rel=\"stylesheet\" href=\"" + root + "nanook.css\">\n");
+        sb.append("</head>\n<body>\n");
+        sb.append("<p class=\"nav\"><a href=\"" + root + "index.html\">" + escape(options.getSample()) + "</a></p>\n");
+        sb.append("<h1>" + escape(title) + "</h1>\n");
+    }
+
+    private void writeFooter(StringBuilder sb) {
+        sb.append("</body>\n</html>\n");
+    }
+
+    /**
+     * Add an image, if it exists, with path relative to the page
+     * @param sb page
+     * @param type read type, or TYPE_ALL
+     * @param filename image filename, without extension
+     * @param pageDir directory of page
+     */
+    private void addImageIfExists(StringBuilder sb, int type, String filename, String pageDir) {
+        if (options.isProcessingReadType(type)) {
+            String format = options.getImageFormat();
+            File f = new File(filename + "." + format);
+
+            if (f.exists()) {
+                String path = new File(pageDir).getAbsoluteFile().toPath().relativize(f.getAbsoluteFile().toPath()).toString().replace(File.separatorChar, '/');
+                if (format.equals("png")) {
+                    sb.append("<img src=\"" + escape(path) + "\">\n");
+                } else {
+                    sb.append("<a href=\"" + escape(path) + "\">" + escape(f.getName()) + "</a>\n");
+                }
+            }
+        }
+    }
+
+    /**
+     * Add an image for each read type being processed
+     */
+    private void addTypeImages(StringBuilder sb, String prefix, String suffix, String pageDir) {
+        sb.append("<div class=\"graphs\">\n");
+        for (int type=0; type<3; type++) {
+            addImageIfExists(sb, type, prefix + NanoOKOptions.getTypeFromInt(type) + suffix, pageDir);
+        }
+        sb.append("</div>\n");
+    }
+
+    /**
+     * Write a page, unless its content is the same as last time
+     * @param key manifest key
+     * @param filename page filename
+     * @param content page content
+     */
+    private void writePage(String key, String filename, String content) {
+        long hash = HashManifest.hashString(content);
+        ArrayList<String> filenames = new ArrayList<String>();
+
+        filenames.add(filename);
+        if (manifest.isUpToDate(key, hash, filenames)) {
+            return;
+        }
+
+        try {
+            PrintWriter pw = new PrintWriter(new FileWriter(filename));
+            pw.print(content);
+            pw.close();
+        } catch (IOException e) {
+            System.out.println("HtmlReportWriter exception:");
+            e.printStackTrace();
+            System.exit(1);
+        }
+
+        manifest.setHash(key, hash, filenames);
+    }
+
+    private void writeStylesheet() {
+        StringBuilder sb = new StringBuilder();
+
+        sb.append("body { font-family: sans-serif; font-size: 10pt; margin: 1em 2em; }\n");
+        sb.append("h1 { font-size: 14pt; }\n");
+        sb.append("h2 { font-size: 12pt; margin-top: 1.5em; }\n");
+        sb.append("table { border-collapse: collapse; }\n");
+        sb.append("th, td { padding: 2px 8px; text-align: right; }\n");
+        sb.append("th:first-child, td:first-child { text-align: left; }\n");
+        sb.append("tr:nth-child(even) { background: #f0f0f0; }\n");
+        sb.append(".graphs img { height: 240px; margin: 2px; }\n");
+        sb.append(".nav { font-size: 9pt; }\n");
+
+        writePage("nanook.css", htmlDir + File.separator + "nanook.css", sb.toString());
+    }
+
+    /**
+     * Write the index page - overall statistics, with links to reference pages
+     */
+    private void writeIndexPage() {
+        StringBuilder sb = new StringBuilder();
+
+        writeHeader(sb, "NanoOK report for " + options.getSample(), "");
+
+        if (options.usingPassFailDirs()) {
+            sb.append("<h2>Pass and fail counts</h2>\n<table>\n<tr><th>Type</th><th>Pass</th><th>Fail</th></tr>\n");
+            for (int type=0; type<3; type++) {
+                if (options.isProcessingReadType(type)) {
+                    ReadSetStats r = overallStats.getStatsByType(type);
+                    sb.append(String.format("<tr><td>%s</td><td>%d</td><td>%d</td></tr>\n", r.getTypeString(), r.getNumberOfPassFiles(), r.getNumberOfFailFiles()));
+                }
+            }
+            sb.append("</table>\n");
+        }
+
+        sb.append("<h2>Read lengths</h2>\n<table>\n");
+        sb.append("<tr><th>Type</th><th>NumReads</th><th>TotalBases</th><th>Mean</th><th>Longest</th><th>Shortest</th><th>N50</th><th>N50Count</th><th>N90</th><th>N90Count</th></tr>\n");
+        for (int type=0; type<3; type++) {
+            if (options.isProcessingReadType(type)) {
+                ReadSetStats r = overallStats.getStatsByType(type);
+                sb.append(String.format("<tr><td>%s</td><td>%d</td><td>%d</td><td>%.2f</td><td>%d</td><td>%d</td><td>%d</td><td>%d</td><td>%d</td><td>%d</td></tr>\n", r.getTypeString(), r.getNumReads(), r.getTotalBases(), r.getMeanLength(), r.getLongest(), r.getShortest(), r.getN50(), r.getN50Count(), r.getN90(), r.getN90Count()));
+            }
+        }
+        sb.append("</table>\n");
+        addTypeImages(sb, options.getGraphsDir() + File.separator + "all_", "_lengths", htmlDir);
+
+        for (int type=0; type<3; type++) {
+            if (options.isProcessingReadType(type)) {
+                ReadSetStats stats = overallStats.getStatsByType(type);
+                int pages = Math.max(1, (reportedRefs.size() + REFERENCES_PER_PAGE - 1) / REFERENCES_PER_PAGE);
+
+                sb.append("<h2>" + stats.getTypeString() + " alignments</h2>\n<table>\n");
+                sb.append("<tr><td>Number of reads</td><td>" + stats.getNumberOfReads() + "</td><td></td></tr>\n");
+                sb.append(String.format("<tr><td>Number of reads with alignments</td><td>%d</td><td>(%.2f%%)</td></tr>\n", stats.getNumberOfReadsWithAlignments(), stats.getPercentOfReadsWithAlignments()));
+                sb.append(String.format("<tr><td>Number of reads without alignments</td><td>%d</td><td>(%.2f%%)</td></tr>\n", stats.getNumberOfReadsWithoutAlignments(), stats.getPercentOfReadsWithoutAlignments()));
+                sb.append("<tr><td>Longest alignment</td><td>" + stats.getLongestAlignmentSizeInSet() + "</td><td></td></tr>\n");
+                sb.append("</table>\n<p>References:");
+                for (int p=0; p<pages; p++) {
+                    sb.append(" <a href=\"" + getSummaryPageFilename(type, p) + "\">" + (p + 1) + "</a>");
+                }
+                sb.append("</p>\n");
+            }
+        }
+
+        sb.append("<h2>All reference 21mer analysis</h2>\n");
+        addTypeImages(sb, options.getGraphsDir() + File.separator + "all_", "_21mers", htmlDir);
+
+        sb.append("<h2>All reference substitutions</h2>\n<table>\n<tr><th>Reference</th>");
+        for (int type=0; type<3; type++) {
+            if (options.isProcessingReadType(type)) {
+                String t = NanoOKOptions.getTypeFromInt(type);
+                sb.append("<th>" + t + " a</th><th>" + t + " c</th><th>" + t + " g</th><th>" + t + " t</th>");
+            }
+        }
+        sb.append("</tr>\n");
+        for (int r=0; r<4; r++) {
+            sb.append("<tr><td>" + "acgt".charAt(r) + "</td>");
+            for (int type=0; type<3; type++) {
+                if (options.isProcessingReadType(type)) {
+                    int subs[][] = overallStats.getStatsByType(type).getSubstitutionErrors();
+                    double nSubstitutions = (double)overallStats.getStatsByType(type).getNumberOfSubstitutions();
+                    for (int s=0; s<4; s++) {
+                        sb.append(String.format("<td>%.2f</td>", (100.0 * (double)subs[r][s]) / nSubstitutions));
+                    }
+                }
+            }
+            sb.append("</tr>\n");
+        }
+        sb.append("</table>\n");
+
+        writeFooter(sb);
+        writePage("index", htmlDir + File.separator + "index.html", sb.toString());
+    }
+
+    /**
+     * Write one page of the reference summary table for a read type
+     * @param type read type
+     * @param page page number, from 0
+     * @param pages number of pages
+     */
+    private void writeSummaryPage(int type, int page, int pages) {
+        StringBuilder sb = new StringBuilder();
+        String typeString = NanoOKOptions.getTypeFromInt(type);
+        int nReads = overallStats.getStatsByType(type).getNumberOfReads();
+
+        writeHeader(sb, typeString + " references (page " + (page + 1) + " of " + pages + ")", "");
+        sb.append("<p>");
+        if (page > 0) {
+            sb.append("<a href=\"" + getSummaryPageFilename(type, page - 1) + "\">Previous</a> ");
+        }
+        if (page < (pages - 1)) {
+            sb.append("<a href=\"" + getSummaryPageFilename(type, page + 1) + "\">Next</a>");
+        }
+        sb.append("</p>\n<table>\n");
+        sb.append("<tr><th>ID</th><th>Size</th><th>Number of reads</th><th>% of reads</th><th>Mean read length</th><th>Aligned bases</th><th>Mean coverage</th><th>Longest perfect kmer</th><th>Longest alignment</th></tr>\n");
+
+        for (int i=page*REFERENCES_PER_PAGE; i<Math.min(reportedRefs.size(), (page+1)*REFERENCES_PER_PAGE); i++) {
+            ReferenceSequence r = reportedRefs.get(i);
+            ReferenceSequenceStats refStats = r.getStatsByType(type);
+            String name = escape(r.getName());
+
+            if (r.getTotalNumberOfAlignments() > NanoOKOptions.MIN_ALIGNMENTS) {
+                name = "<a href=\"references/" + escape(getPageFilename(r)) + "\">" + name + "</a>";
+            }
+
+            sb.append(String.format("<tr><td>%s</td><td>%d</td><td>%d</td><td>%.2f</td><td>%.2f</td><td>%d</td><td>%.2f</td><td>%d</td><td>%d</td></tr>\n",
+                       name,
+                       r.getSize(),
+                       refStats.getNumberOfReadsWithAlignments(),
+                       100.0 * (double)refStats.getNumberOfReadsWithAlignments() / (double)nReads,
+                       refStats.getMeanReadLength(),
+                       refStats.getTotalAlignedBases(),
+                       (double)refStats.getTotalAlignedBases() / r.getSize(),
+                       refStats.getLongestPerfectKmer(),
+                       refStats.getLongestAlignmentSize()));
+        }
+
+        sb.append("</table>\n");
+        writeFooter(sb);
+        writePage(getSummaryPageFilename(type, page), htmlDir + File.separator + getSummaryPageFilename(type, page), sb.toString());
+    }
+
+    /**
+     * Write 5-mer table rows for one end of the sorted abundance list
+     */
+    private void addKmerRows(StringBuilder sb, ReferenceSequence refSeq, boolean over) {
+        for (int i=0; i<10; i++) {
+            sb.append("<tr><td>" + (i + 1) + "</td>");
+            for (int type=0; type<3; type++) {
+                if (options.isProcessingReadType(type)) {
+                    ArrayList<KmerAbundance> ka = refSeq.getStatsByType(type).getKmerAbundance();
+                    if (i < ka.size()) {
+                        KmerAbundance k = over ? ka.get(i) : ka.get(ka.size() - 1 - i);
+                        sb.append(String.format("<td>%s</td><td>%.3f</td><td>%.3f</td><td>%.3f</td>", k.getKmer(), k.getRefAbundance(), k.getReadAbundance(), k.getDifference()));
+                    } else {
+                        sb.append("<td></td><td></td><td></td><td></td>");
+                    }
+                }
+            }
+            sb.append("</tr>\n");
+        }
+    }
+
+    /**
+     * Write the page for one reference. Called from HtmlReportRunnable.
+     * @param refSeq reference
+     */
+    public void writeReferencePage(ReferenceSequence refSeq) {
+        StringBuilder sb = new StringBuilder();
+        String prefix = options.getGraphsDir() + File.separator + refSeq.getName() + File.separator + refSeq.getName() + "_";
+        String[] labels = {"Overall base identity (excluding indels)",
+                           "Aligned base identity (excluding indels)",
+                           "Identical bases per 100 aligned bases (including indels)",
+                           "Inserted bases per 100 aligned bases (including indels)",
+                           "Deleted bases per 100 aligned bases (including indels)",
+                           "Substitutions per 100 aligned bases (including indels)",
+                           "Mean insertion size",
+                           "Mean deletion size"};
+
+        writeHeader(sb, refSeq.getName(), "../");
+
+        sb.append("<h2>Error analysis</h2>\n<table>\n<tr><th></th>");
+        for (int type=0; type<3; type++) {
+            if (options.isProcessingReadType(type)) {
+                sb.append("<th>" + NanoOKOptions.getTypeFromInt(type) + "</th>");
+            }
+        }
+        sb.append("</tr>\n");
+        for (int i=0; i<labels.length; i++) {
+            sb.append("<tr><td>" + labels[i] + "</td>");
+            for (int type=0; type<3; type++) {
+                if (options.isProcessingReadType(type)) {
+                    ReferenceSequenceStats s = refSeq.getStatsByType(type);
+                    double[] values = {s.getReadPercentIdentical(), s.getAlignedPercentIdenticalWithoutIndels(), s.getAlignedPercentIdentical(),
+                                       s.getPercentInsertionErrors(), s.getPercentDeletionErrors(), s.getPercentSubstitutionErrors(),
+                                       s.getMeanInsertionSize(), s.getMeanDeletionSize()};
+                    sb.append(String.format(i < 6 ? "<td>%.2f%%</td>" : "<td>%.2f</td>", values[i]));
+                }
+            }
+            sb.append("</tr>\n");
+        }
+        sb.append("</table>\n");
+        addTypeImages(sb, prefix, "_insertions", referencesDir);
+        addTypeImages(sb, prefix, "_deletions", referencesDir);
+
+        sb.append("<h2>Read identity</h2>\n");
+        addTypeImages(sb, prefix, "_length_vs_identity_hist", referencesDir);
+        addTypeImages(sb, prefix, "_length_vs_identity_scatter", referencesDir);
+        addTypeImages(sb, prefix, "_read_fraction_vs_alignment_identity_scatter", referencesDir);
+        addTypeImages(sb, prefix, "_percent_aligned_vs_length_scatter", referencesDir);
+
+        sb.append("<h2>Perfect kmers</h2>\n");
+        addTypeImages(sb, prefix, "_cumulative_perfect_kmers", referencesDir);
+        addTypeImages(sb, prefix, "_best_perfect_kmers", referencesDir);
+        addTypeImages(sb, prefix, "_longest_perfect_vs_length_scatter", referencesDir);
+
+        sb.append("<h2>Coverage</h2>\n");
+        addTypeImages(sb, prefix, "_coverage", referencesDir);
+        sb.append("<div class=\"graphs\">\n");
+        addImageIfExists(sb, NanoOKOptions.TYPE_ALL, prefix + "gc", referencesDir);
+        sb.append("</div>\n");
+
+        for (int type=0; type<3; type++) {
+            if (options.isProcessingReadType(type)) {
+                refSeq.getStatsByType(type).sortKmerAbundance();
+            }
+        }
+        sb.append("<h2>5-mer analysis</h2>\n");
+        for (int over=0; over<2; over++) {
+            sb.append("<h3>" + (over == 0 ? "Under" : "Over") + "-represented 5-mers</h3>\n<table>\n<tr><th></th>");
+            for (int type=0; type<3; type++) {
+                if (options.isProcessingReadType(type)) {
+                    String t = NanoOKOptions.getTypeFromInt(type);
+                    sb.append("<th>" + t + " kmer</th><th>% Ref</th><th>% Reads</th><th>Difference</th>");
+                }
+            }
+            sb.append("</tr>\n");
+            addKmerRows(sb, refSeq, over == 1);
+            sb.append("</table>\n");
+        }
+        addTypeImages(sb, prefix, "_kmer_scatter", referencesDir);
+
+        sb.append("<h2>GC content</h2>\n");
+        addTypeImages(sb, prefix, "_GC_hist", referencesDir);
+
+        writeFooter(sb);
+        writePage("reference:" + refSeq.getName(), referencesDir + File.separator + getPageFilename(refSeq), sb.toString());
+    }
+
+    /**
+     * Write summary statistics as JSON, one reference at a time
+     */
+    private void writeJSON() {
+        String filename = htmlDir + File.separator + "report.json";
+
+        try {
+            PrintWriter pw = new PrintWriter(new FileWriter(filename));
+
+            pw.println("{");
+            pw.println("  \"sample\": " + jsonString(options.getSample()) + ",");
+            pw.println("  \"readSets\": {");
+            boolean first = true;
+            for (int type=0; type<3; type++) {
+                if (options.isProcessingReadType(type)) {
+                    ReadSetStats r = overallStats.getStatsByType(type);
+                    pw.println((first ? "" : ",\n") + "    " + jsonString(r.getTypeString()) + ": {");
+                    pw.println("      \"reads\": " + r.getNumReads() + ", \"bases\": " + r.getTotalBases() + ", \"meanLength\": " + String.format("%.2f", r.getMeanLength()) + ",");
+                    pw.println("      \"longest\": " + r.getLongest() + ", \"shortest\": " + r.getShortest() + ", \"n50\": " + r.getN50() + ", \"n90\": " + r.getN90() + ",");
+                    pw.print("      \"readsWithAlignments\": " + r.getNumberOfReadsWithAlignments() + ", \"readsWithoutAlignments\": " + r.getNumberOfReadsWithoutAlignments() + "\n    }");
+                    first = false;
+                }
+            }
+            pw.println("");
+            pw.println("  },");
+            pw.println("  \"references\": [");
+            for (int i=0; i<reportedRefs.size(); i++) {
+                ReferenceSequence ref = reportedRefs.get(i);
+                pw.print("    {\"name\": " + jsonString(ref.getName()) + ", \"size\": " + ref.getSize());
+                for (int type=0; type<3; type++) {
+                    if (options.isProcessingReadType(type)) {
+                        ReferenceSequenceStats s = ref.getStatsByType(type);
+                        pw.print(", " + jsonString(NanoOKOptions.getTypeFromInt(type)) + ": {\"reads\": " + s.getNumberOfReadsWithAlignments());
+                        pw.print(", \"alignedBases\": " + s.getTotalAlignedBases());
+                        pw.print(String.format(", \"meanReadLength\": %.2f, \"identity\": %.2f}", s.getMeanReadLength(), s.getReadPercentIdentical()));
+                    }
+                }
+                pw.println(i < (reportedRefs.size() - 1) ? "}," : "}");
+            }
+            pw.println("  ]");
+            pw.println("}");
+            pw.close();
+        } catch (IOException e) {
+            System.out.println("HtmlReportWriter exception:");
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Write the HTML report.
+     */
+    public void writeReport() throws InterruptedException {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(options.getNumberOfThreads(), options.getNumberOfThreads(), 10, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        ArrayList<ReferenceSequence> sortedRefs = references.getSortedReferences();
+
+        new File(referencesDir).mkdirs();
+        manifest = new HashManifest(htmlDir + File.separator + "page_hashes.txt");
+
+        // As the LaTeX report, large reference sets only list references with alignments
+        for (int i=0; i<sortedRefs.size(); i++) {
+            ReferenceSequence r = sortedRefs.get(i);
+            if ((sortedRefs.size() < 100) || (r.getTotalNumberOfAlignments() > 0)) {
+                reportedRefs.add(r);
+            }
+        }
+
+        for (int i=0; i<reportedRefs.size(); i++) {
+            if (reportedRefs.get(i).getTotalNumberOfAlignments() > NanoOKOptions.MIN_ALIGNMENTS) {
+                executor.execute(new HtmlReportRunnable(this, reportedRefs.get(i)));
+            }
+        }
+
+        writeStylesheet();
+        writeIndexPage();
+        for (int type=0; type<3; type++) {
+            if (options.isProcessingReadType(type)) {
+                int pages = Math.max(1, (reportedRefs.size() + REFERENCES_PER_PAGE - 1) / REFERENCES_PER_PAGE);
+                for (int p=0; p<pages; p++) {
+                    writeSummaryPage(type, p, pages);
+                }
+            }
+        }
+        writeJSON();
+
+        executor.shutdown();
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+
+        manifest.write();
+        System.out.println("Report written to " + htmlDir + File.separator + "index.html (" + manifest.getUnchangedCount() + " pages unchanged)");
+    }
+}
@@ -0,0 +1,568 @@
+/*
+ * Program: NanoOK
+ * Author:  Richard M. Leggett (richard.leggett@earlham.ac.uk)
+ *
+ * Copyright 2015-17 Earlham Institute
+ */
+
+package nanook;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Seed-chain-extend aligner for small references. Minimizers of the read are
+ * looked up in an InternalAlignerIndex, hits on each strand are chained by
+ * dynamic programming, and the gaps between the anchors of each chain are
+ * filled in with banded affine-gap global alignment. Each chain is then
+ * extended towards the ends of the read with banded alignment, stopping at
+ * the best scoring point (X-drop, as LAST does). Scores use the same
+ * scheme as the default LAST parameters (match 1, mismatch -1, gap existence
+ * 1, gap extension 1).
+ *
+ * @author Richard Leggett
+ */
+public class InternalAligner {
+    private final static int MATCH = 1;
+    private final static int MISMATCH = -1;
+    private final static int GAP_OPEN = 1;
+    private final static int GAP_EXTEND = 1;
+    private final static int BAND = 64;
+    private final static int X_DROP = 30;
+    private final static int MAX_GAP = 5000;
+    private final static int MAX_PREDECESSORS = 50;
+    private final static int MIN_ANCHORS = 3;
+    private final static int MIN_CHAIN_SCORE = 40;
+    private final static int MAX_CHAINS = 10;
+    private final static int NEG = Integer.MIN_VALUE / 2;
+    private InternalAlignerIndex index;
+    private byte[] trace = new byte[0];
+
+    /**
+     * Constructor
+     * @param i reference index
+     */
+    public InternalAligner(InternalAlignerIndex i) {
+        index = i;
+    }
+
+    /**
+     * Align a read
+     * @param readId read ID
+     * @param sequence read sequence
+     * @return list of alignments, one per chain
+     */
+    public ArrayList<Alignment> align(String readId, String sequence) {
+        ArrayList<Alignment> alignments = new ArrayList<Alignment>();
+        int length = sequence.length();
+        byte[] forward = new byte[length];
+        byte[] reverse = new byte[length];
+        long[][] anchors = {new long[256], new long[256]};
+        int[] nAnchors = {0, 0};
+
+        for (int i=0; i<length; i++) {
+            int c = InternalAlignerIndex.getCode(sequence.charAt(i));
+            forward[i] = (byte)c;
+            reverse[length - 1 - i] = (byte)(c < 0 ? -1 : 3 - c);
+        }
+
+        // Anchors are packed as reference position << 32 | query position, with query
+        // positions for the reverse strand given on the reverse complement of the read
+        long[] minimizers = InternalAlignerIndex.getMinimizers(forward, length);
+        for (int m=0; m<minimizers.length; m++) {
+            long range = index.findHits(minimizers[m] >>> 33);
+            int start = (int)range;
+            int end = (int)(range >>> 32);
+
+            if ((end - start) > InternalAlignerIndex.MAX_OCCURRENCES) {
+                continue;
+            }
+
+            int queryPosition = (int)((minimizers[m] >>> 1) & 0xFFFFFFFFL);
+            for (int h=start; h<end; h++) {
+                long key = index.getKey(h);
+                long refPosition = (key >>> 1) & 0xFFFFFFFFL;
+                int strand = (int)((key ^ minimizers[m]) & 1);
+                int q = strand == 0 ? queryPosition : length - queryPosition - InternalAlignerIndex.K;
+
+                if (nAnchors[strand] == anchors[strand].length) {
+                    anchors[strand] = Arrays.copyOf(anchors[strand], nAnchors[strand] * 2);
+                }
+                anchors[strand][nAnchors[strand]++] = (refPosition << 32) | q;
+            }
+        }
+
+        for (int strand=0; strand<2; strand++) {
+            long[] a = Arrays.copyOf(anchors[strand], nAnchors[strand]);
+            Arrays.sort(a);
+            ArrayList<int[]> chains = chainAnchors(a);
+            for (int c=0; c<chains.size(); c++) {
+                alignments.add(alignChain(a, chains.get(c), readId, strand == 0 ? forward : reverse, strand == 1));
+            }
+        }
+
+        return alignments;
+    }
+
+    /**
+     * Chain sorted anchors
+     * @return chains, each an array of anchor indices in ascending order
+     */
+    private ArrayList<int[]> chainAnchors(long[] a) {
+        ArrayList<int[]> chains = new ArrayList<int[]>();
+        int n = a.length;
+        double[] f = new double[n];
+        int[] p = new int[n];
+        int[] contig = new int[n];
+        boolean[] used = new boolean[n];
+        int k = InternalAlignerIndex.K;
+
+        for (int i=0; i<n; i++) {
+            long r = a[i] >>> 32;
+            int q = (int)a[i];
+            contig[i] = index.getContigIndex(r);
+            f[i] = k;
+            p[i] = -1;
+
+            for (int j=i-1; j>=Math.max(0, i - MAX_PREDECESSORS); j--) {
+                long dr = r - (a[j] >>> 32);
+                long dq = q - (int)a[j];
+                if (dr > MAX_GAP) {
+                    break;
+                }
+                if ((dr <= 0) || (dq <= 0) || (dq > MAX_GAP) || (contig[j] != contig[i])) {
+                    continue;
+                }
+
+                long gd = Math.abs(dr - dq);
+                double cost = gd == 0 ? 0 : (0.01 * k * gd) + (0.5 * Math.log(gd) / Math.log(2));
+                double score = f[j] + Math.min(k, Math.min(dr, dq)) - cost;
+                if (score > f[i]) {
+                    f[i] = score;
+                    p[i] = j;
+                }
+            }
+        }
+
+        // Take chains greedily from the best scoring end
+        Integer[] order = new Integer[n];
+        for (int i=0; i<n; i++) {
+            order[i] = i;
+        }
+        final double[] scores = f;
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer x, Integer y) {
+                return Double.compare(scores[y], scores[x]);
+            }
+        });
+
+        for (int o=0; (o<n) && (chains.size() < MAX_CHAINS); o++) {
+            int i = order[o];
+            if (used[i]) {
+                continue;
+            }
+
+            ArrayList<Integer> members = new ArrayList<Integer>();
+            int j = i;
+            while ((j != -1) && (!used[j])) {
+                members.add(j);
+                used[j] = true;
+                j = p[j];
+            }
+
+            double chainScore = f[i] - (j == -1 ? 0 : f[j]);
+            if ((members.size() >= MIN_ANCHORS) && (chainScore >= MIN_CHAIN_SCORE)) {
+                int[] chain = new int[members.size()];
+                for (int m=0; m<chain.length; m++) {
+                    chain[m] = members.get(chain.length - 1 - m);
+                }
+                chains.add(chain);
+            }
+        }
+
+        return chains;
+    }
+
+    private static char codeToBase(int c) {
+        return c < 0 ? 'N' : InternalAlignerIndex.getBase(c);
+    }
+
+    /**
+     * Append ungapped columns
+     */
+    private void appendMatches(long r, int q, int n, byte[] query, StringBuilder hit, StringBuilder qry) {
+        for (int i=0; i<n; i++) {
+            hit.append(InternalAlignerIndex.getBase(index.getCodeAt(r + i)));
+            qry.append(codeToBase(query[q + i]));
+        }
+    }
+
+    /**
+     * Globally align reference [rStart, rEnd) against query [qStart, qEnd)
+     */
+    private void alignGap(long rStart, long rEnd, int qStart, int qEnd, byte[] query, StringBuilder hit, StringBuilder qry) {
+        int n = (int)(rEnd - rStart);
+        int m = qEnd - qStart;
+
+        if ((n == 0) || (m == 0)) {
+            for (int i=0; i<n; i++) {
+                hit.append(InternalAlignerIndex.getBase(index.getCodeAt(rStart + i)));
+                qry.append('-');
+            }
+            for (int i=0; i<m; i++) {
+                hit.append('-');
+                qry.append(codeToBase(query[qStart + i]));
+            }
+            return;
+        }
+
+        // Rows are the longer sequence, so the band's diagonal never moves more than one column per row
+        byte[] ref = new byte[n];
+        for (int i=0; i<n; i++) {
+            ref[i] = (byte)index.getCodeAt(rStart + i);
+        }
+        byte[] qseg = Arrays.copyOfRange(query, qStart, qEnd);
+        boolean swap = m > n;
+        byte[] rows = swap ? qseg : ref;
+        byte[] cols = swap ? ref : qseg;
+        int na = rows.length;
+        int nb = cols.length;
+        int width = 2 * BAND + 1;
+
+        if (trace.length < (na + 1) * width) {
+            trace = new byte[(na + 1) * width];
+        }
+
+        int[] prevH = new int[width];
+        int[] prevF = new int[width];
+        int[] curH = new int[width];
+        int[] curE = new int[width];
+        int[] curF = new int[width];
+        int prevLo = 0;
+
+        for (int i=0; i<=na; i++) {
+            int centre = (int)((long)i * nb / na);
+            int lo = Math.max(0, centre - BAND);
+            int hi = Math.min(nb, centre + BAND);
+
+            for (int j=lo; j<=hi; j++) {
+                int x = j - lo;
+                int t;
+
+                if (i == 0) {
+                    curH[x] = j == 0 ? 0 : -(GAP_OPEN + GAP_EXTEND * j);
+                    curE[x] = j == 0 ? NEG : curH[x];
+                    curF[x] = NEG;
+                    trace[x] = (byte)(j == 0 ? 0 : (1 | (j > 1 ? 4 : 0)));
+                    continue;
+                }
+
+                int up = j - prevLo;
+                boolean hasUp = (up >= 0) && (up < width) && (j <= (int)((long)(i - 1) * nb / na) + BAND);
+                boolean hasDiag = (j > 0) && (up - 1 >= 0) && (up - 1 < width) && (j - 1 <= (int)((long)(i - 1) * nb / na) + BAND);
+
+                int f1 = hasUp ? prevH[up] - GAP_OPEN - GAP_EXTEND : NEG;
+                int f2 = hasUp ? prevF[up] - GAP_EXTEND : NEG;
+                int fv = Math.max(f1, f2);
+
+                int e1 = j > lo ? curH[x - 1] - GAP_OPEN - GAP_EXTEND : NEG;
+                int e2 = j > lo ? curE[x - 1] - GAP_EXTEND : NEG;
+                int ev = Math.max(e1, e2);
+
+                int dv = hasDiag ? prevH[up - 1] + (rows[i - 1] == cols[j - 1] && rows[i - 1] >= 0 ? MATCH : MISMATCH) : NEG;
+
+                int hv = dv;
+                t = 0;
+                if (ev > hv) {
+                    hv = ev;
+                    t = 1;
+                }
+                if (fv > hv) {
+                    hv = fv;
+                    t = 2;
+                }
+
+                curH[x] = hv;
+                curE[x] = ev;
+                curF[x] = fv;
+                trace[i * width + x] = (byte)(t | (e2 > e1 ? 4 : 0) | (f2 > f1 ? 8 : 0));
+            }
+
+            int[] swapH = prevH; prevH = curH; curH = swapH;
+            int[] swapF = prevF; prevF = curF; curF = swapF;
+            prevLo = lo;
+        }
+
+        // Trace back from the end
+        StringBuilder ops = new StringBuilder();
+        int i = na;
+        int j = nb;
+        int state = 0;
+        while ((i > 0) || (j > 0)) {
+            int lo = Math.max(0, (int)((long)i * nb / na) - BAND);
+            int t = trace[i * width + j - lo];
+
+            if (state == 0) {
+                if ((t & 3) == 0) {
+                    ops.append('M');
+                    i--;
+                    j--;
+                } else {
+                    state = t & 3;
+                }
+            } else if (state == 1) {
+                ops.append('C');
+                state = (t & 4) != 0 ? 1 : 0;
+                j--;
+            } else {
+                ops.append('R');
+                state = (t & 8) != 0 ? 2 : 0;
+                i--;
+            }
+        }
+        ops.reverse();
+
+        int r = 0;
+        int q = 0;
+        for (int o=0; o<ops.length(); o++) {
+            char op = ops.charAt(o);
+            boolean consumesRef = (op == 'M') || (op == (swap ? 'C' : 'R'));
+            boolean consumesQuery = (op == 'M') || (op == (swap ? 'R' : 'C'));
+            hit.append(consumesRef ? InternalAlignerIndex.getBase(ref[r++]) : '-');
+            qry.append(consumesQuery ? codeToBase(qseg[q++]) : '-');
+        }
+    }
+
+    /**
+     * Extend an alignment from an anchored end, with banded alignment, stopping
+     * at the best scoring point. Sequences are given in the direction of extension.
+     * @param ref reference codes beyond the anchored end
+     * @param qseg query codes beyond the anchored end
+     * @return reference and query bases added
+     */
+    private int[] extend(byte[] ref, byte[] qseg, StringBuilder hit, StringBuilder qry) {
+        int na = qseg.length;
+        int nb = ref.length;
+        int width = 2 * BAND + 1;
+        int best = 0;
+        int bestI = 0;
+        int bestJ = 0;
+
+        if ((na == 0) || (nb == 0)) {
+            return new int[] {0, 0};
+        }
+
+        if (trace.length < (na + 1) * width) {
+            trace = new byte[(na + 1) * width];
+        }
+
+        // Band follows the main diagonal, so cell (i, j) is at j - i + BAND in its row
+        int[] prevH = new int[width];
+        int[] prevF = new int[width];
+        int[] curH = new int[width];
+        int[] curE = new int[width];
+        int[] curF = new int[width];
+
+        for (int x=0; x<width; x++) {
+            int j = x - BAND;
+            prevH[x] = ((j < 0) || (j > nb)) ? NEG : (j == 0 ? 0 : -(GAP_OPEN + GAP_EXTEND * j));
+            prevF[x] = NEG;
+            trace[x] = (byte)(j <= 0 ? 0 : (1 | (j > 1 ? 4 : 0)));
+        }
+
+        for (int i=1; i<=na; i++) {
+            int rowBest = NEG;
+
+            for (int x=0; x<width; x++) {
+                int j = i - BAND + x;
+
+                if ((j < 0) || (j > nb)) {
+                    curH[x] = NEG;
+                    curE[x] = NEG;
+                    curF[x] = NEG;
+                    continue;
+                }
+
+                int f1 = x + 1 < width ? prevH[x + 1] - GAP_OPEN - GAP_EXTEND : NEG;
+                int f2 = x + 1 < width ? prevF[x + 1] - GAP_EXTEND : NEG;
+                int fv = Math.max(NEG, Math.max(f1, f2));
+
+                int e1 = (x > 0) && (j > 0) ? curH[x - 1] - GAP_OPEN - GAP_EXTEND : NEG;
+                int e2 = (x > 0) && (j > 0) ? curE[x - 1] - GAP_EXTEND : NEG;
+                int ev = Math.max(NEG, Math.max(e1, e2));
+
+                int dv = j > 0 ? prevH[x] + (qseg[i - 1] == ref[j - 1] && qseg[i - 1] >= 0 ? MATCH : MISMATCH) : NEG;
+
+                int hv = Math.max(NEG, dv);
+                int t = 0;
+                if (ev > hv) {
+                    hv = ev;
+                    t = 1;
+                }
+                if (fv > hv) {
+                    hv = fv;
+                    t = 2;
+                }
+
+                curH[x] = hv;
+                curE[x] = ev;
+                curF[x] = fv;
+                trace[i * width + x] = (byte)(t | (e2 > e1 ? 4 : 0) | (f2 > f1 ? 8 : 0));
+
+                if (hv > best) {
+                    best = hv;
+                    bestI = i;
+                    bestJ = j;
+                }
+                rowBest = Math.max(rowBest, hv);
+            }
+
+            int[] swapH = prevH; prevH = curH; curH = swapH;
+            int[] swapF = prevF; prevF = curF; curF = swapF;
+
+            if (rowBest < best - X_DROP) {
+                break;
+            }
+        }
+
+        // Trace back from the best cell to the anchored end
+        StringBuilder ops = new StringBuilder();
+        int i = bestI;
+        int j = bestJ;
+        int state = 0;
+        while ((i > 0) || (j > 0)) {
+            int t = trace[i * width + j - i + BAND];
+
+            if (state == 0) {
+                if ((t & 3) == 0) {
+                    ops.append('M');
+                    i--;
+                    j--;
+                } else {
+                    state = t & 3;
+                }
+            } else if (state == 1) {
+                ops.append('R');
+                state = (t & 4) != 0 ? 1 : 0;
+                j--;
+            } else {
+                ops.append('Q');
+                state = (t & 8) != 0 ? 2 : 0;
+                i--;
+            }
+        }
+        ops.reverse();
+
+        int r = 0;
+        int q = 0;
+        for (int o=0; o<ops.length(); o++) {
+            char op = ops.charAt(o);
+            hit.append(op != 'Q' ? InternalAlignerIndex.getBase(ref[r++]) : '-');
+            qry.append(op != 'R' ? codeToBase(qseg[q++]) : '-');
+        }
+
+        return new int[] {bestJ, bestI};
+    }
+
+    /**
+     * Score a gapped alignment
+     */
+    private int scoreAlignment(StringBuilder hit, StringBuilder qry) {
+        int score = 0;
+        int gapType = 0;
+
+        for (int i=0; i<hit.length(); i++) {
+            char h = hit.charAt(i);
+            char q = qry.charAt(i);
+            int type = h == '-' ? 1 : (q == '-' ? 2 : 0);
+
+            if (type == 0) {
+                score += ((h == q) && (q != 'N')) ? MATCH : MISMATCH;
+            } else {
+                score -= (type == gapType) ? GAP_EXTEND : (GAP_OPEN + GAP_EXTEND);
+            }
+            gapType = type;
+        }
+
+        return score;
+    }
+
+    /**
+     * Fill in alignment along a chain
+     */
+    private Alignment alignChain(long[] a, int[] chain, String readId, byte[] query, boolean isReverse) {
+        int k = InternalAlignerIndex.K;
+        StringBuilder hit = new StringBuilder();
+        StringBuilder qry = new StringBuilder();
+        long firstR = a[chain[0]] >>> 32;
+        int firstQ = (int)a[chain[0]];
+        int contig = index.getContigIndex(firstR);
+        long contigStart = index.getContigStart(contig);
+        long contigEnd = contigStart + index.getContigLength(contig);
+
+        // Extend back from the first anchor towards the start of the read
+        int n = (int)Math.min(firstR - contigStart, (long)firstQ + BAND);
+        byte[] ref = new byte[n];
+        byte[] qseg = new byte[firstQ];
+        for (int i=0; i<n; i++) {
+            ref[i] = (byte)index.getCodeAt(firstR - 1 - i);
+        }
+        for (int i=0; i<firstQ; i++) {
+            qseg[i] = query[firstQ - 1 - i];
+        }
+        int[] added = extend(ref, qseg, hit, qry);
+        hit.reverse();
+        qry.reverse();
+        firstR -= added[0];
+        firstQ -= added[1];
+
+        long r = firstR + added[0];
+        int q = firstQ + added[1];
+
+        for (int c=0; c<chain.length; c++) {
+            long ar = a[chain[c]] >>> 32;
+            int aq = (int)a[chain[c]];
+
+            if ((ar >= r) && (aq >= q)) {
+                alignGap(r, ar, q, aq, query, hit, qry);
+                appendMatches(ar, aq, k, query, hit, qry);
+                r = ar + k;
+                q = aq + k;
+            } else if (((ar - r) == (aq - q)) && (ar + k > r)) {
+                // Overlapping anchor on the same diagonal
+                appendMatches(r, q, (int)(ar + k - r), query, hit, qry);
+                r = ar + k;
+                q = aq + k;
+            }
+        }
+
+        // Extend on from the last anchor towards the end of the read
+        n = (int)Math.min(contigEnd - r, (long)(query.length - q) + BAND);
+        ref = new byte[n];
+        for (int i=0; i<n; i++) {
+            ref[i] = (byte)index.getCodeAt(r + i);
+        }
+        added = extend(ref, Arrays.copyOfRange(query, q, query.length), hit, qry);
+        r += added[0];
+        q += added[1];
+
+        Alignment al = new Alignment(scoreAlignment(hit, qry),
+                                     readId,
+                                     query.length,
+                                     firstQ,
+                                     q - firstQ,
+                                     qry.toString(),
+                                     index.getContigId(contig),
+                                     index.getContigLength(contig),
+                                     (int)(firstR - contigStart),
+                                     (int)(r - firstR),
+                                     hit.toString(),
+                                     false);
+        if (isReverse) {
+            al.setQueryStrand("-");
+        }
+
+        return al;
+    }
+}
@@ -0,0 +1,320 @@
+/*
+ * Program: NanoOK
+ * Author:  Richard M. Leggett (richard.leggett@earlham.ac.uk)
+ *
+ * Copyright 2015-17 Earlham Institute
+ */
+
+package nanook;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Reference index for the internal aligner. Contigs are held 2-bit packed,
+ * end to end, and every (w,k)-minimizer of the reference is stored in a
+ * sorted array of keys packing hash, position and strand, so that all hits
+ * for a minimizer are a contiguous range found by binary search.
+ *
+ * @author Richard Leggett
+ */
+public class InternalAlignerIndex {
+    public final static int K = 15;
+    public final static int W = 10;
+    public final static int MAX_OCCURRENCES = 200;
+    private final static int[] baseCodes = makeBaseCodes();
+    private final static char[] codeBases = {'A', 'C', 'G', 'T'};
+    private ArrayList<String> contigIds = new ArrayList<String>();
+    private long[] contigStarts;
+    private int[] contigLengths;
+    private long[] packed;
+    private long totalLength = 0;
+    private long[] keys;
+
+    /**
+     * Make table mapping bytes to 2-bit codes, -1 for non-ACGT
+     */
+    private static int[] makeBaseCodes() {
+        int[] codes = new int[256];
+
+        for (int i=0; i<256; i++) {
+            codes[i] = -1;
+        }
+
+        codes['A'] = 0; codes['a'] = 0;
+        codes['C'] = 1; codes['c'] = 1;
+        codes['G'] = 2; codes['g'] = 2;
+        codes['T'] = 3; codes['t'] = 3;
+
+        return codes;
+    }
+
+    /**
+     * Get 2-bit code for a base
+     * @param b base
+     * @return code, or -1 if not ACGT
+     */
+    public static int getCode(int b) {
+        return baseCodes[b & 0xFF];
+    }
+
+    /**
+     * Get base for a 2-bit code
+     * @param c code
+     * @return base
+     */
+    public static char getBase(int c) {
+        return codeBases[c];
+    }
+
+    /**
+     * Invertible integer hash, so distinct k-mers never share a hash
+     */
+    private static long hash(long key, long mask) {
+        key = (~key + (key << 21)) & mask;
+        key = key ^ (key >>> 24);
+        key = ((key + (key << 3)) + (key << 8)) & mask;
+        key = key ^ (key >>> 14);
+        key = ((key + (key << 2)) + (key << 4)) & mask;
+        key = key ^ (key >>> 28);
+        key = (key + (key << 31)) & mask;
+        return key;
+    }
+
+    /**
+     * Find (w,k)-minimizers of a sequence of 2-bit codes (-1 for ambiguous bases)
+     * @param codes sequence
+     * @param length number of codes to use
+     * @return minimizers, each packed as hash << 33 | position << 1 | strand
+     */
+    public static long[] getMinimizers(byte[] codes, int length) {
+        long mask = (1L << (2 * K)) - 1;
+        int shift = 2 * (K - 1);
+        long forward = 0;
+        long reverse = 0;
+        int validBases = 0;
+        long[] window = new long[W];
+        long[] minimizers = new long[Math.max(16, length / 4)];
+        int count = 0;
+        long lastEmitted = -1;
+
+        Arrays.fill(window, Long.MAX_VALUE);
+
+        for (int i=0; i<length; i++) {
+            int c = codes[i];
+            long value = Long.MAX_VALUE;
+
+            if (c < 0) {
+                validBases = 0;
+            } else {
+                forward = ((forward << 2) | c) & mask;
+                reverse = (reverse >>> 2) | ((long)(3 - c) << shift);
+                if (++validBases >= K) {
+                    int position = i - K + 1;
+                    if (forward < reverse) {
+                        value = (hash(forward, mask) << 33) | ((long)position << 1);
+                    } else if (reverse < forward) {
+                        value = (hash(reverse, mask) << 33) | ((long)position << 1) | 1;
+                    }
+                }
+            }
+
+            window[i % W] = value;
+
+            if (i >= K + W - 2) {
+                long min = Long.MAX_VALUE;
+                for (int j=0; j<W; j++) {
+                    if ((window[j] >>> 33) < (min >>> 33)) {
+                        min = window[j];
+                    }
+                }
+
+                if ((min != Long.MAX_VALUE) && (min != lastEmitted)) {
+                    if (count == minimizers.length) {
+                        minimizers = Arrays.copyOf(minimizers, count * 2);
+                    }
+                    minimizers[count++] = min;
+                    lastEmitted = min;
+                }
+            }
+        }
+
+        return Arrays.copyOf(minimizers, count);
+    }
+
+    /**
+     * Build index from a FASTA file
+     * @param filename reference FASTA filename
+     */
+    public void build(String filename) {
+        ArrayList<byte[]> contigCodes = new ArrayList<byte[]>();
+
+        System.out.println("Building internal aligner index");
+
+        try {
+            BufferedInputStream bis = new BufferedInputStream(new FileInputStream(filename), 1024 * 1024);
+            byte[] codes = null;
+            int length = 0;
+            int b;
+            boolean atLineStart = true;
+
+            while ((b = bis.read()) != -1) {
+                if (atLineStart && (b == '>')) {
+                    if (codes != null) {
+                        contigCodes.add(Arrays.copyOf(codes, length));
+                    }
+
+                    StringBuilder id = new StringBuilder();
+                    boolean inId = true;
+                    while (((b = bis.read()) != -1) && (b != '\n')) {
+                        if (b <= ' ') {
+                            inId = false;
+                        } else if (inId) {
+                            id.append((char)b);
+                        }
+                    }
+                    contigIds.add(id.toString());
+                    codes = new byte[1024 * 1024];
+                    length = 0;
+                    atLineStart = true;
+                } else if (b == '\n') {
+                    atLineStart = true;
+                } else {
+                    atLineStart = false;
+                    if ((b > ' ') && (codes != null)) {
+                        if (length == codes.length) {
+                            codes = Arrays.copyOf(codes, length * 2);
+                        }
+                        codes[length++] = (byte)getCode(b);
+                    }
+                }
+            }
+
+            if (codes != null) {
+                contigCodes.add(Arrays.copyOf(codes, length));
+            }
+
+            bis.close();
+        } catch (IOException e) {
+            System.out.println("InternalAlignerIndex exception:");
+            e.printStackTrace();
+            System.exit(1);
+        }
+
+        contigStarts = new long[contigCodes.size()];
+        contigLengths = new int[contigCodes.size()];
+        for (int i=0; i<contigCodes.size(); i++) {
+            contigStarts[i] = totalLength;
+            contigLengths[i] = contigCodes.get(i).length;
+            totalLength += contigLengths[i];
+        }
+
+        if (totalLength >= (1L << 32)) {
+            System.out.println("Error: reference too large for the internal aligner");
+            System.exit(1);
+        }
+
+        // Pack bases and collect minimizers, with positions made global
+        packed = new long[(int)((totalLength + 31) / 32)];
+        long[][] contigMinimizers = new long[contigCodes.size()][];
+        int nKeys = 0;
+        for (int i=0; i<contigCodes.size(); i++) {
+            byte[] codes = contigCodes.get(i);
+            for (int j=0; j<codes.length; j++) {
+                // Ambiguous bases are stored as A - they never seed, and only cost a mismatch
+                long p = contigStarts[i] + j;
+                packed[(int)(p >>> 5)] |= (long)Math.max(0, codes[j]) << (2 * (p & 31));
+            }
+            contigMinimizers[i] = getMinimizers(codes, codes.length);
+            nKeys += contigMinimizers[i].length;
+        }
+
+        keys = new long[nKeys];
+        int n = 0;
+        for (int i=0; i<contigMinimizers.length; i++) {
+            for (int j=0; j<contigMinimizers[i].length; j++) {
+                keys[n++] = contigMinimizers[i][j] + (contigStarts[i] << 1);
+            }
+        }
+        Arrays.sort(keys);
+
+        System.out.println("Indexed " + contigIds.size() + " contigs, " + totalLength + " bases, " + nKeys + " minimizers");
+    }
+
+    /**
+     * Find range of keys for a hash
+     * @param hash minimizer hash
+     * @return start index in low 32 bits, end index (exclusive) in high 32 bits
+     */
+    public long findHits(long hash) {
+        int start = lowerBound(hash << 33);
+        int end = (hash == (1L << (2 * K)) - 1) ? keys.length : lowerBound((hash + 1) << 33);
+
+        return ((long)end << 32) | start;
+    }
+
+    private int lowerBound(long value) {
+        int lo = 0;
+        int hi = keys.length;
+
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (keys[mid] < value) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+
+        return lo;
+    }
+
+    public long getKey(int i) {
+        return keys[i];
+    }
+
+    /**
+     * Get index of contig containing a global position
+     * @param position global position
+     * @return contig index
+     */
+    public int getContigIndex(long position) {
+        int lo = 0;
+        int hi = contigStarts.length - 1;
+
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (contigStarts[mid] <= position) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+
+        return lo;
+    }
+
+    public String getContigId(int i) {
+        return contigIds.get(i);
+    }
+
+    public long getContigStart(int i) {
+        return contigStarts[i];
+    }
+
+    public int getContigLength(int i) {
+        return contigLengths[i];
+    }
+
+    /**
+     * Get 2-bit code of a base
+     * @param position global position
+     * @return code
+     */
+    public int getCodeAt(long position) {
+        return (int)(packed[(int)(position >>> 5)] >>> (2 * (position & 31))) & 3;
+    }
+}
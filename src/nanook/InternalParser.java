@@ -0,0 +1,121 @@
+/*
+ * Program: NanoOK
+ * Author:  Richard M. Leggett (richard.leggett@earlham.ac.uk)
+ *
+ * Copyright 2015-17 Earlham Institute
+ */
+
+package nanook;
+
+import java.io.File;
+import java.util.ArrayList;
+
+/**
+ * Parser for the internal aligner. Rather than running an external program,
+ * reads are aligned in the JVM with InternalAligner. In the align stage,
+ * alignments are written as MAF files, which are read back like LAST files;
+ * in the analyse stage, reads are aligned directly without any files.
+ *
+ * @author Richard Leggett
+ */
+public class InternalParser extends MAFParser implements AlignmentFileParser {
+    private NanoOKOptions options;
+
+    public InternalParser(NanoOKOptions o, References r) {
+        super(o, r);
+        options = o;
+    }
+
+    public String getProgramID() {
+        return "internal";
+    }
+
+    public int getReadFormat() {
+        return options.getReadFormat();
+    }
+
+    public void setAlignmentParams(String p) {
+        System.out.println("Warning: the internal aligner doesn't take parameters - ignoring "+p);
+    }
+
+    public String getRunCommand(String query, String output, String reference) {
+        return null;
+    }
+
+    public boolean outputsToStdout() {
+        return false;
+    }
+
+    public String getStreamCommand(String reference) {
+        return null;
+    }
+
+    public void checkForIndex(String referenceFile) {
+        // Index is built in memory on first use
+    }
+
+    /**
+     * Read a FASTA or FASTQ file
+     */
+    private SequenceReader readQueryFile(String fastaqPathname) {
+        SequenceReader sr = new SequenceReader(true);
+
+        if (SequenceReader.isFASTQFilename(fastaqPathname)) {
+            sr.indexFASTQFile(fastaqPathname);
+        } else {
+            sr.indexFASTAFile(fastaqPathname, null, true);
+        }
+
+        return sr;
+    }
+
+    /**
+     * Align reads, in place of parsing an alignment file
+     * @param sr SequenceReader holding reads, with sequence cached
+     * @param filename filename of alignment file the alignments would have been read from
+     * @param nonAlignedSummaryFile an AlignmentTableFile to output details of anything that doesn't align to
+     * @return number of alignments
+     */
+    public int alignReads(SequenceReader sr, String filename, AlignmentsTableFile nonAlignedSummaryFile, ReadSetStats overallStats) {
+        InternalAligner aligner = new InternalAligner(options.getInternalAlignerIndex());
+
+        alignments = new ArrayList<Alignment>();
+        leafName = new File(filename).getName();
+
+        for (int i=0; i<sr.getSequenceCount(); i++) {
+            alignments.addAll(aligner.align(sr.getID(i), sr.getSequence(i)));
+        }
+
+        if (alignments.size() == 0) {
+            nonAlignedSummaryFile.writeNoAlignmentMessage(leafName);
+            overallStats.addReadWithoutAlignment();
+        }
+
+        return alignments.size();
+    }
+
+    /**
+     * Align reads in a file and format as MAF, for the align stage
+     * @param fastaqPathname FASTA or FASTQ file to align
+     * @return MAF text
+     */
+    public String alignFile(String fastaqPathname) {
+        InternalAligner aligner = new InternalAligner(options.getInternalAlignerIndex());
+        SequenceReader sr = readQueryFile(fastaqPathname);
+        StringBuilder maf = new StringBuilder();
+
+        maf.append("# NanoOK internal aligner\n\n");
+        for (int i=0; i<sr.getSequenceCount(); i++) {
+            ArrayList<Alignment> al = aligner.align(sr.getID(i), sr.getSequence(i));
+            for (int j=0; j<al.size(); j++) {
+                Alignment a = al.get(j);
+                maf.append("a score=" + a.getScore() + "\n");
+                maf.append(String.format("s %s %d %d %s %d %s\n", a.getHitName(), a.getHitStart(), a.getHitAlignmentSize(), a.getHitStrand(), a.getHitSequenceSize(), a.getHitString()));
+                maf.append(String.format("s %s %d %d %s %d %s\n", a.getQueryName(), a.getQueryStart(), a.getQueryAlignmentSize(), a.getQueryStrand(), a.getQuerySequenceSize(), a.getQueryString()));
+                maf.append("\n");
+            }
+        }
+
+        return maf.toString();
+    }
+}
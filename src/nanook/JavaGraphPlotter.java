@@ -0,0 +1,110 @@
+/*
+ * Program: NanoOK
+ * Author:  Richard M. Leggett (richard.leggett@earlham.ac.uk)
+ *
+ * Copyright 2015-17 Earlham Institute
+ */
+
+package nanook;
+
+import java.io.File;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Plots graphs in the JVM, in place of RGraphPlotter. Each reference is drawn
+ * on its own thread straight from the statistics in memory, and a reference
+ * is skipped if the data for its graphs hashes the same as when they were
+ * last drawn.
+ *
+ * @author Richard Leggett
+ */
+public class JavaGraphPlotter {
+    private ThreadPoolExecutor executor;
+    private NanoOKOptions options;
+    private OverallStats overallStats;
+    private long lastCompleted = -1;
+    private HashManifest manifest;
+
+    /**
+     * Constructor.
+     * @param o NanoOKOptions object
+     * @param s OverallStats object
+     */
+    public JavaGraphPlotter(NanoOKOptions o, OverallStats s) {
+        options = o;
+        overallStats = s;
+        executor = new ThreadPoolExecutor(options.getNumberOfThreads(), options.getNumberOfThreads(), 10, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        manifest = new HashManifest(options.getGraphsDir() + File.separator + "graph_hashes.txt");
+        System.setProperty("java.awt.headless", "true");
+    }
+
+    /**
+     * Get record of graphs drawn last time
+     * @return HashManifest
+     */
+    public HashManifest getManifest() {
+        return manifest;
+    }
+
+    /**
+     * Write progress
+     */
+    private void writeProgress() {
+        long completed = executor.getCompletedTaskCount();
+        long total = executor.getTaskCount();
+        long e = 0;
+        long s = NanoOKOptions.PROGRESS_WIDTH;
+
+        if (total > 0) {
+            e = NanoOKOptions.PROGRESS_WIDTH * completed / total;
+            s = NanoOKOptions.PROGRESS_WIDTH - e;
+        }
+
+        if (completed != lastCompleted) {
+            System.out.print("\r[");
+            for (int i=0; i<e; i++) {
+                System.out.print("=");
+            }
+            for (int i=0; i<s; i++) {
+                System.out.print(" ");
+            }
+            System.out.print("] " + completed +"/" +  total);
+            lastCompleted = completed;
+        }
+    }
+
+    /**
+     * Plot graphs for read lengths and each reference with enough alignments.
+     */
+    public void plot() throws InterruptedException {
+        executor.execute(new JavaGraphRunnable(options, this, overallStats, null));
+
+        Set<String> ids = options.getReferences().getAllIds();
+        for (String id : ids) {
+            ReferenceSequence rs = options.getReferences().getReferenceById(id);
+            if (rs.getTotalNumberOfAlignments() > NanoOKOptions.MIN_ALIGNMENTS) {
+                executor.execute(new JavaGraphRunnable(options, this, overallStats, rs));
+            }
+            writeProgress();
+        }
+
+        // That's all - wait for all threads to finish
+        executor.shutdown();
+        while (!executor.isTerminated()) {
+            writeProgress();
+            Thread.sleep(100);
+        }
+
+        writeProgress();
+        System.out.println("");
+
+        if (manifest.getUnchangedCount() > 0) {
+            System.out.println(manifest.getUnchangedCount() + " sets of graphs unchanged since last run - not redrawn");
+        }
+
+        manifest.write();
+    }
+}
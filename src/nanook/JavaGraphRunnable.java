@@ -0,0 +1,321 @@
+/*
+ * Program: NanoOK
+ * Author:  Richard M. Leggett (richard.leggett@earlham.ac.uk)
+ *
+ * Copyright 2015-17 Earlham Institute
+ */
+
+package nanook;
+
+import java.awt.Color;
+import java.io.File;
+import java.util.ArrayList;
+
+/**
+ * Draws the graphs for one reference, or the read length graphs, from the
+ * statistics held in memory. Equivalent to one run of nanook_plot_reference.R
+ * or nanook_plot_lengths.R.
+ *
+ * @author Richard Leggett
+ */
+public class JavaGraphRunnable implements Runnable {
+    private final static int WIDTH = 1200;
+    private final static int HEIGHT = 800;
+    private final static Color[] typeColours = {new Color(0xCF746D), new Color(0x91A851), new Color(0x68B5B9)};
+    private NanoOKOptions options;
+    private JavaGraphPlotter plotter;
+    private OverallStats overallStats;
+    private ReferenceSequence reference;
+    private ArrayList<String> filenames = new ArrayList<String>();
+    private ArrayList<PlotChart> charts = new ArrayList<PlotChart>();
+
+    /**
+     * Constructor
+     * @param o NanoOKOptions object
+     * @param p plotter, holding hashes of previously drawn graphs
+     * @param s overall stats
+     * @param r reference to plot, or null for read lengths
+     */
+    public JavaGraphRunnable(NanoOKOptions o, JavaGraphPlotter p, OverallStats s, ReferenceSequence r) {
+        options = o;
+        plotter = p;
+        overallStats = s;
+        reference = r;
+    }
+
+    private void addChart(String filename, PlotChart chart) {
+        filenames.add(filename + ".png");
+        charts.add(chart);
+    }
+
+    private static double[] toDoubles(float[] f) {
+        double[] d = new double[f.length];
+        for (int i=0; i<f.length; i++) {
+            d[i] = f[i];
+        }
+        return d;
+    }
+
+    /**
+     * Make histogram bars
+     * @param values values to count
+     * @param min start of first bin
+     * @param binWidth width of each bin
+     * @param nBins number of bins
+     * @param percent true to give bar heights as percentage of values counted
+     * @return array of two arrays - bin centres and heights
+     */
+    private static double[][] histogram(double[] values, double min, double binWidth, int nBins, boolean percent) {
+        double[][] bars = new double[2][nBins];
+        int counted = 0;
+
+        for (int i=0; i<nBins; i++) {
+            bars[0][i] = min + (i + 0.5) * binWidth;
+        }
+
+        for (int i=0; i<values.length; i++) {
+            int b = (int)Math.floor((values[i] - min) / binWidth);
+            if (b == nBins) {
+                b--;
+            }
+            if ((b >= 0) && (b < nBins)) {
+                bars[1][b]++;
+                counted++;
+            }
+        }
+
+        if (percent && (counted > 0)) {
+            for (int i=0; i<nBins; i++) {
+                bars[1][i] = 100.0 * bars[1][i] / counted;
+            }
+        }
+
+        return bars;
+    }
+
+    /**
+     * Make bars for an array indexed by size, skipping index 0
+     */
+    private static double[][] sizeBars(double[] values) {
+        double[][] bars = new double[2][Math.max(0, values.length - 1)];
+
+        for (int i=1; i<values.length; i++) {
+            bars[0][i-1] = i;
+            bars[1][i-1] = values[i];
+        }
+
+        return bars;
+    }
+
+    /**
+     * Read length histograms
+     */
+    private void makeLengthsCharts() {
+        for (int t=0; t<3; t++) {
+            if (options.isProcessingReadType(t)) {
+                String type = NanoOKOptions.getTypeFromInt(t);
+                ReadSetStats stats = overallStats.getStatsByType(t);
+                int[] counts = stats.getLengthHistogram(1000, 35000);
+                double[][] bars = new double[2][counts.length];
+
+                if (stats.getNumReads() > 1) {
+                    for (int i=0; i<counts.length; i++) {
+                        bars[0][i] = (i * 1000) + 500;
+                        bars[1][i] = counts[i];
+                    }
+                    PlotChart chart = new PlotChart(type, "Length", "Count");
+                    chart.addBars(bars[0], bars[1], 1000, typeColours[t]);
+                    chart.setXLimits(0, 35000);
+                    addChart(options.getGraphsDir() + File.separator + "all_" + type + "_lengths", chart);
+                }
+                
+                double[][] nk21 = stats.getPerfect21merCounts();
+                if (nk21[0].length > 1) {
+                    PlotChart chart = new PlotChart(type, "Read length", "Number of perfect 21mers");
+                    chart.addPoints(nk21[0], nk21[1], typeColours[t]);
+                    addChart(options.getGraphsDir() + File.separator + "all_" + type + "_21mers", chart);
+                }
+            }
+        }
+    }
+
+    /**
+     * Graphs for one reference
+     */
+    private void makeReferenceCharts() {
+        String prefix = options.getGraphsDir() + File.separator + reference.getName() + File.separator + reference.getName();
+        double[] gc = reference.getGCPercent();
+        int maxk = 0;
+        int cumMaxk = 0;
+
+        if ((gc != null) && (gc.length > 0)) {
+            double[] x = new double[gc.length];
+            for (int i=0; i<gc.length; i++) {
+                x[i] = (double)(i + 1) * reference.getBinSize();
+            }
+            PlotChart chart = new PlotChart("GC content", "Position", "GC %");
+            chart.addLine(x, gc, Color.BLACK);
+            chart.setYLimits(0, 100);
+            addChart(prefix + "_gc", chart);
+        }
+
+        // Longest kmer over all types, as used for x axis limits
+        for (int t=0; t<3; t++) {
+            double[] cumulative = reference.getStatsByType(t).getCumulativeBestPerfectKmerPercents();
+            for (int i=1; i<cumulative.length; i++) {
+                maxk = Math.max(maxk, i);
+                if (cumulative[i] > 5) {
+                    cumMaxk = Math.max(cumMaxk, i);
+                }
+            }
+        }
+        maxk += 10;
+        cumMaxk = 10 * ((Math.max(cumMaxk, 1) + 9) / 10);
+
+        for (int t=0; t<3; t++) {
+            if (options.isProcessingReadType(t)) {
+                makeReferenceTypeCharts(t, prefix + "_" + NanoOKOptions.getTypeFromInt(t), maxk, cumMaxk);
+            }
+        }
+    }
+
+    /**
+     * Graphs for one reference and read type
+     */
+    private void makeReferenceTypeCharts(int t, String prefix, int maxk, int cumMaxk) {
+        String type = NanoOKOptions.getTypeFromInt(t);
+        Color colour = typeColours[t];
+        ReferenceSequenceStats rss = reference.getStatsByType(t);
+        AlignmentPlotPoints points = rss.getAlignmentsTableFile().getPlotPoints();
+        double[][] coverage = rss.getCoverage().getMeanCoverage(reference.getBinSize());
+        double[][] cumulative = sizeBars(rss.getCumulativeBestPerfectKmerPercents());
+        double[][] insertions = sizeBars(rss.getInsertionPercents());
+        double[][] deletions = sizeBars(rss.getDeletionPercents());
+        PlotChart chart;
+
+        if (coverage[0].length > 0) {
+            chart = new PlotChart(type, "Position", "Mean coverage");
+            chart.addLine(coverage[0], coverage[1], colour);
+            chart.setYLimits(0, Double.NaN);
+            addChart(prefix + "_coverage", chart);
+        }
+
+        if (cumulative[0].length > 0) {
+            chart = new PlotChart(type, "kmer size", "% reads with perfect kmer");
+            chart.addBars(cumulative[0], cumulative[1], 0.7, colour);
+            chart.setXLimits(0, cumMaxk);
+            addChart(prefix + "_cumulative_perfect_kmers", chart);
+        }
+
+        if (insertions[0].length > 0) {
+            chart = new PlotChart(type, "Insertion size", "%");
+            chart.addBars(insertions[0], insertions[1], 0.9, colour);
+            addChart(prefix + "_insertions", chart);
+        }
+
+        if (deletions[0].length > 0) {
+            chart = new PlotChart(type, "Deletion size", "%");
+            chart.addBars(deletions[0], deletions[1], 0.9, colour);
+            addChart(prefix + "_deletions", chart);
+        }
+
+        if (points.getCount() > 0) {
+            double[] length = toDoubles(points.getQueryLengths());
+            double[] queryId = toDoubles(points.getQueryIdentities());
+            double[] alignmentId = toDoubles(points.getAlignmentIdentities());
+            double[] pcAligned = toDoubles(points.getPercentQueryAligned());
+            double[] longestPerfect = toDoubles(points.getLongestPerfectKmers());
+            double[] gc = toDoubles(points.getQueryGC());
+            double minId = 100;
+            double maxId = 0;
+            double[][] bars;
+
+            for (int i=0; i<queryId.length; i++) {
+                minId = Math.min(minId, queryId[i]);
+                maxId = Math.max(maxId, queryId[i]);
+            }
+            bars = histogram(queryId, minId, Math.max(0.01, (maxId - minId) / 30), 30, false);
+            chart = new PlotChart(type, "Read identity %", "Count");
+            chart.addBars(bars[0], bars[1], Math.max(0.01, (maxId - minId) / 30), colour);
+            addChart(prefix + "_length_vs_identity_hist", chart);
+
+            bars = histogram(gc, 0, 1, 100, false);
+            chart = new PlotChart(type, "GC %", "Read count");
+            chart.addBars(bars[0], bars[1], 1, colour);
+            chart.setXLimits(0, 100);
+            addChart(prefix + "_GC_hist", chart);
+
+            chart = new PlotChart(type, "Length", "Read identity %");
+            chart.addPoints(length, queryId, colour);
+            chart.setYLimits(0, 100);
+            addChart(prefix + "_length_vs_identity_scatter", chart);
+
+            chart = new PlotChart(type, "Percentage of read aligned", "Alignment identity %");
+            chart.addPoints(pcAligned, alignmentId, colour);
+            chart.setXLimits(0, 105);
+            chart.setYLimits(0, 100);
+            addChart(prefix + "_read_fraction_vs_alignment_identity_scatter", chart);
+
+            chart = new PlotChart(type, "Read length", "Longest perfect kmer");
+            chart.addPoints(length, longestPerfect, colour);
+            addChart(prefix + "_longest_perfect_vs_length_scatter", chart);
+
+            // Bins are 0-9, 10-19, 20-29 etc.
+            bars = histogram(longestPerfect, 0, 10, (maxk + 9) / 10, true);
+            chart = new PlotChart(type, "Best perfect kmer", "% reads");
+            chart.addBars(bars[0], bars[1], 9, colour);
+            chart.setXLimits(0, cumMaxk);
+            addChart(prefix + "_best_perfect_kmers", chart);
+
+            chart = new PlotChart(type, "Read length", "Percentage of read aligned");
+            chart.addPoints(length, pcAligned, colour);
+            addChart(prefix + "_percent_aligned_vs_length_scatter", chart);
+        }
+
+        ArrayList<KmerAbundance> abundance = rss.getKmerAbundance();
+        if (abundance.size() > 1) {
+            String[] kmers = new String[abundance.size()];
+            double[] refPc = new double[abundance.size()];
+            double[] readPc = new double[abundance.size()];
+            for (int i=0; i<abundance.size(); i++) {
+                kmers[i] = abundance.get(i).getKmer();
+                refPc[i] = abundance.get(i).getRefAbundance();
+                readPc[i] = abundance.get(i).getReadAbundance();
+            }
+            chart = new PlotChart(type, "Reference abundance %", "Reads abundance %");
+            chart.addPoints(refPc, readPc, colour);
+            chart.addLabels(kmers, refPc, readPc);
+            chart.setXLimits(0, 0.3);
+            chart.setYLimits(0, 0.3);
+            addChart(prefix + "_kmer_scatter", chart);
+        }
+    }
+
+    public void run() {
+        String key;
+
+        if (reference == null) {
+            key = "all";
+            makeLengthsCharts();
+        } else {
+            key = reference.getName();
+            makeReferenceCharts();
+        }
+
+        long hash = filenames.hashCode();
+        for (int i=0; i<charts.size(); i++) {
+            hash = (hash * 31) + charts.get(i).getHash();
+        }
+
+        if (plotter.getManifest().isUpToDate(key, hash, filenames)) {
+            options.getLog().println("Graphs for " + key + " unchanged - not redrawn");
+            return;
+        }
+
+        for (int i=0; i<charts.size(); i++) {
+            charts.get(i).writePNG(filenames.get(i), WIDTH, HEIGHT);
+        }
+
+        plotter.getManifest().setHash(key, hash, filenames);
+    }
+}
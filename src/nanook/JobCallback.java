@@ -0,0 +1,23 @@
+/*
+ * Program: NanoOK
+ * Author:  Richard M. Leggett (richard.leggett@earlham.ac.uk)
+ *
+ * Copyright 2015-17 Earlham Institute
+ */
+
+package nanook;
+
+/**
+ * Interface for notification of job completion.
+ *
+ * @author Richard Leggett
+ */
+public interface JobCallback {
+    /**
+     * Called when a job has finished, after any retries. For cluster
+     * schedulers, this is when the job has been submitted.
+     * @param job the job
+     * @param exitCode exit code of final attempt
+     */
+    public void jobFinished(SchedulerJob job, int exitCode);
+}
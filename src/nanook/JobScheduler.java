@@ -0,0 +1,49 @@
+/*
+ * Program: NanoOK
+ * Author:  Richard M. Leggett (richard.leggett@earlham.ac.uk)
+ *
+ * Copyright 2015-17 Earlham Institute
+ */
+
+package nanook;
+
+import java.util.List;
+
+/**
+ * Interface for schedulers that run external commands (aligners, BLAST, R),
+ * either locally or by submitting to a cluster.
+ *
+ * @author Richard Leggett
+ */
+public interface JobScheduler {
+    /**
+     * Get scheduler name
+     * @return name, as given to -scheduler
+     */
+    public String getName();
+
+    /**
+     * Run a job, retrying on failure, and block until it has finished (or,
+     * for cluster schedulers, been submitted)
+     * @param job job to run
+     * @return exit code
+     */
+    public int run(SchedulerJob job);
+
+    /**
+     * Queue a job to run in the background
+     * @param job job to run
+     */
+    public void submit(SchedulerJob job);
+
+    /**
+     * Queue a batch of jobs to run in the background
+     * @param jobs jobs to run
+     */
+    public void submitBatch(List<SchedulerJob> jobs);
+
+    /**
+     * Wait for all queued jobs to finish
+     */
+    public void waitForJobs();
+}
@@ -14,7 +14,7 @@ import java.io.Serializable;
  * 
  * @author Richard Leggett
  */
-public class KmerAbundance implements Comparable, Serializable {
+public class KmerAbundance implements Comparable<KmerAbundance>, Serializable {
     private static final long serialVersionUID = NanoOK.SERIAL_VERSION;
     private String kmer;
     private double refAbundance;
@@ -32,8 +32,8 @@ public class KmerAbundance implements Comparable, Serializable {
         return difference;
     }
     
-    public int compareTo(Object o) {
-        double d = ((KmerAbundance)o).getDifference() - difference;
+    public int compareTo(KmerAbundance o) {
+        double d = o.getDifference() - difference;
         int r = 0;
         
         if (d < 0) {
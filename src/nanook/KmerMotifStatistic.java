@@ -38,7 +38,7 @@ public class KmerMotifStatistic implements Serializable {
      * Add a motif to store.
      * @param kmer motif to store
      */
-    public void addMotif(String kmer) {
+    public synchronized void addMotif(String kmer) {
         Integer currentCount = motifs.get(kmer);
         
         if (currentCount == null) {
@@ -54,6 +54,34 @@ public class KmerMotifStatistic implements Serializable {
         //System.out.println("Adding motif "+kmer+" to size "+kSize);
     }
     
+    /**
+     * Add counts of motifs held as 2-bit codes (A=0, C=1, G=2, T=3). Counts are zeroed once added.
+     * @param counts counts, indexed by code
+     */
+    public synchronized void addMotifCounts(int[] counts) {
+        for (int code=0; code<counts.length; code++) {
+            if (counts[code] > 0) {
+                String kmer = decodeMotif(code);
+                Integer currentCount = motifs.get(kmer);
+                
+                motifs.put(kmer, currentCount == null ? counts[code] : currentCount + counts[code]);
+                totalCount += counts[code];
+                counts[code] = 0;
+            }
+        }
+    }
+    
+    private String decodeMotif(int code) {
+        char[] kmer = new char[kSize];
+        
+        for (int i=kSize-1; i>=0; i--) {
+            kmer[i] = "ACGT".charAt(code & 3);
+            code >>= 2;
+        }
+        
+        return new String(kmer);
+    }
+    
     /**
      * Parse motif, updating count of bases seen at each position.
      * @param motif - kmer motif
@@ -7,6 +7,8 @@
 
 package nanook;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.Hashtable;
 import java.util.Set;
@@ -20,11 +22,79 @@ public class KmerTable implements Serializable {
     private static final long serialVersionUID = NanoOK.SERIAL_VERSION;
     private int kmerSize = 5;
     private Hashtable<String, Integer> counts = new Hashtable();
+    // Counts of A/C/G/T-only kmers from packed sequences, by 2-bit code, added to counts when read
+    private transient int[] codeCounts = null;
+    private transient boolean codeCountsPending = false;
    
     public KmerTable(int k) {
         kmerSize = k;
     }
     
+    /**
+     * Count kmers in a packed sequence. As before, the final kmer isn't counted.
+     * Kmers containing anything other than A, C, G or T are counted by string.
+     * @param s sequence
+     */
+    public synchronized void countKmers(PackedSequence s) {
+        int mask = (1 << (2 * kmerSize)) - 1;
+        int code = 0;
+        int validBases = 0;
+        
+        if (codeCounts == null) {
+            codeCounts = new int[1 << (2 * kmerSize)];
+        }
+        
+        for (int i=0; i<s.length() - 1; i++) {
+            if (s.isException(i)) {
+                validBases = 0;
+            } else {
+                code = ((code << 2) | s.getCode(i)) & mask;
+                validBases++;
+            }
+            
+            if (i >= kmerSize - 1) {
+                if (validBases >= kmerSize) {
+                    codeCounts[code]++;
+                } else {
+                    countKmer(s.substring(i - kmerSize + 1, i + 1));
+                }
+            }
+        }
+        
+        codeCountsPending = true;
+    }
+    
+    /**
+     * Add counts from packed sequences to table
+     */
+    private synchronized void addCodeCounts() {
+        if (codeCountsPending) {
+            for (int i=0; i<codeCounts.length; i++) {
+                if (codeCounts[i] > 0) {
+                    addCount(decodeKmer(i), codeCounts[i]);
+                    codeCounts[i] = 0;
+                }
+            }
+            codeCountsPending = false;
+        }
+    }
+    
+    private String decodeKmer(int code) {
+        char[] kmer = new char[kmerSize];
+        
+        for (int i=kmerSize-1; i>=0; i--) {
+            kmer[i] = "ACGT".charAt(code & 3);
+            code >>= 2;
+        }
+        
+        return new String(kmer);
+    }
+    
+    private synchronized void writeObject(ObjectOutputStream out) throws IOException {
+        addCodeCounts();
+        out.defaultWriteObject();
+    }
+    
     public synchronized void countKmer(String kmer) {
         int count = 0;
         
@@ -37,7 +107,19 @@ public class KmerTable implements Serializable {
         counts.put(kmer, count);
     }
     
+    /**
+     * Add a number of occurrences of a kmer
+     * @param kmer kmer string
+     * @param n number of occurrences
+     */
+    public synchronized void addCount(String kmer, int n) {
+        Integer count = counts.get(kmer);
+        
+        counts.put(kmer, count == null ? n : count + n);
+    }
+    
     public void writeKmerTable() {
+        addCodeCounts();
         Set<String> keys = counts.keySet();
         
         System.out.println("");
@@ -56,12 +138,14 @@ public class KmerTable implements Serializable {
     }
     
     public Set<String> getKeys() {
+        addCodeCounts();
         return counts.keySet();
     }
     
     public int get(String kmer) {
         int value = 0;
         
+        addCodeCounts();
         if (counts.containsKey(kmer)) {
             value = counts.get(kmer);
         }
@@ -70,6 +154,7 @@ public class KmerTable implements Serializable {
     }
     
     public Hashtable getTable() {
+        addCodeCounts();
         return counts;
     }
 }
@@ -44,6 +44,14 @@ public class LastParser extends MAFParser implements AlignmentFileParser {
     public boolean outputsToStdout() {
         return true;
     }
+
+    public String getStreamCommand(String reference) {
+        reference = reference.replaceAll("\\.fasta$", "");
+        reference = reference.replaceAll("\\.fa$", "");
+        
+        // With no query file, lastal reads queries from stdin
+        return "lastal " + alignmentParams + " " + reference;
+    }
     
     public void checkForIndex(String referenceFile) {
         String[] files = {referenceFile + ".bck",
@@ -0,0 +1,145 @@
+/*
+ * Program: NanoOK
+ * Author:  Richard M. Leggett (richard.leggett@earlham.ac.uk)
+ *
+ * Copyright 2015-17 Earlham Institute
+ */
+
+package nanook;
+
+/**
+ * Log-linear latency histogram. Values are bucketed by power of two, with each
+ * power of two split into SUB_BUCKET_COUNT linear sub-buckets, giving a
+ * relative error of about 3% across the whole range of a long. Not thread
+ * safe - each thread should record into its own histogram.
+ *
+ * @author Richard Leggett
+ */
+public class LatencyHistogram {
+    private final static int SUB_BUCKET_BITS = 5;
+    private final static int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private final static int BUCKET_COUNT = (64 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+    private long[] counts = new long[BUCKET_COUNT];
+    private long totalCount = 0;
+    private long totalValue = 0;
+    private long minValue = Long.MAX_VALUE;
+    private long maxValue = 0;
+
+    /**
+     * Get bucket index for a value
+     * @param value value to bucket
+     * @return index
+     */
+    private static int getBucketIndex(long value) {
+        if (value < (SUB_BUCKET_COUNT << 1)) {
+            return (int)value;
+        }
+
+        int shift = (63 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS;
+        int subBucket = (int)(value >>> shift);
+
+        return ((shift + 1) * SUB_BUCKET_COUNT) + (subBucket - SUB_BUCKET_COUNT);
+    }
+
+    /**
+     * Get highest value that maps to a bucket
+     * @param index bucket index
+     * @return value
+     */
+    private static long getBucketUpperValue(int index) {
+        if (index < (SUB_BUCKET_COUNT << 1)) {
+            return index;
+        }
+
+        int shift = (index / SUB_BUCKET_COUNT) - 1;
+        long subBucket = SUB_BUCKET_COUNT + (index % SUB_BUCKET_COUNT);
+
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    /**
+     * Record a value
+     * @param value value to record (negative values are stored as 0)
+     */
+    public void recordValue(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+
+        counts[getBucketIndex(value)]++;
+        totalCount++;
+        totalValue += value;
+
+        if (value < minValue) {
+            minValue = value;
+        }
+
+        if (value > maxValue) {
+            maxValue = value;
+        }
+    }
+
+    /**
+     * Add counts from another histogram to this one
+     * @param h histogram to add
+     */
+    public void add(LatencyHistogram h) {
+        for (int i=0; i<BUCKET_COUNT; i++) {
+            counts[i] += h.counts[i];
+        }
+
+        totalCount += h.totalCount;
+        totalValue += h.totalValue;
+
+        if (h.minValue < minValue) {
+            minValue = h.minValue;
+        }
+
+        if (h.maxValue > maxValue) {
+            maxValue = h.maxValue;
+        }
+    }
+
+    /**
+     * Get value at a given percentile
+     * @param percentile percentile, 0 to 100
+     * @return value, accurate to the resolution of the bucket
+     */
+    public long getValueAtPercentile(double percentile) {
+        long countAtPercentile = (long)Math.ceil((percentile / 100.0) * totalCount);
+        long runningCount = 0;
+
+        if (countAtPercentile < 1) {
+            countAtPercentile = 1;
+        }
+
+        for (int i=0; i<BUCKET_COUNT; i++) {
+            runningCount += counts[i];
+            if (runningCount >= countAtPercentile) {
+                return Math.min(getBucketUpperValue(i), maxValue);
+            }
+        }
+
+        return maxValue;
+    }
+
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    public long getTotalValue() {
+        return totalValue;
+    }
+
+    public long getMinValue() {
+        return totalCount > 0 ? minValue : 0;
+    }
+
+    public long getMaxValue() {
+        return maxValue;
+    }
+
+    public double getMean() {
+        return totalCount > 0 ? (double)totalValue / (double)totalCount : 0;
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Program: NanoOK
+ * Author:  Richard M. Leggett (richard.leggett@earlham.ac.uk)
+ *
+ * Copyright 2015-17 Earlham Institute
+ */
+
+package nanook;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.reflect.Method;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Runs jobs as local processes. Jobs take as many of the threads given by -t as
+ * they say they use, so no more than that many threads run at once, and jobs that state their memory needs are only started when
+ * that much of the machine's memory (or -maxjobmemory) is not already reserved
+ * by other jobs.
+ *
+ * @author Richard Leggett
+ */
+public class LocalJobScheduler extends BaseJobScheduler {
+    private Semaphore slots;
+    private Semaphore memoryMb;
+    private int totalMemoryMb;
+
+    /**
+     * Constructor
+     * @param o NanoOKOptions object
+     */
+    public LocalJobScheduler(NanoOKOptions o) {
+        super(o);
+        totalMemoryMb = o.getMaxJobMemory() > 0 ? o.getMaxJobMemory() : getPhysicalMemoryMb();
+        slots = new Semaphore(o.getNumberOfThreads(), true);
+        memoryMb = new Semaphore(totalMemoryMb, true);
+    }
+
+    /**
+     * Get size of physical memory. getTotalMemorySize replaced the deprecated
+     * getTotalPhysicalMemorySize in Java 14, so it is found by reflection,
+     * falling back to the old method on earlier JVMs.
+     * @return memory in MB, or Integer.MAX_VALUE if unknown
+     */
+    private static int getPhysicalMemoryMb() {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+
+        for (String methodName : new String[] {"getTotalMemorySize", "getTotalPhysicalMemorySize"}) {
+            try {
+                Method m = Class.forName("com.sun.management.OperatingSystemMXBean").getMethod(methodName);
+                long bytes = (Long)m.invoke(os);
+                return (int)Math.min(Integer.MAX_VALUE, bytes / (1024 * 1024));
+            } catch (Exception e) {
+                // Try next, or memory is unknown
+            }
+        }
+
+        return Integer.MAX_VALUE;
+    }
+
+    public String getName() {
+        return "system";
+    }
+
+    @Override
+    protected int getBackgroundThreads() {
+        return options.getNumberOfThreads();
+    }
+
+    private void makeParentDir(String filename) {
+        File parent = new File(filename).getAbsoluteFile().getParentFile();
+
+        if ((parent != null) && (!parent.exists())) {
+            parent.mkdirs();
+        }
+    }
+
+    protected int runOnce(SchedulerJob job) throws Exception {
+        // Jobs needing more than the total are allowed to run on their own
+        int neededMb = (int)Math.min(job.getMemoryMb(), totalMemoryMb);
+        int neededSlots = Math.max(1, Math.min(job.getThreads(), options.getNumberOfThreads()));
+        int exitCode;
+
+        slots.acquire(neededSlots);
+        try {
+            memoryMb.acquire(neededMb);
+            try {
+                ProcessBuilder pb = new ProcessBuilder(job.getCommand());
+
+                if (job.getOutputFile() != null) {
+                    makeParentDir(job.getOutputFile());
+                    pb.redirectOutput(new File(job.getOutputFile()));
+                    if (job.getLogFile() != null) {
+                        makeParentDir(job.getLogFile());
+                        pb.redirectError(new File(job.getLogFile()));
+                    }
+                } else if (job.getLogFile() != null) {
+                    makeParentDir(job.getLogFile());
+                    pb.redirectErrorStream(true);
+                    pb.redirectOutput(new File(job.getLogFile()));
+                } else {
+                    pb.inheritIO();
+                }
+
+                options.getLog().println("Running job " + job.getName() + ": " + job.getCommandString());
+                exitCode = pb.start().waitFor();
+            } finally {
+                memoryMb.release(neededMb);
+            }
+        } finally {
+            slots.release(neededSlots);
+        }
+
+        return exitCode;
+    }
+}
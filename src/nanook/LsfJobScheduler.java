@@ -0,0 +1,61 @@
+/*
+ * Program: NanoOK
+ * Author:  Richard M. Leggett (richard.leggett@earlham.ac.uk)
+ *
+ * Copyright 2015-17 Earlham Institute
+ */
+
+package nanook;
+
+import java.util.ArrayList;
+
+/**
+ * Submits jobs to LSF with bsub.
+ *
+ * @author Richard Leggett
+ */
+public class LsfJobScheduler extends BaseJobScheduler {
+    private final static long DEFAULT_MEMORY_MB = 8000;
+
+    /**
+     * Constructor
+     * @param o NanoOKOptions object
+     */
+    public LsfJobScheduler(NanoOKOptions o) {
+        super(o);
+    }
+
+    public String getName() {
+        return "lsf";
+    }
+
+    protected int runOnce(SchedulerJob job) throws Exception {
+        ArrayList<String> command = new ArrayList<String>();
+        String queue = job.getQueue() != null ? job.getQueue() : options.getQueue();
+        long memory = job.getMemoryMb() > 0 ? job.getMemoryMb() : DEFAULT_MEMORY_MB;
+        String jobCommand = job.getCommandString();
+
+        if (job.getOutputFile() != null) {
+            jobCommand = jobCommand + " > " + job.getOutputFile();
+        }
+
+        command.add("bsub");
+        command.add("-n");
+        command.add(Integer.toString(job.getThreads()));
+        if ((queue != null) && (queue.length() > 0)) {
+            command.add("-q");
+            command.add(queue);
+        }
+        if (job.getLogFile() != null) {
+            command.add("-oo");
+            command.add(job.getLogFile());
+        }
+        command.add("-R");
+        command.add("rusage[mem=" + memory + "] span[hosts=1]");
+        command.add(jobCommand);
+
+        options.getLog().println("Submitting job " + job.getName() + " to LSF: " + jobCommand);
+
+        return runAndLog(command.toArray(new String[command.size()]));
+    }
+}
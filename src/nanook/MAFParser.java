@@ -10,6 +10,7 @@ package nanook;
 import java.io.*;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 
 /**
  * Parser for LAST aligner files.
@@ -19,6 +20,7 @@ import java.util.Collections;
 public abstract class MAFParser {
     private NanoOKOptions options;
     private References references;
+    private HashMap<String,Integer> fileReferences = new HashMap<String,Integer>();
     private SampleReportWriter report;
     ArrayList<Alignment> alignments;
     String leafName;
@@ -50,13 +52,37 @@ public abstract class MAFParser {
      * @return number of alignments parsed
      */
     public int parseFile(String filename, AlignmentsTableFile nonAlignedSummaryFile, ReadSetStats overallStats) {            
+        try
+        {
+            BufferedReader br = new BufferedReader(new FileReader(filename));
+            parseAlignments(br, filename, nonAlignedSummaryFile, overallStats);
+            br.close();
+        } catch (IOException e) {
+            System.out.println("parseFile Exception:");
+            e.printStackTrace();
+            options.getLog().println("Exception parsing "+filename);
+            options.getLog().close();
+            System.exit(1);
+        }
+        
+        return alignments.size();
+    }
+    
+    /**
+     * Parse LAST alignments from a reader.
+     * @param br reader to parse
+     * @param filename filename of alignment file
+     * @param nonAlignedSummaryFile an AlignmentTableFile to output details of anything that doesn't align to
+     * @return number of alignments parsed
+     */
+    public int parseAlignments(BufferedReader br, String filename, AlignmentsTableFile nonAlignedSummaryFile, ReadSetStats overallStats) {            
         alignments = new ArrayList();
+        fileReferences.clear();
         leafName = new File(filename).getName();
         
          // Read all alignmnets and put into an ArrayList
         try
         {
-            BufferedReader br = new BufferedReader(new FileReader(filename));
             String line;
             
             do {
@@ -92,11 +118,18 @@ public abstract class MAFParser {
                                                      hitLine.getAlnSize(),
                                                      hitLine.getAlignment(),
                                                      false);
+                        
+                        // Resolve each reference name once per file
+                        Integer hitIndex = fileReferences.get(hitLine.getName());
+                        if (hitIndex == null) {
+                            hitIndex = references.getReferenceIndex(hitLine.getName());
+                            fileReferences.put(hitLine.getName(), hitIndex);
+                        }
+                        al.setHitIndex(hitIndex);
                         alignments.add(al);                        
                     }
                 }
             } while (line != null);            
-            br.close();
             
             if (alignments.size() == 0) {
                 nonAlignedSummaryFile.writeNoAlignmentMessage(leafName);
@@ -114,6 +147,38 @@ public abstract class MAFParser {
         return alignments.size();
     }
     
+    /**
+     * Read next alignment block, or comment line, from LAST output
+     * @param br reader for LAST output
+     * @return record, or null at end of output
+     */
+    public AlignmentRecord readRecord(BufferedReader br) throws IOException {
+        String line;
+        
+        do {
+            line = br.readLine();
+        } while ((line != null) && (line.length() == 0));
+        
+        if (line == null) {
+            return null;
+        } else if (!line.startsWith("a")) {
+            return new AlignmentRecord(null, line + "\n");
+        }
+        
+        // Block runs to the next blank line - the query is the last 's' line
+        StringBuilder text = new StringBuilder(line).append('\n');
+        String queryName = null;
+        while (((line = br.readLine()) != null) && (line.length() > 0)) {
+            text.append(line).append('\n');
+            if (line.startsWith("s ")) {
+                queryName = line.split("\\s+")[1];
+            }
+        }
+        text.append('\n');
+        
+        return new AlignmentRecord(queryName, text.toString());
+    }
+    
     /**
      * Sort alignments in order of score
      */
@@ -126,15 +191,14 @@ public abstract class MAFParser {
     /**
      * Get the set of alignments that match the highest scoring reference
      */
-    public ArrayList getHighestScoringSet() {
-        ArrayList hss = new ArrayList();
+    public ArrayList<Alignment> getHighestScoringSet() {
+        ArrayList<Alignment> hss = new ArrayList<Alignment>();
         
         if (alignments.size() > 0) {
-            String readReferenceName = alignments.get(0).getHitName();
-            ReferenceSequence readReference = references.getReferenceById(readReferenceName);
+            Alignment top = alignments.get(0);
             for (int i=0; i<alignments.size(); i++) {
                 Alignment a = alignments.get(i);
-                if (a.getHitName().equals(readReferenceName)) {
+                if (top.hasSameHit(a)) {
                     hss.add(a);
                 }
             }
@@ -64,6 +64,10 @@ public class MarginAlignParser extends SAMParser implements AlignmentFileParser
     public boolean outputsToStdout() {
         return false;
     }
+
+    public String getStreamCommand(String reference) {
+        return null;
+    }
     
     public void checkForIndex(String referenceFile) {
         return;
@@ -0,0 +1,143 @@
+/*
+ * Program: NanoOK
+ * Author:  Richard M. Leggett (richard.leggett@earlham.ac.uk)
+ *
+ * Copyright 2015-17 Earlham Institute
+ */
+
+package nanook;
+
+import java.io.PrintWriter;
+
+/**
+ * A single microbenchmark. Subclasses implement runIteration, which performs a
+ * fixed amount of work and returns the number of operations performed. Any
+ * result values should be passed to consume, so that the JIT can't eliminate
+ * the work being measured.
+ *
+ * @author Richard Leggett
+ */
+public abstract class MicroBenchmark {
+    private String name;
+    private String unit;
+    private long sink = 0;
+    private double[] opsPerSecond;
+
+    /**
+     * Constructor
+     * @param n name of benchmark
+     * @param u name of operation unit (e.g. "files", "kmers")
+     */
+    public MicroBenchmark(String n, String u) {
+        name = n;
+        unit = u;
+    }
+
+    /**
+     * Prepare any data needed. Not timed.
+     */
+    public void setup() {
+    }
+
+    /**
+     * Run one iteration
+     * @return number of operations performed
+     */
+    public abstract long runIteration();
+
+    /**
+     * Stop JIT from removing unused results
+     * @param v a result value
+     */
+    protected void consume(long v) {
+        sink += v;
+    }
+
+    protected void consume(Object o) {
+        sink += System.identityHashCode(o);
+    }
+
+    /**
+     * Run warmup and measured iterations
+     * @param warmupIterations number of untimed iterations
+     * @param iterations number of timed iterations
+     */
+    public void run(int warmupIterations, int iterations) {
+        opsPerSecond = new double[iterations];
+
+        setup();
+
+        for (int i=0; i<warmupIterations; i++) {
+            runIteration();
+        }
+
+        for (int i=0; i<iterations; i++) {
+            long startTime = System.nanoTime();
+            long ops = runIteration();
+            long elapsed = System.nanoTime() - startTime;
+            opsPerSecond[i] = (double)ops / ((double)elapsed / 1000000000.0);
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public double getMeanOpsPerSecond() {
+        double total = 0;
+
+        for (int i=0; i<opsPerSecond.length; i++) {
+            total += opsPerSecond[i];
+        }
+
+        return total / opsPerSecond.length;
+    }
+
+    /**
+     * Get error as 99.9% confidence interval, approximated with a normal distribution
+     * @return error, in ops/s
+     */
+    public double getError() {
+        double mean = getMeanOpsPerSecond();
+        double sumSquares = 0;
+
+        if (opsPerSecond.length < 2) {
+            return 0;
+        }
+
+        for (int i=0; i<opsPerSecond.length; i++) {
+            sumSquares += (opsPerSecond[i] - mean) * (opsPerSecond[i] - mean);
+        }
+
+        return 3.291 * Math.sqrt(sumSquares / (opsPerSecond.length - 1)) / Math.sqrt(opsPerSecond.length);
+    }
+
+    /**
+     * Write result line
+     * @param pw PrintWriter to write to
+     */
+    public void writeResult(PrintWriter pw) {
+        double mean = getMeanOpsPerSecond();
+
+        pw.printf("%-36s %8d %16.2f %14.2f %12s %14.1f",
+                  name,
+                  opsPerSecond.length,
+                  mean,
+                  getError(),
+                  unit + "/s",
+                  mean > 0 ? 1000000000.0 / mean : 0);
+        pw.println("");
+        pw.flush();
+
+        // Never true, but keeps results live
+        if (sink == Long.MIN_VALUE) {
+            pw.println("");
+        }
+    }
+
+    public static void writeHeader(PrintWriter pw) {
+        pw.printf("%-36s %8s %16s %14s %12s %14s", "Benchmark", "Cnt", "Score", "Error", "Units", "ns/op");
+        pw.println("");
+        pw.flush();
+    }
+}
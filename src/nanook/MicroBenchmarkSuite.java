@@ -0,0 +1,385 @@
+/*
+ * Program: NanoOK
+ * Author:  Richard M. Leggett (richard.leggett@earlham.ac.uk)
+ *
+ * Copyright 2015-17 Earlham Institute
+ */
+
+package nanook;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.PrintWriter;
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Microbenchmarks for the parser, merger and stats hot paths, run against a
+ * synthetic sample so that results are reproducible offline.
+ *
+ * @author Richard Leggett
+ */
+public class MicroBenchmarkSuite {
+    private final static int WARMUP_ITERATIONS = 2;
+    private final static int COVERAGE_INTERVALS = 100000;
+    private final static int STATS_UPDATES_PER_THREAD = 20000;
+    private NanoOKOptions options;
+    private SyntheticSampleGenerator generator;
+    private ReadSetStats stats;
+    private AlignmentsTableFile nonAlignedSummary;
+    private ArrayList<String> fastaFiles = new ArrayList<String>();
+    private ArrayList<String> fastqFiles = new ArrayList<String>();
+    private ArrayList<String> mafFiles = new ArrayList<String>();
+    private ArrayList<String> samFiles = new ArrayList<String>();
+    private ArrayList<MicroBenchmark> benchmarks = new ArrayList<MicroBenchmark>();
+
+    /**
+     * Constructor
+     * @param o NanoOKOptions object
+     */
+    public MicroBenchmarkSuite(NanoOKOptions o) {
+        options = o;
+    }
+
+    /**
+     * Find all files with given extension below a directory, in sorted order
+     */
+    private void findFiles(File dir, String extension, ArrayList<String> list) {
+        File[] listOfFiles = dir.listFiles();
+
+        if (listOfFiles != null) {
+            for (File file : listOfFiles) {
+                if (file.isDirectory()) {
+                    findFiles(file, extension, list);
+                } else if (file.getName().endsWith(extension)) {
+                    list.add(file.getPath());
+                }
+            }
+        }
+
+        Collections.sort(list);
+    }
+
+    /**
+     * Generate synthetic sample and load reference
+     */
+    private void prepareSample() {
+        String sampleDir = options.getSampleDirectory();
+
+        generator = new SyntheticSampleGenerator(options, 1);
+        options.setReferenceFile(generator.writeSample(options.getBenchmarkReads()));
+        options.checkAnalysisDirectoryStructure();
+
+        findFiles(new File(sampleDir + File.separator + "fasta"), ".fasta", fastaFiles);
+        findFiles(new File(sampleDir + File.separator + "fastq"), ".fastq", fastqFiles);
+        findFiles(new File(sampleDir + File.separator + "last"), ".maf", mafFiles);
+        findFiles(new File(sampleDir + File.separator + "bwa"), ".sam", samFiles);
+
+        OverallStats overallStats = new OverallStats(options);
+        options.getReferences().setOverallStats(overallStats);
+        options.getReferences().loadReferences();
+
+        stats = overallStats.getStatsByType(NanoOKOptions.TYPE_2D);
+        stats.openLengthsFile();
+        nonAlignedSummary = new AlignmentsTableFile(options.getAnalysisDir() + File.separator + "Unaligned" + File.separator + "microbench_nonaligned.txt");
+
+        // SAM parser needs read lengths
+        for (int i=0; i<fastaFiles.size(); i++) {
+            SequenceReader sr = new SequenceReader(false);
+            sr.indexFASTAFile(fastaFiles.get(i), null, true);
+            stats.addLength(fastaFiles.get(i), sr.getID(0), sr.getLength(0), sr.getGC(0));
+        }
+    }
+
+    /**
+     * Parse all MAF files with the LAST parser
+     */
+    private class MAFParserBenchmark extends MicroBenchmark {
+        public MAFParserBenchmark() {
+            super("MAFParser.parseFile", "files");
+        }
+
+        public long runIteration() {
+            for (int i=0; i<mafFiles.size(); i++) {
+                LastParser parser = new LastParser(options, options.getReferences());
+                consume(parser.parseFile(mafFiles.get(i), nonAlignedSummary, stats));
+            }
+            return mafFiles.size();
+        }
+    }
+
+    /**
+     * Parse all SAM files with the BWA parser, including CIGAR expansion
+     */
+    private class SAMParserBenchmark extends MicroBenchmark {
+        public SAMParserBenchmark() {
+            super("SAMParser.parseFile", "files");
+        }
+
+        public long runIteration() {
+            for (int i=0; i<samFiles.size(); i++) {
+                BWAParser parser = new BWAParser(options, options.getReferences());
+                consume(parser.parseFile(samFiles.get(i), nonAlignedSummary, stats));
+            }
+            return samFiles.size();
+        }
+    }
+
+    /**
+     * Expand CIGAR strings on their own
+     */
+    private class CIGARStringBenchmark extends MicroBenchmark {
+        private ArrayList<String[]> records = new ArrayList<String[]>();
+
+        public CIGARStringBenchmark() {
+            super("CIGARString.processString", "records");
+        }
+
+        public void setup() {
+            try {
+                for (int i=0; i<samFiles.size(); i++) {
+                    BufferedReader br = new BufferedReader(new FileReader(samFiles.get(i)));
+                    String line;
+                    while ((line = br.readLine()) != null) {
+                        if (!line.startsWith("@")) {
+                            records.add(line.split("\t"));
+                        }
+                    }
+                    br.close();
+                }
+            } catch (Exception e) {
+                System.out.println("Error reading SAM files:");
+                e.printStackTrace();
+                System.exit(1);
+            }
+        }
+
+        public long runIteration() {
+            for (int i=0; i<records.size(); i++) {
+                String[] cols = records.get(i);
+                ReferenceSequence ref = options.getReferences().getReferenceById(cols[2]);
+                CIGARString cs = new CIGARString(cols[5], cols[9], "bench", cols[0], Integer.parseInt(cols[3]) - 1, options.getReferenceFile(), ref, "bench");
+                cs.processString();
+                consume(cs.getHitAlnSize());
+            }
+            return records.size();
+        }
+    }
+
+    /**
+     * Merge pre-parsed alignments
+     */
+    private class AlignmentMergerBenchmark extends MicroBenchmark {
+        private ArrayList<Alignment> alignments = new ArrayList<Alignment>();
+
+        public AlignmentMergerBenchmark() {
+            super("AlignmentMerger.addAlignment", "reads");
+        }
+
+        public void setup() {
+            for (int i=0; i<mafFiles.size(); i++) {
+                LastParser parser = new LastParser(options, options.getReferences());
+                if (parser.parseFile(mafFiles.get(i), nonAlignedSummary, stats) > 0) {
+                    parser.sortAlignments();
+                    List<Alignment> al = parser.getHighestScoringSet();
+                    alignments.add(al.get(0));
+                }
+            }
+        }
+
+        public long runIteration() {
+            for (int i=0; i<alignments.size(); i++) {
+                Alignment a = alignments.get(i);
+                ReferenceSequence ref = options.getReferences().getReferenceById(a.getHitName());
+                AlignmentMerger merger = new AlignmentMerger(options, ref, a.getQuerySequenceSize(), stats, stats.getType());
+                merger.addAlignment(a);
+                consume(merger.endMergeAndStoreStats());
+            }
+            return alignments.size();
+        }
+    }
+
+    /**
+     * Count all 5-mers in a reference contig
+     */
+    private class KmerTableBenchmark extends MicroBenchmark {
+        private String seq;
+
+        public KmerTableBenchmark() {
+            super("KmerTable.countKmer", "kmers");
+        }
+
+        public void setup() {
+            seq = generator.getContigSequence(0);
+        }
+
+        public long runIteration() {
+            KmerTable t = new KmerTable(5);
+            int n = seq.length() - 5;
+            for (int i=0; i<n; i++) {
+                t.countKmer(seq.substring(i, i+5));
+            }
+            consume(t.get("ACGTA"));
+            return n;
+        }
+    }
+
+    /**
+     * Index all FASTQ reads
+     */
+    private class FASTQIndexBenchmark extends MicroBenchmark {
+        public FASTQIndexBenchmark() {
+            super("SequenceReader.indexFASTQFile", "files");
+        }
+
+        public long runIteration() {
+            for (int i=0; i<fastqFiles.size(); i++) {
+                SequenceReader sr = new SequenceReader(true);
+                consume(sr.indexFASTQFile(fastqFiles.get(i)));
+            }
+            return fastqFiles.size();
+        }
+    }
+
+    /**
+     * Add random read-sized intervals to coverage
+     */
+    private class CoverageBenchmark extends MicroBenchmark {
+        private int size;
+        private int[] starts = new int[COVERAGE_INTERVALS];
+        private int[] lengths = new int[COVERAGE_INTERVALS];
+
+        public CoverageBenchmark() {
+            super("SequenceCoverage.addCoverage", "intervals");
+        }
+
+        public void setup() {
+            Random rand = new Random(1);
+            size = generator.getContigSequence(0).length();
+            for (int i=0; i<COVERAGE_INTERVALS; i++) {
+                lengths[i] = 1 + rand.nextInt(Math.min(options.getBenchmarkReadLength() * 2, size - 1));
+                starts[i] = rand.nextInt(size - lengths[i]);
+            }
+        }
+
+        public long runIteration() {
+            SequenceCoverage cov = new SequenceCoverage(size);
+            for (int i=0; i<COVERAGE_INTERVALS; i++) {
+                cov.addCoverage(starts[i], lengths[i]);
+            }
+            consume(cov);
+            return COVERAGE_INTERVALS;
+        }
+    }
+
+    /**
+     * Many threads updating the stats of a single reference, as happens when
+     * most reads align to one contig
+     */
+    private class StatsContentionBenchmark extends MicroBenchmark {
+        private int nThreads;
+        private String seq;
+
+        public StatsContentionBenchmark(int t) {
+            super("ReferenceSequenceStats x" + t + " threads", "updates");
+            nThreads = t;
+        }
+
+        public void setup() {
+            seq = generator.getContigSequence(0);
+        }
+
+        public long runIteration() {
+            final ReferenceSequenceStats refStats = new ReferenceSequenceStats(seq.length(), "bench");
+            final ReadSetStats readStats = new ReadSetStats(options, NanoOKOptions.TYPE_2D);
+            Thread[] threads = new Thread[nThreads];
+
+            for (int t=0; t<nThreads; t++) {
+                final int offset = t * 997;
+                threads[t] = new Thread() {
+                    public void run() {
+                        for (int i=0; i<STATS_UPDATES_PER_THREAD; i++) {
+                            int p = (offset + i * 31) % (seq.length() - 1000);
+                            String kmer = seq.substring(p, p + 5);
+                            refStats.addCoverage(p, 1000);
+                            refStats.addPerfectKmer(1 + (i % 40));
+                            refStats.addSubstitutionError(kmer, seq.charAt(p + 5), 'A', readStats);
+                            refStats.addInsertionError(1 + (i % 5), kmer, readStats);
+                            refStats.addDeletionError(1 + (i % 5), kmer, readStats);
+                            refStats.addAlignmentStats(1000, 1000, 900, 850, "+", "+");
+                        }
+                    }
+                };
+                threads[t].start();
+            }
+
+            try {
+                for (int t=0; t<nThreads; t++) {
+                    threads[t].join();
+                }
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+
+            consume(refStats.getNumberOfSubstitutionErrors());
+            return (long)nThreads * STATS_UPDATES_PER_THREAD * 6;
+        }
+    }
+
+    /**
+     * Generate data, run all benchmarks and write results
+     */
+    public void run() {
+        String resultsFilename = options.getLogsDir() + File.separator + "microbench.txt";
+
+        prepareSample();
+
+        // Benchmarked word at a time code must match the loops it replaced
+        new BaseScannerCheck(options).run();
+
+        benchmarks.add(new MAFParserBenchmark());
+        benchmarks.add(new SAMParserBenchmark());
+        benchmarks.add(new CIGARStringBenchmark());
+        benchmarks.add(new AlignmentMergerBenchmark());
+        benchmarks.add(new KmerTableBenchmark());
+        benchmarks.add(new FASTQIndexBenchmark());
+        benchmarks.add(new CoverageBenchmark());
+        benchmarks.add(new StatsContentionBenchmark(1));
+        benchmarks.add(new StatsContentionBenchmark(Math.max(2, options.getNumberOfThreads())));
+
+        try {
+            PrintWriter pwScreen = new PrintWriter(System.out);
+            PrintWriter pwFile = new PrintWriter(new FileWriter(resultsFilename));
+
+            System.out.println("");
+            System.out.println("Running benchmarks (" + WARMUP_ITERATIONS + " warmup, " + options.getBenchmarkIterations() + " measured iterations)");
+            System.out.println("");
+            MicroBenchmark.writeHeader(pwScreen);
+            MicroBenchmark.writeHeader(pwFile);
+
+            for (int i=0; i<benchmarks.size(); i++) {
+                MicroBenchmark b = benchmarks.get(i);
+                options.getLog().println("Running benchmark " + b.getName());
+                b.run(WARMUP_ITERATIONS, options.getBenchmarkIterations());
+                b.writeResult(pwScreen);
+                b.writeResult(pwFile);
+            }
+
+            pwFile.close();
+        } catch (Exception e) {
+            System.out.println("Error writing benchmark results "+resultsFilename);
+            e.printStackTrace();
+            System.exit(1);
+        }
+
+        stats.closeLengthsFile();
+        stats.closeKmersFile();
+
+        System.out.println("");
+        System.out.println("Results written to " + resultsFilename);
+    }
+}
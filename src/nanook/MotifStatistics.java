@@ -7,6 +7,9 @@
 
 package nanook;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Hashtable;
@@ -26,6 +29,9 @@ public class MotifStatistics implements Serializable {
     private KmerMotifStatistic[] insertionMotifs = new KmerMotifStatistic[3];
     private KmerMotifStatistic[] deletionMotifs = new KmerMotifStatistic[3];
     private KmerMotifStatistic[] substitutionMotifs = new KmerMotifStatistic[3];
+    // Motif counts for each thread, indexed [error type][k-3][2-bit code], added to the KmerMotifStatistics when read
+    private transient ThreadLocal<int[][][]> threadCounts;
+    private transient ArrayList<int[][][]> allThreadCounts;
     
     /**
      * Constructor
@@ -36,31 +42,108 @@ public class MotifStatistics implements Serializable {
             deletionMotifs[k] = new KmerMotifStatistic(k+3);
             substitutionMotifs[k] = new KmerMotifStatistic(k+3);
         }
+        initThreadCounts();
+    }
+    
+    private void initThreadCounts() {
+        allThreadCounts = new ArrayList<int[][][]>();
+        threadCounts = new ThreadLocal<int[][][]>() {
+            @Override
+            protected int[][][] initialValue() {
+                int[][][] counts = new int[3][3][];
+                for (int e=0; e<3; e++) {
+                    for (int k=3; k<=5; k++) {
+                        counts[e][k-3] = new int[1 << (2 * k)];
+                    }
+                }
+                synchronized (allThreadCounts) {
+                    allThreadCounts.add(counts);
+                }
+                return counts;
+            }
+        };
+    }
+    
+    private static int getBaseCode(char c) {
+        switch(c) {
+            case 'A': return 0;
+            case 'C': return 1;
+            case 'G': return 2;
+            case 'T': return 3;
+            default: return -1;
+        }
     }
     
     /**
      * Given a stretch of perfect sequence, store motifs at all k size.
-     * @param motif KmerMotifStatistic object to add to
+     * Motifs of A, C, G and T are counted by code, without locking.
+     * @param errorType TYPE_INSERTION, TYPE_DELETION or TYPE_SUBSTITUTION
+     * @param motif KmerMotifStatistic object for motifs with other bases
      * @param kmer perfect sequence to get motifs from
      */
-    public void addMotifs(KmerMotifStatistic[] motif, String kmer) {
-        if (kmer.length() < 3) {
+    private void addMotifs(int errorType, KmerMotifStatistic[] motif, String kmer) {
+        int length = kmer.length();
+        int code = 0;
+        int validBases = 0;
+        
+        if (length < 3) {
             return;
         }
         
+        // Code of last 5 bases, and how many of them are A, C, G or T
+        for (int i=Math.max(0, length - 5); i<length; i++) {
+            int c = getBaseCode(kmer.charAt(i));
+            if (c < 0) {
+                validBases = 0;
+            } else {
+                code = (code << 2) | c;
+                validBases++;
+            }
+        }
+        
+        int[][] counts = threadCounts.get()[errorType];
         for (int k=3; k<=5; k++) {
-            if (kmer.length() > k) {
-                motif[k-3].addMotif(kmer.substring(kmer.length() - k));
+            if (length > k) {
+                if (validBases >= k) {
+                    counts[k-3][code & ((1 << (2 * k)) - 1)]++;
+                } else {
+                    motif[k-3].addMotif(kmer.substring(length - k));
+                }
             }
         }
     }
     
+    /**
+     * Add counts from all threads to the KmerMotifStatistic objects
+     */
+    private void addThreadCounts() {
+        synchronized (allThreadCounts) {
+            for (int[][][] counts : allThreadCounts) {
+                for (int k=0; k<3; k++) {
+                    insertionMotifs[k].addMotifCounts(counts[NanoOKOptions.TYPE_INSERTION][k]);
+                    deletionMotifs[k].addMotifCounts(counts[NanoOKOptions.TYPE_DELETION][k]);
+                    substitutionMotifs[k].addMotifCounts(counts[NanoOKOptions.TYPE_SUBSTITUTION][k]);
+                }
+            }
+        }
+    }
+    
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        addThreadCounts();
+        out.defaultWriteObject();
+    }
+    
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        initThreadCounts();
+    }
+    
     /**
      * Add a insertion motif.
      * @param kmer motif to add
      */
     public void addInsertionMotifs(String kmer) {
-        addMotifs(insertionMotifs, kmer);
+        addMotifs(NanoOKOptions.TYPE_INSERTION, insertionMotifs, kmer);
     }
     
     /**
@@ -68,7 +151,7 @@ public class MotifStatistics implements Serializable {
      * @param kmer motif to add 
      */
     public void addDeletionMotifs(String kmer) {
-        addMotifs(deletionMotifs, kmer);
+        addMotifs(NanoOKOptions.TYPE_DELETION, deletionMotifs, kmer);
     }
 
     /**
@@ -76,7 +159,7 @@ public class MotifStatistics implements Serializable {
      * @param kmer motif to add
      */
     public void addSubstitutionMotifs(String kmer) {
-        addMotifs(substitutionMotifs, kmer);
+        addMotifs(NanoOKOptions.TYPE_SUBSTITUTION, substitutionMotifs, kmer);
     }
 
     /**
@@ -94,6 +177,7 @@ public class MotifStatistics implements Serializable {
      * Output motif counts for all types (debugging).
      */
     public void outputAllMotifCounts() {
+        addThreadCounts();
         System.out.println("Outputtng motif data");
         System.out.println("Insertions");
         outputMotifCounts(insertionMotifs);
@@ -109,6 +193,7 @@ public class MotifStatistics implements Serializable {
      * @return ArrayList of counts.
      */
     public ArrayList<Map.Entry<String, Integer>> getSortedInsertionMotifCounts(int k) {
+        addThreadCounts();
         return insertionMotifs[k-3].getSortedMotifCounts();
     }
 
@@ -118,6 +203,7 @@ public class MotifStatistics implements Serializable {
      * @return ArrayList of counts.
      */
     public ArrayList<Map.Entry<String, Integer>> getSortedDeletionMotifCounts(int k) {
+        addThreadCounts();
         return deletionMotifs[k-3].getSortedMotifCounts();
     }
 
@@ -127,6 +213,7 @@ public class MotifStatistics implements Serializable {
      * @return ArrayList of counts.
      */
     public ArrayList<Map.Entry<String, Integer>> getSortedSubstitutionMotifCounts(int k) {
+        addThreadCounts();
         return substitutionMotifs[k-3].getSortedMotifCounts();
     }
     
@@ -136,6 +223,7 @@ public class MotifStatistics implements Serializable {
      * @return ArrayList of counts.
      */
     public ArrayList<Map.Entry<String, Double>> getSortedInsertionMotifPercentages(int k) {
+        addThreadCounts();
         return insertionMotifs[k-3].getSortedMotifPercentages();
     }
 
@@ -145,6 +233,7 @@ public class MotifStatistics implements Serializable {
      * @return ArrayList of counts.
      */
     public ArrayList<Map.Entry<String, Double>> getSortedDeletionMotifPercentages(int k) {
+        addThreadCounts();
         return deletionMotifs[k-3].getSortedMotifPercentages();
     }
 
@@ -154,6 +243,7 @@ public class MotifStatistics implements Serializable {
      * @return ArrayList of counts.
      */
     public ArrayList<Map.Entry<String, Double>> getSortedSubstitutionMotifPercentages(int k) {
+        addThreadCounts();
         return substitutionMotifs[k-3].getSortedMotifPercentages();
     }    
     
@@ -164,6 +254,7 @@ public class MotifStatistics implements Serializable {
      * @param k kmer size
      */
     public void writeInsertionLogoImage(int type, String filename, int k) {
+        addThreadCounts();
         insertionMotifs[k-3].writeLogoImage(type, filename);
     }
 
@@ -174,6 +265,7 @@ public class MotifStatistics implements Serializable {
      * @param k kmer size
      */
     public void writeDeletionLogoImage(int type, String filename, int k) {
+        addThreadCounts();
         deletionMotifs[k-3].writeLogoImage(type, filename);
     }
 
@@ -184,6 +276,7 @@ public class MotifStatistics implements Serializable {
      * @param k kmer size
      */
     public void writeSubstitutionLogoImage(int type, String filename, int k) {
+        addThreadCounts();
         substitutionMotifs[k-3].writeLogoImage(type, filename);
     }
 
@@ -196,6 +289,7 @@ public class MotifStatistics implements Serializable {
     public int getTotalMotifCounts(int errorType, int k) {
         int count = 0;
         
+        addThreadCounts();
         switch(errorType) {
             case NanoOKOptions.TYPE_INSERTION:
                 count = insertionMotifs[k-3].getTotalMotifCount();
@@ -169,7 +169,7 @@ public class NanoOK {
         System.exit(0);        
     }
     
-    private static void analyse(NanoOKOptions options) throws InterruptedException {
+    static void analyse(NanoOKOptions options) throws InterruptedException {
         OverallStats overallStats = new OverallStats(options);
         options.getReferences().setOverallStats(overallStats);
 
@@ -187,11 +187,12 @@ public class NanoOK {
             ReadLengthsSummaryFile summary = new ReadLengthsSummaryFile(options.getLengthSummaryFilename());
             summary.open(options.getSample());
             
+            ReadSet[] readSets = ReadSet.parseReadSets(options, overallStats);
+            
             for (int type = 0; type<3; type++) {
-                if (options.isProcessingReadType(type)) {
-                    System.out.println("Parsing " + NanoOKOptions.getTypeFromInt(type));
-                    ReadSet readSet = new ReadSet(type, options, overallStats.getStatsByType(type));
-                    int nReads = readSet.processReads();
+                ReadSet readSet = readSets[type];
+                if (readSet != null) {
+                    int nReads = readSet.getNumberOfReads();
 
                     if (nReads < 1) {
                         System.out.println("Error: unable to find any " + NanoOKOptions.getTypeFromInt(type) + " reads to process.");
@@ -229,6 +230,7 @@ public class NanoOK {
                 }
             }
             summary.close();            
+            AlignmentsTableWriter.flushAll();
             
             // Write files
             System.out.println("Writing analysis files");
@@ -266,6 +268,12 @@ public class NanoOK {
                 ObjectOutputStream oos = new ObjectOutputStream(fos);
                 oos.writeObject(overallStats);
                 oos.close();
+
+                // Compact version for compare
+                fos = new FileOutputStream(options.getAnalysisDir() + File.separator + "SampleSummary.ser");
+                oos = new ObjectOutputStream(fos);
+                oos.writeObject(new SampleSummary(overallStats, options.getReferences()));
+                oos.close();
             } catch (Exception e) {
                 System.out.println("Exception trying to write object:");
                 e.printStackTrace();
@@ -277,21 +285,31 @@ public class NanoOK {
         if (options.doPlotGraphs()) {
             System.out.println("");
             System.out.println("Plotting graphs");
-            RGraphPlotter plotter = new RGraphPlotter(options);
-            plotter.plot(false);                
+            if (options.usingJavaPlotter()) {
+                JavaGraphPlotter plotter = new JavaGraphPlotter(options, overallStats);
+                plotter.plot();
+            } else {
+                RGraphPlotter plotter = new RGraphPlotter(options);
+                plotter.plot(false);                
+            }
         }
         
         // Make report
         if (options.doMakeReport()) {
             System.out.println("");
             System.out.println("Making report");
-            SampleReportWriter rw = new SampleReportWriter(options, overallStats);
-            rw.writeReport();
+            if (options.usingHtmlReport()) {
+                HtmlReportWriter hw = new HtmlReportWriter(options, overallStats);
+                hw.writeReport();
+            } else {
+                SampleReportWriter rw = new SampleReportWriter(options, overallStats);
+                rw.writeReport();
 
-            if (options.doMakePDF()) {
-                System.out.println("");
-                System.out.println("Making PDF");
-                rw.makePDF();
+                if (options.doMakePDF()) {
+                    System.out.println("");
+                    System.out.println("Making PDF");
+                    rw.makePDF();
+                }
             }
         }
                 
@@ -320,7 +338,7 @@ public class NanoOK {
         comparer.loadSamples();
         comparer.compareSamples();
         
-        options.setReferences(comparer.getSample(0).getStatsByType(0).getOptions().getReferences());
+        options.setReferences(comparer.getReferences());
 
         System.out.println("");
         System.out.println("Plotting graphs");
@@ -345,13 +363,23 @@ public class NanoOK {
         dw.watch();
     }
     
-    private static void process(NanoOKOptions options) throws InterruptedException {
+    static void process(NanoOKOptions options) throws InterruptedException {
         ReadProcessor rp = new ReadProcessor(options);
         options.makeDirectories();      
         options.initialiseReadMerger();
         rp.process();
     }    
     
+    private static void microbench(NanoOKOptions options) {
+        MicroBenchmarkSuite suite = new MicroBenchmarkSuite(options);
+        suite.run();
+    }
+    
+    private static void bench(NanoOKOptions options) throws InterruptedException {
+        ThroughputBenchmark tb = new ThroughputBenchmark(options);
+        tb.run();
+    }
+    
     private static void memoryReport() {
         Runtime runtime = Runtime.getRuntime();
         long mb = 1024 * 1024;
@@ -412,10 +440,18 @@ public class NanoOK {
             watch(options);
         } else if (options.getRunMode() == NanoOKOptions.MODE_PROCESS) {
             process(options);
+        } else if (options.getRunMode() == NanoOKOptions.MODE_MICROBENCH) {
+            microbench(options);
+        } else if (options.getRunMode() == NanoOKOptions.MODE_BENCH) {
+            bench(options);
         }
         
         //memoryReport();
         
+        if (options.getStageTimer().hasTimings()) {
+            options.getStageTimer().writeTimings(options.getTimingsFilename());
+        }
+        
         options.getLog().close();
         
         options.getThreadExecutor().shutdown();
@@ -31,6 +31,8 @@ public class NanoOKOptions implements Serializable {
     public final static int MODE_COMPARE = 4;
     public final static int MODE_WATCH = 5;
     public final static int MODE_PROCESS = 6;
+    public final static int MODE_MICROBENCH = 7;
+    public final static int MODE_BENCH = 8;
     public final static int FASTA = 1;
     public final static int FASTQ = 2;
     public final static int TYPE_TEMPLATE = 0;
@@ -53,6 +55,8 @@ public class NanoOKOptions implements Serializable {
     private String aligner="last";
     private String alignerParams="";
     private String scheduler="system";
+    private String blastScheduler="slurm";
+    private int maxJobMemory = 0;
     private String sampleList = null;
     private String comparisonDir = null;
     private String bacteriaPath = null;
@@ -75,11 +79,14 @@ public class NanoOKOptions implements Serializable {
     private boolean fixRandom = false;
     private boolean doKmerCounting = true;
     private boolean showAlignerCommand = false;
+    private boolean streamAlignments = false;
     private boolean extractingReads = false;
     private boolean aligningReads = false;
     private boolean parsingReads = false;
     private boolean blastingReads = false;
     private boolean mergeFastaFiles = false;
+    private boolean shardReads = false;
+    private int readsPerShard = 4000;
     private boolean force = false;
     private double minQForPass = -1;
     private int runMode = 0;
@@ -89,13 +96,20 @@ public class NanoOKOptions implements Serializable {
     private String jobQueue = "";
     private NanoOKLog logFile = new NanoOKLog();
     private String imageFormat = "pdf";
+    private String plotter = "r";
+    private String reportFormat = "pdf";
     private int specifiedType = TYPE_2D;
     private String readsDir = "fast5";
     private int returnValue = 0;
     private int basecallIndex = -1;
     private boolean outputFast5Path = true;
     private int readsPerBlast = 500;
+    private int benchmarkReadLength = 8000;
+    private double benchmarkErrorRate = 0.1;
+    private int benchmarkReads = 1000;
+    private int benchmarkIterations = 5;
     private boolean clearLogsOnStart = true;
+    private boolean cacheListings = false;
     private transient WatcherLog watcherReadLog = new WatcherLog(this);
     private transient WatcherLog watcherCardFileLog = new WatcherLog(this);
     private transient WatcherLog watcherntFileLog = new WatcherLog(this);
@@ -114,7 +128,17 @@ public class NanoOKOptions implements Serializable {
     private transient ArrayList<String> blastProcesses = new ArrayList<String>();
     private int fileCounterOffset = 0;
     private transient ReadFileMerger readFileMerger;
+    private transient ReadShardWriter readShardWriter;
+    private transient LocalJobScheduler localJobScheduler = null;
+    private transient JobScheduler jobScheduler = null;
+    private transient JobScheduler blastJobScheduler = null;
     private transient SampleChecker sampleChecker = new SampleChecker(this);
+    private transient DirectoryLister directoryLister = null;
+    private transient boolean samHeaderChecked = false;
+    private transient StageTimer stageTimer = new StageTimer();
+    private transient ThreadLocal<AlignerSession> alignerSession = new ThreadLocal<AlignerSession>();
+    private transient ArrayList<AlignerSession> alignerSessions = new ArrayList<AlignerSession>();
+    private transient InternalAlignerIndex internalAlignerIndex = null;
         
     public NanoOKOptions() {
         String value = System.getenv("NANOOK_DIR");
@@ -166,6 +190,8 @@ public class NanoOKOptions implements Serializable {
             System.out.println("    -basecallindex specifies the index of the analysis (default: latest)");
             //System.out.println("    -printpath to output FAST5 path in FASTA read header");
             System.out.println("    -mergereads to generate merged FASTA files in addition to single read files");
+            System.out.println("    -shardreads to write reads into shard files instead of one file per read");
+            System.out.println("    -shardsize <number> specifies number of reads per shard file (default 4000)");
             System.out.println("    -minquality <value> to set the minimum quality for a 'pass' read");
             System.out.println("");
             System.out.println("align options:");
@@ -174,6 +200,7 @@ public class NanoOKOptions implements Serializable {
             System.out.println("    -aligner <name> specifies the aligner (default last)"); 
             System.out.println("    -alignerparams <params> specifies paramters to the aligner");
             System.out.println("    -showaligns echoes aligner commands to screen");
+            System.out.println("    -streamalign to keep one aligner process per thread, reading from stdin (last and bwa only)");
             System.out.println("    -a|-fasta specifies FASTA file input (default)");
             System.out.println("    -q|-fastq specifies FASTQ file input");
             System.out.println("");
@@ -182,7 +209,10 @@ public class NanoOKOptions implements Serializable {
             System.out.println("    -r|-reference <path> specifies path to reference database");
             System.out.println("    -aligner <name> specifies the aligner (default last)");            
             System.out.println("    -coveragebin <int> specifies coverage bin size (default 100)");            
-            System.out.println("    -bitmaps to output bitmap PNG graphs instead of PDF");
+            System.out.println("    -streamalign to align reads during analysis, without alignment files (last and bwa only)");
+            System.out.println("    -plotter <java|r> specifies how graphs are plotted (default r; java always outputs PNG)");
+            System.out.println("    -bitmaps to output bitmap PNG graphs instead of PDF, when plotting with R");
+            System.out.println("    -report <pdf|html> specifies the report format (default pdf, via LaTeX)");
             System.out.println("");
             System.out.println("compare options:");
             System.out.println("    -l|-samplelist <file> specifies a sample list file");
@@ -192,6 +222,13 @@ public class NanoOKOptions implements Serializable {
             System.out.println("rt options:");
             System.out.println("    -process <file> specifies a process file");
             System.out.println("");
+            System.out.println("bench and microbench options:");
+            System.out.println("    -s|-sample <dir> specifies directory to write synthetic sample to");
+            System.out.println("    -benchreads <number> specifies number of synthetic reads (default 1000)");
+            System.out.println("    -readlength <number> specifies mean synthetic read length (default 8000)");
+            System.out.println("    -errorrate <value> specifies synthetic read error rate (default 0.1)");
+            System.out.println("    -iterations <number> specifies number of measured iterations (default 5)");
+            System.out.println("");
             //System.out.println("Sample type options:");
             //System.out.println("    -barcoding if reads are barcoded and sorted into subdirs");
             //System.out.println("    -batchdirs if using MinKNOW 1.4.2 or above with separate batch_ directories");
@@ -208,8 +245,14 @@ public class NanoOKOptions implements Serializable {
             System.out.println("    -log <filename> enables debug logging to file");
             System.out.println("    -force to force NanoOK to ignore warnings");
             System.out.println("    -timeout to set the number of seconds before giving up waiting for new reads (default 2)");
+            System.out.println("    -scheduler <system|lsf|slurm|screen> specifies how aligners are run (default system)");
+            System.out.println("    -blastscheduler <system|lsf|slurm|screen> specifies how BLAST jobs are run (default slurm)");
+            System.out.println("    -queue <name> specifies queue for lsf or slurm jobs");
+            System.out.println("    -maxjobmemory <Mb> limits memory of jobs running at once under system scheduler (default physical memory)");
+            System.out.println("    -listingcache to keep directory listings, and save them in the logs directory for later runs");
+            System.out.println("                  (uses memory for every read filename)");
             System.out.println("");
-            System.out.println("Valid aligners: last, bwa, blasr, marginalign, graphmap");
+            System.out.println("Valid aligners: last, bwa, blasr, marginalign, graphmap, internal");
             System.out.println("");
             System.exit(0);
         }
@@ -248,6 +291,19 @@ public class NanoOKOptions implements Serializable {
             runMode = MODE_WATCH;
         } else if ((args[i].equals("process")) || (args[i].equals("scan")) || (args[i].equals("rt"))) {
             runMode = MODE_PROCESS;
+        } else if (args[i].equals("microbench") || args[i].equals("bench")) {
+            runMode = args[i].equals("bench") ? MODE_BENCH : MODE_MICROBENCH;
+            extractingReads = false;
+            aligningReads = false;
+            parsingReads = true;
+            blastingReads = false;
+            fileWatcherTimeout = 2;
+            plotGraphs = false;
+            makeReport = false;
+            process2DReads = true;
+            processTemplateReads = false;
+            processComplementReads = false;
+            processFailReads = false;
         } else {
             System.out.println("Unknonwn mode " + args[i] + " - must be extract, align or analyse");
             System.exit(1);
@@ -356,12 +412,21 @@ public class NanoOKOptions implements Serializable {
             } else if (args[i].equalsIgnoreCase("-bitmaps")) {
                 imageFormat = "png";
                 i++;
+            } else if (args[i].equalsIgnoreCase("-plotter")) {
+                plotter = args[i+1].toLowerCase();
+                i+=2;
+            } else if (args[i].equalsIgnoreCase("-report")) {
+                reportFormat = args[i+1].toLowerCase();
+                i+=2;
             } else if (args[i].equalsIgnoreCase("-fixids")) {
                 fixIDs = true;
                 i++;
             } else if (args[i].equalsIgnoreCase("-showaligns")) {
                 showAlignerCommand = true;
                 i++;
+            } else if (args[i].equalsIgnoreCase("-streamalign")) {
+                streamAlignments = true;
+                i++;
             } else if (args[i].equalsIgnoreCase("-deterministic")) {
                 fixRandom = true;
                 i++;                
@@ -375,6 +440,12 @@ public class NanoOKOptions implements Serializable {
             } else if (args[i].equalsIgnoreCase("-scheduler")) {
                 scheduler = args[i+1];
                 i+=2;
+            } else if (args[i].equalsIgnoreCase("-blastscheduler")) {
+                blastScheduler = args[i+1];
+                i+=2;
+            } else if (args[i].equalsIgnoreCase("-maxjobmemory")) {
+                maxJobMemory = Integer.parseInt(args[i+1]);
+                i+=2;
             } else if (args[i].equalsIgnoreCase("-queue")) {
                 jobQueue = args[i+1];
                 i+=2;
@@ -393,12 +464,33 @@ public class NanoOKOptions implements Serializable {
             } else if (args[i].equalsIgnoreCase("-keeplogs")) {
                 clearLogsOnStart = false;
                 i++;
+            } else if (args[i].equalsIgnoreCase("-listingcache")) {
+                cacheListings = true;
+                i++;
             } else if (args[i].equalsIgnoreCase("-mergereads")) {
                 mergeFastaFiles = true;
                 i++;
+            } else if (args[i].equalsIgnoreCase("-shardreads")) {
+                shardReads = true;
+                i++;
+            } else if (args[i].equalsIgnoreCase("-shardsize")) {
+                readsPerShard = Integer.parseInt(args[i+1]);
+                i+=2;
             } else if (args[i].equalsIgnoreCase("-minquality")) {
                 minQForPass = Double.parseDouble(args[i+1]);
                 i+=2;
+            } else if (args[i].equalsIgnoreCase("-benchreads")) {
+                benchmarkReads = Integer.parseInt(args[i+1]);
+                i+=2;
+            } else if (args[i].equalsIgnoreCase("-readlength")) {
+                benchmarkReadLength = Integer.parseInt(args[i+1]);
+                i+=2;
+            } else if (args[i].equalsIgnoreCase("-errorrate")) {
+                benchmarkErrorRate = Double.parseDouble(args[i+1]);
+                i+=2;
+            } else if (args[i].equalsIgnoreCase("-iterations")) {
+                benchmarkIterations = Integer.parseInt(args[i+1]);
+                i+=2;
             } else {                
                 System.out.println("Unknown parameter: " + args[i]);
                 System.exit(0);
@@ -423,6 +515,26 @@ public class NanoOKOptions implements Serializable {
             }
         }
         
+        if (streamAlignments && (getParser().getStreamCommand(referenceFile) == null)) {
+            System.out.println("Error: -streamalign can't be used with aligner " + aligner + ", as it can't read queries from stdin");
+            System.exit(1);
+        }
+        
+        if (!plotter.equals("java") && !plotter.equals("r")) {
+            System.out.println("Error: -plotter must be java or r");
+            System.exit(1);
+        }
+        
+        if (!reportFormat.equals("pdf") && !reportFormat.equals("html")) {
+            System.out.println("Error: -report must be pdf or html");
+            System.exit(1);
+        }
+        
+        if (shardReads && (aligningReads || blastingReads)) {
+            System.out.println("Error: -shardreads can't be used when aligning or blasting, as these need single read files");
+            System.exit(1);
+        }
+        
         if (runMode == MODE_COMPARE) {
             if (comparisonDir == null) {
                 System.out.println("Error: you must specify an output dir for the comparison");
@@ -436,6 +548,10 @@ public class NanoOKOptions implements Serializable {
                 System.exit(1);
             } else {
                 File s = new File(sampleDirectory);
+                if (((runMode == MODE_MICROBENCH) || (runMode == MODE_BENCH)) && (!s.exists())) {
+                    s.mkdirs();
+                }
+                
                 if (!s.exists()) {
                     System.out.println("Error: sample directory doesn't exist");
                     System.exit(1);
@@ -463,6 +579,10 @@ public class NanoOKOptions implements Serializable {
         return aligner;
     }
     
+    public void setAligner(String a) {
+        aligner = a;
+    }
+    
     public String getAlignerParams() {
         return alignerParams;
     }
@@ -488,6 +608,10 @@ public class NanoOKOptions implements Serializable {
         return referenceFile;
     }
     
+    public void setReferenceFile(String r) {
+        referenceFile = r;
+    }
+    
     /**
      * Get coverage graph bin size.
      * @return bin size
@@ -746,6 +870,14 @@ public class NanoOKOptions implements Serializable {
         }
     } 
 
+    /**
+     * Get HTML report directory.
+     * @return directory name as String
+     */
+    public String getHtmlDir() {
+        return sampleDirectory + File.separator + "html" + getAnalysisSuffix();
+    }
+
     /**
      * Get logs directory.
      * @return directory name as String
@@ -945,6 +1077,72 @@ public class NanoOKOptions implements Serializable {
         return scheduler;
     }
     
+    public int getMaxJobMemory() {
+        return maxJobMemory;
+    }
+    
+    /**
+     * Get scheduler that runs jobs on this machine, shared so that all local
+     * jobs are limited together.
+     * @return LocalJobScheduler
+     */
+    public synchronized LocalJobScheduler getLocalJobScheduler() {
+        if (localJobScheduler == null) {
+            localJobScheduler = new LocalJobScheduler(this);
+        }
+        
+        return localJobScheduler;
+    }
+    
+    private JobScheduler makeJobScheduler(String name) {
+        JobScheduler s = null;
+        
+        switch(name) {
+            case "system":
+                s = getLocalJobScheduler();
+                break;
+            case "lsf":
+                s = new LsfJobScheduler(this);
+                break;
+            case "slurm":
+                s = new SlurmJobScheduler(this);
+                break;
+            case "screen":
+                s = new ScreenJobScheduler(this);
+                break;
+            default:
+                System.out.println("Error: scheduler " + name + " not recognised.");
+                System.exit(1);
+                break;
+        }
+        
+        return s;
+    }
+    
+    /**
+     * Get scheduler for aligner jobs, as chosen by -scheduler
+     * @return JobScheduler
+     */
+    public synchronized JobScheduler getJobScheduler() {
+        if (jobScheduler == null) {
+            jobScheduler = makeJobScheduler(scheduler);
+        }
+        
+        return jobScheduler;
+    }
+    
+    /**
+     * Get scheduler for BLAST jobs, as chosen by -blastscheduler
+     * @return JobScheduler
+     */
+    public synchronized JobScheduler getBlastJobScheduler() {
+        if (blastJobScheduler == null) {
+            blastJobScheduler = makeJobScheduler(blastScheduler);
+        }
+        
+        return blastJobScheduler;
+    }
+    
     public int getNumberOfThreads() {
         return numThreads;
     }
@@ -985,6 +1183,9 @@ public class NanoOKOptions implements Serializable {
             case "graphmap":
                 parser = new GraphMapParser(this, references);
                 break;
+            case "internal":
+                parser = new InternalParser(this, references);
+                break;
             default:
                 System.out.println("Aligner unknown!");
                 System.out.println("");
@@ -1004,9 +1205,29 @@ public class NanoOKOptions implements Serializable {
     }
     
     public String getImageFormat() {
+        // Comparisons are always plotted with R
+        if (usingJavaPlotter()) {
+            return "png";
+        }
         return imageFormat;
     }
     
+    /**
+     * Check if graphs are plotted in the JVM rather than with R
+     * @return true if using JavaGraphPlotter
+     */
+    public boolean usingJavaPlotter() {
+        return plotter.equals("java") && (runMode != MODE_COMPARE);
+    }
+    
+    /**
+     * Check if the sample report is written as HTML rather than LaTeX
+     * @return true if using HtmlReportWriter
+     */
+    public boolean usingHtmlReport() {
+        return reportFormat.equals("html") && (runMode != MODE_COMPARE);
+    }
+    
     public String getSampleList() {
         return sampleList;
     }
@@ -1023,6 +1244,63 @@ public class NanoOKOptions implements Serializable {
         return showAlignerCommand;
     }
     
+    public boolean streamAlignments() {
+        return streamAlignments;
+    }
+    
+    /**
+     * Check if reads are aligned during analysis, rather than read from alignment files
+     * @return true if aligning during analysis
+     */
+    public boolean isAligningDuringAnalysis() {
+        return streamAlignments || aligner.equals("internal");
+    }
+    
+    /**
+     * Get index for internal aligner, building it on first use
+     * @return InternalAlignerIndex
+     */
+    public synchronized InternalAlignerIndex getInternalAlignerIndex() {
+        if (internalAlignerIndex == null) {
+            internalAlignerIndex = new InternalAlignerIndex();
+            internalAlignerIndex.build(referenceFile);
+        }
+        
+        return internalAlignerIndex;
+    }
+    
+    /**
+     * Get aligner session for the calling thread, creating one if needed
+     * @return AlignerSession
+     */
+    public AlignerSession getAlignerSession() {
+        AlignerSession session = alignerSession.get();
+        
+        if (session == null) {
+            synchronized(alignerSessions) {
+                String logFilename = getLogsDir() + File.separator + aligner + File.separator + "session_" + alignerSessions.size() + ".log";
+                session = new AlignerSession(this, getParser(), getReferenceFile(), logFilename);
+                alignerSessions.add(session);
+            }
+            alignerSession.set(session);
+        }
+        
+        return session;
+    }
+    
+    /**
+     * Close all aligner sessions, waiting for outstanding alignments to be dispatched
+     */
+    public void closeAlignerSessions() {
+        synchronized(alignerSessions) {
+            for (int i=0; i<alignerSessions.size(); i++) {
+                alignerSessions.get(i).close();
+            }
+            alignerSessions.clear();
+            alignerSession = new ThreadLocal<AlignerSession>();
+        }
+    }
+    
     public int getBasecallIndex() {
         return basecallIndex;
     }
@@ -1141,6 +1419,36 @@ public class NanoOKOptions implements Serializable {
         return executor;
     }
     
+    public int getBenchmarkReadLength() {
+        return benchmarkReadLength;
+    }
+    
+    public double getBenchmarkErrorRate() {
+        return benchmarkErrorRate;
+    }
+    
+    public int getBenchmarkReads() {
+        return benchmarkReads;
+    }
+    
+    public int getBenchmarkIterations() {
+        return benchmarkIterations;
+    }
+    
+    public StageTimer getStageTimer() {
+        return stageTimer;
+    }
+    
+    public String getTimingsFilename() {
+        String s = getLogsDir() + File.separator + "timings";
+        
+        if (runMode == MODE_ANALYSE) {
+            s += getAnalysisSuffix();
+        }
+        
+        return s + ".txt";
+    }
+    
     public boolean keepRunning() {
         return true;
     }
@@ -1355,6 +1663,16 @@ public class NanoOKOptions implements Serializable {
         return blastHandlers[t][pf-1];
     }
     
+    public void waitForBlastHandlers() {
+        for (int t=0; t<3; t++) {
+            for (int pf=0; pf<2; pf++) {
+                blastHandlers[t][pf].waitForBatches();
+            }
+        }
+        
+        getBlastJobScheduler().waitForJobs();
+    }
+    
     public ArrayList<String> getBlastProcesses() {
         return blastProcesses;
     }
@@ -1371,6 +1689,18 @@ public class NanoOKOptions implements Serializable {
         return readFileMerger;
     }
     
+    public boolean shardReads() {
+        return shardReads;
+    }
+    
+    public int getReadsPerShard() {
+        return readsPerShard;
+    }
+    
+    public ReadShardWriter getReadShardWriter() {
+        return readShardWriter;
+    }
+    
     public boolean usingBatchDirs() {
         return sampleChecker.usingBatchDirs();
     }
@@ -1383,6 +1713,36 @@ public class NanoOKOptions implements Serializable {
         return sampleChecker;
     }
     
+    /**
+     * Check if SAM @SQ lines still need checking against the reference. Only
+     * the first SAM file parsed in a run is checked.
+     * @return true for the first call of the run, false afterwards
+     */
+    public synchronized boolean claimSAMHeaderCheck() {
+        if (samHeaderChecked) {
+            return false;
+        }
+        
+        samHeaderChecked = true;
+        return true;
+    }
+    
+    /**
+     * Get directory lister shared by all modes, with listings cached in the logs directory if -listingcache given
+     * @return DirectoryLister
+     */
+    public synchronized DirectoryLister getDirectoryLister() {
+        if (directoryLister == null) {
+            String cacheFilename = null;
+            if (cacheListings && (sampleDirectory != null) && new File(getLogsDir()).isDirectory()) {
+                cacheFilename = getLogsDir() + File.separator + "directory_listings";
+            }
+            directoryLister = new DirectoryLister(cacheFilename, numThreads);
+        }
+        
+        return directoryLister;
+    }
+    
     public boolean usingPassFailDirs() {
         return sampleChecker.usingPassFailDirs();
     }
@@ -1393,6 +1753,9 @@ public class NanoOKOptions implements Serializable {
     
     public void initialiseReadMerger() {
         readFileMerger = new ReadFileMerger(this);
+        if (shardReads) {
+            readShardWriter = new ReadShardWriter(this);
+        }
     }
     
     public boolean debugMode() {
@@ -0,0 +1,137 @@
+/*
+ * Program: NanoOK
+ * Author:  Richard M. Leggett (richard.leggett@earlham.ac.uk)
+ *
+ * Copyright 2015-17 Earlham Institute
+ */
+
+package nanook;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A sequence stored at 2 bits per base. Anything other than upper case
+ * A, C, G or T (N, lower case, IUPAC codes) is marked in an exception mask
+ * and stored as the original byte, so the sequence is returned exactly as
+ * read. Sequences without exceptions have no mask.
+ *
+ * @author Richard Leggett
+ */
+public class PackedSequence {
+    private static final byte[] BASES = {'A', 'C', 'G', 'T'};
+    private static final int[] baseCodes = new int[256];
+    private int length;
+    private long[] packed;
+    private long[] exceptionMask = null;
+    private int[] exceptionRank = null;
+    private byte[] exceptions = null;
+
+    static {
+        for (int i=0; i<256; i++) {
+            baseCodes[i] = -1;
+        }
+        for (int i=0; i<4; i++) {
+            baseCodes[BASES[i]] = i;
+        }
+    }
+
+    /**
+     * Constructor
+     * @param b bytes of sequence
+     * @param start offset of first base
+     * @param n number of bases
+     */
+    public PackedSequence(byte[] b, int start, int n) {
+        int nExceptions = 0;
+
+        length = n;
+        packed = new long[(n + 31) >>> 5];
+
+        for (int i=0; i<n; i++) {
+            int code = baseCodes[b[start + i] & 0xFF];
+            if (code < 0) {
+                if (exceptionMask == null) {
+                    exceptionMask = new long[(n + 63) >>> 6];
+                }
+                exceptionMask[i >>> 6] |= 1L << i;
+                nExceptions++;
+            } else {
+                packed[i >>> 5] |= (long)code << ((i & 31) << 1);
+            }
+        }
+
+        if (exceptionMask != null) {
+            // Exceptions before each mask word, so exception bytes can be found by position
+            exceptionRank = new int[exceptionMask.length];
+            exceptions = new byte[nExceptions];
+            nExceptions = 0;
+            for (int w=0; w<exceptionMask.length; w++) {
+                exceptionRank[w] = nExceptions;
+                nExceptions += Long.bitCount(exceptionMask[w]);
+            }
+            nExceptions = 0;
+            for (int i=0; i<n; i++) {
+                if (isException(i)) {
+                    exceptions[nExceptions++] = b[start + i];
+                }
+            }
+        }
+    }
+
+    public int length() {
+        return length;
+    }
+
+    /**
+     * Check if base is not one of A, C, G or T
+     * @param i position
+     * @return true if an exception
+     */
+    public boolean isException(int i) {
+        return (exceptionMask != null) && ((exceptionMask[i >>> 6] & (1L << i)) != 0);
+    }
+
+    /**
+     * Get 2-bit code of a base (A=0, C=1, G=2, T=3). Only valid if not an exception.
+     * @param i position
+     * @return code
+     */
+    public int getCode(int i) {
+        return (int)(packed[i >>> 5] >>> ((i & 31) << 1)) & 3;
+    }
+
+    /**
+     * Get base as it was read
+     * @param i position
+     * @return base
+     */
+    public byte byteAt(int i) {
+        if (isException(i)) {
+            long below = exceptionMask[i >>> 6] & ((1L << i) - 1);
+            return exceptions[exceptionRank[i >>> 6] + Long.bitCount(below)];
+        }
+
+        return BASES[getCode(i)];
+    }
+
+    /**
+     * Get part of sequence
+     * @param start start position
+     * @param end end position (exclusive)
+     * @return sub-sequence
+     */
+    public String substring(int start, int end) {
+        byte[] b = new byte[end - start];
+
+        for (int i=start; i<end; i++) {
+            b[i - start] = byteAt(i);
+        }
+
+        return new String(b, StandardCharsets.ISO_8859_1);
+    }
+
+    @Override
+    public String toString() {
+        return substring(0, length);
+    }
+}
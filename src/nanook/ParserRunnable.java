@@ -7,7 +7,9 @@
 
 package nanook;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.StringReader;
 import java.util.List;
 import java.util.Random;
 
@@ -16,7 +18,7 @@ import java.util.Random;
  * 
  * @author Richard Leggett
  */
-public class ParserRunnable implements Runnable
+public class ParserRunnable implements Runnable, AlignerSessionCallback
 {
     private NanoOKOptions options;
     private ReadSetStats stats;
@@ -72,8 +74,9 @@ public class ParserRunnable implements Runnable
     
     /**
      * Parse alignment
+     * @param records alignments from an aligner session, or null to parse the alignment file
      */
-    private void parseAlignment()
+    private void parseAlignment(String records)
     {
         try {
             File file = new File(alignmentPath);
@@ -83,27 +86,46 @@ public class ParserRunnable implements Runnable
             options.getLog().println("> New file " + file.getName());
             options.getLog().println("");
 
-            int nAlignments = parser.parseFile(alignmentPath, nonAlignedSummary, stats);
+            StageTimer timer = options.getStageTimer();
+            long startTime = timer.start();
+            int nAlignments;
+            if (parser instanceof InternalParser) {
+                nAlignments = ((InternalParser)parser).alignReads(sr, alignmentPath, nonAlignedSummary, stats);
+            } else if (records == null) {
+                nAlignments = parser.parseFile(alignmentPath, nonAlignedSummary, stats);
+            } else {
+                nAlignments = parser.parseAlignments(new BufferedReader(new StringReader(records)), alignmentPath, nonAlignedSummary, stats);
+            }
+            timer.stop(StageTimer.STAGE_PARSE, startTime);
 
             if (nAlignments > 0) {
                 parser.sortAlignments();
                 List<Alignment> al = parser.getHighestScoringSet();
                 int topAlignment = pickTopAlignment(al);
-                String readReferenceName = al.get(topAlignment).getHitName();
+                int readReferenceIndex = al.get(topAlignment).getHitIndex();
 
                 options.getLog().println("Query size = " + al.get(topAlignment).getQuerySequenceSize());
                 options.getLog().println("  Hit size = " + al.get(topAlignment).getHitSequenceSize());
 
-                readReference = options.getReferences().getReferenceById(readReferenceName);
+                if (readReferenceIndex >= 0) {
+                    readReference = options.getReferences().getReferenceByIndex(readReferenceIndex);
+                } else {
+                    readReference = options.getReferences().getReferenceById(al.get(topAlignment).getHitName());
+                }
+                startTime = timer.start();
                 AlignmentMerger merger = new AlignmentMerger(options, readReference, al.get(topAlignment).getQuerySequenceSize(), stats, stats.getType());
                 for (int i=topAlignment; i<al.size(); i++) {
                     Alignment a = al.get(i);
                     merger.addAlignment(a);
                 }
                 AlignmentInfo ais = merger.endMergeAndStoreStats();
+                timer.stop(StageTimer.STAGE_MERGE, startTime);
+                
+                startTime = timer.start();
                 readReference.getStatsByType(stats.getType()).addCoverage(merger.getOverallHitStart(), merger.getOverallHitEnd()-merger.getOverallHitStart()+1);
                 readReference.getStatsByType(stats.getType()).getAlignmentsTableFile().writeMergedAlignment(stats, file.getName(), merger, ais);
                 readReference.getStatsByType(stats.getType()).addLongestAlignmentSize(ais.getAlignmentSize());
+                timer.stop(StageTimer.STAGE_STATS, startTime);
             }
         } catch (Exception e) {
             System.out.println("Error parsing alignment "+ alignmentPath);
@@ -150,15 +172,34 @@ public class ParserRunnable implements Runnable
         }
     }
 
+    private void storeKmers() {
+        if ((readReference != null) && (options.doKmerCounting())) {
+            long startTime = options.getStageTimer().start();
+            sr.storeKmers(0, readReference.getStatsByType(type).getReadKmerTable());
+            options.getStageTimer().stop(StageTimer.STAGE_STATS, startTime);
+        }
+    }
+    
     /**
      * Entry point to thread
      */
     public void run() {        
         readQueryFile();
         stats.addReadFile(passfail);
-        parseAlignment();
-        if ((readReference != null) && (options.doKmerCounting())) {
-            sr.storeKmers(0, readReference.getStatsByType(type).getReadKmerTable());
+        if (options.streamAlignments()) {
+            // Parsing continues in alignmentsReady, on the session's thread
+            options.getAlignerSession().align(readPath, this);
+        } else {
+            parseAlignment(null);
+            storeKmers();
         }
     }
+    
+    /**
+     * Called by aligner session once read has been aligned
+     */
+    public void alignmentsReady(String fastaqPathname, String records) {
+        parseAlignment(records);
+        storeKmers();
+    }
 }
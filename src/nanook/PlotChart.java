@@ -0,0 +1,375 @@
+/*
+ * Program: NanoOK
+ * Author:  Richard M. Leggett (richard.leggett@earlham.ac.uk)
+ *
+ * Copyright 2015-17 Earlham Institute
+ */
+
+package nanook;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Path2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import javax.imageio.ImageIO;
+
+/**
+ * A simple chart drawn with Java2D - bars, lines, points and text labels on
+ * linear axes, styled after the ggplot2 graphs produced by the R scripts.
+ *
+ * @author Richard Leggett
+ */
+public class PlotChart {
+    // Change when rendering changes, so previously drawn charts are redrawn
+    private final static int VERSION = 1;
+    private final static int STYLE_BARS = 0;
+    private final static int STYLE_LINE = 1;
+    private final static int STYLE_POINTS = 2;
+    private final static int STYLE_LABELS = 3;
+    private final static Color PANEL_COLOUR = new Color(0xEB, 0xEB, 0xEB);
+    private final static Color TEXT_COLOUR = new Color(0x4D, 0x4D, 0x4D);
+    private String title;
+    private String xLabel;
+    private String yLabel;
+    private double xMin = Double.NaN;
+    private double xMax = Double.NaN;
+    private double yMin = Double.NaN;
+    private double yMax = Double.NaN;
+    private ArrayList<Series> series = new ArrayList<Series>();
+
+    /**
+     * A set of values drawn in one style
+     */
+    private class Series {
+        private int style;
+        private double[] x;
+        private double[] y;
+        private String[] labels;
+        private double width;
+        private Color colour;
+
+        public Series(int s, double[] xv, double[] yv, double w, Color c) {
+            style = s;
+            x = xv;
+            y = yv;
+            width = w;
+            colour = c;
+        }
+    }
+
+    /**
+     * Constructor
+     * @param t title
+     * @param xl x axis label
+     * @param yl y axis label
+     */
+    public PlotChart(String t, String xl, String yl) {
+        title = t;
+        xLabel = xl;
+        yLabel = yl;
+    }
+
+    public void setXLimits(double min, double max) {
+        xMin = min;
+        xMax = max;
+    }
+
+    public void setYLimits(double min, double max) {
+        yMin = min;
+        yMax = max;
+    }
+
+    /**
+     * Add bars, drawn up from zero
+     * @param x bar centres
+     * @param y bar heights
+     * @param width bar width, in x axis units
+     * @param c colour
+     */
+    public void addBars(double[] x, double[] y, double width, Color c) {
+        series.add(new Series(STYLE_BARS, x, y, width, c));
+    }
+
+    public void addLine(double[] x, double[] y, Color c) {
+        series.add(new Series(STYLE_LINE, x, y, 0, c));
+    }
+
+    public void addPoints(double[] x, double[] y, Color c) {
+        series.add(new Series(STYLE_POINTS, x, y, 0, c));
+    }
+
+    public void addLabels(String[] labels, double[] x, double[] y) {
+        Series s = new Series(STYLE_LABELS, x, y, 0, Color.BLACK);
+        s.labels = labels;
+        series.add(s);
+    }
+
+    /**
+     * Get hash of everything the chart depends on, so unchanged charts needn't be redrawn
+     * @return 64-bit FNV-1a hash
+     */
+    public long getHash() {
+        long h = 0xcbf29ce484222325L;
+
+        h = hash(h, VERSION);
+        h = hash(h, title + "\t" + xLabel + "\t" + yLabel);
+        h = hash(h, Double.doubleToLongBits(xMin));
+        h = hash(h, Double.doubleToLongBits(xMax));
+        h = hash(h, Double.doubleToLongBits(yMin));
+        h = hash(h, Double.doubleToLongBits(yMax));
+        for (int i=0; i<series.size(); i++) {
+            Series s = series.get(i);
+            h = hash(h, s.style);
+            h = hash(h, s.colour.getRGB());
+            h = hash(h, Double.doubleToLongBits(s.width));
+            if (s.style == STYLE_POINTS) {
+                // Points come from many threads, so their order doesn't count
+                long sum = 0;
+                for (int j=0; j<s.x.length; j++) {
+                    sum += hash(hash(0xcbf29ce484222325L, Double.doubleToLongBits(s.x[j])), Double.doubleToLongBits(s.y[j]));
+                }
+                h = hash(h, sum);
+            } else {
+                for (int j=0; j<s.x.length; j++) {
+                    h = hash(h, Double.doubleToLongBits(s.x[j]));
+                    h = hash(h, Double.doubleToLongBits(s.y[j]));
+                }
+            }
+            if (s.labels != null) {
+                for (int j=0; j<s.labels.length; j++) {
+                    h = hash(h, s.labels[j]);
+                }
+            }
+        }
+
+        return h;
+    }
+
+    private static long hash(long h, long v) {
+        for (int i=0; i<8; i++) {
+            h ^= (v >>> (8 * i)) & 0xFF;
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+
+    private static long hash(long h, String s) {
+        for (int i=0; i<s.length(); i++) {
+            h = hash(h, s.charAt(i));
+        }
+        return hash(h, s.length());
+    }
+
+    /**
+     * Work out data range of one axis, for limits not set
+     */
+    private double[] getRange(boolean xAxis, double min, double max) {
+        double lo = Double.MAX_VALUE;
+        double hi = -Double.MAX_VALUE;
+
+        for (int i=0; i<series.size(); i++) {
+            Series s = series.get(i);
+            double[] v = xAxis ? s.x : s.y;
+            for (int j=0; j<v.length; j++) {
+                double a = v[j];
+                double b = v[j];
+                if (s.style == STYLE_BARS) {
+                    if (xAxis) {
+                        a -= s.width / 2;
+                        b += s.width / 2;
+                    } else {
+                        a = Math.min(0, a);
+                        b = Math.max(0, b);
+                    }
+                }
+                lo = Math.min(lo, a);
+                hi = Math.max(hi, b);
+            }
+        }
+
+        if (!Double.isNaN(min)) {
+            lo = min;
+        }
+        if (!Double.isNaN(max)) {
+            hi = max;
+        }
+        if (lo > hi) {
+            lo = 0;
+            hi = 1;
+        } else if (lo == hi) {
+            lo -= 0.5;
+            hi += 0.5;
+        }
+
+        // Expand a little, as ggplot does
+        double pad = (hi - lo) * 0.04;
+        return new double[] {lo - pad, hi + pad};
+    }
+
+    /**
+     * Choose a round tick spacing giving about five ticks
+     */
+    private static double getTickStep(double range) {
+        double raw = range / 5;
+        double magnitude = Math.pow(10, Math.floor(Math.log10(raw)));
+        double n = raw / magnitude;
+
+        if (n < 1.5) {
+            return magnitude;
+        } else if (n < 3) {
+            return 2 * magnitude;
+        } else if (n < 7) {
+            return 5 * magnitude;
+        }
+
+        return 10 * magnitude;
+    }
+
+    private static String formatTick(double v, double step) {
+        int decimals = Math.max(0, (int)-Math.floor(Math.log10(step)));
+        return String.format("%." + decimals + "f", v);
+    }
+
+    /**
+     * Render chart to a PNG file
+     * @param filename output filename
+     * @param width image width, in pixels
+     * @param height image height, in pixels
+     */
+    public void writePNG(String filename, int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        double scale = height / 800.0;
+        Font titleFont = new Font(Font.SANS_SERIF, Font.PLAIN, (int)(40 * scale));
+        Font labelFont = new Font(Font.SANS_SERIF, Font.PLAIN, (int)(36 * scale));
+        Font tickFont = new Font(Font.SANS_SERIF, Font.PLAIN, (int)(30 * scale));
+        Font textFont = new Font(Font.SANS_SERIF, Font.PLAIN, (int)(14 * scale));
+        double[] xr = getRange(true, xMin, xMax);
+        double[] yr = getRange(false, yMin, yMax);
+        double xStep = getTickStep(xr[1] - xr[0]);
+        double yStep = getTickStep(yr[1] - yr[0]);
+
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, width, height);
+
+        // Left margin depends on width of y tick labels
+        g.setFont(tickFont);
+        FontMetrics tickMetrics = g.getFontMetrics();
+        int widestTick = 0;
+        for (long k = (long)Math.ceil(yr[0] / yStep); k <= (long)Math.floor(yr[1] / yStep); k++) {
+            double v = k * yStep + 0.0;
+            widestTick = Math.max(widestTick, tickMetrics.stringWidth(formatTick(v, yStep)));
+        }
+
+        int left = (int)(20 * scale) + g.getFontMetrics(labelFont).getHeight() + widestTick + (int)(20 * scale);
+        int right = width - (int)(30 * scale);
+        int top = (int)(30 * scale) + g.getFontMetrics(titleFont).getHeight();
+        int bottom = height - ((int)(30 * scale) + g.getFontMetrics(labelFont).getHeight() + tickMetrics.getHeight());
+        double xScale = (right - left) / (xr[1] - xr[0]);
+        double yScale = (bottom - top) / (yr[1] - yr[0]);
+
+        // Panel and grid
+        g.setColor(PANEL_COLOUR);
+        g.fillRect(left, top, right - left, bottom - top);
+        g.setStroke(new BasicStroke((float)(2 * scale)));
+        for (long k = (long)Math.ceil(xr[0] / xStep); k <= (long)Math.floor(xr[1] / xStep); k++) {
+            double v = k * xStep + 0.0;
+            int px = (int)(left + (v - xr[0]) * xScale);
+            g.setColor(Color.WHITE);
+            g.drawLine(px, top, px, bottom);
+            g.setColor(TEXT_COLOUR);
+            g.setFont(tickFont);
+            String s = formatTick(v, xStep);
+            g.drawString(s, px - tickMetrics.stringWidth(s) / 2, bottom + tickMetrics.getAscent() + (int)(6 * scale));
+        }
+        for (long k = (long)Math.ceil(yr[0] / yStep); k <= (long)Math.floor(yr[1] / yStep); k++) {
+            double v = k * yStep + 0.0;
+            int py = (int)(bottom - (v - yr[0]) * yScale);
+            g.setColor(Color.WHITE);
+            g.drawLine(left, py, right, py);
+            g.setColor(TEXT_COLOUR);
+            g.setFont(tickFont);
+            String s = formatTick(v, yStep);
+            g.drawString(s, left - tickMetrics.stringWidth(s) - (int)(8 * scale), py + tickMetrics.getAscent() / 2 - (int)(2 * scale));
+        }
+
+        // Data, clipped to panel
+        g.setClip(left, top, right - left, bottom - top);
+        for (int i=0; i<series.size(); i++) {
+            Series s = series.get(i);
+            g.setColor(s.colour);
+            if (s.style == STYLE_BARS) {
+                for (int j=0; j<s.x.length; j++) {
+                    double x0 = left + (s.x[j] - s.width / 2 - xr[0]) * xScale;
+                    double y0 = bottom - (Math.max(0, s.y[j]) - yr[0]) * yScale;
+                    double y1 = bottom - (Math.min(0, s.y[j]) - yr[0]) * yScale;
+                    g.fill(new Rectangle2D.Double(x0, y0, s.width * xScale, y1 - y0));
+                }
+            } else if (s.style == STYLE_LINE) {
+                Path2D.Double path = new Path2D.Double();
+                for (int j=0; j<s.x.length; j++) {
+                    double px = left + (s.x[j] - xr[0]) * xScale;
+                    double py = bottom - (s.y[j] - yr[0]) * yScale;
+                    if (j == 0) {
+                        path.moveTo(px, py);
+                    } else {
+                        path.lineTo(px, py);
+                    }
+                }
+                g.setStroke(new BasicStroke((float)(2 * scale)));
+                g.draw(path);
+            } else if (s.style == STYLE_POINTS) {
+                double r = 8 * scale;
+                g.setColor(new Color(s.colour.getRed(), s.colour.getGreen(), s.colour.getBlue(), 128));
+                g.setStroke(new BasicStroke((float)(3 * scale)));
+                for (int j=0; j<s.x.length; j++) {
+                    double px = left + (s.x[j] - xr[0]) * xScale;
+                    double py = bottom - (s.y[j] - yr[0]) * yScale;
+                    g.draw(new Ellipse2D.Double(px - r, py - r, 2 * r, 2 * r));
+                }
+            } else if (s.style == STYLE_LABELS) {
+                g.setFont(textFont);
+                FontMetrics fm = g.getFontMetrics();
+                for (int j=0; j<s.x.length; j++) {
+                    int px = (int)(left + (s.x[j] - xr[0]) * xScale);
+                    int py = (int)(bottom - (s.y[j] - yr[0]) * yScale);
+                    g.drawString(s.labels[j], px - fm.stringWidth(s.labels[j]) / 2, py + fm.getAscent() / 2);
+                }
+            }
+        }
+        g.setClip(null);
+
+        // Title and axis labels
+        g.setColor(Color.BLACK);
+        g.setFont(titleFont);
+        g.drawString(title, left, top - (int)(12 * scale));
+        g.setFont(labelFont);
+        FontMetrics labelMetrics = g.getFontMetrics();
+        g.drawString(xLabel, (left + right - labelMetrics.stringWidth(xLabel)) / 2, height - labelMetrics.getDescent() - (int)(12 * scale));
+        AffineTransform saved = g.getTransform();
+        g.rotate(-Math.PI / 2);
+        g.drawString(yLabel, -(top + bottom + labelMetrics.stringWidth(yLabel)) / 2, (int)(20 * scale) + labelMetrics.getAscent());
+        g.setTransform(saved);
+        g.dispose();
+
+        try {
+            ImageIO.write(image, "png", new File(filename));
+        } catch (IOException e) {
+            System.out.println("PlotChart exception:");
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+}
@@ -101,7 +101,7 @@ public class RGraphPlotter {
                 
         options.getLog().println("Running Rscript "+scriptName);
         options.getLog().println("Log file is "+logFilename);
-        executor.execute(new RGraphRunnable("Rscript", args, logFilename + ".txt"));
+        executor.execute(new RGraphRunnable(options, "Rscript", args, logFilename + ".txt"));
         writeProgress();
     }
     
@@ -8,7 +8,6 @@
 package nanook;
 
 import java.io.BufferedReader;
-import java.io.File;
 import java.io.FileReader;
 import java.util.List;
 
@@ -18,11 +17,13 @@ import java.util.List;
  * @author Richard Leggett
  */
 public class RGraphRunnable implements Runnable {
+    private NanoOKOptions options;
     private String command;
     private String logFilename;
     private List<String> args;
     
-    public RGraphRunnable(String cmd, List<String> a, String log) {
+    public RGraphRunnable(NanoOKOptions o, String cmd, List<String> a, String log) {
+        options = o;
         command = cmd;
         args = a;
         logFilename = log;
@@ -53,17 +54,15 @@ public class RGraphRunnable implements Runnable {
     }
 
     public void run() {  
-        try {         
-            ProcessBuilder pb = new ProcessBuilder(args);
-            pb.redirectErrorStream(true);
-            pb.redirectOutput(ProcessBuilder.Redirect.to(new File(logFilename))); //appendTo
-            Process p = pb.start();
-            p.waitFor();
-            checkLogForErrors(logFilename);
-        } catch (Exception e) {
-            System.out.println("RGraphRunnable exception:");
-            e.printStackTrace();
-            System.exit(1);
-        }        
+        SchedulerJob job = new SchedulerJob(command, args.toArray(new String[args.size()]));
+
+        job.setLogFile(logFilename);
+        job.setCallback(new JobCallback() {
+            public void jobFinished(SchedulerJob job, int exitCode) {
+                checkLogForErrors(job.getLogFile());
+            }
+        });
+        
+        options.getLocalJobScheduler().run(job);
     }
 }
@@ -87,6 +87,8 @@ public class ReadAligner {
     public boolean isValidReadFile(String filename) {
         boolean isValid = false;
         
+        filename = SequenceReader.stripCompressionExtension(filename);
+        
         //System.out.println(filename);
         
         if (parser.getReadFormat() == NanoOKOptions.FASTA) {
@@ -121,16 +123,16 @@ public class ReadAligner {
         checkAndMakeDir(logDirName);
         
         if (allowSubdir) {
-            File inputDir = new File(readsDir);
-            File[] listOfFiles = inputDir.listFiles();
-            for (File file : listOfFiles) {
-                if (file.isDirectory() &&
-                    (!file.getName().equals("2D")) &&
-                    (!file.getName().equals("Template")) &&
-                    (!file.getName().equals("Complement"))) {
-                    processDirectory(readsDir + File.separator + file.getName(),
-                                     alignDir + File.separator + file.getName(),
-                                     logDirName + File.separator + file.getName(),
+            // List barcode and read type directories in parallel
+            DirectoryLister.DirectoryListing listing = options.getDirectoryLister().listTree(readsDir, 1);
+            String[] dirs = listing == null ? new String[0] : listing.getDirectories();
+            for (String name : dirs) {
+                if ((!name.equals("2D")) &&
+                    (!name.equals("Template")) &&
+                    (!name.equals("Complement"))) {
+                    processDirectory(readsDir + File.separator + name,
+                                     alignDir + File.separator + name,
+                                     logDirName + File.separator + name,
                                      false,
                                      true);
                 }
@@ -145,31 +147,29 @@ public class ReadAligner {
 
                     checkAndMakeDir(outputDirName);
 
-                    File inputDir = new File(inputDirName);
-                    File[] listOfFiles = inputDir.listFiles();
+                    DirectoryLister.DirectoryListing listing = options.getDirectoryLister().list(inputDirName);
 
-                    if (listOfFiles == null) {
+                    if (listing == null) {
                         System.out.println("");
                         System.out.println("Directory "+inputDirName+" doesn't exist. Have you extracted reads as "+options.getExpectedReadFormat()+ " (some aligners require FASTA, some FASTQ)?");
-                    } else if (listOfFiles.length <= 0) {
+                    } else if (listing.isEmpty()) {
                         System.out.println("");
                         System.out.println("Directory "+inputDirName+" empty. Have you extracted reads as "+options.getExpectedReadFormat()+ " (some aligners require FASTA, some FASTQ)?");
                     } else {
                         int readCount = 0;
-                        for (File file : listOfFiles) {
-                            if (file.isFile()) {
-                                if (isValidReadFile(file.getName())) {
-                                    String inPath = inputDirName + File.separator + file.getName();
-                                    String outPath = outputDirName + File.separator + file.getName() + parser.getAlignmentFileExtension();
-                                    String logFile = logDirName + File.separator + file.getName() + ".log";
-                                    String command = parser.getRunCommand(inPath, outPath, reference);                            
-                                    if (options.showAlignerCommand()) {
-                                        System.out.println("Running: " + command);
-                                    }
-                                    executor.execute(new SystemCommandRunnable(options, null, command, parser.outputsToStdout() ? outPath:null, logFile));
-                                    writeProgress();
-                                    readCount++;
+                        for (String name : listing.getFiles()) {
+                            if (isValidReadFile(name)) {
+                                String inPath = inputDirName + File.separator + name;
+                                String readName = SequenceReader.stripCompressionExtension(name);
+                                String outPath = outputDirName + File.separator + readName + parser.getAlignmentFileExtension();
+                                String logFile = logDirName + File.separator + readName + ".log";
+                                String command = parser.getRunCommand(inPath, outPath, reference);                            
+                                if (options.showAlignerCommand()) {
+                                    System.out.println("Running: " + command);
                                 }
+                                executor.execute(new SystemCommandRunnable(options, null, command, parser.outputsToStdout() ? outPath:null, logFile));
+                                writeProgress();
+                                readCount++;
                             }
                         }
 
@@ -115,26 +115,30 @@ public class ReadExtractor {
             }
         }
         
-        File inputDir = new File(inputDirName);
-        File[] listOfFiles = inputDir.listFiles();
+        // If there are sub-directories, list them all in parallel now
+        DirectoryLister.DirectoryListing listing = allowSubdir ? options.getDirectoryLister().listTree(inputDirName, 1) : options.getDirectoryLister().list(inputDirName);
         
-        if (listOfFiles == null) {
+        if (listing == null) {
             System.out.println("");
             System.out.println("Directory "+inputDirName+" doesn't exist");
-        } else if (listOfFiles.length <= 0) {
+        } else if (listing.isEmpty()) {
             System.out.println("");
             System.out.println("Directory "+inputDirName+" empty");
         } else {
-            for (File file : listOfFiles) {
-                if (file.isFile() && processThisDir) {
-                    if (file.getName().endsWith(".fast5")) {
-                        options.getLog().println("Got file "+file.getName());
-                        executor.execute(new ReadExtractorRunnable(options, inputDirName, file.getName(), outputDirName));
+            if (processThisDir) {
+                for (String name : listing.getFiles()) {
+                    if (name.endsWith(".fast5")) {
+                        options.getLog().println("Got file "+name);
+                        executor.execute(new ReadExtractorRunnable(options, inputDirName, name, outputDirName));
                         writeProgress();
                     }
-                } else if (file.isDirectory() && allowSubdir) {
-                    processDirectory(inputDirName + File.separator + file.getName(),
-                                     outputDirName + File.separator + file.getName(),
+                }
+            }
+            
+            if (allowSubdir) {
+                for (String name : listing.getDirectories()) {
+                    processDirectory(inputDirName + File.separator + name,
+                                     outputDirName + File.separator + name,
                                      false,
                                      true);
                 }
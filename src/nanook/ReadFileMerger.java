@@ -45,7 +45,8 @@ public class ReadFileMerger {
     }
     
     public synchronized void addReadFile(String pathname, int type, int pf, String readID, int readLength, double meanQ) {
-        if (options.mergeFastaFiles()) {
+        // When sharding, merged files are written as reads are extracted
+        if (options.mergeFastaFiles() && !options.shardReads()) {
             readFiles[pf-1][type].add(pathname);
         }
         
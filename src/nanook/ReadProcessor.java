@@ -84,21 +84,18 @@ public class ReadProcessor {
                 fw.addWatchDir(inputDirName, pf);
             }
         } else {
-            File inputDir = new File(inputDirName);
-            File[] listOfFiles = inputDir.listFiles();
+            DirectoryLister.DirectoryListing listing = options.getDirectoryLister().list(inputDirName);
 
-            if (listOfFiles == null) {
+            if (listing == null) {
                 options.getLog().println("Directory "+inputDirName+" doesn't exist");
-            } else if (listOfFiles.length <= 0) {
+            } else if (listing.isEmpty()) {
                 options.getLog().println("Directory "+inputDirName+" empty");
-            } else {
-                for (File file : listOfFiles) {
-                    if (file.isDirectory() && allowSubdir) {
-                        processDirectory(inputDirName + File.separator + file.getName(),
-                                         false,
-                                         true,
-                                         pf);
-                    }
+            } else if (allowSubdir) {
+                for (String name : listing.getDirectories()) {
+                    processDirectory(inputDirName + File.separator + name,
+                                     false,
+                                     true,
+                                     pf);
                 }           
             }
         }    
@@ -259,9 +256,22 @@ public class ReadProcessor {
                 
         // That's all - wait for all threads to finish
         executor.shutdown();
+        while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+            fw.writeProgress();
+        }
+
+        if (options.streamAlignments()) {
+            options.closeAlignerSessions();
+        }
+
+        if (options.isBlastingRead()) {
+            options.waitForBlastHandlers();
+        }
 
         options.getReadFileMerger().closeFiles();
-        if (options.mergeFastaFiles()) {        
+        if (options.shardReads()) {
+            options.getReadShardWriter().closeFiles();
+        } else if (options.mergeFastaFiles()) {        
             System.out.println("");
             options.getReadFileMerger().writeMergedFiles();
         }        
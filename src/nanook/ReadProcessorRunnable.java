@@ -66,7 +66,7 @@ public class ReadProcessorRunnable implements Runnable {
     //}/    
 
     private String getAlignmentPathnameFromFastaqName(String fastaqPathname) {
-        File f = new File(fastaqPathname);        
+        File f = new File(SequenceReader.stripCompressionExtension(fastaqPathname));        
         String inDir = f.getPath();
         String outPathname;
         
@@ -90,7 +90,7 @@ public class ReadProcessorRunnable implements Runnable {
     }      
 
     private String getAlignmentLogPathnameFromFastaqName(String fastaqPathname) {
-        File f = new File(fastaqPathname);        
+        File f = new File(SequenceReader.stripCompressionExtension(fastaqPathname));        
         String inDir = f.getPath();
         String outPathname;
         
@@ -146,6 +146,13 @@ public class ReadProcessorRunnable implements Runnable {
         }
         
         outPathname = options.getReadDir() + inDir.substring(options.getAlignerDir().length(),inDir.lastIndexOf('.'));
+        
+        // Reads may be compressed
+        for (String extension : new String[] {".gz", ".bgz"}) {
+            if (!new File(outPathname).exists() && new File(outPathname + extension).exists()) {
+                outPathname = outPathname + extension;
+            }
+        }
                 
         return outPathname;
     }      
@@ -167,16 +174,17 @@ public class ReadProcessorRunnable implements Runnable {
         return outName;
     }
     
-    private void runCommandLocal(String command, String outPath) {
-        ProcessLogger pl = new ProcessLogger();
+    private void runCommand(String command, String outPath, String logPath) {
+        SchedulerJob job = new SchedulerJob(new File(logPath).getName(), command);
+        long startTime = options.getStageTimer().start();
         
         // outPath only non-null if aligner will only write to screen (yes, BWA, I'm talking about you)
-        if (outPath != null) {
-            pl.setWriteFormat(false, true, false);
-            pl.runAndLogCommand(command, outPath, false);
-        } else {
-            pl.runCommand(command);
-        }
+        job.setOutputFile(outPath);
+        job.setLogFile(logPath);
+        job.setThreads(SystemCommandRunnable.getCommandThreads(command));
+        options.getJobScheduler().run(job);
+        
+        options.getStageTimer().stop(StageTimer.STAGE_ALIGNER, startTime);
     }    
 
     public void runParse(String alignmentPathname) {
@@ -202,11 +210,49 @@ public class ReadProcessorRunnable implements Runnable {
         options.getLog().println("           to "+alignmentPathname);        
         options.getLog().println("     with log "+alignmentLogPathname);        
         
+        if (parser instanceof InternalParser) {
+            long startTime = options.getStageTimer().start();
+            String records = ((InternalParser)parser).alignFile(fastaqPathname);
+            options.getStageTimer().stop(StageTimer.STAGE_ALIGNER, startTime);
+            writeAlignmentFile(alignmentPathname, records);
+            return;
+        }
+        
+        if (options.streamAlignments()) {
+            options.getAlignerSession().align(fastaqPathname, new AlignerSessionCallback() {
+                public void alignmentsReady(String fastaqPathname, String records) {
+                    writeAlignmentFile(getAlignmentPathnameFromFastaqName(fastaqPathname) + options.getParser().getAlignmentFileExtension(), records);
+                }
+            });
+            return;
+        }
+        
         String command = parser.getRunCommand(fastaqPathname, alignmentPathname, reference);                            
         if (options.showAlignerCommand()) {
             System.out.println("Running: " + command);
         }
-        runCommandLocal(command, parser.outputsToStdout() ? alignmentPathname:null);
+        runCommand(command, parser.outputsToStdout() ? alignmentPathname:null, alignmentLogPathname);
+        if (options.isParsingRead()) {
+            runParse(alignmentPathname);
+        }
+    }
+    
+    /**
+     * Write alignments received from an aligner session
+     * @param alignmentPathname alignment file to write
+     * @param records aligner output for the read file
+     */
+    private void writeAlignmentFile(String alignmentPathname, String records) {
+        try {
+            PrintWriter pw = new PrintWriter(new FileWriter(alignmentPathname));
+            pw.print(records);
+            pw.close();
+        } catch (IOException e) {
+            System.out.println("ReadProcessorRunnable exception");
+            e.printStackTrace();
+            System.exit(1);
+        }
+        
         if (options.isParsingRead()) {
             runParse(alignmentPathname);
         }
@@ -297,15 +343,23 @@ public class ReadProcessorRunnable implements Runnable {
                     }
                                         
                     String fastaqPathname = getFastaqFilename(fast5Pathname, t, inputPF, outputPF);
-                    options.getLog().println("    Writing "+fastaqPathname);
 
-                    options.getReadFileMerger().addReadFile(fastaqPathname, t, outputPF, ff.getID(), ff.getLength(), meanQ);
-
-                    if (options.getReadFormat() == NanoOKOptions.FASTA) {
-                        ff.writeFasta(fastaqPathname, options.outputFast5Path() ? fast5Pathname:null);
+                    long startTime = options.getStageTimer().start();
+                    if (options.shardReads()) {
+                        String record = options.getReadFormat() == NanoOKOptions.FASTA ? ff.getFastaString(options.outputFast5Path() ? fast5Pathname:null) : ff.getFastqString();
+                        fastaqPathname = options.getReadShardWriter().writeRead(new File(fastaqPathname).getParent(), t, outputPF, ff.getID(), record);
+                        options.getLog().println("    Written to "+fastaqPathname);
                     } else {
-                        ff.writeFastq(fastaqPathname);
+                        options.getLog().println("    Writing "+fastaqPathname);
+                        if (options.getReadFormat() == NanoOKOptions.FASTA) {
+                            ff.writeFasta(fastaqPathname, options.outputFast5Path() ? fast5Pathname:null);
+                        } else {
+                            ff.writeFastq(fastaqPathname);
+                        }
                     }
+                    options.getStageTimer().stop(StageTimer.STAGE_READ_WRITE, startTime);
+
+                    options.getReadFileMerger().addReadFile(fastaqPathname, t, outputPF, ff.getID(), ff.getLength(), meanQ);
 
                     if (options.isBlastingRead()) {
                         addToBlast(fastaqPathname, t);
@@ -359,8 +413,9 @@ public class ReadProcessorRunnable implements Runnable {
                         options.getLog().println("Invalid "+nextPathname);
                     }
                 } else if (options.isAligningRead()) {
-                    if (nextPathname.toLowerCase().endsWith(".fasta") || 
-                        nextPathname.toLowerCase().endsWith(".fastq")) {
+                    String readName = SequenceReader.stripCompressionExtension(nextPathname).toLowerCase();
+                    if (readName.endsWith(".fasta") || 
+                        readName.endsWith(".fastq")) {
                         runAlign(nextPathname);
                     }                
                 } else if (options.isParsingRead()) {
@@ -369,8 +424,9 @@ public class ReadProcessorRunnable implements Runnable {
                         runParse(nextPathname);
                     }
                 } else if (options.isBlastingRead()) {               
-                    if (nextPathname.toLowerCase().endsWith(".fasta") || 
-                        nextPathname.toLowerCase().endsWith(".fastq")) {
+                    String readName = SequenceReader.stripCompressionExtension(nextPathname).toLowerCase();
+                    if (readName.endsWith(".fasta") || 
+                        readName.endsWith(".fastq")) {
                         runBlast(nextPathname);
                     }                
                 }
@@ -11,6 +11,7 @@ import java.io.BufferedReader;
 import java.io.*;
 import java.util.*;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
@@ -21,13 +22,14 @@ import java.util.concurrent.TimeUnit;
  */
 public class ReadSet {
     public final static int MAX_READ_DIRS = 1000;
+    public final static int QUEUED_READS_PER_THREAD = 16;
     private ThreadPoolExecutor queryExecutor;
     private NanoOKOptions options;
     private ReadSetStats stats;
     private int type;
     private int nFastaFiles=0;
     private String typeString;
-    private long lastCompleted = -1;
+    private static long lastCompleted = -1;
 
    
     /**
@@ -35,19 +37,125 @@ public class ReadSet {
      * @param t type (defined in NanoOKOprions)
      * @param o NanoOKOptions object
      * @param s set of stats to associate with this read set
+     * @param e executor to queue reads on, shared by all read sets parsed together
      */
-    public ReadSet(int t, NanoOKOptions o, ReadSetStats s) {
+    public ReadSet(int t, NanoOKOptions o, ReadSetStats s, ThreadPoolExecutor e) {
         options = o;
         type = t;
         stats = s;
+        typeString = options.getTypeFromInt(type);
+        queryExecutor = e;
+    }
+    
+    /**
+     * Make executor for parsing reads
+     * @param options NanoOKOptions object
+     * @return executor
+     */
+    public static ThreadPoolExecutor createExecutor(NanoOKOptions options) {
+        // Queue is bounded, so reads are found only as fast as they're parsed
+        return new ThreadPoolExecutor(options.getNumberOfThreads(), options.getNumberOfThreads(), 10, TimeUnit.SECONDS,
+                                      new LinkedBlockingQueue<Runnable>(options.getNumberOfThreads() * QUEUED_READS_PER_THREAD),
+                                      new RejectedExecutionHandler() {
+            public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                // Queue full - wait for space
+                try {
+                    executor.getQueue().put(r);
+                } catch (InterruptedException e) {
+                    System.out.println("ReadSet exception:");
+                    e.printStackTrace();
+                    System.exit(1);
+                }
+            }
+        });
+    }
+    
+    /**
+     * Parse all read types being processed in one pass. Directories for all
+     * types are listed together, and reads of every type are queued on one
+     * executor, each updating the stats for its own type.
+     * @param options NanoOKOptions object
+     * @param overallStats stats for each type
+     * @return read sets, indexed by type, with null for types not processed
+     */
+    public static ReadSet[] parseReadSets(NanoOKOptions options, OverallStats overallStats) throws InterruptedException {
+        ReadSet[] readSets = new ReadSet[3];
+        ThreadPoolExecutor executor = createExecutor(options);
+        String typeList = "";
+
+        for (int type = 0; type<3; type++) {
+            if (options.isProcessingReadType(type)) {
+                typeList += (typeList.length() > 0 ? ", " : "") + NanoOKOptions.getTypeFromInt(type);
+                readSets[type] = new ReadSet(type, options, overallStats.getStatsByType(type), executor);
+            }
+        }
+
+        System.out.println("Parsing " + typeList);
         
-        queryExecutor = new ThreadPoolExecutor(options.getNumberOfThreads(), options.getNumberOfThreads(), 10, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        for (int type = 0; type<3; type++) {
+            if (readSets[type] != null) {
+                readSets[type].queueReads();
+            }
+        }
+        
+        // That's all - wait for all threads to finish
+        executor.shutdown();
+        while (!executor.isTerminated()) {
+            writeProgress(executor);
+            Thread.sleep(100);
+        }        
+
+        writeProgress(executor);
+        System.out.println("");
+        
+        if (options.streamAlignments()) {
+            options.closeAlignerSessions();
+        }
+        
+        CIGARString.closeReferenceReaders();
+        
+        for (int type = 0; type<3; type++) {
+            if (readSets[type] != null) {
+                readSets[type].finishReads();
+            }
+        }
+        
+        return readSets;
+    }
+    
+    /**
+     * List sub-directories (e.g. barcodes) of a directory
+     * @param dir directory
+     * @return names of sub-directories
+     */
+    private String[] listDirectories(String dir) {
+        DirectoryLister.DirectoryListing listing = options.getDirectoryLister().list(dir);
+        
+        return listing == null ? new String[0] : listing.getDirectories();
+    }
+    
+    /**
+     * List alignment files in a directory, so that each read doesn't need its own existence check
+     * @param alignDir alignment directory
+     * @return set of filenames, empty if the directory doesn't exist or alignment is done during analysis
+     */
+    private Set<String> listAlignmentFiles(String alignDir) {
+        HashSet<String> filenames = new HashSet<String>();
+        
+        if (!options.isAligningDuringAnalysis()) {
+            DirectoryLister.DirectoryListing listing = options.getDirectoryLister().list(alignDir);
+            if (listing != null) {
+                filenames.addAll(Arrays.asList(listing.getFiles()));
+            }
+        }
+        
+        return filenames;
     }
         
     /**
      * Write progress
      */
-    private void writeProgress(ThreadPoolExecutor tpe) {
+    private static void writeProgress(ThreadPoolExecutor tpe) {
         long completed = tpe.getCompletedTaskCount();
         long total = tpe.getTaskCount();
         long e = 0;
@@ -79,6 +187,8 @@ public class ReadSet {
     private boolean isValidReadExtension(String f) {
         boolean r = false;
         
+        f = SequenceReader.stripCompressionExtension(f);
+        
         if (options.getReadFormat() == NanoOKOptions.FASTQ) {
             if ((f.endsWith(".fastq")) || (f.endsWith(".fq"))) {
                 r = true;
@@ -93,9 +203,9 @@ public class ReadSet {
     }
     
     /**
-     * Gather length statistics on reads and parse alignments
+     * Find reads and queue them for length statistics and alignment parsing
      */
-    public int processReadsOld() throws InterruptedException {
+    private int queueReadsOld() {
         AlignmentFileParser parser = options.getParser();
         String[] readDirs = new String[MAX_READ_DIRS];
         String[] alignerDirs = new String[MAX_READ_DIRS];
@@ -121,18 +231,15 @@ public class ReadSet {
 
                 if (passOrFail != "") {
                     if (options.isBarcoded()) {
-                            File inputDir = new File(options.getReadDir() + File.separator + passOrFail + File.separator + options.getTypeFromInt(type));
-                            File[] listOfFiles = inputDir.listFiles();
-                            for (File file : listOfFiles) {
-                                if (file.isDirectory()) {
-                                    if (nDirs == MAX_READ_DIRS) {
-                                        System.out.println("Error: too many directories.\n");
-                                        System.exit(1);
-                                    }
-                                    readDirs[nDirs] = inputDir.getPath() + File.separator + file.getName();
-                                    alignerDirs[nDirs] = options.getAlignerDir() + File.separator + passOrFail + File.separator + options.getTypeFromInt(type) + File.separator + file.getName();
-                                    readTypes[nDirs++] = pf;
+                            String inputDir = options.getReadDir() + File.separator + passOrFail + File.separator + options.getTypeFromInt(type);
+                            for (String name : listDirectories(inputDir)) {
+                                if (nDirs == MAX_READ_DIRS) {
+                                    System.out.println("Error: too many directories.\n");
+                                    System.exit(1);
                                 }
+                                readDirs[nDirs] = inputDir + File.separator + name;
+                                alignerDirs[nDirs] = options.getAlignerDir() + File.separator + passOrFail + File.separator + options.getTypeFromInt(type) + File.separator + name;
+                                readTypes[nDirs++] = pf;
                             }
                     } else {                
                         readDirs[nDirs] = options.getReadDir() + File.separator + passOrFail + File.separator + options.getTypeFromInt(type);
@@ -152,63 +259,47 @@ public class ReadSet {
         for (int dirIndex=0; dirIndex<nDirs; dirIndex++) {        
             String inputDir = readDirs[dirIndex];
             String alignDir = alignerDirs[dirIndex];
-            File folder = new File(inputDir);
-            File[] listOfFiles = folder.listFiles();
+            DirectoryLister.DirectoryListing listing = options.getDirectoryLister().list(inputDir);
                         
-            if (listOfFiles == null) {
+            if (listing == null) {
                 System.out.println("");
                 System.out.println("Directory "+inputDir+" doesn't exist");
-            } else if (listOfFiles.length <= 0) {
+            } else if (listing.isEmpty()) {
                 System.out.println("");
                 System.out.println("Directory "+inputDir+" empty");
             } else {
-                for (File file : listOfFiles) {
-                    if (file.isFile()) {
-                        if (isValidReadExtension(file.getName())) {
-                            String alignmentFilename = alignDir + File.separator + file.getName() + parser.getAlignmentFileExtension();
-                            //System.out.println(alignmentFilename);
-                            //options.getLog().println("File: " + alignmentFilename);
-                            if (new File(alignmentFilename).exists()) {
-                                queryExecutor.execute(new ParserRunnable(options, stats, file.getAbsolutePath(), alignmentFilename, type, readTypes[dirIndex], nonAlignedSummary));
-                                writeProgress(queryExecutor);
-                                                                
-                                nFastaFiles++;
-                                if ((maxReads > 0) && (nFastaFiles >= maxReads)) {
-                                     break;
-                                }
-                                
-                            } else {
-                                System.out.println("Error: Read ignored, can't find alignment "+alignmentFilename);
-                            } 
-                        }
+                Set<String> alignmentFiles = listAlignmentFiles(alignDir);
+                for (String name : listing.getFiles()) {
+                    File file = new File(inputDir, name);
+                    if (isValidReadExtension(file.getName())) {
+                        String alignmentName = SequenceReader.stripCompressionExtension(file.getName()) + parser.getAlignmentFileExtension();
+                        String alignmentFilename = alignDir + File.separator + alignmentName;
+                        //System.out.println(alignmentFilename);
+                        //options.getLog().println("File: " + alignmentFilename);
+                        if (options.isAligningDuringAnalysis() || alignmentFiles.contains(alignmentName)) {
+                            queryExecutor.execute(new ParserRunnable(options, stats, file.getAbsolutePath(), alignmentFilename, type, readTypes[dirIndex], nonAlignedSummary));
+                            writeProgress(queryExecutor);
+                                                            
+                            nFastaFiles++;
+                            if ((maxReads > 0) && (nFastaFiles >= maxReads)) {
+                                 break;
+                            }
+                            
+                        } else {
+                            System.out.println("Error: Read ignored, can't find alignment "+alignmentFilename);
+                        } 
                     }
                 }
             }
         }
-
-
-        
-        // That's all - wait for all threads to finish
-        queryExecutor.shutdown();
-        while (!queryExecutor.isTerminated()) {
-            writeProgress(queryExecutor);
-            Thread.sleep(100);
-        }        
-
-        writeProgress(queryExecutor);
-        System.out.println("");
-        
-        stats.closeLengthsFile();
-        stats.calculateStats(); 
-        stats.writeSummaryFile();           
         
         return nFastaFiles;
     }
     
     /**
-     * Gather length statistics on reads and parse alignments
+     * Find reads in batch directories and queue them for length statistics and alignment parsing
      */
-    public int processReadsBatch() throws InterruptedException {
+    private int queueReadsBatch() {
         AlignmentFileParser parser = options.getParser();
         String[] readDirs = new String[MAX_READ_DIRS];
         String[] alignerDirs = new String[MAX_READ_DIRS];
@@ -220,8 +311,6 @@ public class ReadSet {
         
         nFastaFiles=0;
 
-        typeString = options.getTypeFromInt(type);
-                
         stats.openLengthsFile();
 
         for (int pf=NanoOKOptions.READTYPE_PASS; pf<=NanoOKOptions.READTYPE_FAIL; pf++) {
@@ -235,18 +324,15 @@ public class ReadSet {
 
             if (passOrFail != "") {
                 if (options.isBarcoded()) {
-                        File inputDir = new File(options.getReadDir() + File.separator + passOrFail + File.separator + typeString);
-                        File[] listOfFiles = inputDir.listFiles();
-                        for (File file : listOfFiles) {
-                            if (file.isDirectory()) {
-                                if (nDirs == MAX_READ_DIRS) {
-                                    System.out.println("Error: too many directories.\n");
-                                    System.exit(1);
-                                }
-                                readDirs[nDirs] = options.getReadDir() + File.separator + passOrFail + File.separator + typeString + File.separator + file.getName();
-                                alignerDirs[nDirs] = options.getAlignerDir() + File.separator + passOrFail + File.separator + typeString + File.separator + file.getName();
-                                readTypes[nDirs++] = pf;
+                        String inputDir = options.getReadDir() + File.separator + passOrFail + File.separator + typeString;
+                        for (String name : listDirectories(inputDir)) {
+                            if (nDirs == MAX_READ_DIRS) {
+                                System.out.println("Error: too many directories.\n");
+                                System.exit(1);
                             }
+                            readDirs[nDirs] = inputDir + File.separator + name;
+                            alignerDirs[nDirs] = options.getAlignerDir() + File.separator + passOrFail + File.separator + typeString + File.separator + name;
+                            readTypes[nDirs++] = pf;
                         }
                 } else {                
                     readDirs[nDirs] = options.getReadDir() + File.separator + passOrFail + File.separator + typeString;
@@ -263,78 +349,83 @@ public class ReadSet {
         for (int dirIndex=0; dirIndex<nDirs; dirIndex++) {        
             String inputDir = readDirs[dirIndex];
             String alignDir = alignerDirs[dirIndex];
-            File folder = new File(inputDir);
-            File[] listOfFilesTop = folder.listFiles();
+            // batch_XXX directories are listed one at a time, so only one batch's names are held
+            DirectoryLister.DirectoryListing listingTop = options.getDirectoryLister().list(inputDir);
             
             options.getLog().println("Input: "+inputDir);
             options.getLog().println("Align: "+alignDir);
             
             // Now list of files should contain batch_XXX directories
-            if (listOfFilesTop == null) {
+            if (listingTop == null) {
                 System.out.println("");
                 System.out.println("Directory "+inputDir+" doesn't exist");
-            } else if (listOfFilesTop.length <= 0) {
+            } else if (listingTop.isEmpty()) {
                 System.out.println("");
                 System.out.println("Directory "+inputDir+" empty");
             } else {                
-                for (File topLevelFile : listOfFilesTop) {
-                    options.getLog().println("  Got dir "+ topLevelFile.getName());
-                    if (topLevelFile.isDirectory()) {
-                        // Now go through reads in directory
-                        File[] listOfFiles = topLevelFile.listFiles();
-                        for (File file : listOfFiles) {
-                            if (file.isFile()) {
-                                if (isValidReadExtension(file.getName())) {
-                                    String alignmentFilename = alignDir + File.separator + topLevelFile.getName() + File.separator + file.getName() + parser.getAlignmentFileExtension();
-                                    //System.out.println(alignmentFilename);
-                                    //options.getLog().println("File: " + alignmentFilename);
-                                    if (new File(alignmentFilename).exists()) {
-                                        queryExecutor.execute(new ParserRunnable(options, stats, file.getAbsolutePath(), alignmentFilename, type, readTypes[dirIndex], nonAlignedSummary));
-                                        writeProgress(queryExecutor);
-
-                                        nFastaFiles++;
-                                        if ((maxReads > 0) && (nFastaFiles >= maxReads)) {
-                                             break;
-                                        }
+                for (String batchDir : listingTop.getDirectories()) {
+                    options.getLog().println("  Got dir "+ batchDir);
+                    // Now go through reads in directory
+                    DirectoryLister.DirectoryListing listing = options.getDirectoryLister().list(inputDir + File.separator + batchDir);
+                    String[] listOfFiles = listing == null ? new String[0] : listing.getFiles();
+                    Set<String> alignmentFiles = listAlignmentFiles(alignDir + File.separator + batchDir);
+                    for (String name : listOfFiles) {
+                        File file = new File(inputDir + File.separator + batchDir, name);
+                        if (isValidReadExtension(file.getName())) {
+                            String alignmentName = SequenceReader.stripCompressionExtension(file.getName()) + parser.getAlignmentFileExtension();
+                            String alignmentFilename = alignDir + File.separator + batchDir + File.separator + alignmentName;
+                            //System.out.println(alignmentFilename);
+                            //options.getLog().println("File: " + alignmentFilename);
+                            if (options.isAligningDuringAnalysis() || alignmentFiles.contains(alignmentName)) {
+                                queryExecutor.execute(new ParserRunnable(options, stats, file.getAbsolutePath(), alignmentFilename, type, readTypes[dirIndex], nonAlignedSummary));
+                                writeProgress(queryExecutor);
 
-                                    } else {
-                                        System.out.println("Error: Read ignored, can't find alignment "+alignmentFilename);
-                                    } 
+                                nFastaFiles++;
+                                if ((maxReads > 0) && (nFastaFiles >= maxReads)) {
+                                     break;
                                 }
-                            }
+
+                            } else {
+                                System.out.println("Error: Read ignored, can't find alignment "+alignmentFilename);
+                            } 
                         }
                     }
                 }
             }
         }
-
-
-        
-        // That's all - wait for all threads to finish
-        queryExecutor.shutdown();
-        while (!queryExecutor.isTerminated()) {
-            writeProgress(queryExecutor);
-            Thread.sleep(100);
-        }        
-
-        writeProgress(queryExecutor);
-        System.out.println("");
-        
-        stats.closeLengthsFile();
-        stats.calculateStats(); 
-        stats.writeSummaryFile();           
         
         return nFastaFiles;
     }    
     
-    public int processReads() throws InterruptedException {
+    /**
+     * Find reads and queue them on the executor
+     * @return number of read files queued
+     */
+    public int queueReads() {
         if (options.usingBatchDirs()) {
-            return processReadsBatch();
+            return queueReadsBatch();
         } else {
-            return processReadsOld();
+            return queueReadsOld();
         }
     }
     
+    /**
+     * Calculate and write stats, once all queued reads have been parsed
+     */
+    public void finishReads() {
+        stats.closeLengthsFile();
+        stats.calculateStats(); 
+        stats.writeSummaryFile();           
+    }
+    
+    /**
+     * Get number of read files found
+     * @return number of read files queued
+     */
+    public int getNumberOfReads() {
+        return nFastaFiles;
+    }
+    
     /**
      * Get type of this read set.
      * @return a String (e.g. "Template")
@@ -13,6 +13,7 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Hashtable;
 import java.util.Map;
 
@@ -54,6 +55,9 @@ public class ReadSetStats implements Serializable {
     private int ignoredDuplicates = 0;
     private int type;
     private int longestAlignmentSize = 0;
+    private int nk21Count = 0;
+    private int[] nk21Lengths = new int[1024];
+    private int[] nk21 = new int[1024];
    
     /**
      * Constructor
@@ -311,6 +315,22 @@ public class ReadSetStats implements Serializable {
         nReads++;
     }    
         
+    /**
+     * Get histogram of read lengths.
+     * @param binSize width of each bin
+     * @param maxLength lengths at or above this are ignored
+     * @return number of reads in each bin
+     */
+    public synchronized int[] getLengthHistogram(int binSize, int maxLength) {
+        int[] bins = new int[(maxLength + binSize - 1) / binSize];
+        
+        for (int l=0; l<Math.min(maxLength, NanoOKOptions.MAX_READ_LENGTH); l++) {
+            bins[l / binSize] += lengths[l];
+        }
+        
+        return bins;
+    }
+    
     /**
      * Get length of read
      * @param id of read
@@ -468,9 +488,11 @@ public class ReadSetStats implements Serializable {
      * @param size size of deletion
      * @param kmer kmer prior to error
      */
-    public synchronized void addDeletionError(int size, String kmer) {
+    public void addDeletionError(int size, String kmer) {
         motifStats.addDeletionMotifs(kmer);
-        nDeletions++;
+        synchronized (this) {
+            nDeletions++;
+        }
     }
     
     /**
@@ -478,9 +500,11 @@ public class ReadSetStats implements Serializable {
      * @param size size of insertion
      * @param kmer kmer prior to error
      */
-    public synchronized void addInsertionError(int size, String kmer) {
+    public void addInsertionError(int size, String kmer) {
         motifStats.addInsertionMotifs(kmer);
-        nInsertions++;
+        synchronized (this) {
+            nInsertions++;
+        }
     } 
     
     /** 
@@ -489,7 +513,7 @@ public class ReadSetStats implements Serializable {
      * @param refChar reference base
      * @param subChar substituted base
      */
-    public synchronized void addSubstitutionError(String kmer, char refChar, char subChar) {
+    public void addSubstitutionError(String kmer, char refChar, char subChar) {
         int r = -1;
         int s = -1;
         
@@ -512,8 +536,10 @@ public class ReadSetStats implements Serializable {
         }
            
         if ((r >= 0) && (s >= 0)) {
-            nSubstitutions++;
-            substitutionErrors[r][s]++;
+            synchronized (this) {
+                nSubstitutions++;
+                substitutionErrors[r][s]++;
+            }
         }
     }
     
@@ -552,10 +578,35 @@ public class ReadSetStats implements Serializable {
         pwKmers.print(id+"\t"+Integer.toString(length));
         for (int i=0; i<nk; i++) {
             pwKmers.print("\t"+Integer.toString(kCounts[i]));
+            
+            // Keep perfect 21mer counts for plotting
+            if (s[i] == 21) {
+                if (nk21Count == nk21.length) {
+                    nk21Lengths = Arrays.copyOf(nk21Lengths, nk21Count * 2);
+                    nk21 = Arrays.copyOf(nk21, nk21Count * 2);
+                }
+                nk21Lengths[nk21Count] = length;
+                nk21[nk21Count++] = kCounts[i];
+            }
         }
         pwKmers.println("");
     }
     
+    /**
+     * Get number of perfect 21mers in each read, as written to the kmers file.
+     * @return array of two arrays - read lengths and number of perfect 21mers
+     */
+    public synchronized double[][] getPerfect21merCounts() {
+        double[][] points = new double[2][nk21Count];
+        
+        for (int i=0; i<nk21Count; i++) {
+            points[0][i] = nk21Lengths[i];
+            points[1][i] = nk21[i];
+        }
+        
+        return points;
+    }
+    
     /**
      * Get options
      */
@@ -0,0 +1,229 @@
+/*
+ * Program: NanoOK
+ * Author:  Richard M. Leggett (richard.leggett@earlham.ac.uk)
+ *
+ * Copyright 2015-17 Earlham Institute
+ */
+
+package nanook;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Hashtable;
+
+/**
+ * Writes extracted reads into shard files holding many reads each, rather than
+ * one file per read. There is a current shard for each output directory (i.e.
+ * each pass/fail, type and batch combination), which is rotated after a set
+ * number of reads. Each shard has an offset index alongside it, and if merged
+ * files were requested, reads are appended to those at the same time.
+ *
+ * @author Richard Leggett
+ */
+public class ReadShardWriter {
+    private final static int BUFFER_SIZE = 1024 * 1024;
+    private NanoOKOptions options;
+    private Hashtable<String,ReadShard> shards = new Hashtable<String,ReadShard>();
+    private BufferedChannel[][] mergedFiles = new BufferedChannel[2][3];
+
+    /**
+     * A FileChannel with a write buffer
+     */
+    private class BufferedChannel {
+        private FileChannel channel;
+        private ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private long position = 0;
+
+        public BufferedChannel(String pathname) throws IOException {
+            channel = new FileOutputStream(pathname).getChannel();
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        /**
+         * Write bytes
+         * @return offset in file at which bytes were written
+         */
+        public long write(byte[] bytes) throws IOException {
+            long offset = position;
+
+            if (bytes.length > buffer.remaining()) {
+                flush();
+            }
+
+            if (bytes.length > buffer.capacity()) {
+                ByteBuffer b = ByteBuffer.wrap(bytes);
+                while (b.hasRemaining()) {
+                    channel.write(b);
+                }
+            } else {
+                buffer.put(bytes);
+            }
+
+            position += bytes.length;
+
+            return offset;
+        }
+
+        public void close() throws IOException {
+            flush();
+            channel.close();
+        }
+    }
+
+    /**
+     * The current shard for one output directory
+     */
+    private class ReadShard {
+        private String dir;
+        private String extension;
+        private int shardNumber = -1;
+        private int readsInShard = 0;
+        private String pathname;
+        private BufferedChannel channel = null;
+        private PrintWriter index = null;
+
+        public ReadShard(String d, String e) {
+            dir = d;
+            extension = e;
+        }
+
+        private void close() throws IOException {
+            if (channel != null) {
+                channel.close();
+                index.close();
+                channel = null;
+            }
+        }
+
+        private void open() throws IOException {
+            shardNumber++;
+            pathname = dir + File.separator + options.getSample() + "_reads_" + String.format("%05d", shardNumber) + extension;
+            options.getLog().println("Opening shard " + pathname);
+            channel = new BufferedChannel(pathname);
+            index = new PrintWriter(new FileWriter(pathname + ".idx"));
+            readsInShard = 0;
+        }
+
+        /**
+         * Append read, rotating shard if full
+         * @return pathname of shard written to
+         */
+        public synchronized String append(String readId, byte[] record) throws IOException {
+            if ((channel == null) || (readsInShard >= options.getReadsPerShard())) {
+                close();
+                open();
+            }
+
+            long offset = channel.write(record);
+            index.println(readId + "\t" + offset + "\t" + record.length);
+            readsInShard++;
+
+            return pathname;
+        }
+    }
+
+    /**
+     * Constructor
+     * @param o NanoOKOptions object
+     */
+    public ReadShardWriter(NanoOKOptions o) {
+        options = o;
+    }
+
+    private BufferedChannel getMergedFile(int type, int pf) throws IOException {
+        synchronized(mergedFiles) {
+            if (mergedFiles[pf-1][type] == null) {
+                String pathname = options.getReadDir() + File.separator +
+                                  options.getSample() + "_all_" +
+                                  NanoOKOptions.getTypeFromInt(type) + "_" +
+                                  NanoOKOptions.getPassFailFromInt(pf) +
+                                  (options.getReadFormat() == NanoOKOptions.FASTA ? ".fasta":".fastq");
+                System.out.println("Writing " + pathname);
+                mergedFiles[pf-1][type] = new BufferedChannel(pathname);
+            }
+
+            return mergedFiles[pf-1][type];
+        }
+    }
+
+    /**
+     * Write a read
+     * @param dir directory the single read file would have been written to
+     * @param type type from NanoOKOptions
+     * @param pf pass or fail from NanoOKOptions
+     * @param readId read ID, for the index
+     * @param record FASTA or FASTQ record
+     * @return pathname of shard read was written to
+     */
+    public String writeRead(String dir, int type, int pf, String readId, String record) {
+        String extension = options.getReadFormat() == NanoOKOptions.FASTA ? ".fasta":".fastq";
+        byte[] bytes = record.getBytes();
+        String shardPathname = null;
+        ReadShard shard;
+
+        synchronized(shards) {
+            shard = shards.get(dir);
+            if (shard == null) {
+                shard = new ReadShard(dir, extension);
+                shards.put(dir, shard);
+            }
+        }
+
+        try {
+            shardPathname = shard.append(readId, bytes);
+
+            if (options.mergeFastaFiles()) {
+                BufferedChannel merged = getMergedFile(type, pf);
+                synchronized(merged) {
+                    merged.write(bytes);
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("ReadShardWriter exception");
+            e.printStackTrace();
+            System.exit(1);
+        }
+
+        return shardPathname;
+    }
+
+    /**
+     * Flush and close all shards and merged files
+     */
+    public void closeFiles() {
+        options.getLog().println("Closing shard files");
+
+        try {
+            for (ReadShard shard : new ArrayList<ReadShard>(shards.values())) {
+                synchronized(shard) {
+                    shard.close();
+                }
+            }
+
+            for (int pf = 0; pf<2; pf++) {
+                for (int type=0; type<3; type++) {
+                    if (mergedFiles[pf][type] != null) {
+                        mergedFiles[pf][type].close();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("ReadShardWriter exception");
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Program: NanoOK
+ * Author:  Richard M. Leggett (richard.leggett@earlham.ac.uk)
+ *
+ * Copyright 2015-17 Earlham Institute
+ */
+
+package nanook;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * GC bins and k-mer counts for one reference contig - everything the reference
+ * pass computes, so that it can be cached between runs.
+ *
+ * @author Richard Leggett
+ */
+public class ReferenceContigProfile {
+    private final static char[] codeBases = {'A', 'C', 'G', 'T'};
+    private String id;
+    private long length;
+    private int binSize;
+    private int kmerSize;
+    private double[] gcPc;
+    private int[] kmerCounts;
+
+    /**
+     * Constructor
+     * @param i contig ID
+     * @param len contig length
+     * @param bs GC bin size
+     * @param g GC percentage of each bin written to the GC file
+     * @param k k-mer size
+     * @param kc counts indexed by 2-bit encoded k-mer
+     */
+    public ReferenceContigProfile(String i, long len, int bs, double[] g, int k, int[] kc) {
+        id = i;
+        length = len;
+        binSize = bs;
+        gcPc = g;
+        kmerSize = k;
+        kmerCounts = kc;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public int getBinSize() {
+        return binSize;
+    }
+
+    public int getKmerSize() {
+        return kmerSize;
+    }
+
+    public double[] getGCPercent() {
+        return gcPc;
+    }
+
+    /**
+     * Convert 2-bit encoded k-mer to string
+     */
+    private String decodeKmer(int code) {
+        char[] kmer = new char[kmerSize];
+
+        for (int i=kmerSize-1; i>=0; i--) {
+            kmer[i] = codeBases[code & 3];
+            code >>= 2;
+        }
+
+        return new String(kmer);
+    }
+
+    /**
+     * Write GC file, in the same format as GCCounter
+     * @param filename output filename
+     */
+    public void writeGCFile(String filename) {
+        try {
+            PrintWriter pw = new PrintWriter(new FileWriter(filename));
+            for (int i=0; i<gcPc.length; i++) {
+                pw.println(((long)(i+1) * binSize) + "\t" + gcPc[i]);
+            }
+            pw.close();
+        } catch (IOException e) {
+            System.out.println("ReferenceContigProfile Exception:");
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Add k-mer counts to a table
+     * @param t KmerTable
+     */
+    public void addKmerCounts(KmerTable t) {
+        for (int i=0; i<kmerCounts.length; i++) {
+            if (kmerCounts[i] > 0) {
+                t.addCount(decodeKmer(i), kmerCounts[i]);
+            }
+        }
+    }
+
+    /**
+     * Write to cache file
+     * @param dos output stream
+     */
+    public void write(DataOutputStream dos) throws IOException {
+        dos.writeUTF(id);
+        dos.writeLong(length);
+        dos.writeInt(binSize);
+        dos.writeInt(gcPc.length);
+        for (int i=0; i<gcPc.length; i++) {
+            dos.writeDouble(gcPc[i]);
+        }
+        dos.writeInt(kmerSize);
+        dos.writeInt(kmerCounts.length);
+        for (int i=0; i<kmerCounts.length; i++) {
+            dos.writeInt(kmerCounts[i]);
+        }
+    }
+
+    /**
+     * Read from cache file
+     * @param dis input stream
+     * @return new profile
+     */
+    public static ReferenceContigProfile read(DataInputStream dis) throws IOException {
+        String id = dis.readUTF();
+        long length = dis.readLong();
+        int binSize = dis.readInt();
+        double[] gcPc = new double[dis.readInt()];
+        for (int i=0; i<gcPc.length; i++) {
+            gcPc[i] = dis.readDouble();
+        }
+        int kmerSize = dis.readInt();
+        int[] kmerCounts = new int[dis.readInt()];
+        for (int i=0; i<kmerCounts.length; i++) {
+            kmerCounts[i] = dis.readInt();
+        }
+
+        return new ReferenceContigProfile(id, length, binSize, gcPc, kmerSize, kmerCounts);
+    }
+}
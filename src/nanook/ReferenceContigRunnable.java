@@ -0,0 +1,161 @@
+/*
+ * Program: NanoOK
+ * Author:  Richard M. Leggett (richard.leggett@earlham.ac.uk)
+ *
+ * Copyright 2015-17 Earlham Institute
+ */
+
+package nanook;
+
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Calculate GC bins and k-mer counts for one reference contig, reading the
+ * contig directly from the memory-mapped FASTA using its index entry.
+ *
+ * @author Richard Leggett
+ */
+public class ReferenceContigRunnable implements Runnable {
+    private final static int[] baseCodes = makeBaseCodes();
+    private String fastaFilename;
+    private FastaIndexEntry entry;
+    private long endOffset;
+    private ReferenceSequence reference;
+    private String gcFilename;
+    private ReferenceContigProfile profile = null;
+
+    /**
+     * Constructor
+     * @param f FASTA filename
+     * @param e index entry for contig
+     * @param end file offset beyond which contig can't extend
+     * @param r ReferenceSequence to store k-mer counts in
+     * @param g filename for GC output
+     */
+    public ReferenceContigRunnable(String f, FastaIndexEntry e, long end, ReferenceSequence r, String g) {
+        fastaFilename = f;
+        entry = e;
+        endOffset = end;
+        reference = r;
+        gcFilename = g;
+    }
+
+    /**
+     * Make table mapping bytes to 2-bit codes, -1 for non-ACGT
+     */
+    private static int[] makeBaseCodes() {
+        int[] codes = new int[256];
+
+        for (int i=0; i<256; i++) {
+            codes[i] = -1;
+        }
+
+        codes['A'] = 0; codes['a'] = 0;
+        codes['C'] = 1; codes['c'] = 1;
+        codes['G'] = 2; codes['g'] = 2;
+        codes['T'] = 3; codes['t'] = 3;
+
+        return codes;
+    }
+
+    /**
+     * Get profile calculated by run
+     * @return profile
+     */
+    public ReferenceContigProfile getProfile() {
+        return profile;
+    }
+
+    public void run() {
+        KmerTable kmerTable = reference.getKmerTable();
+        int k = kmerTable.getKmerSize();
+        int kmerMask = (1 << (2 * k)) - 1;
+        int[] kmerCounts = new int[1 << (2 * k)];
+        int kmerCode = 0;
+        int validBases = 0;
+        int binSize = reference.getBinSize();
+        int binCount = 0;
+        int binGC = 0;
+        int binsCompleted = 0;
+        double[] gcPc = new double[(int)Math.max(0, entry.getLength() / binSize - 1)];
+        double previousBinPc = 0;
+        boolean atLineStart = true;
+        boolean endOfContig = false;
+
+        System.out.println("\t" + reference.getName());
+
+        try {
+            RandomAccessFile raf = new RandomAccessFile(fastaFilename, "r");
+            FileChannel channel = raf.getChannel();
+            long end = Math.min(endOffset, channel.size());
+
+            for (long windowStart = entry.getOffset(); (windowStart < end) && (!endOfContig); windowStart += FastaIndex.MAP_WINDOW) {
+                long windowSize = Math.min(FastaIndex.MAP_WINDOW, end - windowStart);
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, windowSize);
+
+                for (int i=0; i<windowSize; i++) {
+                    int b = buffer.get(i) & 0xFF;
+
+                    if (b == '\n') {
+                        atLineStart = true;
+                        continue;
+                    } else if (atLineStart && (b == '>')) {
+                        endOfContig = true;
+                        break;
+                    }
+
+                    atLineStart = false;
+                    if (b <= ' ') {
+                        continue;
+                    }
+
+                    // GC - as with GCCounter, each bin is only output once the following bin is complete
+                    if ((b == 'G') || (b == 'C') || (b == 'g') || (b == 'c')) {
+                        binGC++;
+                    }
+
+                    if (++binCount == binSize) {
+                        if (binsCompleted > 0) {
+                            if (binsCompleted > gcPc.length) {
+                                gcPc = Arrays.copyOf(gcPc, binsCompleted * 2);
+                            }
+                            gcPc[binsCompleted - 1] = previousBinPc;
+                        }
+                        previousBinPc = (100.0 * (double)binGC) / (double)binSize;
+                        binsCompleted++;
+                        binCount = 0;
+                        binGC = 0;
+                    }
+
+                    // k-mers
+                    int code = baseCodes[b];
+                    if (code < 0) {
+                        validBases = 0;
+                    } else {
+                        kmerCode = ((kmerCode << 2) | code) & kmerMask;
+                        if (++validBases >= k) {
+                            kmerCounts[kmerCode]++;
+                        }
+                    }
+                }
+            }
+
+            raf.close();
+        } catch (Exception e) {
+            System.out.println("ReferenceContigRunnable Exception:");
+            e.printStackTrace();
+            System.exit(1);
+        }
+
+        if (gcPc.length != Math.max(0, binsCompleted - 1)) {
+            gcPc = Arrays.copyOf(gcPc, Math.max(0, binsCompleted - 1));
+        }
+
+        profile = new ReferenceContigProfile(entry.getId(), entry.getLength(), binSize, gcPc, k, kmerCounts);
+        profile.writeGCFile(gcFilename);
+        profile.addKmerCounts(kmerTable);
+    }
+}
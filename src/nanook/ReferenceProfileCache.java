@@ -0,0 +1,125 @@
+/*
+ * Program: NanoOK
+ * Author:  Richard M. Leggett (richard.leggett@earlham.ac.uk)
+ *
+ * Copyright 2015-17 Earlham Institute
+ */
+
+package nanook;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Hashtable;
+
+/**
+ * Binary cache of reference contig profiles, stored next to the reference. The
+ * cache is only used if the reference size, modification time and index checksum
+ * all match those stored with it, so it is invalidated automatically when the
+ * reference changes.
+ *
+ * @author Richard Leggett
+ */
+public class ReferenceProfileCache {
+    private final static int MAGIC = 0x4E4F4B50;
+    private final static int VERSION = 1;
+    private File referenceFile;
+    private File cacheFile;
+    private FastaIndex index;
+
+    /**
+     * Constructor
+     * @param r reference FASTA filename
+     * @param i index of reference
+     */
+    public ReferenceProfileCache(String r, FastaIndex i) {
+        referenceFile = new File(r);
+        cacheFile = new File(r + ".profile");
+        index = i;
+    }
+
+    /**
+     * Read cached profiles
+     * @return profiles keyed by contig ID, or null if no valid cache
+     */
+    public Hashtable<String,ReferenceContigProfile> read() {
+        Hashtable<String,ReferenceContigProfile> profiles = new Hashtable<String,ReferenceContigProfile>();
+
+        if (!cacheFile.exists()) {
+            return null;
+        }
+
+        try {
+            DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)));
+
+            try {
+                if ((dis.readInt() != MAGIC) ||
+                    (dis.readInt() != VERSION) ||
+                    (dis.readLong() != referenceFile.length()) ||
+                    (dis.readLong() != referenceFile.lastModified()) ||
+                    (dis.readLong() != index.getChecksum())) {
+                    return null;
+                }
+
+                int n = dis.readInt();
+                if (n != index.getEntries().size()) {
+                    return null;
+                }
+
+                for (int i=0; i<n; i++) {
+                    ReferenceContigProfile p = ReferenceContigProfile.read(dis);
+                    FastaIndexEntry e = index.getEntry(p.getId());
+                    if ((e == null) || (e.getLength() != p.getLength())) {
+                        return null;
+                    }
+                    profiles.put(p.getId(), p);
+                }
+            } finally {
+                dis.close();
+            }
+        } catch (IOException e) {
+            System.out.println("Warning: couldn't read reference profile "+cacheFile.getPath());
+            return null;
+        }
+
+        System.out.println("Using reference profile "+cacheFile.getName());
+
+        return profiles;
+    }
+
+    /**
+     * Write profiles to cache. Failure isn't fatal, as the reference may be in a read-only directory.
+     * @param profiles list of profiles, one per contig
+     */
+    public void write(ArrayList<ReferenceContigProfile> profiles) {
+        File tempFile = new File(cacheFile.getPath() + ".tmp");
+
+        try {
+            DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            dos.writeInt(MAGIC);
+            dos.writeInt(VERSION);
+            dos.writeLong(referenceFile.length());
+            dos.writeLong(referenceFile.lastModified());
+            dos.writeLong(index.getChecksum());
+            dos.writeInt(profiles.size());
+            for (int i=0; i<profiles.size(); i++) {
+                profiles.get(i).write(dos);
+            }
+            dos.close();
+
+            cacheFile.delete();
+            if (!tempFile.renameTo(cacheFile)) {
+                throw new IOException("Couldn't rename " + tempFile.getPath());
+            }
+        } catch (IOException e) {
+            System.out.println("Warning: couldn't write reference profile "+cacheFile.getPath());
+            tempFile.delete();
+        }
+    }
+}
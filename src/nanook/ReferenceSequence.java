@@ -21,7 +21,7 @@ import java.util.Set;
  * 
  * @author Richard leggett
  */
-public class ReferenceSequence implements Comparable, Serializable {
+public class ReferenceSequence implements Comparable<ReferenceSequence>, Serializable {
     private static final long serialVersionUID = NanoOK.SERIAL_VERSION;
     private String id = null;
     private String name = null;
@@ -29,6 +29,8 @@ public class ReferenceSequence implements Comparable, Serializable {
     private int binSize = 500;
     private ReferenceSequenceStats referenceStats[] = new ReferenceSequenceStats[3];
     private KmerTable refKmerTable = new KmerTable(5);
+    private double[] gcPercent = null;
+    private int index = -1;
     
     /**
      * Constructor
@@ -103,6 +105,22 @@ public class ReferenceSequence implements Comparable, Serializable {
         return size;
     }
     
+    /**
+     * Set index of this sequence within the References, assigned as loaded
+     * @param i index
+     */
+    public void setIndex(int i) {
+        index = i;
+    }
+    
+    /**
+     * Get index of this sequence within the References
+     * @return index, or -1 if not assigned
+     */
+    public int getIndex() {
+        return index;
+    }
+    
     /**
      * Get bin size for graph plotting
      * @return size (nt)
@@ -111,8 +129,7 @@ public class ReferenceSequence implements Comparable, Serializable {
         return binSize;
     }
 
-    public int compareTo(Object o) {
-        ReferenceSequence r = (ReferenceSequence)o;
+    public int compareTo(ReferenceSequence r) {
         return name.compareTo(r.getName());
     }
 
@@ -124,6 +141,22 @@ public class ReferenceSequence implements Comparable, Serializable {
         return refKmerTable;
     }
     
+    /**
+     * Store GC percentage of each bin, for plotting.
+     * @param gc GC percentages
+     */
+    public void setGCPercent(double[] gc) {
+        gcPercent = gc;
+    }
+    
+    /**
+     * Get GC percentage of each bin.
+     * @return GC percentages, or null if not known
+     */
+    public double[] getGCPercent() {
+        return gcPercent;
+    }
+    
     /**
      * 
      */
@@ -50,7 +50,7 @@ public class ReferenceSequenceStats implements Serializable {
     private long totalReads = 0;
     private KmerTable readKmerTable = new KmerTable(5);
     private AlignmentsTableFile atf;
-    private ArrayList<KmerAbundance> kmerAbundance = new ArrayList();
+    private ArrayList<KmerAbundance> kmerAbundance = new ArrayList<KmerAbundance>();
     private int longestAlignmentSize = 0;
 
     /** 
@@ -243,6 +243,35 @@ public class ReferenceSequenceStats implements Serializable {
             System.exit(1);
         }
     }    
+    /**
+     * Get percentage of reads with a best perfect kmer of at least each size.
+     * @return percentages, indexed by kmer size
+     */
+    public synchronized double[] getCumulativeBestPerfectKmerPercents() {
+        double[] pc = new double[longestPerfectKmer + 1];
+        int nr = 0;
+        
+        for (int i=1; i<=longestPerfectKmer; i++) {
+            nr += readBestPerfectKmer[i];
+        }
+        
+        for (int i=1; i<=longestPerfectKmer; i++) {
+            if ((readCumulativeBestPerfectKmer[i]> 0) && (nReadsWithAlignments > 0)){
+                pc[i] = (100.0 * readCumulativeBestPerfectKmer[i]) / (double)nr;
+            }
+        }
+        
+        return pc;
+    }
+    
+    /**
+     * Get coverage of reference.
+     * @return SequenceCoverage object
+     */
+    public SequenceCoverage getCoverage() {
+        return cov;
+    }
+    
     /**
      * Write a line to the reference sequence summary file.
      * @param pw PrintWriter object to write with
@@ -293,17 +322,19 @@ public class ReferenceSequenceStats implements Serializable {
      * @param kmer - kmer before error
      * @param stats - ReadSetStats associated with the error
      */
-    public synchronized void addDeletionError(int size, String kmer, ReadSetStats stats) {
+    public void addDeletionError(int size, String kmer, ReadSetStats stats) {
         //System.out.println("Delete " + size);
         if (size >= MAX_INDEL) {
             System.out.println("Error: indel much larger than expected ("+size+") - possible parsing error");
             System.out.println("");
         } else {
-            nDeletionErrors++;
-            nDeletedBases += size;
-            deletionSizes[size]++;
-            if (size > largestDeletion) {
-                largestDeletion = size;
+            synchronized (this) {
+                nDeletionErrors++;
+                nDeletedBases += size;
+                deletionSizes[size]++;
+                if (size > largestDeletion) {
+                    largestDeletion = size;
+                }
             }
             stats.addDeletionError(size, kmer);
         }
@@ -315,17 +346,19 @@ public class ReferenceSequenceStats implements Serializable {
      * @param kmer - kmer before error
      * @param stats - ReadSetStats associated with the error
      */
-    public synchronized void addInsertionError(int size, String kmer, ReadSetStats stats) {
+    public void addInsertionError(int size, String kmer, ReadSetStats stats) {
         //System.out.println("Insert " + size);
         if (size >= MAX_INDEL) {
             System.out.println("Error: indel much larger than expected ("+size+") - possible parsing error");
             System.out.println("");
         } else {
-            nInsertionErrors++;
-            nInsertedBases += size;
-            insertionSizes[size]++;
-            if (size > largestInsertion) {
-                largestInsertion = size;
+            synchronized (this) {
+                nInsertionErrors++;
+                nInsertedBases += size;
+                insertionSizes[size]++;
+                if (size > largestInsertion) {
+                    largestInsertion = size;
+                }
             }
             stats.addInsertionError(size, kmer);
         }
@@ -354,8 +387,10 @@ public class ReferenceSequenceStats implements Serializable {
      * @param subChar - substituted base
      * @param stats - ReadSetStats associated with the error
      */
-    public synchronized void addSubstitutionError(String kmer, char refChar, char subChar, ReadSetStats stats) {
-        nSubstitutionErrors++;
+    public void addSubstitutionError(String kmer, char refChar, char subChar, ReadSetStats stats) {
+        synchronized (this) {
+            nSubstitutionErrors++;
+        }
         //System.out.println("Kmer before substitution "+kmer);
         stats.addSubstitutionError(kmer, refChar, subChar);
     }
@@ -484,6 +519,30 @@ public class ReferenceSequenceStats implements Serializable {
         }                
     }
 
+    /**
+     * Get percentage of insertions of each size, as written to the insertions file.
+     * @return percentages, indexed by size
+     */
+    public synchronized double[] getInsertionPercents() {
+        double[] pc = new double[largestInsertion + 1];
+        for (int i=1; i<=largestInsertion; i++) {
+            pc[i] = 100.0 * (double)insertionSizes[i]/(double)nInsertionErrors;
+        }
+        return pc;
+    }
+    
+    /**
+     * Get percentage of deletions of each size, as written to the deletions file.
+     * @return percentages, indexed by size
+     */
+    public synchronized double[] getDeletionPercents() {
+        double[] pc = new double[largestDeletion + 1];
+        for (int i=1; i<=largestDeletion; i++) {
+            pc[i] = 100.0 * (double)deletionSizes[i]/(double)nDeletionErrors;
+        }
+        return pc;
+    }
+    
     /**
      * Write a file of deletion stats for plotting.
      * @param filename output filename
@@ -543,7 +602,7 @@ public class ReferenceSequenceStats implements Serializable {
         }
     }
     
-    public ArrayList getKmerAbundance() {
+    public ArrayList<KmerAbundance> getKmerAbundance() {
         return kmerAbundance;
     }
     
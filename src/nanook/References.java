@@ -9,6 +9,9 @@ package nanook;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Represents the set of references (sequences) used for the analysis.
@@ -19,8 +22,11 @@ public class References implements Serializable {
     private static final long serialVersionUID = NanoOK.SERIAL_VERSION;
     private NanoOKOptions options;
     private File sizesFile;
+    private transient FastaIndex fastaIndex = null;
     private Hashtable<String,ReferenceSequence> referenceSeqIds = new Hashtable();
     private Hashtable<String,ReferenceSequence> referenceSeqNames = new Hashtable();
+    private ArrayList<ReferenceSequence> referencesByIndex = new ArrayList<ReferenceSequence>();
+    private transient HashMap<String,ReferenceSequence> idLookup = new HashMap<String,ReferenceSequence>();
     private int longestId = 0;
     private OverallStats overallStats = null;
         
@@ -37,12 +43,43 @@ public class References implements Serializable {
         overallStats = s;
     }
     
+    /**
+     * Check sizes file has the same contigs and lengths as the reference index
+     * @return true if sizes file matches
+     */
+    private boolean sizesFileMatchesIndex() {
+        int count = 0;
+        
+        try
+        {
+            BufferedReader br = new BufferedReader(new FileReader(sizesFile));
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (!line.startsWith("#") && (!line.startsWith("SequenceID"))) {
+                    String[] values = line.split("\\t");
+                    FastaIndexEntry e = fastaIndex.getEntry(values[0]);
+                    if ((e == null) || (e.getLength() != Long.parseLong(values[1]))) {
+                        br.close();
+                        return false;
+                    }
+                    count++;
+                }
+            }
+            br.close();
+        } catch (Exception e) {
+            System.out.println("sizesFileMatchesIndex Exception:");
+            e.printStackTrace();
+            System.exit(1);
+        }
+        
+        return count == fastaIndex.getEntries().size();
+    }
+    
     public void readSizesFile() {
         sizesFile = new File(options.getReferenceFile()+".sizes");
         
         if (sizesFile.exists()) {
             System.out.println("Using .sizes file "+sizesFile.getName());
-            System.out.println("Note: if you have changed the reference file, you need to delete the .sizes file and re-run.\n");
         } else {
             int extensionIndex = options.getReferenceFile().lastIndexOf('.');
             if (extensionIndex > 0) {
@@ -57,7 +94,12 @@ public class References implements Serializable {
             SequenceReader sr = new SequenceReader(false);
             sr.indexFASTAFile(options.getReferenceFile(), options.getReferenceFile()+".sizes" , false);
             sizesFile = new File(options.getReferenceFile()+".sizes");
-        }        
+        } else if ((fastaIndex != null) && (!sizesFileMatchesIndex())) {
+            System.out.println("Reference has changed since "+sizesFile.getName()+" was generated.");
+            System.out.println("Regenerating .sizes file for reference. You may want to edit the display names.");
+            SequenceReader sr = new SequenceReader(false);
+            sr.indexFASTAFile(options.getReferenceFile(), sizesFile.getPath(), false);
+        }
         
         System.out.println("Reading reference sizes and making directories");
         
@@ -88,6 +130,9 @@ public class References implements Serializable {
                     options.checkAndMakeReferenceAnalysisDir(refSeqById.getName());
                     referenceSeqIds.put(values[0], refSeqById);
                     referenceSeqNames.put(values[2], refSeqById);
+                    idLookup.put(values[0], refSeqById);
+                    refSeqById.setIndex(referencesByIndex.size());
+                    referencesByIndex.add(refSeqById);
                     refSeqById.openAlignmentSummaryFiles(options);
 
                     if (values[0].length() > longestId) {
@@ -106,94 +151,163 @@ public class References implements Serializable {
     }
        
     /**
-     * Read reference FASTA file
+     * Read reference FASTA file, calculating GC and k-mer counts for each contig in parallel
+     * @return profiles for each contig, for caching
      */
-    private void readReferenceFile() {
-        ReferenceSequence currentRef = null;
-        KmerTable refKmerTable = null;
-        GCCounter gcc = null;
+    private ArrayList<ReferenceContigProfile> readReferenceFile() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(options.getNumberOfThreads(), options.getNumberOfThreads(), 10, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        ArrayList<FastaIndexEntry> entries = fastaIndex.getEntries();
+        ArrayList<ReferenceContigRunnable> runnables = new ArrayList<ReferenceContigRunnable>();
+        ArrayList<ReferenceContigProfile> profiles = new ArrayList<ReferenceContigProfile>();
+        long fileLength = new File(options.getReferenceFile()).length();
 
-        try
-        {
-            BufferedReader br = new BufferedReader(new FileReader(options.getReferenceFile()));             
-            String line;
-            String id = null;
-            String name = null;
-            String seq = "";
-            String previousKmerString = "";
- 
-            System.out.println("");
-            System.out.println("Calculating reference GC");
-            
-            do {
-                line = br.readLine();
-                if (line != null) {
-                    line = line.trim();
-                }
-
-                // New ID
-                if ((line == null) || (line.startsWith(">"))) {                    
-                    if (id != null) {
-                        if (gcc != null) {
-                            gcc.closeFile();
-                        }                        
-                    }
-                    
-                    if (line != null) {
-                        String[] parts = line.substring(1).split("(\\s+)");
-                        id = parts[0];
-                        currentRef = getReferenceById(id);
-                        System.out.println("\t" + currentRef.getName());
-                        refKmerTable = currentRef.getKmerTable();
-                        gcc = new GCCounter(currentRef.getBinSize(), options.getAnalysisDir() + File.separator + currentRef.getName() + File.separator + currentRef.getName() + "_gc.txt");
-                    }                                        
-                }
-                // Continuing sequence read 
-                else if ((line != null) && (currentRef != null)) {
-                    if (!line.equals("")) {
-                        String kmerSeq = previousKmerString + line;                    
-                        int k = refKmerTable.getKmerSize();
-
-                        // Store kmers
-                        for (int o=0; o<kmerSeq.length() - k; o++) {
-                            refKmerTable.countKmer(kmerSeq.substring(o, o+5));
-                        }
-
-                        // Store end k-1 bases for start of next kmer
-                        if (line.length() > k) {
-                            previousKmerString = line.substring(line.length() - k + 1);
-                        } else {
-                            previousKmerString = "";
-                        }
-
-                        // Now for GC graph
-                        gcc.addString(line);
-                    }           
-                }
-            } while (line != null);
+        // Each contig ends before the next one's offset
+        Hashtable<String,Long> endOffsets = new Hashtable<String,Long>();
+        for (int i=0; i<entries.size(); i++) {
+            endOffsets.put(entries.get(i).getId(), i < entries.size() - 1 ? entries.get(i+1).getOffset() : fileLength);
+        }
+        
+        // Largest contigs first, to balance threads
+        ArrayList<FastaIndexEntry> sortedEntries = new ArrayList<FastaIndexEntry>(entries);
+        Collections.sort(sortedEntries, new Comparator<FastaIndexEntry>() {
+            public int compare(FastaIndexEntry a, FastaIndexEntry b) {
+                return Long.compare(b.getLength(), a.getLength());
+            }
+        });
+        
+        System.out.println("");
+        System.out.println("Calculating reference GC");
 
-            br.close();
-        } catch (Exception e) {
-            System.out.println("readFasta Exception:");
+        for (int i=0; i<sortedEntries.size(); i++) {
+            FastaIndexEntry entry = sortedEntries.get(i);
+            ReferenceSequence ref = getReferenceById(entry.getId());
+            ReferenceContigRunnable r = new ReferenceContigRunnable(options.getReferenceFile(), entry, endOffsets.get(entry.getId()), ref, getGCFilename(ref));
+            runnables.add(r);
+            executor.execute(r);
+        }
+        
+        executor.shutdown();
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            System.out.println("readReferenceFile Exception:");
             e.printStackTrace();
             System.exit(1);
         }
-                
+        
+        for (int i=0; i<runnables.size(); i++) {
+            ReferenceContigProfile p = runnables.get(i).getProfile();
+            getReferenceById(p.getId()).setGCPercent(p.getGCPercent());
+            profiles.add(p);
+        }
+        
+        return profiles;
+    }
+    
+    private String getGCFilename(ReferenceSequence ref) {
+        return options.getAnalysisDir() + File.separator + ref.getName() + File.separator + ref.getName() + "_gc.txt";
+    }
+    
+    /**
+     * Use cached profiles, if valid for all contigs
+     * @return true if cache used
+     */
+    private boolean useCachedProfiles(Hashtable<String,ReferenceContigProfile> profiles) {
+        if (profiles == null) {
+            return false;
+        }
+        
+        // Profiles must have been made with the bin and k-mer sizes used now
+        for (String id : referenceSeqIds.keySet()) {
+            ReferenceSequence ref = referenceSeqIds.get(id);
+            ReferenceContigProfile p = profiles.get(id);
+            if ((p == null) ||
+                (p.getBinSize() != ref.getBinSize()) ||
+                (p.getKmerSize() != ref.getKmerTable().getKmerSize())) {
+                return false;
+            }
+        }
+        
+        for (String id : referenceSeqIds.keySet()) {
+            ReferenceSequence ref = referenceSeqIds.get(id);
+            ReferenceContigProfile p = profiles.get(id);
+            p.writeGCFile(getGCFilename(ref));
+            p.addKmerCounts(ref.getKmerTable());
+            ref.setGCPercent(p.getGCPercent());
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Add a reference without reading the sizes file or making directories,
+     * as used by compare to list the references of a sample.
+     * @param id sequence ID
+     * @param size sequence length
+     * @param name display name
+     */
+    public void addReference(String id, int size, String name) {
+        ReferenceSequence refSeq = new ReferenceSequence(id, size, name);
+        
+        referenceSeqIds.put(id, refSeq);
+        referenceSeqNames.put(name, refSeq);
+        idLookup.put(id, refSeq);
+        refSeq.setIndex(referencesByIndex.size());
+        referencesByIndex.add(refSeq);
+        if (id.length() > longestId) {
+            longestId = id.length();
+        }
     }
     
     /**
      * Load references
      */
     public void loadReferences() {
+        ReferenceProfileCache cache;
+        
+        fastaIndex = new FastaIndex(options.getReferenceFile());
+        fastaIndex.load();
+        cache = new ReferenceProfileCache(options.getReferenceFile(), fastaIndex);
         readSizesFile(); 
-        readReferenceFile();
+        
+        if (!useCachedProfiles(cache.read())) {
+            cache.write(readReferenceFile());
+        }
     }    
     
+    /**
+     * Get a ReferenceSequence object from its index, as given by ReferenceSequence.getIndex.
+     * @param i index
+     * @return ReferenceSequence
+     */
+    public ReferenceSequence getReferenceByIndex(int i) {
+        return referencesByIndex.get(i);
+    }
+    
+    /**
+     * Get index of a reference from sequence ID.
+     * @param id sequence ID
+     * @return index, or -1 if not known
+     */
+    public int getReferenceIndex(String id) {
+        ReferenceSequence r = lookupReference(id);
+        return r == null ? -1 : r.getIndex();
+    }
+    
+    /**
+     * Look up reference without locking - the map is only written while references are loaded
+     * @param id sequence ID
+     * @return ReferenceSequence, or null
+     */
+    private ReferenceSequence lookupReference(String id) {
+        return idLookup != null ? idLookup.get(id) : referenceSeqIds.get(id);
+    }
+    
     /**
      * Get a ReferenceSequence object from sequence ID.
      */
     public ReferenceSequence getReferenceById(String id) {
-        ReferenceSequence r = referenceSeqIds.get(id);
+        ReferenceSequence r = lookupReference(id);
         
         if (r == null) {
             System.out.println("");
@@ -216,8 +330,8 @@ public class References implements Serializable {
      * Return sorted set of all reference sequence IDs.
      * @return a String set
      */
-    public ArrayList getSortedReferences() {
-        ArrayList sortedReferences = new ArrayList();
+    public ArrayList<ReferenceSequence> getSortedReferences() {
+        ArrayList<ReferenceSequence> sortedReferences = new ArrayList<ReferenceSequence>();
         Set<String> keys = referenceSeqIds.keySet();
         
         for(String id : keys) {
@@ -15,7 +15,9 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Hashtable;
+import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -30,7 +32,9 @@ public abstract class SAMParser {
     private SampleReportWriter report;
     private String programID = null;
     ArrayList<Alignment> alignments;
-    private Hashtable<String,Integer> referenceSizes;
+    private HashMap<String,ReferenceSequence> fileReferences = new HashMap<String,ReferenceSequence>();
+    private static final Pattern referenceTagPattern = Pattern.compile("@SQ(\\s+)SN:(\\S+)(\\s+)LN:(\\S+)");
+    private static final Pattern programTagPattern = Pattern.compile("(\\s+)ID:(\\S+)(\\s+)");
     String leafName;
     
     /**
@@ -53,19 +57,37 @@ public abstract class SAMParser {
     }
 
     
-    private void processReferenceTag(String s) {
-        Pattern pattern = Pattern.compile("@SQ(\\s+)SN:(\\S+)(\\s+)LN:(\\S+)");
-        Matcher matcher = pattern.matcher(s);
-        if (matcher.find()) {
-            String refID = matcher.group(2);
-            int size = Integer.parseInt(matcher.group(4));
-            if (referenceSizes.containsKey(refID)) {
-                System.out.println("Warning: Reference "+refID+" already seen.");
+    /**
+     * Check @SQ lines of a header match the reference being used. With one SAM
+     * file per read, the same header is repeated in every file, so this is only
+     * done for the first file parsed.
+     * @param sqLines the @SQ lines
+     */
+    private void validateReferenceSizes(ArrayList<String> sqLines) {
+        Hashtable<String,Integer> sizes = new Hashtable<String,Integer>();
+        Set<String> ids = references.getAllIds();
+        
+        for (String s : sqLines) {
+            Matcher matcher = referenceTagPattern.matcher(s);
+            if (matcher.find()) {
+                String refID = matcher.group(2);
+                int size = Integer.parseInt(matcher.group(4));
+                if (sizes.containsKey(refID)) {
+                    System.out.println("Warning: Reference "+refID+" already seen.");
+                } else {
+                    sizes.put(refID, size);
+                }
             } else {
-                referenceSizes.put(refID, size);
+                System.out.println("Warning: Badly formated tag: " + s);
+            }
+        }
+        
+        for (String id : sizes.keySet()) {
+            if (!ids.contains(id)) {
+                System.out.println("Warning: SAM header reference "+id+" is not in the reference file.");
+            } else if (references.getReferenceById(id).getSize() != sizes.get(id)) {
+                System.out.println("Warning: SAM header gives size "+sizes.get(id)+" for reference "+id+", but it is "+references.getReferenceById(id).getSize()+" in the reference file.");
             }
-        } else {
-            System.out.println("Warning: Badly formated tag: " + s);
         }
     }
     
@@ -74,8 +96,7 @@ public abstract class SAMParser {
      * @param s 
      */
     private void processProgramTag(String s) {
-        Pattern pattern = Pattern.compile("(\\s+)ID:(\\S+)(\\s+)");
-        Matcher matcher = pattern.matcher(s);
+        Matcher matcher = programTagPattern.matcher(s);
         if (matcher.find()) {
             programID = matcher.group(2);
         }
@@ -84,7 +105,7 @@ public abstract class SAMParser {
     /**
      * Process an alignment line from a SAM file
      * @param s the line
-     * @param outputFilename .maf file to write
+     * @param outputFilename .maf file to write, or null
      * @return ]
      */
     private Alignment processAlignmentLine(String alignmentFile, String s, String outputFilename, ReadSetStats overallStats) {
@@ -112,32 +133,42 @@ public abstract class SAMParser {
         }
         
         if (mapped) {
-            ReferenceSequence readReference = references.getReferenceById(hitName);
+            // Resolve each reference name once per file
+            ReferenceSequence readReference = fileReferences.get(hitName);
+            if (readReference == null) {
+                readReference = references.getReferenceById(hitName);
+                fileReferences.put(hitName, readReference);
+            }
             if (readReference != null) {        
                 int readLength = overallStats.getReadLength(alignmentFile, queryName);
                 if (readLength != -1) {
                     CIGARString cs = new CIGARString(cigar, seq, leafName, queryName, hitStart, options.getReferenceFile(), readReference, alignmentFile);
-                    if (cs.processString()) {
+                    // Expanded only if the alignment is used
+                    if (cs.parse()) {
                     //System.out.println("hitName "+hitName);
                         al = new Alignment(mapQuality,
                                            queryName, 
                                            readLength,
                                            cs.getQueryStart(),
                                            cs.getQueryAlnSize(),
-                                           cs.getQueryString(),
+                                           null,
                                            hitName,
                                            readReference.getSize(),
                                            hitStart,
                                            cs.getHitAlnSize(),
-                                           cs.getHitString(),
+                                           null,
                                            false); 
+                        al.setUnexpandedCIGAR(cs);
+                        al.setHitIndex(readReference.getIndex());
 
                         // Check for reverse complement
                         if ((flags & 0x10) == 0x10) {
                             al.setQueryStrand("-");
                         }
 
-                        al.writeMafFile(outputFilename);
+                        if (outputFilename != null) {
+                            al.writeMafFile(outputFilename);
+                        }
                         
                     }
                     
@@ -155,27 +186,64 @@ public abstract class SAMParser {
     }
     
     public int parseFile(String filename, AlignmentsTableFile nonAlignedSummaryFile, ReadSetStats overallStats) {
+        try
+        {
+            BufferedReader br = new BufferedReader(new FileReader(filename));
+            parseAlignments(br, filename, filename+".last", nonAlignedSummaryFile, overallStats);
+            br.close();
+        } catch (IOException e) {
+            System.out.println("parseFile Exception:");
+            e.printStackTrace();
+            options.getLog().println("Exception parsing "+filename);
+            options.getLog().close();
+            System.exit(1);
+        }
+
+        return alignments.size();
+    }
+    
+    /**
+     * Parse SAM alignments from a reader.
+     * @param br reader to parse
+     * @param filename filename of alignment file
+     * @param nonAlignedSummaryFile an AlignmentTableFile to output details of anything that doesn't align to
+     * @return number of alignments parsed
+     */
+    public int parseAlignments(BufferedReader br, String filename, AlignmentsTableFile nonAlignedSummaryFile, ReadSetStats overallStats) {
+        return parseAlignments(br, filename, null, nonAlignedSummaryFile, overallStats);
+    }
+    
+    private int parseAlignments(BufferedReader br, String filename, String lastFilename, AlignmentsTableFile nonAlignedSummaryFile, ReadSetStats overallStats) {
+        // Only the first file's @SQ lines are kept, to check against the reference
+        ArrayList<String> sqLines = options.claimSAMHeaderCheck() ? new ArrayList<String>() : null;
         alignments = new ArrayList();
-        referenceSizes = new Hashtable();
+        fileReferences.clear();
         leafName = new File(filename).getName();
         
         // Read all alignmnets and put into an ArrayList
         try
         {
             options.getLog().println("Got file");
-            BufferedReader br = new BufferedReader(new FileReader(filename));
             String line;
             
             do {
                 line = br.readLine();
-                if (line != null) {
-                    if (line.startsWith("@SQ")) {
-                        processReferenceTag(line);
-                    } else if (line.startsWith("@PG")) {
-                        processProgramTag(line);
-                    } else if (!line.startsWith("@")) {
+                if ((line != null) && (line.length() > 0)) {
+                    if (line.charAt(0) == '@') {
+                        if (line.startsWith("@SQ")) {
+                            if (sqLines != null) {
+                                sqLines.add(line);
+                            }
+                        } else if (line.startsWith("@PG")) {
+                            processProgramTag(line);
+                        }
+                    } else {
+                        if (sqLines != null) {
+                            validateReferenceSizes(sqLines);
+                            sqLines = null;
+                        }
                         options.getLog().println("Got line");
-                        Alignment al = processAlignmentLine(filename, line, filename+".last", overallStats);
+                        Alignment al = processAlignmentLine(filename, line, lastFilename, overallStats);
                         if (al != null) {
                             alignments.add(al);
                         }                         
@@ -183,8 +251,12 @@ public abstract class SAMParser {
                     }
                 }
             } while (line != null);            
-            br.close();
  
+            if (sqLines != null) {
+                // Header only, e.g. read with no alignments
+                validateReferenceSizes(sqLines);
+            }
+            
             options.getLog().println("Finished file");
             
             if (alignments.size() == 0) {
@@ -205,6 +277,28 @@ public abstract class SAMParser {
         return alignments.size();
     }
     
+    /**
+     * Read next alignment line, or header line, from SAM output
+     * @param br reader for SAM output
+     * @return record, or null at end of output
+     */
+    public AlignmentRecord readRecord(BufferedReader br) throws IOException {
+        String line;
+        
+        do {
+            line = br.readLine();
+        } while ((line != null) && (line.length() == 0));
+        
+        if (line == null) {
+            return null;
+        } else if (line.startsWith("@")) {
+            return new AlignmentRecord(null, line + "\n");
+        }
+        
+        int tab = line.indexOf('\t');
+        return new AlignmentRecord(tab > 0 ? line.substring(0, tab) : line, line + "\n");
+    }
+    
     /**
      * Sort alignments in order of score
      */
@@ -217,15 +311,14 @@ public abstract class SAMParser {
     /**
      * Get the set of alignments that match the highest scoring reference
      */
-    public ArrayList getHighestScoringSet() {
-        ArrayList hss = new ArrayList();
+    public ArrayList<Alignment> getHighestScoringSet() {
+        ArrayList<Alignment> hss = new ArrayList<Alignment>();
         
         if (alignments.size() > 0) {
-            String readReferenceName = alignments.get(0).getHitName();
-            ReferenceSequence readReference = references.getReferenceById(readReferenceName);
+            Alignment top = alignments.get(0);
             for (int i=0; i<alignments.size(); i++) {
                 Alignment a = alignments.get(i);
-                if (a.getHitName().equals(readReferenceName)) {
+                if (top.hasSameHit(a)) {
                     hss.add(a);
                 }
             }
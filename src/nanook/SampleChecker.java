@@ -26,53 +26,31 @@ public class SampleChecker {
     }
     
     private boolean checkIfDirHasSubdirs(String dir) {
-        File d = new File(dir);
-        File[] listOfFiles = d.listFiles();
-        boolean contains = false;
-
-        if (listOfFiles == null) {
-            contains = false;
-        } else if (listOfFiles.length <= 0) {
-            contains = false;
-        } else {
-            for (File file : listOfFiles) {
-                if (file.isDirectory()) {
-                    contains = true;
-                    break;
-                }
-            }
-        }
+        DirectoryLister.DirectoryListing listing = options.getDirectoryLister().list(dir);
         
-        return contains;
+        return (listing != null) && (listing.getDirectories().length > 0);
     }
     
     private void checkForBarcodeAndBatch(String dir) {
-        File d = new File(dir);
-        File[] listOfFiles = d.listFiles();
-        boolean contains = false;
-        if (listOfFiles == null) {
-            contains = false;
-        } else if (listOfFiles.length <= 0) {
-            contains = false;
-        } else {
+        DirectoryLister.DirectoryListing listing = options.getDirectoryLister().list(dir);
+        
+        if ((listing != null) && (!listing.isEmpty())) {
             boolean foundSubDir = false;
-            for (File file : listOfFiles) {
-                if (file.isDirectory()) {
-                    if (file.getName().startsWith("BC") || file.getName().startsWith("barcode")) {
-                        usingBarcodes = true;
-                        if (usingBatchDirs == false) {
-                            if (checkIfDirHasSubdirs(file.getPath())) {
-                                usingBatchDirs = true;
-                            }
+            for (String name : listing.getDirectories()) {
+                if (name.startsWith("BC") || name.startsWith("barcode")) {
+                    usingBarcodes = true;
+                    if (usingBatchDirs == false) {
+                        if (checkIfDirHasSubdirs(dir + File.separator + name)) {
+                            usingBatchDirs = true;
                         }
-                        //checkForBarcodeAndBatch(file.getPath());
-                    } else if (file.getName().startsWith("batch_")) {
-                        usingBatchDirs = true;
-                        break;
-                    } else {
-                        foundSubDir = true;
-                        break;
                     }
+                    //checkForBarcodeAndBatch(file.getPath());
+                } else if (name.startsWith("batch_")) {
+                    usingBatchDirs = true;
+                    break;
+                } else {
+                    foundSubDir = true;
+                    break;
                 }
             }
             
@@ -7,7 +7,9 @@
 
 package nanook;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileReader;
@@ -17,6 +19,11 @@ import java.io.InvalidClassException;
 import java.io.ObjectInputStream;
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Hashtable;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  *
@@ -24,21 +31,42 @@ import java.util.ArrayList;
  */
 public class SampleComparer {
     private NanoOKOptions options;
+    private ArrayList<String> sampleDirs = new ArrayList();
     private ArrayList<String> sampleNames = new ArrayList();
-    private ArrayList<OverallStats> sampleStats = new ArrayList();
+    private SampleSummary[] sampleSummaries;
+    private int[][] refIndex;
+    private Hashtable<String,Integer> columns = new Hashtable<String,Integer>();
+    private References references;
     
     public SampleComparer(NanoOKOptions o) {
         options = o;
     }
     
-    private void readSample(String sample, String name) {
+    /**
+     * Read summary for a sample - from SampleSummary.ser if present, otherwise
+     * from the full OverallStats.ser written by older versions. Called from
+     * SampleLoaderRunnable.
+     * @param i sample index
+     */
+    public void readSample(int i) {
+        String analysisDir = sampleDirs.get(i) + File.separator + "analysis" + options.getAnalysisSuffix();
+        File summaryFile = new File(analysisDir + File.separator + "SampleSummary.ser");
+        
         try {
-            FileInputStream fis = new FileInputStream(sample + File.separator + "analysis" + options.getAnalysisSuffix() + File.separator + "OverallStats.ser");
-            ObjectInputStream ois = new ObjectInputStream(fis);
-            OverallStats os = (OverallStats)ois.readObject();
-            sampleNames.add(name);
-            sampleStats.add(os);
-            ois.close();
+            SampleSummary summary;
+            
+            if (summaryFile.exists()) {
+                ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(summaryFile)));
+                summary = (SampleSummary)ois.readObject();
+                ois.close();
+            } else {
+                ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(analysisDir + File.separator + "OverallStats.ser")));
+                OverallStats os = (OverallStats)ois.readObject();
+                ois.close();
+                summary = new SampleSummary(os, os.getStatsByType(0).getOptions().getReferences());
+            }
+            
+            sampleSummaries[i] = summary;
         } catch (Exception e) {
             if (e instanceof InvalidClassException) {
                 System.out.println("The saved data is incompatible with this version of NanoOK. You must re-run nanook analyse on all your samples before running compare.");
@@ -50,7 +78,7 @@ public class SampleComparer {
         }
     }
     
-    public void loadSamples() {    
+    public void loadSamples() throws InterruptedException {    
         try
         {
             BufferedReader br = new BufferedReader(new FileReader(options.getSampleList()));
@@ -65,7 +93,8 @@ public class SampleComparer {
                             System.out.println("Error: invalid format for sample list file. This file should be two fields, tab separated.");
                             System.exit(1);
                         } else {
-                            readSample(fields[0], fields[1]);
+                            sampleDirs.add(fields[0]);
+                            sampleNames.add(fields[1]);
                         }
                     }
                 }
@@ -75,7 +104,47 @@ public class SampleComparer {
             System.out.println("parseFile Exception:");
             e.printStackTrace();
             System.exit(1);
-        }    
+        }
+        
+        if (sampleDirs.size() == 0) {
+            System.out.println("Error: no samples in sample list file.");
+            System.exit(1);
+        }
+        
+        // Samples are independent, so read them in parallel
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(options.getNumberOfThreads(), options.getNumberOfThreads(), 10, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        sampleSummaries = new SampleSummary[sampleDirs.size()];
+        for (int i=0; i<sampleDirs.size(); i++) {
+            executor.execute(new SampleLoaderRunnable(this, i));
+        }
+        executor.shutdown();
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+        
+        indexReferences();
+    }
+    
+    /**
+     * Use references of first sample as columns, and find where each is in every sample
+     */
+    private void indexReferences() {
+        SampleSummary first = sampleSummaries[0];
+        
+        references = new References(options);
+        for (int j=0; j<first.getNumberOfReferences(); j++) {
+            references.addReference(first.getReferenceId(j), first.getReferenceSize(j), first.getReferenceName(j));
+            columns.put(first.getReferenceId(j), j);
+        }
+        
+        refIndex = new int[sampleSummaries.length][first.getNumberOfReferences()];
+        for (int i=0; i<sampleSummaries.length; i++) {
+            Arrays.fill(refIndex[i], -1);
+            for (int j=0; j<sampleSummaries[i].getNumberOfReferences(); j++) {
+                Integer column = columns.get(sampleSummaries[i].getReferenceId(j));
+                if (column != null) {
+                    refIndex[i][column] = j;
+                }
+            }
+        }
     }
     
     public void compareSamples() {
@@ -83,50 +152,49 @@ public class SampleComparer {
             for (int type = 0; type<3; type++) {    
                 if (options.isProcessingReadType(type)) {
                     String filename = options.getComparisonDir() + File.separator + NanoOKOptions.getTypeFromInt(type) + "_comparison.txt";
-                    PrintWriter pw = new PrintWriter(new FileWriter(filename, false));
+                    PrintWriter pw = new PrintWriter(new BufferedWriter(new FileWriter(filename, false)));
                     
                     pw.println("Name\tNumReads\tTotalBases\tMeanLen\tLongest\tShortest\tN50\tN50Count\tN90\tN90Count");
                     
-                    for (int i=0; i<sampleStats.size(); i++) {
+                    for (int i=0; i<sampleSummaries.length; i++) {
                         String name = sampleNames.get(i);
-                        OverallStats overallStats = sampleStats.get(i);
-                        ReadSetStats r = overallStats.getStatsByType(type);           
+                        SampleSummary r = sampleSummaries[i];
 
                         pw.printf("%s\t%d\t%d\t%.2f\t%d\t%d\t%d\t%d\t%d\t%d",
-                                  name, r.getNumReads(), r.getTotalBases(), r.getMeanLength(), r.getLongest(), r.getShortest(), r.getN50(), r.getN50Count(), r.getN90(), r.getN90Count());
+                                  name, r.getReadCount(type, SampleSummary.NUM_READS), r.getTotalBases(type), r.getMeanLength(type),
+                                  r.getReadCount(type, SampleSummary.LONGEST), r.getReadCount(type, SampleSummary.SHORTEST),
+                                  r.getReadCount(type, SampleSummary.N50), r.getReadCount(type, SampleSummary.N50_COUNT),
+                                  r.getReadCount(type, SampleSummary.N90), r.getReadCount(type, SampleSummary.N90_COUNT));
                         pw.println("");
                     }
                     
                     pw.close();
                     
                     filename = options.getComparisonDir() + File.separator + NanoOKOptions.getTypeFromInt(type) + "_map_summary.txt";
-                    pw = new PrintWriter(new FileWriter(filename, false));
-                    References refs = sampleStats.get(0).getStatsByType(type).getOptions().getReferences();
-                    ArrayList<ReferenceSequence> sortedRefs = refs.getSortedReferences();
+                    pw = new PrintWriter(new BufferedWriter(new FileWriter(filename, false)));
                     pw.print("Sample");
-                    for (int i=0; i<sortedRefs.size(); i++) {
-                        ReferenceSequence rs = sortedRefs.get(i);
-                        pw.print("\t" + rs.getName());
+                    for (int j=0; j<sampleSummaries[0].getNumberOfReferences(); j++) {
+                        pw.print("\t" + sampleSummaries[0].getReferenceName(j));
                     }
                     pw.println("\tUnaligned");
-                    for (int i=0; i<sampleStats.size(); i++) {
-                        String name = sampleNames.get(i);
-                        OverallStats overallStats = sampleStats.get(i);
-                        pw.print(name);
-                        for (int j=0; j<sortedRefs.size(); j++) {
-                            ReferenceSequence rs = overallStats.getStatsByType(type).getOptions().getReferences().getReferenceById(sortedRefs.get(j).getId());
+                    for (int i=0; i<sampleSummaries.length; i++) {
+                        SampleSummary summary = sampleSummaries[i];
+                        int[] refReads = summary.getReferenceReadCounts(type);
+                        double nReads = (double)summary.getReadCount(type, SampleSummary.READS_ANALYSED);
+                        pw.print(sampleNames.get(i));
+                        for (int j=0; j<refIndex[i].length; j++) {
                             double value = 0.0;
                             
-                            if (rs.getStatsByType(type).getNumberOfReadsWithAlignments() > 0) {
-                                value = 100.0 * (double)rs.getStatsByType(type).getNumberOfReadsWithAlignments() / (double)overallStats.getStatsByType(type).getNumberOfReads();
+                            if ((refIndex[i][j] >= 0) && (refReads[refIndex[i][j]] > 0)) {
+                                value = 100.0 * (double)refReads[refIndex[i][j]] / nReads;
                             }
                             
                             pw.printf("\t%.4f", value);
                         }
                         
                         double value = 0;                        
-                        if (overallStats.getStatsByType(type).getNumberOfReadsWithoutAlignments() > 0) {
-                            value = 100.0 * (double)overallStats.getStatsByType(type).getNumberOfReadsWithoutAlignments() / (double)overallStats.getStatsByType(type).getNumberOfReads();
+                        if (summary.getReadCount(type, SampleSummary.READS_WITHOUT_ALIGNMENTS) > 0) {
+                            value = 100.0 * (double)summary.getReadCount(type, SampleSummary.READS_WITHOUT_ALIGNMENTS) / nReads;
                         }
                         pw.printf("\t%.4f", value);
                         pw.println("");
@@ -141,14 +209,36 @@ public class SampleComparer {
     }
     
     public int getNumberOfSamples() {
-        return sampleStats.size();
-    }
-    
-    public OverallStats getSample(int i) {
-        return sampleStats.get(i);
+        return sampleSummaries.length;
     }
     
     public String getSampleName(int i) {
         return sampleNames.get(i);
     }
+    
+    /**
+     * Get references, as listed by the first sample
+     * @return References object, without statistics
+     */
+    public References getReferences() {
+        return references;
+    }
+    
+    /**
+     * Get most over- or under-represented 5-mers for a sample and reference
+     * @param i sample index
+     * @param type read type
+     * @param refId reference ID
+     * @param over true for over-represented
+     * @return kmers, or an empty array if the sample doesn't have the reference
+     */
+    public String[] getKmers(int i, int type, String refId, boolean over) {
+        Integer column = columns.get(refId);
+        
+        if ((column == null) || (refIndex[i][column] < 0)) {
+            return new String[0];
+        }
+        
+        return sampleSummaries[i].getKmers(type, refIndex[i][column], over);
+    }
 }
@@ -0,0 +1,32 @@
+/*
+ * Program: NanoOK
+ * Author:  Richard M. Leggett (richard.leggett@earlham.ac.uk)
+ *
+ * Copyright 2015-17 Earlham Institute
+ */
+
+package nanook;
+
+/**
+ * Reads the summary for one sample being compared.
+ *
+ * @author Richard Leggett
+ */
+public class SampleLoaderRunnable implements Runnable {
+    private SampleComparer comparer;
+    private int index;
+
+    /**
+     * Constructor
+     * @param c SampleComparer
+     * @param i index of sample
+     */
+    public SampleLoaderRunnable(SampleComparer c, int i) {
+        comparer = c;
+        index = i;
+    }
+
+    public void run() {
+        comparer.readSample(index);
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Program: NanoOK
+ * Author:  Richard M. Leggett (richard.leggett@earlham.ac.uk)
+ *
+ * Copyright 2015-17 Earlham Institute
+ */
+
+package nanook;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+
+/**
+ * The statistics for a sample needed by compare - read set summaries, reads
+ * aligned to each reference and the most over and under-represented 5-mers.
+ * Written next to OverallStats.ser by analyse, so that compare doesn't need
+ * to load the full statistics for every sample.
+ *
+ * @author Richard Leggett
+ */
+public class SampleSummary implements Serializable {
+    private static final long serialVersionUID = NanoOK.SERIAL_VERSION;
+    private static final int NUMBER_OF_KMERS = 10;
+    private String[] refIds;
+    private String[] refNames;
+    private int[] refSizes;
+    private int[][] readCounts = new int[3][];
+    private long[] totalBases = new long[3];
+    private double[] meanLength = new double[3];
+    private int[][] refReads = new int[3][];
+    private String[][][] overKmers = new String[3][][];
+    private String[][][] underKmers = new String[3][][];
+
+    // Columns of readCounts
+    public final static int NUM_READS = 0;
+    public final static int LONGEST = 1;
+    public final static int SHORTEST = 2;
+    public final static int N50 = 3;
+    public final static int N50_COUNT = 4;
+    public final static int N90 = 5;
+    public final static int N90_COUNT = 6;
+    public final static int READS_ANALYSED = 7;
+    public final static int READS_WITH_ALIGNMENTS = 8;
+    public final static int READS_WITHOUT_ALIGNMENTS = 9;
+
+    /**
+     * Constructor - copy what's needed from full statistics
+     * @param os statistics for sample
+     * @param references references, with statistics for sample
+     */
+    public SampleSummary(OverallStats os, References references) {
+        ArrayList<ReferenceSequence> sortedRefs = references.getSortedReferences();
+        int n = sortedRefs.size();
+
+        refIds = new String[n];
+        refNames = new String[n];
+        refSizes = new int[n];
+        for (int i=0; i<n; i++) {
+            refIds[i] = sortedRefs.get(i).getId();
+            refNames[i] = sortedRefs.get(i).getName();
+            refSizes[i] = sortedRefs.get(i).getSize();
+        }
+
+        for (int type=0; type<3; type++) {
+            ReadSetStats r = os.getStatsByType(type);
+
+            readCounts[type] = new int[] {r.getNumReads(), r.getLongest(), r.getShortest(), r.getN50(), r.getN50Count(),
+                                          r.getN90(), r.getN90Count(), r.getNumberOfReads(), r.getNumberOfReadsWithAlignments(),
+                                          r.getNumberOfReadsWithoutAlignments()};
+            totalBases[type] = r.getTotalBases();
+            meanLength[type] = r.getMeanLength();
+            refReads[type] = new int[n];
+            overKmers[type] = new String[n][];
+            underKmers[type] = new String[n][];
+
+            for (int i=0; i<n; i++) {
+                ReferenceSequenceStats rs = sortedRefs.get(i).getStatsByType(type);
+                ArrayList<KmerAbundance> ka = new ArrayList<KmerAbundance>(rs.getKmerAbundance());
+                int k = Math.min(NUMBER_OF_KMERS, ka.size());
+
+                refReads[type][i] = rs.getNumberOfReadsWithAlignments();
+                Collections.sort(ka);
+                overKmers[type][i] = new String[k];
+                underKmers[type][i] = new String[k];
+                for (int j=0; j<k; j++) {
+                    overKmers[type][i][j] = ka.get(j).getKmer();
+                    underKmers[type][i][j] = ka.get(ka.size() - 1 - j).getKmer();
+                }
+            }
+        }
+    }
+
+    public int getNumberOfReferences() {
+        return refIds.length;
+    }
+
+    public String getReferenceId(int i) {
+        return refIds[i];
+    }
+
+    public String getReferenceName(int i) {
+        return refNames[i];
+    }
+
+    public int getReferenceSize(int i) {
+        return refSizes[i];
+    }
+
+    /**
+     * Get a read count for a read type
+     * @param type read type
+     * @param column e.g. NUM_READS
+     * @return count
+     */
+    public int getReadCount(int type, int column) {
+        return readCounts[type][column];
+    }
+
+    public long getTotalBases(int type) {
+        return totalBases[type];
+    }
+
+    public double getMeanLength(int type) {
+        return meanLength[type];
+    }
+
+    /**
+     * Get number of reads aligning to each reference, in sorted reference order
+     * @param type read type
+     * @return counts
+     */
+    public int[] getReferenceReadCounts(int type) {
+        return refReads[type];
+    }
+
+    /**
+     * Get most over-represented (or under-represented) 5-mers for a reference
+     * @param type read type
+     * @param i reference index
+     * @param over true for over-represented
+     * @return up to 10 kmers
+     */
+    public String[] getKmers(int type, int i, boolean over) {
+        return over ? overKmers[type][i] : underKmers[type][i];
+    }
+}
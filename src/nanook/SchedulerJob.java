@@ -0,0 +1,175 @@
+/*
+ * Program: NanoOK
+ * Author:  Richard M. Leggett (richard.leggett@earlham.ac.uk)
+ *
+ * Copyright 2015-17 Earlham Institute
+ */
+
+package nanook;
+
+import java.util.StringTokenizer;
+
+/**
+ * An external command to be run by a JobScheduler, with the resources it needs.
+ *
+ * @author Richard Leggett
+ */
+public class SchedulerJob {
+    private String name;
+    private String[] command;
+    private String outputFile = null;
+    private String logFile = null;
+    private String queue = null;
+    private String memory = null;
+    private int threads = 1;
+    private int maxRetries = 0;
+    private JobCallback callback = null;
+
+    /**
+     * Constructor
+     * @param n job name, for logging
+     * @param c command and arguments
+     */
+    public SchedulerJob(String n, String[] c) {
+        name = n;
+        command = c;
+    }
+
+    /**
+     * Constructor
+     * @param n job name, for logging
+     * @param c command line, split on whitespace as by Runtime.exec
+     */
+    public SchedulerJob(String n, String c) {
+        StringTokenizer st = new StringTokenizer(c);
+
+        name = n;
+        command = new String[st.countTokens()];
+        for (int i=0; i<command.length; i++) {
+            command[i] = st.nextToken();
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String[] getCommand() {
+        return command;
+    }
+
+    /**
+     * Get command as a single string, for passing to cluster submission commands
+     * @return command string
+     */
+    public String getCommandString() {
+        StringBuilder sb = new StringBuilder();
+
+        for (int i=0; i<command.length; i++) {
+            if (i > 0) {
+                sb.append(' ');
+            }
+            sb.append(command[i]);
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Set file for command's stdout (for aligners that only write to screen)
+     * @param f filename, or null
+     */
+    public void setOutputFile(String f) {
+        outputFile = f;
+    }
+
+    public String getOutputFile() {
+        return outputFile;
+    }
+
+    public void setLogFile(String f) {
+        logFile = f;
+    }
+
+    public String getLogFile() {
+        return logFile;
+    }
+
+    public void setQueue(String q) {
+        queue = q;
+    }
+
+    public String getQueue() {
+        return queue;
+    }
+
+    /**
+     * Set memory needed
+     * @param m memory, as a number of Mb or with a K, M or G suffix (e.g. "8G")
+     */
+    public void setMemory(String m) {
+        memory = m;
+    }
+
+    public String getMemory() {
+        return memory;
+    }
+
+    /**
+     * Get memory needed in Mb
+     * @return Mb, or 0 if not specified
+     */
+    public long getMemoryMb() {
+        long kbMultiplier = 1024;
+        String m = memory;
+
+        if ((m == null) || (m.length() == 0)) {
+            return 0;
+        }
+
+        switch (Character.toUpperCase(m.charAt(m.length() - 1))) {
+            case 'K': kbMultiplier = 1; break;
+            case 'M': kbMultiplier = 1024; break;
+            case 'G': kbMultiplier = 1024 * 1024; break;
+            case 'T': kbMultiplier = 1024 * 1024 * 1024; break;
+        }
+
+        if (!Character.isDigit(m.charAt(m.length() - 1))) {
+            m = m.substring(0, m.length() - 1);
+        }
+
+        try {
+            return Math.max(1, (Long.parseLong(m.trim()) * kbMultiplier) / 1024);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    public void setThreads(int t) {
+        threads = t;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Set number of times to retry a failed job
+     * @param r number of retries
+     */
+    public void setMaxRetries(int r) {
+        maxRetries = r;
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    public void setCallback(JobCallback c) {
+        callback = c;
+    }
+
+    public JobCallback getCallback() {
+        return callback;
+    }
+}
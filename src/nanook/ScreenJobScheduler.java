@@ -0,0 +1,39 @@
+/*
+ * Program: NanoOK
+ * Author:  Richard M. Leggett (richard.leggett@earlham.ac.uk)
+ *
+ * Copyright 2015-17 Earlham Institute
+ */
+
+package nanook;
+
+/**
+ * Prints commands to the screen instead of running them.
+ *
+ * @author Richard Leggett
+ */
+public class ScreenJobScheduler extends BaseJobScheduler {
+    /**
+     * Constructor
+     * @param o NanoOKOptions object
+     */
+    public ScreenJobScheduler(NanoOKOptions o) {
+        super(o);
+    }
+
+    public String getName() {
+        return "screen";
+    }
+
+    protected int runOnce(SchedulerJob job) {
+        String command = job.getCommandString();
+
+        if (job.getOutputFile() != null) {
+            command = command + " > " + job.getOutputFile();
+        }
+
+        System.out.println(command);
+
+        return 0;
+    }
+}
@@ -136,4 +136,32 @@ public class SequenceCoverage implements Serializable {
         }
     }
     
+    /**
+     * Get mean coverage per bin, as written to the coverage file.
+     * @param pbinSize bin size, if not already binned
+     * @return array of two arrays - bin positions and mean coverage
+     */
+    public synchronized double[][] getMeanCoverage(int pbinSize) {
+        double[][] points;
+        
+        if (binEarly) {
+            points = new double[2][Math.max(0, numBins - 1)];
+            for (int i=0; i<numBins-1; i++) {
+                points[0][i] = i * binSize;
+                points[1][i] = (double)coverage[i] / (double)binSize;
+            }
+        } else {
+            points = new double[2][Math.max(0, (genomeSize - 1) / pbinSize)];
+            for (int b=0; b<points[0].length; b++) {
+                int count = 0;
+                for (int j=0; j<pbinSize; j++) {
+                    count += coverage[b*pbinSize+j];
+                }
+                points[0][b] = b * pbinSize;
+                points[1][b] = (double)count / (double)pbinSize;
+            }
+        }
+        
+        return points;
+    }
 }
@@ -8,10 +8,18 @@
 package nanook;
 
 import java.io.BufferedReader;
-import java.io.FileReader;
+import java.io.ByteArrayOutputStream;
 import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Hashtable;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -21,66 +29,142 @@ import java.util.regex.Pattern;
  * @author Richard Leggett
  */
 public class SequenceReader {
+    private static final boolean[] isGC = new boolean[256];
     private ArrayList<String> seqIDs = new ArrayList();
-    private ArrayList<Integer> seqLengths = new ArrayList();
-    private ArrayList<String> sequence = new ArrayList();
-    private ArrayList<Double> gcPc = new ArrayList();
+    private int[] seqLengths = new int[16];
+    private ArrayList<PackedSequence> sequence = new ArrayList<PackedSequence>();
+    private double[] gcPc = new double[16];
     private int nSeqs = 0;
     private boolean cacheSequence = false;
     private String currentFilename;
+    private Hashtable<String,Integer> sequenceIndex = new Hashtable<String,Integer>();
+    private Hashtable<String,FastaIndexEntry> recordIndex = new Hashtable<String,FastaIndexEntry>();
+    private FileChannel channel = null;
+    
+    static {
+        isGC['G'] = true;
+        isGC['C'] = true;
+    }
     
     public SequenceReader(boolean cache) {
         cacheSequence = cache;
     }
     
     public int countGC(String s) {
-        int g = s.length() - s.replace("G", "").length();
-        int c = s.length() - s.replace("C", "").length();
+        int gc = 0;
+        
+        for (int i=0; i<s.length(); i++) {
+            if (isGC[s.charAt(i) & 0xFF]) {
+                gc++;
+            }
+        }
+        
+        return gc;
+    }
+    
+    private static int countGC(byte[] b, int start, int length) {
+        return BaseScanner.countGC(b, start, length);
+    }
+    
+    /**
+     * Remove any .gz or .bgz extension from a filename, so compressed reads
+     * get the same alignment and output filenames as uncompressed ones
+     * @param filename filename
+     * @return filename without compression extension
+     */
+    public static String stripCompressionExtension(String filename) {
+        String f = filename.toLowerCase();
+        
+        if (f.endsWith(".gz")) {
+            return filename.substring(0, filename.length() - 3);
+        } else if (f.endsWith(".bgz")) {
+            return filename.substring(0, filename.length() - 4);
+        }
+        
+        return filename;
+    }
+    
+    /**
+     * Check if a filename is FASTQ, from its extension, ignoring any .gz
+     * @param filename filename
+     * @return true if FASTQ
+     */
+    public static boolean isFASTQFilename(String filename) {
+        String f = stripCompressionExtension(filename).toLowerCase();
+        
+        return f.endsWith(".fastq") || f.endsWith(".fq");
+    }
+    
+    /**
+     * Get ID from header line - everything up to first whitespace, after the > or @
+     */
+    private static String getIdFromHeader(byte[] b, int start, int length) {
+        int end = start + 1;
+        
+        while ((end < start + length) && ((b[end] & 0xFF) > ' ')) {
+            end++;
+        }
         
-        return g + c;
+        return new String(b, start + 1, end - start - 1, StandardCharsets.ISO_8859_1);
+    }
+    
+    private void addSequence(String id, int length, int gc) {
+        if (nSeqs == seqLengths.length) {
+            seqLengths = Arrays.copyOf(seqLengths, nSeqs * 2);
+            gcPc = Arrays.copyOf(gcPc, nSeqs * 2);
+        }
+        
+        seqIDs.add(id);
+        seqLengths[nSeqs] = length;
+        gcPc[nSeqs] = 100.0 * (double)gc / (double)length;
+        nSeqs++;
     }
     
     public int indexFASTQFile(String filename) {
+        close();
         currentFilename = filename;
         
         try
         {
-            BufferedReader br = new BufferedReader(new FileReader(filename));
-            String line;
-            String id = null;
-            int contigLength = 0;
-            int readsInThisFile = 0;
+            ByteLineReader br = new ByteLineReader(filename);
             boolean gotRead;
-            int gc = 0;
                     
             do {
-                String sh = br.readLine();
-                String s = br.readLine();
-                String qh = br.readLine();
-                String q = br.readLine();
                 gotRead = false;
-                if ((sh != null) && (s != null) && (qh != null) & (q != null)) {
-                    if (sh.startsWith("@")) {
-                        if (qh.startsWith("+")) {
-                            String sequenceHeader = sh.trim();
-                            String seq = s.trim();
-                            String[] parts = sequenceHeader.substring(1).split("(\\s+)");
-                            id = parts[0];
-                            
-                            if (id != null) {
-                                seqIDs.add(id);
-                                seqLengths.add(seq.length());
-                                gcPc.add(new Double(100.0 * (double)countGC(seq) / (double)seq.length()));
-                                if (cacheSequence) {
-                                    sequence.add(seq);
-                                }
-                                nSeqs++;                        
-                                gotRead = true;
-                            }
-
-                        }
-                    }
+                if (br.readLine() < 0) {
+                    break;
                 }
+                
+                byte[] b = br.getLine();
+                if ((br.getLineLength() == 0) || (b[br.getLineStart()] != '@')) {
+                    break;
+                }
+                
+                String id = getIdFromHeader(b, br.getLineStart(), br.getLineLength());
+                
+                if (br.readLine() < 0) {
+                    break;
+                }
+                
+                b = br.getLine();
+                int length = br.getLineLength();
+                int gc = countGC(b, br.getLineStart(), length);
+                PackedSequence seq = cacheSequence ? new PackedSequence(b, br.getLineStart(), length) : null;
+                
+                if ((br.readLine() < 0) || (br.getLineLength() == 0) || (br.getLine()[br.getLineStart()] != '+')) {
+                    break;
+                }
+                
+                if (br.readLine() < 0) {
+                    break;
+                }
+                
+                sequenceIndex.put(id, nSeqs);
+                addSequence(id, length, gc);
+                if (cacheSequence) {
+                    sequence.add(seq);
+                }
+                gotRead = true;
             } while (gotRead);
 
             br.close();
@@ -114,38 +198,46 @@ public class SequenceReader {
      * @param filename filename of FASTA file
      */
     public int indexFASTAFile(String filename, String indexFilename, boolean storeIds) {
+        close();
         currentFilename = filename;
                 
         try
         {
-            BufferedReader br = new BufferedReader(new FileReader(filename)); 
+            ByteLineReader br = new ByteLineReader(filename);
             PrintWriter pw = null;
-            String line;
             String id = null;
             String name = null;
             int contigLength = 0;
-            int readsInThisFile = 0;
-            //String seq = "";
-            StringBuilder seq = new StringBuilder(100000);
+            ByteArrayOutputStream seq = new ByteArrayOutputStream(100000);
             int gc = 0;
+            int length;
+            // faidx-style layout of the current record, so sub-sequences can be read by seeking
+            boolean seekable = !br.isCompressed();
+            long firstLineOffset = -1;
+            int lineBases = 0;
+            int lineWidth = 0;
+            boolean gotShortLine = false;
             
             if (indexFilename != null) {
                 pw = new PrintWriter(new FileWriter(indexFilename, false)); 
             }
                         
             do {
-                line = br.readLine();
-                if (line != null) {
-                    line = line.trim();
-                }
+                length = br.readLine();
+                byte[] b = br.getLine();
+                int start = br.getLineStart();
 
-                if ((line == null) || (line.startsWith(">"))) {                    
+                if ((length < 0) || ((length > 0) && (b[start] == '>'))) {                    
                     if (id != null) {
+                        if (seekable && (firstLineOffset >= 0)) {
+                            recordIndex.put(id, new FastaIndexEntry(id, contigLength, firstLineOffset, lineBases, lineWidth));
+                        }
+                        sequenceIndex.put(id, sequenceIndex.size());
+                        
                         if (storeIds) {
-                            double gcpc = 100.0*(double)gc / (double)contigLength;
-                            seqIDs.add(id);
-                            seqLengths.add(contigLength);
-                            gcPc.add(new Double(gcpc));
+                            addSequence(id, contigLength, gc);
+                        } else {
+                            nSeqs++;
                         }
 
                         if (pw != null) {
@@ -154,30 +246,45 @@ public class SequenceReader {
                         }
                         
                         if (cacheSequence) {
-                            sequence.add(seq.toString());
+                            byte[] bases = seq.toByteArray();
+                            sequence.add(new PackedSequence(bases, 0, bases.length));
+                            seq.reset();
                         }
-                        nSeqs++;  
-                        seq = new StringBuilder(100000);
                     }
                     
-                    if (line != null) {
-                        String[] parts = line.substring(1).split("(\\s+)");
-                        id = parts[0];
-                        name = makeName(line, id);
+                    if (length >= 0) {
+                        id = getIdFromHeader(b, start, length);
+                        if (pw != null) {
+                            name = makeName(br.getLineString(), id);
+                        }
                     }                   
                     
                     contigLength = 0;
                     gc = 0;
-                } else if (line != null) {
-                    contigLength += line.length();
-                    gc += countGC(line);
+                    seekable = !br.isCompressed();
+                    firstLineOffset = -1;
+                    gotShortLine = false;
+                } else {
+                    if (firstLineOffset < 0) {
+                        firstLineOffset = br.getLineOffset();
+                        lineBases = length;
+                        lineWidth = br.getLineWidth();
+                        seekable = seekable && (start == 0) && (length > 0);
+                    } else if (gotShortLine || (length > lineBases) || (start != 0) ||
+                               ((length == lineBases) && (br.getLineWidth() != lineWidth) && (br.getLineWidth() != length))) {
+                        // Lines of differing lengths - can't be indexed
+                        seekable = false;
+                    }
+                    gotShortLine = gotShortLine || (length < lineBases);
+                    
+                    contigLength += length;
+                    gc += countGC(b, start, length);
                     
                     if (cacheSequence) {
-                        seq.append(line);
-                        //seq = seq + line;
+                        seq.write(b, start, length);
                     }
                 }  
-            } while (line != null);
+            } while (length >= 0);
             
             br.close();
             if (pw != null) {
@@ -200,26 +307,123 @@ public class SequenceReader {
         return seqIDs.get(i);
     }
     
+    /**
+     * Get sequence, if sequences are being cached
+     * @param i index of sequence
+     * @return sequence
+     */
+    public String getSequence(int i) {
+        return sequence.get(i).toString();
+    }
+    
+    /**
+     * Get sequence in packed form, if sequences are being cached
+     * @param i index of sequence
+     * @return sequence
+     */
+    public PackedSequence getPackedSequence(int i) {
+        return sequence.get(i);
+    }
+    
     public int getLength(int i) {
-        return seqLengths.get(i);
+        return seqLengths[i];
     }
     
     public double getGC(int i) {
-        return gcPc.get(i);
+        return gcPc[i];
     }
     
-    public String getSubSequence(String id, int start, int end) {
-        int index = -1;
-        String seq = "";
+    /**
+     * Open file for positioned reads, shared by all threads using this reader
+     */
+    private synchronized FileChannel getChannel() throws IOException {
+        if (channel == null) {
+            channel = new RandomAccessFile(currentFilename, "r").getChannel();
+        }
+        
+        return channel;
+    }
+    
+    /**
+     * Close file opened for positioned reads, if any. It is reopened if needed.
+     */
+    public synchronized void close() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                System.out.println("SequenceReader exception closing " + currentFilename);
+                e.printStackTrace();
+            }
+            channel = null;
+        }
+    }
+    
+    /**
+     * Read part of a sequence with a single positioned read
+     * @param e offsets of record
+     * @param start start position (0-based)
+     * @param end end position (inclusive)
+     * @return sub-sequence
+     */
+    private String readSubSequence(FastaIndexEntry e, int start, int end) {
+        if (start < 0) {
+            System.out.println("Warning: invalid index ("+start+") in SequenceReader");
+            start = 0;
+        }
+        if (end >= e.getLength()) {
+            end = (int)e.getLength() - 1;
+        }
+        if (end < start) {
+            return "";
+        }
+        
+        long startByte = e.getOffset() + ((long)start / e.getLineBases()) * e.getLineWidth() + (start % e.getLineBases());
+        long endByte = e.getOffset() + ((long)end / e.getLineBases()) * e.getLineWidth() + (end % e.getLineBases());
+        byte[] bytes = new byte[(int)(endByte - startByte + 1)];
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        int n = 0;
         
-        for (int i=0; i<nSeqs; i++) {
-            if (seqIDs.get(i).equals(id)) {
-                index = i;
-                break;
+        try {
+            FileChannel fc = getChannel();
+            long position = startByte;
+            while (buffer.hasRemaining()) {
+                int r = fc.read(buffer, position);
+                if (r < 0) {
+                    break;
+                }
+                position += r;
+            }
+        } catch (IOException ex) {
+            System.out.println("readSubSequence Exception:");
+            ex.printStackTrace();
+            System.exit(1);
+        }
+        
+        // Remove line endings
+        for (int i=0; i<buffer.position(); i++) {
+            if ((bytes[i] & 0xFF) > ' ') {
+                bytes[n++] = bytes[i];
             }
         }
         
-        if (index == -1) {
+        return new String(bytes, 0, n, StandardCharsets.ISO_8859_1);
+    }
+    
+    /**
+     * Get part of a sequence. If sequences aren't cached, this is a single
+     * positioned read using the offsets recorded by indexFASTAFile, unless the
+     * file is compressed or has irregular line lengths.
+     * @param id sequence ID
+     * @param start start position (0-based)
+     * @param end end position (inclusive)
+     * @return sub-sequence
+     */
+    public String getSubSequence(String id, int start, int end) {
+        Integer index = sequenceIndex.get(id);
+        String seq = "";
+        
+        if (index == null) {
             System.out.println("Error: can't find ID " + id);
             System.exit(1);
         }        
@@ -234,10 +438,12 @@ public class SequenceReader {
                 end = sequence.get(index).length() - 1;
             }
             seq = sequence.get(index).substring(start, end+1);
+        } else if (recordIndex.containsKey(id)) {
+            seq = readSubSequence(recordIndex.get(id), start, end);
         } else {
             try
             {
-                BufferedReader br = new BufferedReader(new FileReader(currentFilename));
+                BufferedReader br = new BufferedReader(new InputStreamReader(ByteLineReader.open(currentFilename), StandardCharsets.ISO_8859_1));
                 StringBuilder ssb = new StringBuilder("");
                 String line;
                 boolean foundId = false;
@@ -304,13 +510,9 @@ public class SequenceReader {
     }
         
     public void storeKmers(int index, KmerTable t) {
-        String seq = sequence.get(index);
+        PackedSequence seq = sequence.get(index);
         if (seq != null) {
-            int k = t.getKmerSize();
-
-            for (int o=0; o<seq.length() - k; o++) {
-                t.countKmer(seq.substring(o, o+5));
-            }        
+            t.countKmers(seq);
         } else {
             System.out.println("Need to handle the non-cached case");
         }
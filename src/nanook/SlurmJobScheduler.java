@@ -0,0 +1,62 @@
+/*
+ * Program: NanoOK
+ * Author:  Richard M. Leggett (richard.leggett@earlham.ac.uk)
+ *
+ * Copyright 2015-17 Earlham Institute
+ */
+
+package nanook;
+
+import java.util.ArrayList;
+
+/**
+ * Submits jobs to SLURM with slurmit.
+ *
+ * @author Richard Leggett
+ */
+public class SlurmJobScheduler extends BaseJobScheduler {
+    /**
+     * Constructor
+     * @param o NanoOKOptions object
+     */
+    public SlurmJobScheduler(NanoOKOptions o) {
+        super(o);
+    }
+
+    public String getName() {
+        return "slurm";
+    }
+
+    protected int runOnce(SchedulerJob job) throws Exception {
+        ArrayList<String> command = new ArrayList<String>();
+        String queue = job.getQueue() != null ? job.getQueue() : options.getQueue();
+        String jobCommand = job.getCommandString();
+
+        if (job.getOutputFile() != null) {
+            jobCommand = jobCommand + " > " + job.getOutputFile();
+        }
+
+        command.add("slurmit");
+        if (job.getLogFile() != null) {
+            command.add("-o");
+            command.add(job.getLogFile());
+        }
+        if ((queue != null) && (queue.length() > 0)) {
+            command.add("-p");
+            command.add(queue);
+        }
+        if (job.getMemory() != null) {
+            command.add("-m");
+            command.add(job.getMemory());
+        }
+        if (job.getThreads() > 1) {
+            command.add("-c");
+            command.add(Integer.toString(job.getThreads()));
+        }
+        command.add(jobCommand);
+
+        options.getLog().println("Submitting job " + job.getName() + " to SLURM: " + jobCommand);
+
+        return runAndLog(command.toArray(new String[command.size()]));
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Program: NanoOK
+ * Author:  Richard M. Leggett (richard.leggett@earlham.ac.uk)
+ *
+ * Copyright 2015-17 Earlham Institute
+ */
+
+package nanook;
+
+import java.io.FileWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+
+/**
+ * Records time spent in each pipeline stage into per-thread latency histograms,
+ * so that recording never needs a lock. Summary written at end of run.
+ *
+ * @author Richard Leggett
+ */
+public class StageTimer {
+    public final static int STAGE_FAST5_INDEX = 0;
+    public final static int STAGE_READ_WRITE = 1;
+    public final static int STAGE_ALIGNER = 2;
+    public final static int STAGE_PARSE = 3;
+    public final static int STAGE_MERGE = 4;
+    public final static int STAGE_STATS = 5;
+    public final static int NUMBER_OF_STAGES = 6;
+    private final static String[] stageNames = {"Fast5 indexing", "Read write", "Aligner process", "Alignment parse", "Alignment merge", "Stats update"};
+    private ArrayList<ThreadTimings> allThreads = new ArrayList<ThreadTimings>();
+    private ThreadLocal<ThreadTimings> threadTimings = new ThreadLocal<ThreadTimings>() {
+        @Override
+        protected ThreadTimings initialValue() {
+            ThreadTimings t = new ThreadTimings(Thread.currentThread().getName());
+            synchronized(allThreads) {
+                allThreads.add(t);
+            }
+            return t;
+        }
+    };
+
+    /**
+     * Histograms for one thread
+     */
+    private class ThreadTimings {
+        private String threadName;
+        private LatencyHistogram[] histograms = new LatencyHistogram[NUMBER_OF_STAGES];
+
+        public ThreadTimings(String name) {
+            threadName = name;
+            for (int i=0; i<NUMBER_OF_STAGES; i++) {
+                histograms[i] = new LatencyHistogram();
+            }
+        }
+    }
+
+    public static String getStageName(int stage) {
+        return stageNames[stage];
+    }
+
+    /**
+     * Start timing
+     * @return start time, to be passed to stop
+     */
+    public long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Stop timing and record
+     * @param stage stage ID
+     * @param startTime value returned by start
+     */
+    public void stop(int stage, long startTime) {
+        threadTimings.get().histograms[stage].recordValue(System.nanoTime() - startTime);
+    }
+
+    /**
+     * Check if anything has been recorded
+     * @return true if there are timings
+     */
+    public boolean hasTimings() {
+        synchronized(allThreads) {
+            for (int i=0; i<allThreads.size(); i++) {
+                for (int s=0; s<NUMBER_OF_STAGES; s++) {
+                    if (allThreads.get(i).histograms[s].getTotalCount() > 0) {
+                        return true;
+                    }
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Write a line of the timings table
+     */
+    private void writeHistogram(PrintWriter pw, String stageName, String threadName, LatencyHistogram h) {
+        pw.printf("%-20s %-24s %10d %12.3f %10.3f %10.3f %10.3f %10.3f %10.3f",
+                  stageName,
+                  threadName,
+                  h.getTotalCount(),
+                  h.getTotalValue() / 1000000000.0,
+                  h.getMean() / 1000000.0,
+                  h.getValueAtPercentile(50) / 1000000.0,
+                  h.getValueAtPercentile(95) / 1000000.0,
+                  h.getValueAtPercentile(99) / 1000000.0,
+                  h.getMaxValue() / 1000000.0);
+        pw.println("");
+    }
+
+    /**
+     * Write breakdown of time per stage and per thread
+     * @param filename output filename
+     */
+    public void writeTimings(String filename) {
+        try {
+            PrintWriter pw = new PrintWriter(new FileWriter(filename));
+
+            pw.printf("%-20s %-24s %10s %12s %10s %10s %10s %10s %10s", "Stage", "Thread", "Count", "Total(s)", "Mean(ms)", "p50(ms)", "p95(ms)", "p99(ms)", "Max(ms)");
+            pw.println("");
+
+            synchronized(allThreads) {
+                for (int s=0; s<NUMBER_OF_STAGES; s++) {
+                    LatencyHistogram all = new LatencyHistogram();
+                    int nThreads = 0;
+
+                    for (int i=0; i<allThreads.size(); i++) {
+                        LatencyHistogram h = allThreads.get(i).histograms[s];
+                        if (h.getTotalCount() > 0) {
+                            writeHistogram(pw, stageNames[s], allThreads.get(i).threadName, h);
+                            all.add(h);
+                            nThreads++;
+                        }
+                    }
+
+                    if (nThreads > 0) {
+                        writeHistogram(pw, stageNames[s], "All", all);
+                    }
+                }
+            }
+
+            pw.close();
+        } catch (Exception e) {
+            System.out.println("Error writing timings file "+filename);
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,419 @@
+/*
+ * Program: NanoOK
+ * Author:  Richard M. Leggett (richard.leggett@earlham.ac.uk)
+ *
+ * Copyright 2015-17 Earlham Institute
+ */
+
+package nanook;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.PrintWriter;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Generates a synthetic sample directory - a random reference, simulated reads
+ * with a nanopore-like error profile and the MAF and SAM alignments that LAST
+ * and BWA would have produced for them. Used for benchmarking without real data
+ * or installed aligners.
+ *
+ * @author Richard Leggett
+ */
+public class SyntheticSampleGenerator {
+    public final static String REFERENCE_FILENAME = "synthetic_reference.fasta";
+    private final static char[] bases = {'A', 'C', 'G', 'T'};
+    private final static double SUBSTITUTION_FRACTION = 0.4;
+    private final static double INSERTION_FRACTION = 0.3;
+    private final static int MAX_INDEL = 10;
+    private final static int MIN_READ_LENGTH = 200;
+    private final static int READS_PER_BATCH = 4000;
+    private NanoOKOptions options;
+    private Random rand;
+    private int meanReadLength;
+    private double errorRate;
+    private int numberOfContigs;
+    private int contigLength;
+    private String[] contigIds;
+    private String[] contigSeqs;
+    private long bytesWritten = 0;
+
+    /**
+     * A simulated read, together with the alignment that produced it
+     */
+    public class SimulatedRead {
+        private String id;
+        private String sequence;
+        private String quality;
+        private int contig;
+        private int hitStart;
+        private int hitAlnSize;
+        private boolean reverse;
+        private String queryGapped;
+        private String hitGapped;
+        private int score;
+
+        public String getId() {
+            return id;
+        }
+
+        public String getSequence() {
+            return sequence;
+        }
+
+        public String getQuality() {
+            return quality;
+        }
+
+        public int getLength() {
+            return sequence.length();
+        }
+
+        public String getContigId() {
+            return contigIds[contig];
+        }
+
+        public boolean isReverse() {
+            return reverse;
+        }
+
+        public Alignment getAlignment() {
+            Alignment a = new Alignment(score, id, sequence.length(), 0, sequence.length(), queryGapped,
+                                        contigIds[contig], contigLength, hitStart, hitAlnSize, hitGapped, false);
+            if (reverse) {
+                a.setQueryStrand("-");
+            }
+            return a;
+        }
+    }
+
+    /**
+     * Constructor
+     * @param o NanoOKOptions object
+     * @param seed random seed, so that samples are reproducible
+     */
+    public SyntheticSampleGenerator(NanoOKOptions o, long seed) {
+        options = o;
+        rand = new Random(seed);
+        meanReadLength = options.getBenchmarkReadLength();
+        errorRate = options.getBenchmarkErrorRate();
+        numberOfContigs = 2;
+        contigLength = Math.max(100000, meanReadLength * 20);
+    }
+
+    private String randomSequence(int length) {
+        StringBuilder sb = new StringBuilder(length);
+
+        for (int i=0; i<length; i++) {
+            sb.append(bases[rand.nextInt(4)]);
+        }
+
+        return sb.toString();
+    }
+
+    private char randomOtherBase(char c) {
+        char n;
+
+        do {
+            n = bases[rand.nextInt(4)];
+        } while (n == c);
+
+        return n;
+    }
+
+    private int randomIndelSize() {
+        int size = 1;
+
+        while ((size < MAX_INDEL) && (rand.nextDouble() < 0.3)) {
+            size++;
+        }
+
+        return size;
+    }
+
+    /**
+     * Pick read length from a log-normal distribution around the mean read length
+     */
+    private int randomReadLength() {
+        double sigma = 0.5;
+        double mu = Math.log(meanReadLength) - ((sigma * sigma) / 2);
+        int length = (int)Math.exp(mu + sigma * rand.nextGaussian());
+
+        if (length < MIN_READ_LENGTH) {
+            length = MIN_READ_LENGTH;
+        } else if (length > (contigLength / 2)) {
+            length = contigLength / 2;
+        }
+
+        return length;
+    }
+
+    public static String reverseComplement(String s) {
+        StringBuilder sb = new StringBuilder(s.length());
+
+        for (int i=s.length()-1; i>=0; i--) {
+            switch(s.charAt(i)) {
+                case 'A': sb.append('T'); break;
+                case 'C': sb.append('G'); break;
+                case 'G': sb.append('C'); break;
+                case 'T': sb.append('A'); break;
+                default: sb.append('N'); break;
+            }
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Write a random reference
+     * @param filename output filename
+     */
+    public void writeReference(String filename) {
+        contigIds = new String[numberOfContigs];
+        contigSeqs = new String[numberOfContigs];
+
+        try {
+            PrintWriter pw = new PrintWriter(new FileWriter(filename));
+
+            for (int c=0; c<numberOfContigs; c++) {
+                contigIds[c] = "synthetic_contig_" + (c+1);
+                contigSeqs[c] = randomSequence(contigLength);
+                pw.println(">" + contigIds[c]);
+                for (int i=0; i<contigLength; i+=80) {
+                    pw.println(contigSeqs[c].substring(i, Math.min(i+80, contigLength)));
+                }
+            }
+
+            pw.close();
+        } catch (Exception e) {
+            System.out.println("Error writing reference "+filename);
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Simulate a read from the reference
+     * @return a SimulatedRead
+     */
+    public SimulatedRead simulateRead() {
+        SimulatedRead r = new SimulatedRead();
+        int refLength = randomReadLength();
+        StringBuilder query = new StringBuilder(refLength + refLength / 5);
+        StringBuilder queryGapped = new StringBuilder(refLength + refLength / 5);
+        StringBuilder hitGapped = new StringBuilder(refLength + refLength / 5);
+        int matches = 0;
+        int errors = 0;
+
+        r.id = new UUID(rand.nextLong(), rand.nextLong()).toString();
+        r.contig = rand.nextInt(numberOfContigs);
+        r.hitStart = rand.nextInt(contigLength - refLength);
+        r.reverse = rand.nextBoolean();
+
+        String ref = contigSeqs[r.contig];
+        int refEnd = r.hitStart + refLength;
+        int p = r.hitStart;
+
+        while (p < refEnd) {
+            char refBase = ref.charAt(p);
+            double e = rand.nextDouble();
+
+            // Don't start or end alignment with an indel
+            if ((e >= errorRate) || (p == r.hitStart) || (p >= (refEnd - MAX_INDEL))) {
+                query.append(refBase);
+                queryGapped.append(refBase);
+                hitGapped.append(refBase);
+                matches++;
+                p++;
+            } else {
+                double type = rand.nextDouble();
+                if (type < SUBSTITUTION_FRACTION) {
+                    char subBase = randomOtherBase(refBase);
+                    query.append(subBase);
+                    queryGapped.append(subBase);
+                    hitGapped.append(refBase);
+                    p++;
+                } else if (type < (SUBSTITUTION_FRACTION + INSERTION_FRACTION)) {
+                    int size = randomIndelSize();
+                    for (int i=0; i<size; i++) {
+                        char insBase = bases[rand.nextInt(4)];
+                        query.append(insBase);
+                        queryGapped.append(insBase);
+                        hitGapped.append('-');
+                    }
+                } else {
+                    int size = Math.min(randomIndelSize(), refEnd - p - 1);
+                    for (int i=0; i<size; i++) {
+                        queryGapped.append('-');
+                        hitGapped.append(ref.charAt(p++));
+                    }
+                }
+                errors++;
+            }
+        }
+
+        r.hitAlnSize = refLength;
+        r.queryGapped = queryGapped.toString();
+        r.hitGapped = hitGapped.toString();
+        r.score = matches - errors;
+        r.sequence = r.reverse ? reverseComplement(query.toString()) : query.toString();
+
+        StringBuilder qual = new StringBuilder(r.sequence.length());
+        for (int i=0; i<r.sequence.length(); i++) {
+            qual.append((char)('!' + 4 + rand.nextInt(12)));
+        }
+        r.quality = qual.toString();
+
+        return r;
+    }
+
+    /**
+     * Build CIGAR string from the gapped alignment
+     */
+    private String makeCIGAR(SimulatedRead r) {
+        StringBuilder cigar = new StringBuilder();
+        char lastOp = 0;
+        int count = 0;
+
+        for (int i=0; i<r.queryGapped.length(); i++) {
+            char op;
+
+            if (r.hitGapped.charAt(i) == '-') {
+                op = 'I';
+            } else if (r.queryGapped.charAt(i) == '-') {
+                op = 'D';
+            } else {
+                op = 'M';
+            }
+
+            if (op == lastOp) {
+                count++;
+            } else {
+                if (count > 0) {
+                    cigar.append(count);
+                    cigar.append(lastOp);
+                }
+                lastOp = op;
+                count = 1;
+            }
+        }
+
+        if (count > 0) {
+            cigar.append(count);
+            cigar.append(lastOp);
+        }
+
+        return cigar.toString();
+    }
+
+    private void writeFile(String filename, String contents) {
+        try {
+            PrintWriter pw = new PrintWriter(new FileWriter(filename));
+            pw.print(contents);
+            pw.close();
+            bytesWritten += contents.length();
+        } catch (Exception e) {
+            System.out.println("Error writing "+filename);
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    public void writeFasta(SimulatedRead r, String filename) {
+        writeFile(filename, ">" + r.id + " synthetic\n" + r.sequence + "\n");
+    }
+
+    public void writeFastq(SimulatedRead r, String filename) {
+        writeFile(filename, "@" + r.id + " synthetic\n" + r.sequence + "\n+\n" + r.quality + "\n");
+    }
+
+    /**
+     * Write alignment as LAST would
+     */
+    public void writeMaf(SimulatedRead r, String filename) {
+        StringBuilder sb = new StringBuilder();
+        int idWidth = Math.max(r.id.length(), contigIds[r.contig].length());
+
+        sb.append("# LAST version synthetic\n#\n");
+        sb.append("a score=" + r.score + " EG2=0 E=0\n");
+        sb.append(String.format("s %-" + idWidth + "s %d %d + %d %s\n", contigIds[r.contig], r.hitStart, r.hitAlnSize, contigLength, r.hitGapped));
+        sb.append(String.format("s %-" + idWidth + "s %d %d %s %d %s\n", r.id, 0, r.sequence.length(), r.reverse ? "-":"+", r.sequence.length(), r.queryGapped));
+        sb.append("\n");
+
+        writeFile(filename, sb.toString());
+    }
+
+    /**
+     * Write alignment as BWA would
+     */
+    public void writeSam(SimulatedRead r, String filename) {
+        StringBuilder sb = new StringBuilder();
+
+        sb.append("@HD\tVN:1.3\tSO:unsorted\n");
+        for (int c=0; c<numberOfContigs; c++) {
+            sb.append("@SQ\tSN:" + contigIds[c] + "\tLN:" + contigLength + "\n");
+        }
+        sb.append("@PG\tID:bwa\tPN:bwa\tVN:synthetic\n");
+        sb.append(r.id + "\t" + (r.reverse ? 16:0) + "\t" + contigIds[r.contig] + "\t" + (r.hitStart + 1) + "\t60\t" + makeCIGAR(r) + "\t*\t0\t0\t");
+        sb.append(r.reverse ? reverseComplement(r.sequence) : r.sequence);
+        sb.append("\t*\n");
+
+        writeFile(filename, sb.toString());
+    }
+
+    private String makeDir(String dir) {
+        File f = new File(dir);
+
+        if (!f.exists()) {
+            f.mkdirs();
+        }
+
+        return dir;
+    }
+
+    /**
+     * Write a complete sample - reference, 2D pass reads in FASTA and FASTQ and
+     * LAST and BWA alignments for each read.
+     * @param numberOfReads number of reads to simulate
+     * @return path of reference file
+     */
+    public String writeSample(int numberOfReads) {
+        String sampleDir = options.getSampleDirectory();
+        String referenceFile = sampleDir + File.separator + REFERENCE_FILENAME;
+        String typeDir = File.separator + "pass" + File.separator + NanoOKOptions.getTypeFromInt(NanoOKOptions.TYPE_2D);
+        String sampleName = new File(sampleDir).getName();
+
+        System.out.println("Generating synthetic sample in " + sampleDir);
+        System.out.println("    Reads: " + numberOfReads);
+        System.out.println("    Mean read length: " + meanReadLength);
+        System.out.println("    Error rate: " + errorRate);
+
+        writeReference(referenceFile);
+
+        for (int i=0; i<numberOfReads; i++) {
+            String batchDir = File.separator + "batch_" + (i / READS_PER_BATCH);
+            String fastaDir = makeDir(sampleDir + File.separator + "fasta" + typeDir + batchDir);
+            String fastqDir = makeDir(sampleDir + File.separator + "fastq" + typeDir + batchDir);
+            String lastDir = makeDir(sampleDir + File.separator + "last" + typeDir + batchDir);
+            String bwaDir = makeDir(sampleDir + File.separator + "bwa" + typeDir + batchDir);
+            String leafName = sampleName + "_ch" + (1 + (i % 512)) + "_read" + i + "_strand.fast5_BaseCalled_2D";
+            SimulatedRead r = simulateRead();
+
+            writeFasta(r, fastaDir + File.separator + leafName + ".fasta");
+            writeFastq(r, fastqDir + File.separator + leafName + ".fastq");
+            writeMaf(r, lastDir + File.separator + leafName + ".fasta.maf");
+            writeSam(r, bwaDir + File.separator + leafName + ".fasta.sam");
+        }
+
+        return referenceFile;
+    }
+
+    public String getContigSequence(int c) {
+        return contigSeqs[c];
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+}
@@ -8,7 +8,6 @@
 package nanook;
 
 import java.io.File;
-import java.util.LinkedList;
 
 /**
  * Enable multi-threading of system commands
@@ -34,29 +33,27 @@ public class SystemCommandRunnable implements Runnable {
         outFile = out;
     }
             
-    private void runCommandLSF(String command, String outPath, String log) {
-        // outPath only non-null if aligner will only write to screen (yes, BWA, I'm talking about you)
-        if (outPath != null) {
-             command = command + " > " + outPath;    
-        }        
-        
-        // Make the LSF command
-        String lsfCommand = "bsub -n " + options.getNumberOfThreads() + " -q " + options.getQueue() + " -oo " + log + " -R \"rusage[mem=8000] span[hosts=1]\" \"" + command + "\"";
-        System.out.println(command);
-        //pl = new ProcessLogger();
-        //response = pl.getCommandOutput(lsfCommand, true, true);                
-    }
-    
-    private void runCommandLocal(String command, String outPath) {
-        ProcessLogger pl = new ProcessLogger();
+    /**
+     * Get number of threads a command will use, from its -t option (or -P for
+     * lastal). Aligners are single threaded unless told otherwise.
+     * @param command command line
+     * @return number of threads
+     */
+    static int getCommandThreads(String command) {
+        String[] tokens = command.trim().split("\\s+");
+        String threadsOption = tokens[0].endsWith("lastal") ? "-P" : "-t";
         
-        // outPath only non-null if aligner will only write to screen (yes, BWA, I'm talking about you)
-        if (outPath != null) {
-            pl.setWriteFormat(false, true, false);
-            pl.runAndLogCommand(command, outPath, false);
-        } else {
-            pl.runCommand(command);
+        for (int i=1; i<tokens.length - 1; i++) {
+            if (tokens[i].equals(threadsOption)) {
+                try {
+                    return Math.max(1, Integer.parseInt(tokens[i+1]));
+                } catch (NumberFormatException e) {
+                    return 1;
+                }
+            }
         }
+        
+        return 1;
     }
     
     /**
@@ -66,21 +63,16 @@ public class SystemCommandRunnable implements Runnable {
      * @param log 
      */
     private void runCommand(String command, String outPath, String log) {        
-        switch(options.getScheduler()) {
-            case "screen":
-                System.out.println(command);
-                break;
-            case "lsf":
-                runCommandLSF(command, outPath, log);
-                break;
-            case "system":
-                runCommandLocal(command, outPath);
-                break;
-            default:
-                System.out.println("Error: scheduler " + options.getScheduler() + " not recognised.");
-                System.exit(1);
-                break;
-        }
+        SchedulerJob job = new SchedulerJob(new File(log).getName(), command);
+        long startTime = options.getStageTimer().start();
+
+        // outPath only non-null if aligner will only write to screen (yes, BWA, I'm talking about you)
+        job.setOutputFile(outPath);
+        job.setLogFile(log);
+        job.setThreads(getCommandThreads(command));
+        options.getJobScheduler().run(job);
+        
+        options.getStageTimer().stop(StageTimer.STAGE_ALIGNER, startTime);
     }
         
     public void run() {
@@ -0,0 +1,234 @@
+/*
+ * Program: NanoOK
+ * Author:  Richard M. Leggett (richard.leggett@earlham.ac.uk)
+ *
+ * Copyright 2015-17 Earlham Institute
+ */
+
+package nanook;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * End-to-end throughput benchmark. Generates a synthetic sample, then runs
+ * analyse (with LAST and BWA alignments) and process against it, reporting
+ * reads/sec, bytes/sec, peak heap and GC time for each.
+ *
+ * @author Richard Leggett
+ */
+public class ThroughputBenchmark {
+    private NanoOKOptions options;
+    private ArrayList<String> results = new ArrayList<String>();
+    private long phaseStartTime;
+    private long phaseStartGCTime;
+    private long phaseStartGCCount;
+
+    /**
+     * Constructor
+     * @param o NanoOKOptions object
+     */
+    public ThroughputBenchmark(NanoOKOptions o) {
+        options = o;
+    }
+
+    /**
+     * Get total size and count of files with a given extension below a directory
+     * @return array of {number of files, total bytes}
+     */
+    private long[] getFileSizes(File dir, String extension, long[] totals) {
+        File[] listOfFiles = dir.listFiles();
+
+        if (listOfFiles != null) {
+            for (File file : listOfFiles) {
+                if (file.isDirectory()) {
+                    getFileSizes(file, extension, totals);
+                } else if (file.getName().endsWith(extension)) {
+                    totals[0]++;
+                    totals[1] += file.length();
+                }
+            }
+        }
+
+        return totals;
+    }
+
+    /**
+     * Get time most recent file below a directory was modified
+     */
+    private long getLatestModified(File dir, long latest) {
+        File[] listOfFiles = dir.listFiles();
+
+        if (listOfFiles != null) {
+            for (File file : listOfFiles) {
+                if (file.isDirectory()) {
+                    latest = getLatestModified(file, latest);
+                } else if (file.lastModified() > latest) {
+                    latest = file.lastModified();
+                }
+            }
+        }
+
+        return latest;
+    }
+
+    private long getGCTime() {
+        long t = 0;
+        List<GarbageCollectorMXBean> gcs = ManagementFactory.getGarbageCollectorMXBeans();
+
+        for (int i=0; i<gcs.size(); i++) {
+            t += Math.max(0, gcs.get(i).getCollectionTime());
+        }
+
+        return t;
+    }
+
+    private long getGCCount() {
+        long c = 0;
+        List<GarbageCollectorMXBean> gcs = ManagementFactory.getGarbageCollectorMXBeans();
+
+        for (int i=0; i<gcs.size(); i++) {
+            c += Math.max(0, gcs.get(i).getCollectionCount());
+        }
+
+        return c;
+    }
+
+    /**
+     * Get peak heap use since last reset. Summed over pools, so an upper bound.
+     */
+    private long getPeakHeap() {
+        long peak = 0;
+        List<MemoryPoolMXBean> pools = ManagementFactory.getMemoryPoolMXBeans();
+
+        for (int i=0; i<pools.size(); i++) {
+            if (pools.get(i).getType() == MemoryType.HEAP) {
+                peak += pools.get(i).getPeakUsage().getUsed();
+            }
+        }
+
+        return peak;
+    }
+
+    private void startPhase(String name) {
+        List<MemoryPoolMXBean> pools = ManagementFactory.getMemoryPoolMXBeans();
+
+        System.out.println("");
+        System.out.println("Benchmarking " + name);
+        System.out.println("");
+
+        System.gc();
+        for (int i=0; i<pools.size(); i++) {
+            if (pools.get(i).getType() == MemoryType.HEAP) {
+                pools.get(i).resetPeakUsage();
+            }
+        }
+
+        phaseStartGCTime = getGCTime();
+        phaseStartGCCount = getGCCount();
+        phaseStartTime = System.currentTimeMillis();
+    }
+
+    private void endPhase(String name, long endTime, long reads, long bytes) {
+        double secs = Math.max(endTime - phaseStartTime, 1) / 1000.0;
+        long mb = 1024 * 1024;
+
+        results.add(String.format("%-24s %10d %10.2f %12.1f %12.2f %14d %10d %10d",
+                                  name,
+                                  reads,
+                                  secs,
+                                  reads / secs,
+                                  (bytes / secs) / mb,
+                                  getPeakHeap() / mb,
+                                  getGCTime() - phaseStartGCTime,
+                                  getGCCount() - phaseStartGCCount));
+    }
+
+    /**
+     * Run analyse with a given aligner's precomputed alignments
+     */
+    private void benchmarkAnalyse(String aligner, String extension) throws InterruptedException {
+        String name = "analyse (" + aligner + ")";
+
+        options.setAligner(aligner);
+        options.setReferences(new References(options));
+        options.checkAnalysisDirectoryStructure();
+
+        long[] reads = getFileSizes(new File(options.getReadDir()), ".fasta", new long[2]);
+        long[] alignments = getFileSizes(new File(options.getAlignerDir()), extension, new long[2]);
+
+        startPhase(name);
+        NanoOK.analyse(options);
+        endPhase(name, System.currentTimeMillis(), reads[0], reads[1] + alignments[1]);
+    }
+
+    /**
+     * Run process (parse stage) over LAST alignments
+     */
+    private void benchmarkProcess() throws InterruptedException {
+        String name = "process (parse)";
+
+        options.setAligner("last");
+        options.setReferences(new References(options));
+
+        long[] reads = getFileSizes(new File(options.getReadDir()), ".fasta", new long[2]);
+        long[] alignments = getFileSizes(new File(options.getAlignerDir()), ".maf", new long[2]);
+
+        startPhase(name);
+        NanoOK.process(options);
+
+        // Process waits for new files until a timeout, so measure to last output written
+        endPhase(name, getLatestModified(new File(options.getParserDir()), phaseStartTime), reads[0], reads[1] + alignments[1]);
+    }
+
+    /**
+     * Generate sample, run benchmarks and write results
+     */
+    public void run() throws InterruptedException {
+        String resultsFilename = options.getLogsDir() + File.separator + "bench.txt";
+        long generateStart = System.currentTimeMillis();
+        SyntheticSampleGenerator generator = new SyntheticSampleGenerator(options, 1);
+
+        options.setReferenceFile(generator.writeSample(options.getBenchmarkReads()));
+        System.out.println("Generated " + (generator.getBytesWritten() / (1024 * 1024)) + " Mb in " + ((System.currentTimeMillis() - generateStart) / 1000.0) + "s");
+
+        benchmarkAnalyse("last", ".maf");
+        benchmarkAnalyse("bwa", ".sam");
+        benchmarkProcess();
+
+        try {
+            PrintWriter pw = new PrintWriter(new FileWriter(resultsFilename));
+            String header = String.format("%-24s %10s %10s %12s %12s %14s %10s %10s", "Phase", "Reads", "Time(s)", "Reads/s", "Mb/s", "PeakHeap(Mb)", "GC(ms)", "GCs");
+
+            pw.println("Threads: " + options.getNumberOfThreads());
+            pw.println("Mean read length: " + options.getBenchmarkReadLength());
+            pw.println("Error rate: " + options.getBenchmarkErrorRate());
+            pw.println("Max heap (Mb): " + (Runtime.getRuntime().maxMemory() / (1024 * 1024)));
+            pw.println("");
+            pw.println(header);
+
+            System.out.println("");
+            System.out.println(header);
+            for (int i=0; i<results.size(); i++) {
+                pw.println(results.get(i));
+                System.out.println(results.get(i));
+            }
+
+            pw.close();
+        } catch (Exception e) {
+            System.out.println("Error writing benchmark results "+resultsFilename);
+            e.printStackTrace();
+            System.exit(1);
+        }
+
+        System.out.println("");
+        System.out.println("Results written to " + resultsFilename);
+    }
+}